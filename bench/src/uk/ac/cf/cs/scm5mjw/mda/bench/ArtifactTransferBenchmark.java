@@ -0,0 +1,64 @@
+/*   Matthew Williams (0515328)   */
+
+package uk.ac.cf.cs.scm5mjw.mda.bench;
+
+import uk.ac.cf.cs.scm5mjw.mda.devices.*;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+  * Measures ArtifactContainer.transferFrom (working out which artifacts should
+  * be transferred from one container to another) for containers of different
+  * sizes. <br>
+  * <br>
+  * The source container holds an artifact for every resource. Of these, the
+  * target container holds a newer artifact for a third of the resources (which
+  * are not transferred), an older artifact for a third (which are), and no
+  * artifact for the rest (which are).
+  */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class ArtifactTransferBenchmark
+{
+    /* Parameters */
+    @Param( { "1", "10", "100", "1000" } )
+    public int containerSize;
+
+
+    /* Instance variables */
+    private ArtifactContainer source;
+    private ArtifactContainer target;
+
+
+
+
+    @Setup
+    public void setUp()
+    {
+        source = new ArtifactContainer();
+        target = new ArtifactContainer();
+
+        for( int rid=1; rid <= containerSize; rid++ )
+        {
+            source.add( new Artifact( rid, 10.0 ) );
+
+            if( rid % 3 == 0 )
+                target.add( new Artifact( rid, 5.0 ) );
+            else if( rid % 3 == 1 )
+                target.add( new Artifact( rid, 20.0 ) );
+        }
+    }
+
+
+    @Benchmark
+    public int transferFrom()
+    {
+        return target.transferFrom( source ).size();
+    }
+}
@@ -0,0 +1,134 @@
+/*   Matthew Williams (0515328)   */
+
+package uk.ac.cf.cs.scm5mjw.mda.bench;
+
+import uk.ac.cf.cs.scm5mjw.mda.*;
+import uk.ac.cf.cs.scm5mjw.mda.mobility.*;
+import uk.ac.cf.cs.scm5mjw.mda.devices.*;
+import uk.ac.cf.cs.scm5mjw.mda.io.*;
+
+import java.io.*;
+import java.util.Locale;
+
+/**
+  * Helpers shared by the benchmarks, for loading the example scenario and
+  * generating inputs. <br>
+  * <br>
+  * The input files are looked for in the directory given by the "mda.input"
+  * system property, which is "input/" (relative to the working directory) by
+  * default. The benchmark build runs JMH from the root of the project, so the
+  * default finds the project's input directory.
+  */
+final class BenchmarkInputs
+{
+    /* Constants */
+    static final String MAP_FILE = "queens_map.dat";
+    static final String INFORMATION_SOURCE_FILE = "queens_IS_3.dat";
+    static final String BEACON_FILE = "queens_beacs_1.dat";
+
+    static final long SEED = 1;
+
+
+
+
+    /* CONSTRUCTORS */
+
+    private BenchmarkInputs() {}
+
+
+
+
+    /* INPUT FILES */
+
+    /**
+      * Returns the input file with the given name.
+      */
+    static File inputFile( String name )
+    {
+        return new File( System.getProperty( "mda.input", "input/" ), name );
+    }
+
+
+    /**
+      * Returns a simulator for the example scenario (the Queens Buildings map,
+      * with its three information sources and one beacon) with the given number
+      * of mobile objects, seeded with SEED.
+      */
+    static Simulator createSimulator( int numMobjs ) throws FileNotFoundException
+    {
+        MobilityMap map = Parser.parseMap( inputFile( MAP_FILE ) );
+
+        Simulator sim = new Simulator( map );
+        sim.setSeed( SEED );
+        sim.setInformationSources( Parser.parseInformationSourceList( inputFile( INFORMATION_SOURCE_FILE ) ) );
+        sim.setBeacons( Parser.parseBeaconList( inputFile( BEACON_FILE ) ) );
+        sim.generateRandomMobileObjects( numMobjs );
+        sim.setCommunicationController( new StandardCommController() );
+
+        return sim;
+    }
+
+
+
+
+    /* GENERATED INPUTS */
+
+    /**
+      * Writes a map of the given number of nodes (in the dense format read by
+      * Parser.parseMap) to the given file. <br>
+      * The nodes are placed around a circle, and each is linked to the nodes
+      * either side of it with a weight of 0.5 (so that the weights from each
+      * node sum to exactly 1).
+      */
+    static void writeRingMap( int numNodes, File outFile ) throws FileNotFoundException
+    {
+        if( numNodes < 3 )
+            throw new IllegalArgumentException( "A ring map must have at least 3 nodes" );
+
+        PrintWriter out = new PrintWriter( new BufferedWriter( new OutputStreamWriter( new FileOutputStream( outFile ) ) ) );
+        double radius = numNodes;               // (keeps neighbouring nodes about 6 units apart)
+
+        out.print( numNodes + "\n\n" );
+
+        for( int i=0; i < numNodes; i++ )
+        {
+            double angle = 2 * Math.PI * i / numNodes;
+            out.print( String.format( Locale.ROOT, "( %f, %f )\n", radius + radius*Math.cos( angle ), radius + radius*Math.sin( angle ) ) );
+        }
+        out.print( "\n" );
+
+        for( int row=0; row < numNodes; row++ )
+        {
+            StringBuilder line = new StringBuilder( numNodes * 9 );
+            for( int col=0; col < numNodes; col++ )
+            {
+                boolean linked = ( col == (row+1) % numNodes ) || ( col == (row+numNodes-1) % numNodes );
+
+                if( col > 0 )
+                    line.append( '\t' );
+                line.append( linked ? "0.500000" : "0.000000" );
+            }
+            out.print( line.append( '\n' ) );
+        }
+
+        out.close();
+        if( out.checkError() )
+            throw new DataOutputException( "Could not write map file " + outFile );
+    }
+
+
+    /**
+      * Deletes the given file or directory (including everything in it).
+      */
+    static void delete( File f )
+    {
+        File[] contents = f.listFiles();
+        if( contents != null )
+        {
+            for( File c : contents )
+                delete( c );
+        }
+
+        f.delete();
+    }
+}
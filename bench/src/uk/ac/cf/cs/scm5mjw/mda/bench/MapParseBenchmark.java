@@ -0,0 +1,73 @@
+/*   Matthew Williams (0515328)   */
+
+package uk.ac.cf.cs.scm5mjw.mda.bench;
+
+import uk.ac.cf.cs.scm5mjw.mda.mobility.*;
+import uk.ac.cf.cs.scm5mjw.mda.io.*;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+  * Measures parsing generated maps of different sizes, both in the dense
+  * (adjacency matrix) format read by Parser.parseMap and in the sparse format
+  * read by Parser.parseSparseMap. <br>
+  * <br>
+  * The maps are rings (see BenchmarkInputs.writeRingMap), written to temporary
+  * files before the benchmark is run. A dense map file grows with the square of
+  * the number of nodes (about 9 MB for 1000 nodes).
+  */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class MapParseBenchmark
+{
+    /* Parameters */
+    @Param( { "100", "300", "1000" } )
+    public int numNodes;
+
+
+    /* Instance variables */
+    private File denseFile;
+    private File sparseFile;
+
+
+
+
+    @Setup
+    public void setUp() throws IOException
+    {
+        denseFile = File.createTempFile( "ring_map_" + numNodes + "_", ".dat" );
+        sparseFile = File.createTempFile( "ring_map_sparse_" + numNodes + "_", ".dat" );
+
+        BenchmarkInputs.writeRingMap( numNodes, denseFile );
+        MapWriter.convertToSparseMap( denseFile, sparseFile );
+    }
+
+
+    @TearDown
+    public void tearDown()
+    {
+        BenchmarkInputs.delete( denseFile );
+        BenchmarkInputs.delete( sparseFile );
+    }
+
+
+    @Benchmark
+    public MobilityMap parseMap() throws FileNotFoundException
+    {
+        return Parser.parseMap( denseFile );
+    }
+
+
+    @Benchmark
+    public MobilityMap parseSparseMap() throws FileNotFoundException
+    {
+        return Parser.parseSparseMap( sparseFile );
+    }
+}
@@ -0,0 +1,76 @@
+/*   Matthew Williams (0515328)   */
+
+package uk.ac.cf.cs.scm5mjw.mda.bench;
+
+import uk.ac.cf.cs.scm5mjw.mda.mobility.*;
+import uk.ac.cf.cs.scm5mjw.mda.devices.*;
+import uk.ac.cf.cs.scm5mjw.mda.io.*;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.FileNotFoundException;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+  * Measures MobileObject.advanceMobility on the Queens Buildings map, for one
+  * timestep (of the default length) at a time. <br>
+  * <br>
+  * Each invocation advances a population of mobile objects (spread over the
+  * map at random), so the score is the time to advance ONE mobile object. The
+  * mobile objects either use the map's LinkSampler (as they do in a
+  * Simulator) or choose links by searching the map nodes directly.
+  */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class MobilityBenchmark
+{
+    /* Constants */
+    static final int NUM_MOBJS = 100;
+    static final double TIMESTEP_LENGTH = 0.1;
+
+
+    /* Parameters */
+    @Param( { "true", "false" } )
+    public boolean useLinkSampler;
+
+
+    /* Instance variables */
+    private MobileObject[] mobjs;
+
+
+
+
+    @Setup
+    public void setUp() throws FileNotFoundException
+    {
+        MobilityMap map = Parser.parseMap( BenchmarkInputs.inputFile( BenchmarkInputs.MAP_FILE ) );
+        SplittableRandom random = new SplittableRandom( BenchmarkInputs.SEED );
+
+        mobjs = new MobileObject[ NUM_MOBJS ];
+        for( int i=0; i < mobjs.length; i++ )
+        {
+            mobjs[i] = new MobileObject( map.getNodeAt( random.nextInt( map.getNumberOfNodes() ) ), random.split() );
+            if( useLinkSampler )
+                mobjs[i].setLinkSampler( map.getLinkSampler() );
+        }
+    }
+
+
+    @Benchmark
+    @OperationsPerInvocation( NUM_MOBJS )
+    public double advanceMobility()
+    {
+        double sum = 0;
+        for( MobileObject mo : mobjs )
+        {
+            mo.advanceMobility( TIMESTEP_LENGTH );
+            sum += mo.getLocation().x;
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,60 @@
+/*   Matthew Williams (0515328)   */
+
+package uk.ac.cf.cs.scm5mjw.mda.bench;
+
+import uk.ac.cf.cs.scm5mjw.mda.*;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.FileNotFoundException;
+import java.util.concurrent.TimeUnit;
+
+/**
+  * Measures one timestep of Simulator.run (moving every mobile object, then
+  * pairing up devices and exchanging artifacts) for the example scenario with
+  * different numbers of mobile objects. <br>
+  * <br>
+  * Before it is measured, each simulation is run for WARM_IN_TIME of simulated
+  * time so that artifacts have spread between the devices. Each invocation is
+  * then a call to run(0), which runs exactly one timestep. (This includes the
+  * small amount of work run() does at the start of every run, such as indexing
+  * the beacons and information sources.) No listeners are registered.
+  */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class TimestepBenchmark
+{
+    /* Constants */
+    static final double WARM_IN_TIME = 10;
+
+
+    /* Parameters */
+    @Param( { "10", "100", "1000", "10000" } )
+    public int numMobileObjects;
+
+
+    /* Instance variables */
+    private Simulator sim;
+
+
+
+
+    @Setup
+    public void setUp() throws FileNotFoundException
+    {
+        sim = BenchmarkInputs.createSimulator( numMobileObjects );
+        sim.run( WARM_IN_TIME );
+    }
+
+
+    @Benchmark
+    public int timestep()
+    {
+        sim.run( 0 );
+        return sim.getIteration();
+    }
+}
@@ -0,0 +1,131 @@
+/*   Matthew Williams (0515328)   */
+
+package uk.ac.cf.cs.scm5mjw.mda.bench;
+
+import uk.ac.cf.cs.scm5mjw.mda.*;
+import uk.ac.cf.cs.scm5mjw.mda.devices.*;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+  * Measures how quickly an XMLMonitor writes out successful communications,
+  * in CSV form or as extended XML. <br>
+  * <br>
+  * A fixed set of communications between the devices of the example scenario
+  * (each transferring one to three artifacts in each direction) is made up
+  * beforehand, as snapshots, and each invocation passes all of them to the
+  * monitor. So the score is the time to write ONE communication. <br>
+  * <br>
+  * Each iteration writes to a new file in a temporary directory, which is
+  * deleted at the end of the iteration (the files can grow to a few hundred
+  * MB).
+  */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class XMLMonitorBenchmark
+{
+    /* Constants */
+    static final int NUM_MOBJS = 20;
+    static final int NUM_EVENTS = 1000;
+    static final int MAX_ARTIFACTS = 3;
+
+
+    /* Parameters */
+    @Param( { "false", "true" } )
+    public boolean extendedXML;
+
+
+    /* Instance variables */
+    private Simulator sim;
+    private CommunicationEvent[] events;
+
+    private File outDir;
+    private XMLMonitor monitor;
+
+
+
+
+    @Setup( Level.Trial )
+    public void setUpEvents() throws FileNotFoundException
+    {
+        sim = BenchmarkInputs.createSimulator( NUM_MOBJS );
+
+        Vector<AbstractWirelessDevice> devices = new Vector<AbstractWirelessDevice>();
+        devices.addAll( sim.getInformationSources() );
+        devices.addAll( sim.getBeacons() );
+        devices.addAll( sim.getMobileObjects() );
+
+        SplittableRandom random = new SplittableRandom( BenchmarkInputs.SEED );
+        events = new CommunicationEvent[ NUM_EVENTS ];
+        for( int i=0; i < events.length; i++ )
+        {
+            AbstractWirelessDevice device1 = sim.getMobileObjects().get( random.nextInt( NUM_MOBJS ) );
+            AbstractWirelessDevice device2 = device1;
+            while( device2 == device1 )
+                device2 = devices.get( random.nextInt( devices.size() ) );
+
+            CommunicationEvent evt = new CommunicationEvent( device1, randomArtifacts( random ), device2, randomArtifacts( random ) );
+            events[i] = evt.snapshot( i * sim.getTimestepLength(), i );
+        }
+    }
+
+
+    @Setup( Level.Iteration )
+    public void setUpMonitor() throws IOException
+    {
+        outDir = Files.createTempDirectory( "xmlmonitor_bench" ).toFile();
+
+        monitor = new XMLMonitor( new File( outDir, "out.xml" ) );
+        monitor.setExtendedXML( extendedXML );
+        monitor.simulationStarted( new SimulationEvent( sim, 0 ) );
+    }
+
+
+    @TearDown( Level.Iteration )
+    public void tearDownMonitor()
+    {
+        monitor.simulationFinished( new SimulationEvent( sim, 0 ) );
+        monitor = null;
+
+        BenchmarkInputs.delete( outDir );
+    }
+
+
+    @Benchmark
+    @OperationsPerInvocation( NUM_EVENTS )
+    public void writeTransfers()
+    {
+        for( CommunicationEvent evt : events )
+            monitor.communicationTransmissionSucceeded( evt );
+    }
+
+
+
+
+    /* HELPER METHODS */
+
+    /**
+      * Returns a list of one to MAX_ARTIFACTS artifacts (for different
+      * resources, in order of resource ID).
+      */
+    private List<Artifact> randomArtifacts( SplittableRandom random )
+    {
+        int numResources = sim.getInformationSources().size();
+        List<Artifact> arts = new ArrayList<Artifact>();
+
+        int count = 1 + random.nextInt( Math.min( MAX_ARTIFACTS, numResources ) );
+        for( int rid=1; rid <= numResources && arts.size() < count; rid++ )
+            arts.add( new Artifact( rid, random.nextInt( 6000 ) * 0.1 ) );
+
+        return arts;
+    }
+}
@@ -100,7 +100,7 @@ public class Demo1
         
         // Set the CommunicationController
         StandardCommController stdCC = new StandardCommController();
-        AbstractWirelessDevice.setCommunicationController( stdCC );
+        sim.setCommunicationController( stdCC );
         
         
         
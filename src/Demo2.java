@@ -112,7 +112,7 @@ public class Demo2
         
         // Set the CommunicationController
         StandardCommController stdCC = new StandardCommController();
-        AbstractWirelessDevice.setCommunicationController( stdCC );
+        sim.setCommunicationController( stdCC );
         
         
         
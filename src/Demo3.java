@@ -103,7 +103,7 @@ public class Demo3
         
         // Set the CommunicationController
         StandardCommController stdCC = new StandardCommController();
-        AbstractWirelessDevice.setCommunicationController( stdCC );
+        sim.setCommunicationController( stdCC );
         
         
         
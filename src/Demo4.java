@@ -32,9 +32,12 @@ public class Demo4
     public static double TIMESTEP_LENGTH = 0.1;
     
     public static int EXPERIMENT_REPEAT_NUM = 100;                         //!
+    public static long MASTER_SEED = 1;         // The seed for each repeat is derived from this
     
     public static String INPUT_PATH = "./input/";
     public static String OUTPUT_PATH = "./output/";
+    public static String CACHE_PATH = "./input/compiled/";   // Where compiled scenarios are kept
+    public static boolean WRITE_TRANSFERS = true;   // Whether the transfers are written to XML (the metrics summary is always made)
     
     
     
@@ -69,63 +72,121 @@ public class Demo4
      * There is also some minimal output to the console. This just indicates
      * the start and finish of each simulation run.
      * 
+     * The main metrics (transfers by device type, ages of delivered artifacts
+     * and the time until each type of device holds each resource) are also
+     * gathered in memory as each repeat runs. The summaries of the repeats
+     * are merged and printed once they have all finished. If only these
+     * metrics are needed, WRITE_TRANSFERS can be turned off so that no XML
+     * is written at all.
+     * 
      * There is no visualisation (including visualisation would slow down the
      * experiments).
      * 
+     * The repeats are run concurrently, one per available processor, so the
+     * console output of different runs may be interleaved.
+     * 
+     * Each repeat is seeded from MASTER_SEED, so an experiment (and each of
+     * its repeats) can be reproduced exactly.
+     * 
+     * The input files are loaded once, through a scenario cache: the first
+     * time they are used they are compiled into a binary scenario file (in
+     * CACHE_PATH), which is loaded instead on later runs until they change.
+     * Each repeat creates its own devices from the scenario.
+     * 
      * This method uses the following external (static) parameters:
      * * TIMESTEP_LENGTH
      * * SIMULATION_DURATION
+     * * MASTER_SEED
+     * * CACHE_PATH
+     * * WRITE_TRANSFERS
      */
-    public static void runExperiment( String expName, int repeat, String mapPrefix, String isPrefix, String beacPrefix, int numMobjs ) throws FileNotFoundException
+    public static void runExperiment( final String expName, int repeat, String mapPrefix, final String isPrefix, final String beacPrefix, final int numMobjs ) throws FileNotFoundException
     {
-        MobilityMap map = Parser.parseMap( INPUT_PATH + mapPrefix + ".dat" );
+        ScenarioCache cache = new ScenarioCache( CACHE_PATH );
+        final Scenario scenario = cache.load( INPUT_PATH + mapPrefix + ".dat",
+                                              INPUT_PATH + isPrefix + ".dat",
+                                              INPUT_PATH + beacPrefix + ".dat",
+                                              null );
+        final MobilityMap map = scenario.getMap();
+        final long[] seeds = SimulatorRandom.replicateSeeds( MASTER_SEED, repeat );
+        final MetricsSummary[] summaries = new MetricsSummary[ repeat ];
         
-        StandardCommController stdCC = new StandardCommController();
-        AbstractWirelessDevice.setCommunicationController( stdCC );
         
-
-        for( int i=0; i < repeat; i++ )
+        // Each repeat has its own simulator (and so its own communication
+        // controller and device IDs), so the repeats can run at the same time
+        ExperimentRunner runner = new ExperimentRunner();
+        
+        runner.run( repeat, new ReplicateTask()
         {
-            /* Set up components of simulation */
-            AbstractWirelessDevice.resetNextDeviceID();
-            
-            Vector<InformationSource> infoSrcCollection = Parser.parseInformationSourceList( INPUT_PATH + isPrefix + ".dat" );
-            Vector<Beacon> beacCollection = Parser.parseBeaconList( INPUT_PATH + beacPrefix + ".dat" );
-            
-            Simulator sim = new Simulator( map );
-            sim.setTimestepLength( TIMESTEP_LENGTH );
-            sim.setBeacons( beacCollection );
-            sim.setInformationSources( infoSrcCollection );
-            sim.generateRandomMobileObjects( numMobjs );
-            
-            /* Set up output */
-            String outputFileStr = OUTPUT_PATH + expName + "_" + (i+1) + ".xml";
-            File outputFile = new File( outputFileStr );
-            
-            // Create a XML monitor (outputs data to XML) and register it
-            XMLMonitor xmlMon = new XMLMonitor( outputFile );
-            sim.addSimulationListener( xmlMon ); 
-            stdCC.addCommunicationListener( xmlMon );
-            
-            // Create a print stream monitor (to output to console) and register it
-            PrintStreamMonitor conMon = new PrintStreamMonitor( System.out );
-            conMon.setOutputIterations( false );
-            conMon.setOutputCommunications( false );
-            
-            sim.addSimulationListener( conMon );
-            stdCC.addCommunicationListener( conMon );
-            
-            
-            /* Run the simulation */
-            sim.run( SIMULATION_DURATION );
-            
-            
-            /* ~ Unregister listeners (for efficiency) ~ */
-            sim.removeSimulationListener( conMon );
-            stdCC.removeCommunicationListener( conMon );
-            
-            sim.removeSimulationListener( xmlMon );
-            stdCC.removeCommunicationListener( xmlMon );
-        }
+            public void runReplicate( int i ) throws FileNotFoundException
+            {
+                /* Set up components of simulation */
+                Vector<InformationSource> infoSrcCollection = scenario.createInformationSources();
+                Vector<Beacon> beacCollection = scenario.createBeacons();
+                
+                Simulator sim = new Simulator( map );
+                sim.setTimestepLength( TIMESTEP_LENGTH );
+                sim.setSeed( seeds[i] );
+                sim.setInformationSources( infoSrcCollection );
+                sim.setBeacons( beacCollection );
+                sim.generateRandomMobileObjects( numMobjs );
+                
+                StandardCommController stdCC = new StandardCommController();
+                sim.setCommunicationController( stdCC );
+                
+                /* Set up output */
+                String outputFileStr = OUTPUT_PATH + expName + "_" + (i+1) + ".xml";
+                File outputFile = new File( outputFileStr );
+                
+                // The monitors are called on a separate thread, so writing the
+                // output does not hold up the simulation
+                AsyncEventDispatcher dispatcher = new AsyncEventDispatcher();
+                sim.addSimulationListener( dispatcher );
+                stdCC.addCommunicationListener( dispatcher );
+                
+                // Create a XML monitor (outputs data to XML) and register it
+                if( WRITE_TRANSFERS )
+                {
+                    XMLMonitor xmlMon = new XMLMonitor( outputFile );
+                    dispatcher.addSimulationListener( xmlMon ); 
+                    dispatcher.addCommunicationListener( xmlMon );
+                }
+                
+                // Create a metrics monitor (summarises the run in memory) and register it
+                MetricsMonitor metricsMon = new MetricsMonitor();
+                dispatcher.addSimulationListener( metricsMon );
+                dispatcher.addCommunicationListener( metricsMon );
+                
+                // Create a print stream monitor (to output to console) and register it
+                PrintStreamMonitor conMon = new PrintStreamMonitor( System.out );
+                conMon.setOutputIterations( false );
+                conMon.setOutputCommunications( false );
+                
+                dispatcher.addSimulationListener( conMon );
+                dispatcher.addCommunicationListener( conMon );
+                
+                
+                /* Run the simulation */
+                try
+                {
+                    sim.run( SIMULATION_DURATION );
+                }
+                finally
+                {
+                    dispatcher.close();
+                }
+                
+                summaries[i] = metricsMon.getSummary();
+            }
+        } );
+        
+        
+        /* Merge the metrics of the repeats (in order, so the result is the same every time) */
+        MetricsSummary total = new MetricsSummary();
+        for( MetricsSummary summary : summaries )
+            total.add( summary );
+        
+        System.out.println( expName + " metrics:" );
+        System.out.println( total );
     }
 }
\ No newline at end of file
@@ -0,0 +1,132 @@
+/*   Matthew Williams (0515328)   */
+
+import uk.ac.cf.cs.scm5mjw.mda.*;
+import uk.ac.cf.cs.scm5mjw.mda.mobility.*;
+import uk.ac.cf.cs.scm5mjw.mda.devices.*;
+import uk.ac.cf.cs.scm5mjw.mda.io.*;
+
+import java.util.*;
+
+
+
+/*
+ * A check that the discrete event engine pairs devices up in the same way as
+ * a stepped simulation.
+ *
+ * The example scenario is run once with each engine (from the same seed) and
+ * two things are counted:
+ *     The fraction of sessions between two devices whose previous sessions
+ *     were with each other (same-partner sessions)
+ *     The number of artifacts transferred
+ *
+ * If either engine re-pairs devices differently the counts will differ well
+ * beyond what the random variation between the runs explains. The program
+ * exits with status 1 if the counts do not agree within the tolerances below.
+ */
+
+
+
+public class EventEngineTest
+{
+    public static double SIMULATION_DURATION = 60 * 60 *   1;
+    public static double TIMESTEP_LENGTH = 0.01;    // (short, so that the stepped simulation's phase ends are close to exact)
+    public static int NUM_MOBILE_OBJECTS = 20;
+    public static long SEED = 1;
+
+    public static String INPUT_PATH = "./input/";
+
+    public static double SAME_PARTNER_TOLERANCE = 0.02;    // (absolute difference in fractions)
+    public static double TRANSFER_TOLERANCE = 0.05;         // (difference relative to the stepped count)
+
+
+
+
+    public static void main( String[] args ) throws Exception
+    {
+        double[] stepped = runScenario( false );
+        double[] event = runScenario( true );
+
+        System.out.printf( "Stepped: %d sessions, %.1f%% same partner, %d artifacts transferred%n",
+                (long)stepped[0], 100 * stepped[1] / stepped[0], (long)stepped[2] );
+        System.out.printf( "Event:   %d sessions, %.1f%% same partner, %d artifacts transferred%n",
+                (long)event[0], 100 * event[1] / event[0], (long)event[2] );
+
+        boolean passed = true;
+
+        if( Math.abs( stepped[1] / stepped[0] - event[1] / event[0] ) > SAME_PARTNER_TOLERANCE )
+        {
+            System.out.println( "FAILED: the same-partner fractions differ" );
+            passed = false;
+        }
+
+        if( Math.abs( event[2] - stepped[2] ) > TRANSFER_TOLERANCE * stepped[2] )
+        {
+            System.out.println( "FAILED: the transfer counts differ" );
+            passed = false;
+        }
+
+        if( !passed )
+            System.exit( 1 );
+
+        System.out.println( "Passed" );
+    }
+
+
+
+
+    /*
+     * Runs the example scenario with the chosen engine and returns
+     * { sessions, same-partner sessions, artifacts transferred }.
+     */
+    private static double[] runScenario( boolean eventDriven ) throws Exception
+    {
+        MobilityMap map = Parser.parseMap( INPUT_PATH + "queens_map.dat" );
+        Vector<InformationSource> infoSources = Parser.parseInformationSourceList( INPUT_PATH + "queens_IS_3.dat" );
+        Vector<Beacon> beacons = Parser.parseBeaconList( INPUT_PATH + "queens_beacs_1.dat" );
+
+        StandardCommController cc = new StandardCommController();
+
+        Simulator sim = new Simulator( map );
+        sim.setTimestepLength( TIMESTEP_LENGTH );
+        sim.setEventDriven( eventDriven );
+        sim.setSeed( SEED );
+        sim.setInformationSources( infoSources );
+        sim.setBeacons( beacons );
+        sim.setCommunicationController( cc );
+        sim.generateRandomMobileObjects( NUM_MOBILE_OBJECTS );
+
+        final double[] counts = new double[3];
+        final IdentityHashMap<AbstractWirelessDevice,AbstractWirelessDevice> lastPartners =
+                new IdentityHashMap<AbstractWirelessDevice,AbstractWirelessDevice>();
+
+        cc.addCommunicationListener( new CommunicationListener()
+        {
+            public void communicationInitiated( CommunicationEvent e )
+            {
+                AbstractWirelessDevice dev1 = e.getDevice1();
+                AbstractWirelessDevice dev2 = e.getDevice2();
+
+                counts[0]++;
+                if( lastPartners.get( dev1 ) == dev2 && lastPartners.get( dev2 ) == dev1 )
+                    counts[1]++;
+
+                lastPartners.put( dev1, dev2 );
+                lastPartners.put( dev2, dev1 );
+            }
+
+            public void communicationTransmissionSucceeded( CommunicationEvent e )
+            {
+                counts[2] += e.getArtifactsToDevice1().size() + e.getArtifactsToDevice2().size();
+            }
+
+            public void discoverySucceeded( CommunicationEvent e ) { }
+            public void discoveryFailed( CommunicationEvent e ) { }
+            public void communicationAborted( CommunicationEvent e ) { }
+            public void communicationTransmissionFailed( CommunicationEvent e ) { }
+        } );
+
+        sim.run( SIMULATION_DURATION );
+
+        return counts;
+    }
+}
@@ -24,6 +24,7 @@ public class SimRun
     public static double TIMESTEP_LENGTH = 0.1;
     
     public static int EXPERIMENT_REPEAT_NUM = 100;
+    public static long MASTER_SEED = 1;         // The seed for each repeat is derived from this
     
     public static String INPUT_PATH = "./input/";
     public static String OUTPUT_PATH = "./output/";
@@ -78,61 +79,67 @@ public class SimRun
      * There is no visualisation (including visualisation would slow down the
      * experiments).
      * 
+     * The repeats are run concurrently, one per available processor, so the
+     * console output of different runs may be interleaved.
+     * 
+     * Each repeat is seeded from MASTER_SEED, so an experiment (and each of
+     * its repeats) can be reproduced exactly.
+     * 
      * This method uses the following external (static) parameters:
      * * TIMESTEP_LENGTH
      * * SIMULATION_DURATION
+     * * MASTER_SEED
      */
-    public static void runExperiment( String expName, int repeat, String mapPrefix, String isPrefix, String beacPrefix, int numMobjs ) throws FileNotFoundException
+    public static void runExperiment( final String expName, int repeat, String mapPrefix, final String isPrefix, final String beacPrefix, final int numMobjs ) throws FileNotFoundException
     {
-        MobilityMap map = Parser.parseMap( INPUT_PATH + mapPrefix + ".dat" );
+        final MobilityMap map = Parser.parseMap( INPUT_PATH + mapPrefix + ".dat" );
+        final long[] seeds = SimulatorRandom.replicateSeeds( MASTER_SEED, repeat );
         
-        StandardCommController stdCC = new StandardCommController();
-        AbstractWirelessDevice.setCommunicationController( stdCC );
         
-
-        for( int i=0; i < repeat; i++ )
+        // Each repeat has its own simulator (and so its own communication
+        // controller and device IDs), so the repeats can run at the same time
+        ExperimentRunner runner = new ExperimentRunner();
+        
+        runner.run( repeat, new ReplicateTask()
         {
-            /* Set up components of simulation */
-            AbstractWirelessDevice.resetNextDeviceID();
-            
-            Vector<InformationSource> infoSrcCollection = Parser.parseInformationSourceList( INPUT_PATH + isPrefix + ".dat" );
-            Vector<Beacon> beacCollection = Parser.parseBeaconList( INPUT_PATH + beacPrefix + ".dat" );
-            
-            Simulator sim = new Simulator( map );
-            sim.setTimestepLength( TIMESTEP_LENGTH );
-            sim.setBeacons( beacCollection );
-            sim.setInformationSources( infoSrcCollection );
-            sim.generateRandomMobileObjects( numMobjs );
-            
-            /* Set up output */
-            String outputFileStr = OUTPUT_PATH + expName + "_" + (i+1) + ".xml";
-            File outputFile = new File( outputFileStr );
-            
-            // Create a XML monitor (outputs data to XML) and register it
-            XMLMonitor xmlMon = new XMLMonitor( outputFile );
-            sim.addSimulationListener( xmlMon ); 
-            stdCC.addCommunicationListener( xmlMon );
-            
-            // Create a print stream monitor (to output to console) and register it
-            PrintStreamMonitor conMon = new PrintStreamMonitor( System.out );
-            conMon.setOutputIterations( false );
-            conMon.setOutputCommunications( false );
-            
-            sim.addSimulationListener( conMon );
-            stdCC.addCommunicationListener( conMon );
-            
-            
-            /* Run the simulation */
-            sim.run( SIMULATION_DURATION );
-            
-            
-            /* ~ Unregister listeners (for efficiency) ~ */
-            sim.removeSimulationListener( conMon );
-            stdCC.removeCommunicationListener( conMon );
-            
-            sim.removeSimulationListener( xmlMon );
-            stdCC.removeCommunicationListener( xmlMon );
-        }
+            public void runReplicate( int i ) throws FileNotFoundException
+            {
+                /* Set up components of simulation */
+                Vector<InformationSource> infoSrcCollection = Parser.parseInformationSourceList( INPUT_PATH + isPrefix + ".dat" );
+                Vector<Beacon> beacCollection = Parser.parseBeaconList( INPUT_PATH + beacPrefix + ".dat" );
+                
+                Simulator sim = new Simulator( map );
+                sim.setTimestepLength( TIMESTEP_LENGTH );
+                sim.setSeed( seeds[i] );
+                sim.setInformationSources( infoSrcCollection );
+                sim.setBeacons( beacCollection );
+                sim.generateRandomMobileObjects( numMobjs );
+                
+                StandardCommController stdCC = new StandardCommController();
+                sim.setCommunicationController( stdCC );
+                
+                /* Set up output */
+                String outputFileStr = OUTPUT_PATH + expName + "_" + (i+1) + ".xml";
+                File outputFile = new File( outputFileStr );
+                
+                // Create a XML monitor (outputs data to XML) and register it
+                XMLMonitor xmlMon = new XMLMonitor( outputFile );
+                sim.addSimulationListener( xmlMon ); 
+                stdCC.addCommunicationListener( xmlMon );
+                
+                // Create a print stream monitor (to output to console) and register it
+                PrintStreamMonitor conMon = new PrintStreamMonitor( System.out );
+                conMon.setOutputIterations( false );
+                conMon.setOutputCommunications( false );
+                
+                sim.addSimulationListener( conMon );
+                stdCC.addCommunicationListener( conMon );
+                
+                
+                /* Run the simulation */
+                sim.run( SIMULATION_DURATION );
+            }
+        } );
     }
     
     
@@ -232,7 +239,7 @@ public class SimRun
         
         // Set the CommunicationController
         StandardCommController stdCC = new StandardCommController();
-        AbstractWirelessDevice.setCommunicationController( stdCC );
+        sim.setCommunicationController( stdCC );
         
         
         
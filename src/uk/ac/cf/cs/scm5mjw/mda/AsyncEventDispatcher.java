@@ -0,0 +1,623 @@
+/*   Matthew Williams (0515328)   */
+
+package uk.ac.cf.cs.scm5mjw.mda;
+
+import uk.ac.cf.cs.scm5mjw.mda.devices.*;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+  * This class passes simulation and communication notifications on to other
+  * listeners on separate threads, so that slow listeners (such as an XMLMonitor
+  * writing to a file) do not hold up the simulation. <br>
+  * <br>
+  * The dispatcher is registered on a Simulator and its CommunicationController
+  * in place of the listeners it serves: <br>
+  * <code>
+  * &nbsp;&nbsp;AsyncEventDispatcher dispatcher = new AsyncEventDispatcher();<br>
+  * &nbsp;&nbsp;dispatcher.addSimulationListener( xmlMon );<br>
+  * &nbsp;&nbsp;dispatcher.addCommunicationListener( xmlMon );<br>
+  * &nbsp;&nbsp;sim.addSimulationListener( dispatcher );<br>
+  * &nbsp;&nbsp;commController.addCommunicationListener( dispatcher );
+  * </code><br>
+  * <br>
+  * Each notification is put into a ring buffer of fixed size, which is allocated
+  * when the dispatcher is created. One or more consumer threads take the
+  * notifications from the buffer, and each listener is always called by the same
+  * consumer thread (one listener registered for both kinds of notification is
+  * treated as one listener), so every listener receives its notifications one at
+  * a time and in the order they happened. If the buffer fills up, the
+  * dispatcher's BackpressurePolicy decides whether the simulation waits or the
+  * notification is dropped. <br>
+  * <br>
+  * Because listeners are called after the simulation has moved on, notifications
+  * carry copies of what they describe: <br>
+  *  - communication events are replaced by snapshots (see
+  *    <code>CommunicationEvent.snapshot</code>), recording the devices'
+  *    locations, the artifacts and the simulation time and iteration <br>
+  *  - simulation events record the simulation time and iteration <br>
+  * Listeners should read these from the events rather than from the Simulator. <br>
+  * <br>
+  * The start and end of a simulation are flushes: the Simulator waits until
+  * every listener has handled the start notification before the run begins, and
+  * until every listener has handled every notification (up to and including the
+  * finish notification) before the run returns. So listeners may read the
+  * Simulator as it is when it starts and finishes, and all output is complete
+  * once the run is over. <br>
+  * <br>
+  * Notifications must come from one thread at a time (i.e. the dispatcher should
+  * only be registered on one Simulator, and its controller). If a listener throws
+  * an exception, it is thrown to the simulation at its next notification. <br>
+  * Listeners must be added before the first notification. The consumer threads
+  * are daemon threads, started by the first notification; <code>close</code>
+  * stops them.
+  *
+  * @see BackpressurePolicy
+  */
+public final class AsyncEventDispatcher implements SimulationListener, CommunicationListener
+{
+    /* Constants */
+    public static final int DEFAULT_CAPACITY = 1 << 14;
+
+    // Kinds of notification held in the buffer
+    private static final int SIMULATION_STARTED = 0;
+    private static final int TIMESTEP_ADVANCED = 1;
+    private static final int SIMULATION_FINISHED = 2;
+    private static final int COMMUNICATION_INITIATED = 3;
+    private static final int DISCOVERY_SUCCEEDED = 4;
+    private static final int DISCOVERY_FAILED = 5;
+    private static final int COMMUNICATION_ABORTED = 6;
+    private static final int TRANSMISSION_SUCCEEDED = 7;
+    private static final int TRANSMISSION_FAILED = 8;
+
+    private static final int SPINS_BEFORE_YIELDING = 100;
+    private static final int YIELDS_BEFORE_PARKING = 100;
+    private static final long PARK_NANOS = 50000;
+    private static final int RELEASE_INTERVAL = 64;        // (a power of 2) How often a consumer reports its progress
+
+
+    /* Instance variables */
+    private final int[] kinds;                  // The ring buffer: the kind of each notification...
+    private final Object[] events;              // ...and its event
+    private final int mask;
+    private final int resumeGap;                // The free slots waited for when the buffer is full
+    private final BackpressurePolicy policy;
+
+    private final AtomicLong published;         // The number of notifications put into the buffer
+    private final Consumer[] consumers;
+    private final IdentityHashMap<Object,Consumer> listenerConsumers;
+    private int nextConsumer;                   // The consumer the next new listener is given to
+
+    private long nextSequence;                  // (only used by the simulation's thread)
+    private long minConsumed;                   // The fewest notifications any consumer had handled when last checked
+    private long cleared;                       // The notifications whose slots have been cleared (after being handled)
+    private long numberDropped;
+    private boolean started;
+    private volatile boolean closed;
+    private volatile Throwable failure;         // The first exception thrown by a listener
+
+    private Simulator sim;                      // The simulator of the current run (null if none)
+
+
+
+
+    /* CONSTRUCTORS */
+
+    /**
+      * Creates a dispatcher with one consumer thread, a buffer of the default
+      * capacity, and which blocks the simulation when the buffer is full.
+      */
+    public AsyncEventDispatcher()
+    {
+        this( DEFAULT_CAPACITY, 1, BackpressurePolicy.BLOCK );
+    }
+
+
+    /**
+      * Creates a dispatcher. The capacity of the buffer is rounded up to a power
+      * of two.
+      *
+      * @param capacity the number of notifications the buffer holds
+      * @param numberOfConsumers the number of threads calling listeners
+      * @param policy what happens to notifications when the buffer is full
+      */
+    public AsyncEventDispatcher( int capacity, int numberOfConsumers, BackpressurePolicy policy )
+    {
+        if( capacity < 1 || capacity > (1 << 30) )
+            throw new IllegalArgumentException( "The capacity of a dispatcher must be from 1 to 2^30" );
+
+        if( numberOfConsumers < 1 )
+            throw new IllegalArgumentException( "A dispatcher must have at least one consumer thread" );
+
+        int size = Integer.highestOneBit( capacity );
+        if( size < capacity )
+            size <<= 1;
+
+        kinds = new int[ size ];
+        events = new Object[ size ];
+        mask = size - 1;
+        resumeGap = Math.max( 1, size / 8 );
+        this.policy = policy;
+
+        published = new AtomicLong( 0 );
+        consumers = new Consumer[ numberOfConsumers ];
+        for( int i=0; i < numberOfConsumers; i++ )
+            consumers[i] = new Consumer( i );
+
+        listenerConsumers = new IdentityHashMap<Object,Consumer>();
+        nextConsumer = 0;
+
+        nextSequence = 0;
+        minConsumed = 0;
+        cleared = 0;
+        numberDropped = 0;
+        started = false;
+        closed = false;
+        failure = null;
+        sim = null;
+    }
+
+
+
+
+    /* ACCESSORS / MUTATORS */
+
+    /**
+      * An accessor for the number of notifications the buffer holds.
+      */
+    public int getCapacity()
+    {
+        return events.length;
+    }
+
+
+    /**
+      * An accessor for what happens to notifications when the buffer is full.
+      */
+    public BackpressurePolicy getBackpressurePolicy()
+    {
+        return policy;
+    }
+
+
+    /**
+      * Returns the number of notifications that have been dropped because the
+      * buffer was full.
+      *
+      * @see BackpressurePolicy#DROP
+      */
+    public long getNumberDropped()
+    {
+        return numberDropped;
+    }
+
+
+    /**
+      * Registers a simulation listener to be notified through this dispatcher.
+      *
+      * @throws IllegalStateException if the dispatcher has already passed on a notification
+      */
+    public void addSimulationListener( SimulationListener sl )
+    {
+        consumerFor( sl ).simListeners.add( sl );
+    }
+
+
+    /**
+      * Registers a communication listener to be notified through this
+      * dispatcher.
+      *
+      * @throws IllegalStateException if the dispatcher has already passed on a notification
+      */
+    public void addCommunicationListener( CommunicationListener cl )
+    {
+        consumerFor( cl ).commListeners.add( cl );
+    }
+
+
+    /**
+      * Returns the consumer that calls the given listener, giving the listener to
+      * the next consumer if it is new.
+      */
+    private Consumer consumerFor( Object listener )
+    {
+        if( started )
+            throw new IllegalStateException( "Listeners cannot be added to a dispatcher once it has passed on a notification" );
+
+        Consumer c = listenerConsumers.get( listener );
+        if( c == null )
+        {
+            c = consumers[ nextConsumer ];
+            nextConsumer = ( nextConsumer + 1 ) % consumers.length;
+            listenerConsumers.put( listener, c );
+        }
+
+        return c;
+    }
+
+
+
+
+    /* NOTIFICATIONS */
+
+    public void simulationStarted( SimulationEvent evt )
+    {
+        sim = evt.getSimulator();
+
+        publish( SIMULATION_STARTED, evt );
+        flush();
+    }
+
+
+    public void simulationTimestepAdvanced( SimulationEvent evt )
+    {
+        publish( TIMESTEP_ADVANCED, evt );
+    }
+
+
+    public void simulationFinished( SimulationEvent evt )
+    {
+        publish( SIMULATION_FINISHED, evt );
+        flush();
+
+        sim = null;
+    }
+
+
+    public void communicationInitiated( CommunicationEvent evt )
+    {
+        publish( COMMUNICATION_INITIATED, snapshot( evt ) );
+    }
+
+
+    public void discoverySucceeded( CommunicationEvent evt )
+    {
+        publish( DISCOVERY_SUCCEEDED, snapshot( evt ) );
+    }
+
+
+    public void discoveryFailed( CommunicationEvent evt )
+    {
+        publish( DISCOVERY_FAILED, snapshot( evt ) );
+    }
+
+
+    public void communicationAborted( CommunicationEvent evt )
+    {
+        publish( COMMUNICATION_ABORTED, snapshot( evt ) );
+    }
+
+
+    public void communicationTransmissionSucceeded( CommunicationEvent evt )
+    {
+        publish( TRANSMISSION_SUCCEEDED, snapshot( evt ) );
+    }
+
+
+    public void communicationTransmissionFailed( CommunicationEvent evt )
+    {
+        publish( TRANSMISSION_FAILED, snapshot( evt ) );
+    }
+
+
+    /**
+      * Takes a snapshot of the given event at the current simulation time (or
+      * at no time, if no simulation is running).
+      */
+    private CommunicationEvent snapshot( CommunicationEvent evt )
+    {
+        if( sim == null )
+            return evt.snapshot( Double.NaN, -1 );
+
+        return evt.snapshot( sim.getTimeElapsed(), sim.getIteration() );
+    }
+
+
+
+
+    /* BUFFER FUNCTIONALITY */
+
+    /**
+      * Puts a notification into the buffer, waiting for room (or dropping the
+      * notification) if it is full.
+      */
+    private void publish( int kind, Object evt )
+    {
+        if( closed )
+            throw new IllegalStateException( "The dispatcher has been closed" );
+
+        checkFailure();
+
+        if( !started )
+            start();
+
+        long seq = nextSequence;
+
+        if( seq - minConsumed >= events.length )
+        {
+            minConsumed = findMinConsumed();
+
+            // (the start and end of a simulation must get through)
+            if( seq - minConsumed >= events.length && policy == BackpressurePolicy.DROP
+                && kind != SIMULATION_STARTED && kind != SIMULATION_FINISHED )
+            {
+                numberDropped++;
+                return;
+            }
+
+            // (wait for a good part of the buffer to be free, rather than each slot in turn)
+            for( int idle=0; seq - minConsumed > events.length - resumeGap; idle++ )
+            {
+                idle( idle );
+                checkFailure();
+                minConsumed = findMinConsumed();
+            }
+        }
+
+        int index = (int)seq & mask;
+        kinds[index] = kind;
+        events[index] = evt;
+
+        nextSequence = seq + 1;
+        published.lazySet( nextSequence );      // (makes the slot visible to the consumers)
+    }
+
+
+    /**
+      * Waits until every notification put into the buffer has been handled by
+      * every listener. This should only be called by the thread the
+      * notifications come from. <br>
+      * The handled notifications are then cleared from the buffer, so that
+      * their events (and the devices they refer to) are not kept after a run.
+      */
+    public void flush()
+    {
+        for( int idle=0; findMinConsumed() < nextSequence; idle++ )
+            idle( idle );
+
+        minConsumed = nextSequence;
+
+        // (every consumer has passed these slots, so none will read them again)
+        for( long seq = Math.max( cleared, nextSequence - events.length ); seq < nextSequence; seq++ )
+            events[ (int)seq & mask ] = null;
+        cleared = nextSequence;
+
+        checkFailure();
+    }
+
+
+    /**
+      * Flushes the buffer, then stops the consumer threads. The dispatcher
+      * cannot be used afterwards.
+      */
+    public void close()
+    {
+        if( closed )
+            return;
+
+        if( started )
+            flush();
+
+        closed = true;
+
+        for( Consumer c : consumers )
+        {
+            if( c.thread == null )
+                continue;
+
+            LockSupport.unpark( c.thread );
+            try
+            {
+                c.thread.join();
+            }
+            catch( InterruptedException ex )
+            {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+
+    /**
+      * Starts the consumer threads.
+      */
+    private void start()
+    {
+        started = true;
+
+        for( Consumer c : consumers )
+        {
+            c.thread = new Thread( c, "AsyncEventDispatcher-" + c.number );
+            c.thread.setDaemon( true );
+            c.thread.start();
+        }
+    }
+
+
+    /**
+      * Returns the fewest notifications handled by any of the consumers.
+      */
+    private long findMinConsumed()
+    {
+        long min = Long.MAX_VALUE;
+        for( Consumer c : consumers )
+            min = Math.min( min, c.consumed.get() );
+
+        return min;
+    }
+
+
+    /**
+      * Throws the first exception thrown by a listener (if any), to the
+      * simulation.
+      */
+    private void checkFailure()
+    {
+        if( failure == null )
+            return;
+
+        Throwable t;
+        synchronized( this )
+        {
+            t = failure;
+            failure = null;
+        }
+
+        if( t instanceof RuntimeException )
+            throw (RuntimeException)t;
+        else
+            throw (Error)t;
+    }
+
+
+    /**
+      * Waits a little, for the given number of times the caller has already
+      * found nothing to do: spinning at first, then yielding, then sleeping.
+      */
+    private static void idle( int count )
+    {
+        if( count < SPINS_BEFORE_YIELDING )
+            return;
+        else if( count < SPINS_BEFORE_YIELDING + YIELDS_BEFORE_PARKING )
+            Thread.yield();
+        else
+            LockSupport.parkNanos( PARK_NANOS );
+    }
+
+
+
+
+    /**
+      * A consumer thread, which passes every notification in the buffer on to
+      * its own listeners.
+      */
+    private final class Consumer implements Runnable
+    {
+        final int number;
+        final AtomicLong consumed;              // The number of notifications this consumer has handled
+        final Vector<SimulationListener> simListeners;
+        final Vector<CommunicationListener> commListeners;
+        Thread thread;
+
+
+        Consumer( int number )
+        {
+            this.number = number;
+            consumed = new AtomicLong( 0 );
+            simListeners = new Vector<SimulationListener>();
+            commListeners = new Vector<CommunicationListener>();
+        }
+
+
+        public void run()
+        {
+            long next = 0;
+            int idle = 0;
+
+            while( true )
+            {
+                long available = published.get();
+
+                if( next < available )
+                {
+                    for( ; next < available; next++ )
+                    {
+                        int index = (int)next & mask;
+                        dispatch( kinds[index], events[index] );
+
+                        if( ((next+1) & (RELEASE_INTERVAL-1)) == 0 )
+                            consumed.lazySet( next+1 ); // (lets the slots be reused)
+                    }
+
+                    consumed.lazySet( next );
+
+                    idle = 0;
+                }
+                else if( closed )
+                    return;
+                else
+                    idle( idle++ );
+            }
+        }
+
+
+        /**
+          * Passes one notification on to this consumer's listeners.
+          */
+        private void dispatch( int kind, Object evt )
+        {
+            try
+            {
+                switch( kind )
+                {
+                    case SIMULATION_STARTED:
+                        for( SimulationListener sl : simListeners )
+                            sl.simulationStarted( (SimulationEvent)evt );
+                        break;
+
+                    case TIMESTEP_ADVANCED:
+                        for( SimulationListener sl : simListeners )
+                            sl.simulationTimestepAdvanced( (SimulationEvent)evt );
+                        break;
+
+                    case SIMULATION_FINISHED:
+                        for( SimulationListener sl : simListeners )
+                            sl.simulationFinished( (SimulationEvent)evt );
+                        break;
+
+                    case COMMUNICATION_INITIATED:
+                        for( CommunicationListener cl : commListeners )
+                            cl.communicationInitiated( (CommunicationEvent)evt );
+                        break;
+
+                    case DISCOVERY_SUCCEEDED:
+                        for( CommunicationListener cl : commListeners )
+                            cl.discoverySucceeded( (CommunicationEvent)evt );
+                        break;
+
+                    case DISCOVERY_FAILED:
+                        for( CommunicationListener cl : commListeners )
+                            cl.discoveryFailed( (CommunicationEvent)evt );
+                        break;
+
+                    case COMMUNICATION_ABORTED:
+                        for( CommunicationListener cl : commListeners )
+                            cl.communicationAborted( (CommunicationEvent)evt );
+                        break;
+
+                    case TRANSMISSION_SUCCEEDED:
+                        for( CommunicationListener cl : commListeners )
+                            cl.communicationTransmissionSucceeded( (CommunicationEvent)evt );
+                        break;
+
+                    case TRANSMISSION_FAILED:
+                        for( CommunicationListener cl : commListeners )
+                            cl.communicationTransmissionFailed( (CommunicationEvent)evt );
+                        break;
+                }
+            }
+            catch( RuntimeException ex )
+            {
+                fail( ex );
+            }
+            catch( Error ex )
+            {
+                fail( ex );
+            }
+        }
+    }
+
+
+    /**
+      * Records an exception thrown by a listener, unless one is already waiting
+      * to be thrown.
+      */
+    private synchronized void fail( Throwable t )
+    {
+        if( failure == null )
+            failure = t;
+    }
+}
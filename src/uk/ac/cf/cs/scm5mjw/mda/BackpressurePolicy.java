@@ -0,0 +1,20 @@
+/*   Matthew Williams (0515328)   */
+
+package uk.ac.cf.cs.scm5mjw.mda;
+
+/**
+  * This is an enumerated type for what an AsyncEventDispatcher does with an event
+  * when its buffer is full (the listeners have fallen behind the simulation):<br>
+  * 1. BLOCK : The simulation waits until there is room for the event<br>
+  * 2. DROP : The event is thrown away (and counted), so the simulation is never
+  *    held up by its listeners<br>
+  * <br>
+  * Events for a simulation starting or finishing are never dropped.
+  *
+  * @see AsyncEventDispatcher
+  */
+public enum BackpressurePolicy
+{
+    BLOCK,
+    DROP
+}
@@ -0,0 +1,1070 @@
+/*   Matthew Williams (0515328)   */
+
+package uk.ac.cf.cs.scm5mjw.mda;
+
+import uk.ac.cf.cs.scm5mjw.mda.devices.*;
+import uk.ac.cf.cs.scm5mjw.mda.mobility.CompiledMap;
+
+import java.awt.geom.Point2D;
+import java.util.*;
+
+/**
+  * Runs a Simulator by jumping from event to event rather than stepping every
+  * device forward by a fixed timestep. <br>
+  * <br>
+  * Between map nodes a mobile object moves in a straight line at a constant speed,
+  * so the engine can calculate exactly when each of the following will happen: <br>
+  *  - a mobile object reaches the map node it is heading to <br>
+  *  - the current phase of a communication session ends <br>
+  *  - two devices move into, or out of, each other's range <br>
+  * These are held in a priority queue ordered by time. When something changes
+  * (e.g. a mobile object turns onto a new link) any events it invalidates are
+  * not removed from the queue; instead each event records a version number of the
+  * devices it was calculated from and is ignored if either has since changed. <br>
+  * <br>
+  * Devices are only brought up to date (moved and have their communication time
+  * advanced) when they are involved in an event, or when simulation listeners are
+  * about to be notified. <br>
+  * <br>
+  * Communication follows the same rules as a stepped simulation: sessions are
+  * carried out by the devices' communication controller, a device that is not
+  * communicating will start a session with a (randomly chosen) device in range,
+  * and a session in the transmission phase is aborted if the devices move out
+  * of range. As in a stepped simulation, new sessions are only started at the
+  * end of a timestep: when a session ends, or two free devices move into range,
+  * a pairing event is scheduled for the next multiple of the timestep length.
+  * It visits the free devices in a random order and each picks its partner at
+  * random from the free devices in its range, so a pair of devices that has
+  * just finished a session is no more likely to start another than it would
+  * be in a stepped simulation. <br>
+  * <br>
+  * To find which devices might come into range of each other, every device is
+  * registered in the cells of a grid covered by the path it is currently moving
+  * along. Only devices whose paths share a cell need to be checked against
+  * each other.
+  */
+final class DiscreteEventEngine
+{
+    /* Constants */
+    // Event types
+    private static final int ARRIVAL = 0;           // A mobile object reaches its destination node
+    private static final int PHASE_END = 1;         // A communication phase has fully elapsed
+    private static final int RANGE_ENTRY = 2;       // Two devices move into range
+    private static final int RANGE_EXIT = 3;        // Two devices move out of range
+    private static final int REPORT = 4;            // Simulation listeners are to be notified
+    private static final int PAIRING = 5;           // Free devices in range of each other start sessions
+
+    // Every event happens at a multiple of this time (2^-20 seconds). Phase ends
+    // and range changes are handled at the first multiple AFTER the calculated
+    // time, so that, despite rounding, the devices are definitely in the expected
+    // state. Keeping to these times also means that the simulator's clock (which
+    // artifact ages are worked out from) is only ever advanced by exactly
+    // representable amounts, so artifact ages are exact
+    private static final double TIME_RESOLUTION = 1.0 / (1 << 20);
+
+
+    /* Instance variables */
+    private Simulator sim;
+    private SplittableRandom random;       // The simulator's pairing stream
+    private double now;
+    private double clockTime;              // The time the simulator's clock was last advanced to
+
+    // Devices; the mobile objects come first
+    private AbstractWirelessDevice[] devices;
+    private int numMobileObjects;
+    private IdentityHashMap<AbstractWirelessDevice,Integer> deviceIndexes;
+    private double[] lastUpdated;          // The time each device was last brought up to date
+    private int[] motionVersions;          // Changes whenever a mobile object turns onto a new link
+    private int[] sessionVersions;         // Changes whenever a device's communication session changes
+
+    // The straight line each mobile object is currently moving along
+    private double[] startTimes;
+    private double[] startXs;
+    private double[] startYs;
+    private double[] velocityXs;
+    private double[] velocityYs;
+    private double[] arrivalTimes;
+
+    private PathIndex pathIndex;
+    private PriorityQueue<Event> queue;
+    private long nextSequenceNumber;
+    private boolean pairingScheduled;      // Whether a pairing event is in the queue
+
+    // Scratch space used while finding partners
+    private int[] candidates;
+    private int[] pairingOrder;            // A permutation of the device indexes
+
+
+
+
+    /* CONSTRUCTORS */
+
+    /**
+      * Creates an engine for the given simulator. The simulator's devices are
+      * read when the engine is run.
+      */
+    public DiscreteEventEngine( Simulator sim )
+    {
+        this.sim = sim;
+    }
+
+
+
+
+    /* ENGINE FUNCTIONALITY */
+
+    /**
+      * Runs the simulation from time 0 until the given amount of simulation time
+      * has elapsed. The simulator's clock is moved to the time of each event as it
+      * is handled, and its iteration number increases every time the simulation
+      * listeners are notified. <br>
+      * If the simulator is timing the phases (see Simulator.beginStep()), each
+      * event is timed as part of the phase it mostly belongs to.
+      */
+    public void run( double timeToRun )
+    {
+        SimulationProfile prof = sim.getProfile();
+        long t = ( prof != null ) ? System.nanoTime() : 0;
+
+        setUp();
+        random = sim.getRandom().getPairingStream();
+
+
+        // Sessions that were left open by a previous run continue from where they were
+        for( int i=0; i < devices.length; i++ )
+        {
+            AbstractWirelessDevice dev = devices[i];
+
+            if( dev.isCommunicating() && i < indexOf( dev.getCommunicationPartner() ) )
+                schedulePhaseEnd( i );
+        }
+
+        // Every device that is free gets a chance to find a partner
+        handlePairing();
+
+        // Work out which devices will move into or out of range of each other
+        for( int i=0; i < numMobileObjects; i++ )
+            predictRangeChanges( i, true );
+
+
+        double reportInterval = sim.getTimestepLength();
+        int numReports = 0;
+        schedule( roundUp( reportInterval ), REPORT, -1, 0, -1, 0 );
+
+        if( prof != null )
+            prof.addPhaseTime( SimulationPhase.SETUP, System.nanoTime() - t );
+
+
+        /* Handle events in order until the time is up */
+        boolean timing = sim.beginStep();
+        while( !queue.isEmpty() && queue.peek().time <= timeToRun )
+        {
+            Event evt = queue.poll();
+
+            if( !evt.isCurrent() )
+                continue;
+
+            if( prof != null )
+                prof.eventHandled();
+            if( timing )
+                t = System.nanoTime();
+
+            now = evt.time;
+            sim.setClock( now, sim.getIteration() );
+            advanceClock();
+
+            if( timing )
+                t = sim.phaseEnded( SimulationPhase.ADVANCE_COMMUNICATION, t );
+
+            switch( evt.type )
+            {
+                case ARRIVAL:
+                    handleArrival( evt.device1 );
+                    if( timing )
+                        sim.phaseEnded( SimulationPhase.MOBILITY, t );
+                    break;
+
+                case PHASE_END:
+                    handlePhaseEnd( evt.device1 );
+                    if( timing )
+                        sim.phaseEnded( SimulationPhase.CHECK_COMMUNICATION, t );
+                    break;
+
+                case RANGE_ENTRY:
+                    handleRangeEntry( evt.device1, evt.device2 );
+                    if( timing )
+                        sim.phaseEnded( SimulationPhase.PAIRING, t );
+                    break;
+
+                case RANGE_EXIT:
+                    handleRangeExit( evt.device1, evt.device2 );
+                    if( timing )
+                        sim.phaseEnded( SimulationPhase.PAIRING, t );
+                    break;
+
+                case PAIRING:
+                    handlePairing();
+                    if( timing )
+                        sim.phaseEnded( SimulationPhase.PAIRING, t );
+                    break;
+
+                case REPORT:
+                    updateAll();
+                    sim.setClock( now, sim.getIteration() + 1 );
+                    if( timing )
+                        t = sim.phaseEnded( SimulationPhase.MOBILITY, t );
+
+                    sim.timestepAdvanced();
+                    if( timing )
+                    {
+                        sim.phaseEnded( SimulationPhase.LISTENERS, t );
+                        sim.endStep();
+                    }
+                    timing = sim.beginStep();
+
+                    numReports++;
+                    schedule( roundUp( (numReports+1) * reportInterval ), REPORT, -1, 0, -1, 0 );
+                    break;
+            }
+        }
+
+
+        if( timing )
+            t = System.nanoTime();
+
+        now = timeToRun;
+        advanceClock();
+        updateAll();
+        sim.setClock( now, sim.getIteration() );
+
+        if( timing )
+            sim.phaseEnded( SimulationPhase.MOBILITY, t );
+    }
+
+
+    /**
+      * Reads the simulator's devices and schedules each mobile object's arrival at
+      * its destination node.
+      */
+    private void setUp()
+    {
+        Vector<MobileObject> mobileObjs = sim.getMobileObjects();
+
+        numMobileObjects = mobileObjs.size();
+
+        Vector<AbstractWirelessDevice> all = new Vector<AbstractWirelessDevice>( mobileObjs );
+        all.addAll( sim.getBeacons() );
+        all.addAll( sim.getInformationSources() );
+        devices = all.toArray( new AbstractWirelessDevice[ all.size() ] );
+
+        int n = devices.length;
+
+        deviceIndexes = new IdentityHashMap<AbstractWirelessDevice,Integer>( n );
+        for( int i=0; i < n; i++ )
+            deviceIndexes.put( devices[i], i );
+
+        lastUpdated = new double[n];
+        motionVersions = new int[n];
+        sessionVersions = new int[n];
+
+        startTimes = new double[ numMobileObjects ];
+        startXs = new double[ numMobileObjects ];
+        startYs = new double[ numMobileObjects ];
+        velocityXs = new double[ numMobileObjects ];
+        velocityYs = new double[ numMobileObjects ];
+        arrivalTimes = new double[ numMobileObjects ];
+
+        candidates = new int[ Math.max( n, 1 ) ];
+        pairingOrder = new int[n];
+        for( int i=0; i < n; i++ )
+            pairingOrder[i] = i;
+
+        queue = new PriorityQueue<Event>();
+        nextSequenceNumber = 0;
+        pairingScheduled = false;
+        now = 0;
+        clockTime = 0;
+
+
+        double maxRange = 0;
+        for( AbstractWirelessDevice dev : devices )
+            maxRange = Math.max( maxRange, dev.getCommunicationRange() );
+
+        pathIndex = new PathIndex( n, maxRange );
+
+        for( int i=numMobileObjects; i < n; i++ )
+        {
+            Point2D.Double loc = devices[i].getLocation();
+            pathIndex.add( i, loc.x, loc.y, loc.x, loc.y );
+        }
+
+        for( int i=0; i < numMobileObjects; i++ )
+            startSegment( i );
+    }
+
+
+
+
+    /* EVENT HANDLING */
+
+    /**
+      * A mobile object has reached its destination node: it chooses its next
+      * destination and the events involving it are recalculated.
+      */
+    private void handleArrival( int mo )
+    {
+        update( mo );
+        ((MobileObject)devices[mo]).advanceToDestination();
+
+        motionVersions[mo]++;
+        startSegment( mo );
+        predictRangeChanges( mo, false );
+    }
+
+
+    /**
+      * The current phase of a communication session has elapsed. The session is
+      * checked in the same way as a stepped simulation would check it.
+      */
+    private void handlePhaseEnd( int dev )
+    {
+        int partner = indexOf( devices[dev].getCommunicationPartner() );
+
+        update( dev );
+        update( partner );
+
+        // As in a stepped simulation, the session is checked from the mobile
+        // object's side (mobile objects are numbered first)
+        devices[ Math.min(dev, partner) ].checkCommunication();
+
+        sessionChanged( dev, partner );
+    }
+
+
+    /**
+      * Two devices have moved into range. If both are free (and one of them is
+      * a mobile object) the free devices are paired up at the end of the timestep.
+      */
+    private void handleRangeEntry( int dev1, int dev2 )
+    {
+        predictRangeChange( dev1, dev2 );
+
+        if( devices[dev1].isCommunicating() || devices[dev2].isCommunicating() )
+            return;
+
+        if( dev1 >= numMobileObjects && dev2 >= numMobileObjects )
+            return;     // (neither is a mobile object)
+
+        schedulePairing();
+    }
+
+
+    /**
+      * Two devices have moved out of range. If they are communicating with each
+      * other and are in the transmission phase, the session is aborted.
+      */
+    private void handleRangeExit( int dev1, int dev2 )
+    {
+        AbstractWirelessDevice d1 = devices[dev1];
+        AbstractWirelessDevice d2 = devices[dev2];
+
+        if( !d1.isCommunicating() || d1.getCommunicationPartner() != d2
+                || d1.getCommunicationPhase() != CommunicationPhase.TRANSMISSION )
+            return;
+
+        update( dev1 );
+        update( dev2 );
+
+        if( d1.canCommunicateWith( d2 ) )
+        {
+            // (rounding has left them just in range; try again shortly)
+            predictRangeChange( dev1, dev2 );
+            return;
+        }
+
+        // At least one of the devices is a mobile object (they are numbered first)
+        devices[ Math.min(dev1, dev2) ].abortCommunication();
+
+        sessionChanged( dev1, dev2 );
+    }
+
+
+    /**
+      * To be called after a communication session between the two devices has
+      * changed. If the session is still in progress the end of its new phase is
+      * scheduled; otherwise both devices are free and will look for a new partner
+      * at the end of the timestep.
+      */
+    private void sessionChanged( int dev1, int dev2 )
+    {
+        sessionVersions[dev1]++;
+        sessionVersions[dev2]++;
+
+        if( devices[dev1].isCommunicating() )
+            schedulePhaseEnd( dev1 );
+        else
+            schedulePairing();
+    }
+
+
+    /**
+      * Gives every free device a chance to find a partner, in the same way as the
+      * pairing at the end of a stepped simulation's timestep: the devices are
+      * visited in a uniformly random order (drawn by a Fisher-Yates shuffle of
+      * <code>pairingOrder</code> as it is walked) and each one that is still free
+      * starts a session with a device chosen at random from the free devices in
+      * its range.
+      */
+    private void handlePairing()
+    {
+        pairingScheduled = false;
+
+        int n = pairingOrder.length;
+        for( int i=0; i < n; i++ )
+        {
+            int swap = SimulatorTools.randInRange( random, i, n-1 );
+            int dev = pairingOrder[swap];
+            pairingOrder[swap] = pairingOrder[i];
+            pairingOrder[i] = dev;
+
+            findPartner( dev );
+        }
+    }
+
+
+    /**
+      * If the given device is free, this starts a session between it and a
+      * device chosen at random from the free devices in its range. As in a stepped
+      * simulation, a mobile object may communicate with any type of device but
+      * other devices may only communicate with mobile objects. The device is
+      * chosen by reservoir sampling, in the same way as
+      * Simulator.sampleValidDevice.
+      */
+    private void findPartner( int dev )
+    {
+        AbstractWirelessDevice dev1 = devices[dev];
+
+        if( dev1.isCommunicating() )
+            return;
+
+        updateLocation( dev );
+        Point2D.Double loc = dev1.getLocation();
+
+        int numCandidates = pathIndex.findNear( loc.x, loc.y, loc.x, loc.y, candidates );
+        int numValid = 0;
+        int chosen = -1;
+
+        for( int c=0; c < numCandidates; c++ )
+        {
+            int other = candidates[c];
+            AbstractWirelessDevice dev2 = devices[other];
+
+            if( other == dev || dev2.isCommunicating() )
+                continue;
+
+            if( dev >= numMobileObjects && other >= numMobileObjects )
+                continue;       // (neither is a mobile object)
+
+            updateLocation( other );
+
+            if( dev1.canCommunicateWith( dev2 ) )
+            {
+                numValid++;
+
+                if( numValid == 1 || SimulatorTools.randInRange( random, 0, numValid-1 ) == 0 )
+                    chosen = other;
+            }
+        }
+
+        if( chosen != -1 )
+        {
+            update( dev );
+            update( chosen );
+            initiate( dev, chosen );
+        }
+    }
+
+
+    /**
+      * Starts a communication session between two devices (which must be up to date).
+      */
+    private void initiate( int dev1, int dev2 )
+    {
+        devices[dev1].initiateCommunication( devices[dev2] );
+
+        sessionVersions[dev1]++;
+        sessionVersions[dev2]++;
+        schedulePhaseEnd( dev1 );
+    }
+
+
+
+
+    /* PREDICTION */
+
+    /**
+      * Records the straight line the given mobile object is now moving along
+      * (from its current location to its destination node), registers the path
+      * in the path index, and schedules its arrival.
+      */
+    private void startSegment( int mo )
+    {
+        MobileObject dev = (MobileObject)devices[mo];
+        Point2D.Double loc = dev.getLocation();
+        Point2D.Double dest = dev.getDestinationNode().getLocation();
+
+        double speed = dev.getMovementSpeed();
+
+        startTimes[mo] = now;
+        startXs[mo] = loc.x;
+        startYs[mo] = loc.y;
+
+        // A mobile object that has just reached a node covers the whole of its
+        // next link, whose length and direction the compiled map already holds
+        int link = dev.getCurrentLink();
+        CompiledMap graph = ( link >= 0 ) ? dev.getLinkSampler().getCompiledMap() : null;
+
+        if( graph != null
+            && loc.x == graph.getNodeX( graph.getLinkStart( link ) )
+            && loc.y == graph.getNodeY( graph.getLinkStart( link ) ) )
+        {
+            double distance = graph.getLinkLength( link );
+
+            velocityXs[mo] = graph.getLinkUnitX( link ) * speed;
+            velocityYs[mo] = graph.getLinkUnitY( link ) * speed;
+
+            scheduleArrival( mo, distance / speed, loc, dest );
+            return;
+        }
+
+        double distance = SimulatorTools.distance( loc, dest );
+
+        if( distance > 0 )
+        {
+            velocityXs[mo] = ( dest.x - loc.x ) / distance * speed;
+            velocityYs[mo] = ( dest.y - loc.y ) / distance * speed;
+        }
+        else
+        {
+            velocityXs[mo] = 0;
+            velocityYs[mo] = 0;
+        }
+
+        scheduleArrival( mo, distance / speed, loc, dest );
+    }
+
+
+    /**
+      * Registers the path of the given mobile object (which started moving from
+      * loc to dest just now) in the path index, and schedules its arrival after
+      * the given travel time.
+      */
+    private void scheduleArrival( int mo, double travelTime, Point2D.Double loc, Point2D.Double dest )
+    {
+        arrivalTimes[mo] = roundUp( now + travelTime );
+
+        pathIndex.remove( mo );
+        pathIndex.add( mo, loc.x, loc.y, dest.x, dest.y );
+
+        schedule( arrivalTimes[mo], ARRIVAL, mo, motionVersions[mo], -1, 0 );
+    }
+
+
+    /**
+      * Predicts when the given mobile object will next move into or out of range
+      * of each device whose path is near its own. <br>
+      * If <code>onlyLater</code> is true, pairs of mobile objects are only
+      * considered once (from the mobile object with the lower number).
+      */
+    private void predictRangeChanges( int mo, boolean onlyLater )
+    {
+        int numCandidates = pathIndex.findNear( startXs[mo], startYs[mo],
+                startXs[mo] + velocityXs[mo] * (arrivalTimes[mo] - now),
+                startYs[mo] + velocityYs[mo] * (arrivalTimes[mo] - now), candidates );
+
+        for( int c=0; c < numCandidates; c++ )
+        {
+            int other = candidates[c];
+
+            if( other == mo || ( onlyLater && other < mo ) )
+                continue;
+
+            predictRangeChange( mo, other );
+        }
+    }
+
+
+    /**
+      * Schedules the next time (if any) at which the two devices move into or out
+      * of range of each other, while both keep moving along their current paths.
+      */
+    private void predictRangeChange( int dev1, int dev2 )
+    {
+        double horizon = Math.min( arrivalTime( dev1 ), arrivalTime( dev2 ) );
+
+        // Relative position and velocity of dev2 from dev1
+        double dx = x( dev2, now ) - x( dev1, now );
+        double dy = y( dev2, now ) - y( dev1, now );
+        double vx = velocityX( dev2 ) - velocityX( dev1 );
+        double vy = velocityY( dev2 ) - velocityY( dev1 );
+
+        double range = Math.min( devices[dev1].getCommunicationRange(), devices[dev2].getCommunicationRange() );
+
+        // Solve |d + vt| = range for t
+        double a = vx*vx + vy*vy;
+        double b = 2 * ( dx*vx + dy*vy );
+        double c = dx*dx + dy*dy - range*range;
+
+        if( a == 0 )
+            return;     // (not moving relative to each other)
+
+        double discriminant = b*b - 4*a*c;
+
+        if( discriminant < 0 )
+            return;     // (never in range)
+
+        double root = Math.sqrt( discriminant );
+
+        if( c <= 0 )
+        {
+            // In range now: find when they leave
+            double t = nextTimeAfter( now + Math.max( ( -b + root ) / ( 2*a ), 0 ) );
+
+            if( t < horizon )
+                schedule( t, RANGE_EXIT, dev1, motionVersions[dev1], dev2, motionVersions[dev2] );
+        }
+        else if( b < 0 )
+        {
+            // Out of range but getting closer: find when they meet
+            double t = nextTimeAfter( now + ( -b - root ) / ( 2*a ) );
+
+            if( t < horizon )
+                schedule( t, RANGE_ENTRY, dev1, motionVersions[dev1], dev2, motionVersions[dev2] );
+        }
+    }
+
+
+    /**
+      * Schedules the end of the current phase of the given device's communication
+      * session.
+      */
+    private void schedulePhaseEnd( int dev )
+    {
+        double t = nextTimeAfter( now + devices[dev].getCommunicationTimeRemaining() );
+        schedule( t, PHASE_END, dev, sessionVersions[dev], -1, 0 );
+    }
+
+
+    /**
+      * Schedules a pairing event at the end of the current timestep (the first
+      * multiple of the timestep length that is not before now), unless one is
+      * already scheduled.
+      */
+    private void schedulePairing()
+    {
+        if( pairingScheduled )
+            return;
+
+        double timestepLength = sim.getTimestepLength();
+        long step = (long)Math.floor( now / timestepLength );
+        double t = roundUp( step * timestepLength );
+
+        while( t < now )
+            t = roundUp( ++step * timestepLength );
+
+        schedule( t, PAIRING, -1, 0, -1, 0 );
+        pairingScheduled = true;
+    }
+
+
+    /**
+      * Returns the first multiple of the time resolution that is not before the given time.
+      */
+    private static double roundUp( double time )
+    {
+        return Math.ceil( time / TIME_RESOLUTION ) * TIME_RESOLUTION;
+    }
+
+
+    /**
+      * Returns the first multiple of the time resolution that is after the given time.
+      */
+    private static double nextTimeAfter( double time )
+    {
+        return ( Math.floor( time / TIME_RESOLUTION ) + 1 ) * TIME_RESOLUTION;
+    }
+
+
+    private void schedule( double time, int type, int dev1, int version1, int dev2, int version2 )
+    {
+        queue.add( new Event( time, type, dev1, version1, dev2, version2, nextSequenceNumber++ ) );
+    }
+
+
+
+
+    /* DEVICE STATE */
+
+    /**
+      * Brings the given device up to date: moves it to where it is now and advances
+      * its communication by the time since it was last brought up to date.
+      */
+    private void update( int dev )
+    {
+        updateLocation( dev );
+
+        double elapsed = now - lastUpdated[dev];
+        if( elapsed > 0 )
+        {
+            devices[dev].advanceCommunication( elapsed );
+            lastUpdated[dev] = now;
+        }
+    }
+
+
+    /**
+      * Advances the simulator's clock (and so the ages of all artifacts) to now.
+      */
+    private void advanceClock()
+    {
+        sim.getClock().advance( now - clockTime );
+        clockTime = now;
+    }
+
+
+    /**
+      * Brings every device up to date.
+      */
+    private void updateAll()
+    {
+        for( int i=0; i < devices.length; i++ )
+            update( i );
+    }
+
+
+    /**
+      * Moves the given device (if it is a mobile object) to where it is now.
+      */
+    private void updateLocation( int dev )
+    {
+        if( dev < numMobileObjects )
+        {
+            Point2D.Double loc = devices[dev].getLocation();
+            loc.x = x( dev, now );
+            loc.y = y( dev, now );
+            devices[dev].setLocation( loc );
+        }
+    }
+
+
+    private double x( int dev, double t )
+    {
+        if( dev < numMobileObjects )
+            return startXs[dev] + velocityXs[dev] * ( t - startTimes[dev] );
+        else
+            return devices[dev].getLocation().x;
+    }
+
+
+    private double y( int dev, double t )
+    {
+        if( dev < numMobileObjects )
+            return startYs[dev] + velocityYs[dev] * ( t - startTimes[dev] );
+        else
+            return devices[dev].getLocation().y;
+    }
+
+
+    private double velocityX( int dev )
+    {
+        return ( dev < numMobileObjects ) ? velocityXs[dev] : 0;
+    }
+
+
+    private double velocityY( int dev )
+    {
+        return ( dev < numMobileObjects ) ? velocityYs[dev] : 0;
+    }
+
+
+    private double arrivalTime( int dev )
+    {
+        return ( dev < numMobileObjects ) ? arrivalTimes[dev] : Double.POSITIVE_INFINITY;
+    }
+
+
+    private int indexOf( AbstractWirelessDevice dev )
+    {
+        return deviceIndexes.get( dev );
+    }
+
+
+
+
+    /* HELPER CLASSES */
+
+    /**
+      * An event in the engine's queue. Events are ordered by time and then by
+      * the order in which they were scheduled, except that the simulation
+      * listeners are notified after every other event at the same time (as they
+      * are at the end of a stepped simulation's timestep).
+      */
+    private final class Event implements Comparable<Event>
+    {
+        final double time;
+        final int type;
+        final int device1;
+        final int version1;
+        final int device2;
+        final int version2;
+        final long sequenceNumber;
+
+
+        Event( double time, int type, int device1, int version1, int device2, int version2, long sequenceNumber )
+        {
+            this.time = time;
+            this.type = type;
+            this.device1 = device1;
+            this.version1 = version1;
+            this.device2 = device2;
+            this.version2 = version2;
+            this.sequenceNumber = sequenceNumber;
+        }
+
+
+        /**
+          * Returns false if the devices this event was calculated from have
+          * changed since.
+          */
+        boolean isCurrent()
+        {
+            switch( type )
+            {
+                case ARRIVAL:
+                    return motionVersions[device1] == version1;
+
+                case PHASE_END:
+                    return sessionVersions[device1] == version1;
+
+                case RANGE_ENTRY:
+                case RANGE_EXIT:
+                    return motionVersions[device1] == version1 && motionVersions[device2] == version2;
+
+                default:
+                    return true;
+            }
+        }
+
+
+        public int compareTo( Event other )
+        {
+            if( time != other.time )
+                return ( time < other.time ) ? -1 : 1;
+
+            if( ( type == REPORT ) != ( other.type == REPORT ) )
+                return ( type == REPORT ) ? 1 : -1;
+
+            return Long.compare( sequenceNumber, other.sequenceNumber );
+        }
+    }
+
+
+    /**
+      * A grid of square cells in which each device is registered in every cell
+      * covered by the path it is currently moving along (a static device's path
+      * being a single point). Each path is padded by half of the largest
+      * communication range, so two devices that could come into range of each
+      * other while on their current paths are always registered in a common cell
+      * (the cell containing the point midway between them). <br>
+      * The cells covered by a path are found a column at a time, so the number
+      * of cells is proportional to the length of the path rather than to the
+      * area of its bounding box.
+      */
+    private static final class PathIndex
+    {
+        private double cellSize;
+        private double padding;
+        private HashMap<Long,int[]> cells;        // cell key -> { count, member, member, ... }
+        private long[][] deviceCells;             // the cells each device is registered in
+        private int[] numDeviceCells;
+        private int[] marks;                      // Used to report each device only once per search
+        private int currentMark;
+        private long[] covered;                   // The cells found by the last call to cover()
+
+
+        PathIndex( int numDevices, double maxRange )
+        {
+            cellSize = Math.max( maxRange, 1 );
+            padding = maxRange / 2;
+            cells = new HashMap<Long,int[]>();
+            deviceCells = new long[numDevices][4];
+            numDeviceCells = new int[numDevices];
+            marks = new int[numDevices];
+            currentMark = 0;
+            covered = new long[16];
+        }
+
+
+        /**
+          * Registers the device in the cells covered by the path between the
+          * two points.
+          */
+        void add( int dev, double x1, double y1, double x2, double y2 )
+        {
+            int numCovered = cover( x1, y1, x2, y2 );
+
+            for( int i=0; i < numCovered; i++ )
+            {
+                long key = covered[i];
+
+                int[] cell = cells.get( key );
+                if( cell == null )
+                {
+                    cell = new int[5];
+                    cells.put( key, cell );
+                }
+                else if( cell[0] + 1 == cell.length )
+                {
+                    cell = Arrays.copyOf( cell, cell.length*2 );
+                    cells.put( key, cell );
+                }
+
+                cell[ ++cell[0] ] = dev;
+
+                if( numDeviceCells[dev] == deviceCells[dev].length )
+                    deviceCells[dev] = Arrays.copyOf( deviceCells[dev], deviceCells[dev].length*2 );
+
+                deviceCells[dev][ numDeviceCells[dev]++ ] = key;
+            }
+        }
+
+
+        /**
+          * Removes the device from every cell it is registered in.
+          */
+        void remove( int dev )
+        {
+            for( int i=0; i < numDeviceCells[dev]; i++ )
+            {
+                int[] cell = cells.get( deviceCells[dev][i] );
+
+                for( int j=1; j <= cell[0]; j++ )
+                {
+                    if( cell[j] == dev )
+                    {
+                        cell[j] = cell[ cell[0] ];
+                        cell[0]--;
+                        break;
+                    }
+                }
+            }
+
+            numDeviceCells[dev] = 0;
+        }
+
+
+        /**
+          * Writes into <code>found</code> each device registered in a cell
+          * covered by the path between the two points (padded in the same way
+          * as a registered path), and returns the number of devices found.
+          */
+        int findNear( double x1, double y1, double x2, double y2, int[] found )
+        {
+            int numCovered = cover( x1, y1, x2, y2 );
+
+            currentMark++;
+            int numFound = 0;
+
+            for( int i=0; i < numCovered; i++ )
+            {
+                int[] cell = cells.get( covered[i] );
+                if( cell == null )
+                    continue;
+
+                for( int j=1; j <= cell[0]; j++ )
+                {
+                    int dev = cell[j];
+
+                    if( marks[dev] != currentMark )
+                    {
+                        marks[dev] = currentMark;
+                        found[ numFound++ ] = dev;
+                    }
+                }
+            }
+
+            return numFound;
+        }
+
+
+        /**
+          * Writes into <code>covered</code> the key of every cell that is within
+          * the padding of some point on the path between the two points, and
+          * returns the number of cells. <br>
+          * Each column of cells is within the padding of the part of the path
+          * whose x coordinates are within the padding of the column; since the
+          * path is straight, the y coordinates of that part lie between those
+          * at its two ends, and the cells within the padding of them are taken.
+          */
+        private int cover( double x1, double y1, double x2, double y2 )
+        {
+            // (work from left to right)
+            if( x2 < x1 )
+            {
+                double swap = x1;  x1 = x2;  x2 = swap;
+                swap = y1;  y1 = y2;  y2 = swap;
+            }
+
+            double slope = ( x2 > x1 ) ? ( y2 - y1 ) / ( x2 - x1 ) : 0;
+
+            int minCX = cellCoordinate( x1 - padding );
+            int maxCX = cellCoordinate( x2 + padding );
+            int numCovered = 0;
+
+            for( int cx=minCX; cx <= maxCX; cx++ )
+            {
+                double fromY, toY;
+
+                if( x2 > x1 )
+                {
+                    // (the part of the path within the padding of this column)
+                    double fromX = Math.max( cx * cellSize - padding, x1 );
+                    double toX = Math.min( (cx+1) * cellSize + padding, x2 );
+
+                    fromY = y1 + ( fromX - x1 ) * slope;
+                    toY = y1 + ( toX - x1 ) * slope;
+                }
+                else
+                {
+                    fromY = y1;
+                    toY = y2;
+                }
+
+                int minCY = cellCoordinate( Math.min(fromY, toY) - padding );
+                int maxCY = cellCoordinate( Math.max(fromY, toY) + padding );
+
+                for( int cy=minCY; cy <= maxCY; cy++ )
+                {
+                    if( numCovered == covered.length )
+                        covered = Arrays.copyOf( covered, covered.length*2 );
+
+                    covered[ numCovered++ ] = key( cx, cy );
+                }
+            }
+
+            return numCovered;
+        }
+
+
+        private int cellCoordinate( double v )
+        {
+            return (int)Math.floor( v / cellSize );
+        }
+
+
+        private static long key( int cx, int cy )
+        {
+            return ( (long)cx << 32 ) | ( cy & 0xFFFFFFFFL );
+        }
+    }
+}
@@ -0,0 +1,24 @@
+/*   Matthew Williams (0515328)   */
+
+package uk.ac.cf.cs.scm5mjw.mda;
+
+/**
+  * An exception for use when one or more replicates of an experiment fail.
+  */
+public class ExperimentException extends RuntimeException
+{
+    public ExperimentException()
+    {
+        super();
+    }
+
+    public ExperimentException( String msg )
+    {
+        super( msg );
+    }
+
+    public ExperimentException( String msg, Throwable cause )
+    {
+        super( msg, cause );
+    }
+}
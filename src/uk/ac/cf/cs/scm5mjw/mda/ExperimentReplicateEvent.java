@@ -0,0 +1,25 @@
+/*   Matthew Williams (0515328)   */
+
+package uk.ac.cf.cs.scm5mjw.mda;
+
+import jdk.jfr.*;
+
+/**
+  * A Java Flight Recorder event spanning one replicate of an experiment run by
+  * an ExperimentRunner, on the thread that ran it.
+  *
+  * @see ExperimentRunner
+  */
+@Name( "uk.ac.cf.cs.scm5mjw.mda.ExperimentReplicate" )
+@Label( "Experiment Replicate" )
+@Description( "One replicate of an experiment" )
+@Category( { "Opportunistic Network Simulator", "Simulation" } )
+@StackTrace( false )
+final class ExperimentReplicateEvent extends Event
+{
+    @Label( "Replicate" )
+    int replicate;
+
+    @Label( "Succeeded" )
+    boolean succeeded;
+}
@@ -0,0 +1,167 @@
+/*   Matthew Williams (0515328)   */
+
+package uk.ac.cf.cs.scm5mjw.mda;
+
+import java.util.*;
+import java.util.concurrent.*;
+import jdk.jfr.FlightRecorder;
+
+/**
+  * Runs the replicates of an experiment concurrently on a fixed number of threads. <br>
+  * <br>
+  * Each replicate is independent (it has its own Simulator, devices and output),
+  * so replicates can be spread across the available processors and an experiment
+  * of many replicates runs close to a processor's-worth of times faster than
+  * running them one after another. <br>
+  * <br>
+  * By default, one thread is used for each available processor. <br>
+  * <br>
+  * Each replicate is recorded as an ExperimentReplicate event, spanning the
+  * time it ran, whenever a Java Flight Recorder recording has these enabled.
+  *
+  * @see ReplicateTask
+  */
+public final class ExperimentRunner
+{
+    /* Instance variables */
+    private int numberOfThreads;
+
+
+    /* CONSTRUCTORS */
+
+    /**
+      * Creates a runner that uses one thread for each available processor.
+      */
+    public ExperimentRunner()
+    {
+        this( Runtime.getRuntime().availableProcessors() );
+    }
+
+
+    /**
+      * Creates a runner that uses the given number of threads.
+      */
+    public ExperimentRunner( int numberOfThreads )
+    {
+        if( numberOfThreads < 1 )
+            throw new IllegalArgumentException( "An experiment runner must use at least one thread" );
+
+        this.numberOfThreads = numberOfThreads;
+    }
+
+
+
+
+    /* ACCESSORS */
+
+    /**
+      * An accessor for the number of threads that replicates are run on.
+      */
+    public int getNumberOfThreads()
+    {
+        return numberOfThreads;
+    }
+
+
+
+
+    /* RUNNER FUNCTIONALITY */
+
+    /**
+      * Runs the given number of replicates (numbered from 0) and waits for all of
+      * them to finish. At most <code>getNumberOfThreads()</code> replicates are
+      * run at once. <br>
+      * <br>
+      * If any replicate fails, the remaining replicates are still run; an
+      * ExperimentException is then thrown, whose cause is the failure of the
+      * lowest-numbered failed replicate.
+      */
+    public void run( int numberOfReplicates, final ReplicateTask task )
+    {
+        if( numberOfReplicates < 0 )
+            throw new IllegalArgumentException( "Number of replicates must be greater or equal to 0" );
+
+        ExecutorService pool = Executors.newFixedThreadPool( Math.min( numberOfThreads, Math.max( numberOfReplicates, 1 ) ) );
+
+        try
+        {
+            // Submit every replicate
+            List<Future<?>> results = new ArrayList<Future<?>>( numberOfReplicates );
+
+            for( int i=0; i < numberOfReplicates; i++ )
+            {
+                final int replicate = i;
+
+                results.add( pool.submit( new Callable<Object>()
+                {
+                    public Object call() throws Exception
+                    {
+                        // (the event classes are not touched unless the flight recorder has been started)
+                        ExperimentReplicateEvent evt = null;
+                        if( FlightRecorder.isInitialized() )
+                        {
+                            evt = new ExperimentReplicateEvent();
+                            evt.begin();
+                        }
+
+                        boolean succeeded = false;
+                        try
+                        {
+                            task.runReplicate( replicate );
+                            succeeded = true;
+                        }
+                        finally
+                        {
+                            if( evt != null )
+                            {
+                                evt.end();
+                                if( evt.shouldCommit() )
+                                {
+                                    evt.replicate = replicate;
+                                    evt.succeeded = succeeded;
+                                    evt.commit();
+                                }
+                            }
+                        }
+                        return null;
+                    }
+                } ) );
+            }
+
+            // Wait for all of them to finish
+            int numFailed = 0;
+            int firstFailed = -1;
+            Throwable firstFailure = null;
+
+            for( int i=0; i < numberOfReplicates; i++ )
+            {
+                try
+                {
+                    results.get( i ).get();
+                }
+                catch( ExecutionException ex )
+                {
+                    if( firstFailure == null )
+                    {
+                        firstFailed = i;
+                        firstFailure = ex.getCause();
+                    }
+
+                    numFailed++;
+                }
+                catch( InterruptedException ex )
+                {
+                    Thread.currentThread().interrupt();
+                    throw new ExperimentException( "Interrupted while waiting for replicates to finish", ex );
+                }
+            }
+
+            if( firstFailure != null )
+                throw new ExperimentException( numFailed + " of " + numberOfReplicates + " replicates failed (the first being replicate " + firstFailed + ")", firstFailure );
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+    }
+}
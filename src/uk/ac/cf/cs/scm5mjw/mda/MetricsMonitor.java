@@ -0,0 +1,304 @@
+/*   Matthew Williams (0515328)   */
+
+package uk.ac.cf.cs.scm5mjw.mda;
+
+import uk.ac.cf.cs.scm5mjw.mda.devices.*;
+import uk.ac.cf.cs.scm5mjw.mda.io.*;
+
+import java.util.*;
+
+/**
+  * This class gathers metrics about a simulation as it runs, rather than them
+  * being worked out afterwards from a trace of every transfer (as written by
+  * XMLMonitor or TraceMonitor). The metrics are kept up to date in arrays as
+  * each transfer is notified, and when the simulation finishes they are made
+  * into a MetricsSummary. <br>
+  * <br>
+  * The metrics are the time until each device first holds each resource, the
+  * age of artifacts when they are delivered, and the number of transfers
+  * between each type of device (see MetricsSummary). Times are measured from
+  * the start of the simulation. <br>
+  * <br>
+  * As with XMLMonitor, a MetricsMonitor must be registered on a Simulator (for
+  * the start and finish notifications) and on its CommunicationController (for
+  * the transfers). Only the first run is monitored -- subsequent notifications
+  * will be ignored by this monitor. The devices are those in the simulation
+  * when it starts. <br>
+  * <br>
+  * The summaries of the replicates of an experiment can be merged with
+  * MetricsSummary.add().
+  *
+  * @see MetricsSummary
+  */
+public final class MetricsMonitor implements CommunicationListener, SimulationListener
+{
+    /* Instance variables */
+    private MonitorPhase phase;
+    private Simulator sim;
+    private double startTime;
+    private MetricsSummary summary;             // (once the simulation has finished)
+
+    private String[] deviceTypes;
+    private int[] typeOf;                       // The index of each device's type, by device ID (-1 if there is no such device)
+    private int[] resourceIDs;                  // (in ascending order)
+    private double[] firstHeld;                 // [device ID * resources + resource] (NaN if not held yet)
+    private long[] transfers;                   // [from type * types + to type]
+
+    private long ageCount;
+    private double ageSum;
+    private double ageSumSquares;
+    private double ageMin;
+    private double ageMax;
+
+
+
+
+    /**
+      * Construct a metrics monitor.
+      */
+    public MetricsMonitor()
+    {
+        phase = MonitorPhase.BEFORE_START;
+    }
+
+
+
+
+    /* ACCESSORS */
+
+    /**
+      * Returns the summary of the metrics of the simulation. This is only
+      * available once the simulation has finished.
+      *
+      * @throws DataOutputException if the simulation has not finished
+      */
+    public MetricsSummary getSummary()
+    {
+        if( phase != MonitorPhase.FINISHED )
+            throw new DataOutputException( "The metrics summary is only available once the simulation has finished" );
+
+        return summary;
+    }
+
+
+
+
+    /* METHODS RELATED TO GATHERING THE METRICS */
+
+    public void simulationTimestepAdvanced( SimulationEvent evt ) {}
+
+    public void communicationInitiated( CommunicationEvent evt ) {}
+    public void communicationAborted( CommunicationEvent evt ) {}
+    public void communicationTransmissionFailed( CommunicationEvent evt ) {}
+    public void discoverySucceeded( CommunicationEvent evt ) {}
+    public void discoveryFailed( CommunicationEvent evt ) {}
+
+
+    /**
+      * This method will handle the notification of beginning simulation, by
+      * setting up the metrics for the simulation's devices and resources. (An
+      * information source holds its own resource from the start.)
+      */
+    public void simulationStarted( SimulationEvent evt )
+    {
+        // Bomb out of method if one run of the simulation has already been run and finished
+        if( phase == MonitorPhase.FINISHED )
+            return;
+
+
+        if( phase == MonitorPhase.RUNNING )
+            throw new DataOutputException( "Received notification that another simulation has started while one is currently running" );
+
+
+        sim = evt.getSimulator();
+        startTime = evt.getTimeOccurred();
+
+        Vector<AbstractWirelessDevice> devices = new Vector<AbstractWirelessDevice>();
+        devices.addAll( sim.getInformationSources() );
+        devices.addAll( sim.getBeacons() );
+        devices.addAll( sim.getMobileObjects() );
+
+
+        /* Number the device types and resources */
+        int maxID = 0;
+        Vector<String> types = new Vector<String>();
+        for( AbstractWirelessDevice dev : devices )
+        {
+            maxID = Math.max( maxID, dev.getDeviceID() );
+            if( !types.contains( dev.getDeviceTypeIdentifier() ) )
+                types.add( dev.getDeviceTypeIdentifier() );
+        }
+        deviceTypes = types.toArray( new String[ types.size() ] );
+
+        int[] rids = new int[ sim.getInformationSources().size() ];
+        int numResources = 0;
+        for( InformationSource is : sim.getInformationSources() )
+            rids[ numResources++ ] = is.getResourceID();
+        Arrays.sort( rids );
+        resourceIDs = distinct( rids );
+
+
+        /* Set up the metrics */
+        typeOf = new int[ maxID + 1 ];
+        Arrays.fill( typeOf, -1 );
+        for( AbstractWirelessDevice dev : devices )
+            typeOf[ dev.getDeviceID() ] = types.indexOf( dev.getDeviceTypeIdentifier() );
+
+        firstHeld = new double[ ( maxID + 1 ) * resourceIDs.length ];
+        Arrays.fill( firstHeld, Double.NaN );
+        for( InformationSource is : sim.getInformationSources() )
+            firstHeld[ is.getDeviceID()*resourceIDs.length + Arrays.binarySearch( resourceIDs, is.getResourceID() ) ] = 0.0;
+
+        transfers = new long[ deviceTypes.length * deviceTypes.length ];
+        ageCount = 0;
+        ageSum = 0.0;
+        ageSumSquares = 0.0;
+        ageMin = Double.NaN;
+        ageMax = Double.NaN;
+
+        phase = MonitorPhase.RUNNING;
+    }
+
+
+    /**
+      * This method will handle the notification that a simulation has finished,
+      * by making the summary of its metrics.
+      */
+    public void simulationFinished( SimulationEvent evt )
+    {
+        // Bomb out of method if one run of the simulation has already been run and finished
+        if( phase == MonitorPhase.FINISHED )
+            return;
+
+
+        if( !( phase == MonitorPhase.RUNNING ) )
+            throw new DataOutputException( "Received notification a simulation has finished but simulation is not running" );
+
+        assert this.sim == evt.getSimulator();
+
+
+        int nt = deviceTypes.length;
+        int nr = resourceIDs.length;
+        long[] numDevices = new long[ nt ];
+        long[] numHolders = new long[ nr*nt ];
+        double[] heldSum = new double[ nr*nt ];
+        double[] heldMin = new double[ nr*nt ];
+        double[] heldMax = new double[ nr*nt ];
+        Arrays.fill( heldMin, Double.NaN );
+        Arrays.fill( heldMax, Double.NaN );
+
+        for( int id=0; id < typeOf.length; id++ )
+        {
+            int t = typeOf[id];
+            if( t == -1 )
+                continue;
+
+            numDevices[t]++;
+            for( int r=0; r < nr; r++ )
+            {
+                double time = firstHeld[ id*nr + r ];
+                if( Double.isNaN( time ) )
+                    continue;
+
+                int i = r*nt + t;
+                numHolders[i]++;
+                heldSum[i] += time;
+                heldMin[i] = ( numHolders[i] == 1 ) ? time : Math.min( heldMin[i], time );
+                heldMax[i] = ( numHolders[i] == 1 ) ? time : Math.max( heldMax[i], time );
+            }
+        }
+
+        summary = new MetricsSummary( 1, evt.getTimeOccurred() - startTime, deviceTypes, numDevices, transfers,
+                                      ageCount, ageSum, ageSumSquares, ageMin, ageMax,
+                                      resourceIDs, numHolders, heldSum, heldMin, heldMax );
+
+        phase = MonitorPhase.FINISHED;
+        sim = null;
+        typeOf = null;
+        firstHeld = null;
+    }
+
+
+    /**
+      * Handles the notification that a successful communication has occurred,
+      * by adding each artifact transferred (in both directions) to the metrics.
+      */
+    public void communicationTransmissionSucceeded( CommunicationEvent evt )
+    {
+        // Bomb out of method if one run of the simulation has already been run and finished
+        if( phase == MonitorPhase.FINISHED )
+            return;
+
+
+        if( phase == MonitorPhase.BEFORE_START )
+            throw new DataOutputException( "Received notification about a communication without having received a notification that the simulation had begun beforehand" );
+
+
+        // (a snapshot records when it happened; otherwise it is happening now)
+        double time = ( evt.isSnapshot() ? evt.getTimeOccurred() : sim.getTimeElapsed() ) - startTime;
+
+        recordTransfers( evt.getArtifactsToDevice1(), evt.getDevice2ID(), evt.getDevice1ID(), time );
+        recordTransfers( evt.getArtifactsToDevice2(), evt.getDevice1ID(), evt.getDevice2ID(), time );
+    }
+
+
+
+
+    /* HELPER METHODS */
+
+    /**
+      * Adds the transfer of each artifact in a transaction (in ONE direction) to
+      * the metrics.
+      */
+    private void recordTransfers( List<Artifact> artList, int fromID, int toID, double time )
+    {
+        int from = deviceType( fromID );
+        int to = deviceType( toID );
+        int nr = resourceIDs.length;
+
+        for( Artifact art : artList )
+        {
+            transfers[ from*deviceTypes.length + to ]++;
+
+            double age = art.getAge();
+            ageSum += age;
+            ageSumSquares += age*age;
+            ageMin = ( ageCount == 0 ) ? age : Math.min( ageMin, age );
+            ageMax = ( ageCount == 0 ) ? age : Math.max( ageMax, age );
+            ageCount++;
+
+            int r = Arrays.binarySearch( resourceIDs, art.getResourceID() );
+            if( r >= 0 && Double.isNaN( firstHeld[ toID*nr + r ] ) )
+                firstHeld[ toID*nr + r ] = time;
+        }
+    }
+
+
+    /**
+      * Returns the index of the type of the device with the given ID.
+      *
+      * @throws DataOutputException if the device was not in the simulation when it started
+      */
+    private int deviceType( int deviceID )
+    {
+        if( deviceID < 0 || deviceID >= typeOf.length || typeOf[ deviceID ] == -1 )
+            throw new DataOutputException( "Device " + deviceID + " was not in the simulation when it started" );
+
+        return typeOf[ deviceID ];
+    }
+
+
+    /**
+      * Returns the distinct values of a sorted array.
+      */
+    private static int[] distinct( int[] sorted )
+    {
+        int n = 0;
+        for( int i=0; i < sorted.length; i++ )
+        {
+            if( i == 0 || sorted[i] != sorted[i-1] )
+                sorted[ n++ ] = sorted[i];
+        }
+        return Arrays.copyOf( sorted, n );
+    }
+}
@@ -0,0 +1,446 @@
+/*   Matthew Williams (0515328)   */
+
+package uk.ac.cf.cs.scm5mjw.mda;
+
+import java.util.*;
+
+/**
+  * A compact summary of the metrics of one or more simulation runs, as
+  * gathered by a MetricsMonitor. The summaries of several runs (e.g. the
+  * replicates of an experiment) can be merged into one with add(). <br>
+  * <br>
+  * The metrics are: <br>
+  * - the number of artifacts transferred, split by the types of device they
+  *   were transferred from and to <br>
+  * - the age of artifacts when they were delivered (the count, mean, standard
+  *   deviation, minimum and maximum) <br>
+  * - for each resource and each type of device, how many devices came to hold
+  *   an artifact of the resource, and the time until they first held it (the
+  *   mean, minimum and maximum, over those devices that held it) <br>
+  * Device types are identified by their type identifiers, and resources by
+  * their resource IDs; summaries with different types or resources can still
+  * be merged. <br>
+  * <br>
+  * A summary is not safe for use by several threads at once.
+  *
+  * @see MetricsMonitor
+  */
+public final class MetricsSummary
+{
+    /* Instance variables */
+    private int numRuns;
+    private double totalDuration;               // The simulation time of all the runs
+
+    private String[] deviceTypes;
+    private long[] numDevices;                  // [type] (over all runs)
+    private long[] transfers;                   // [from type * types + to type]
+
+    private long ageCount;
+    private double ageSum;
+    private double ageSumSquares;
+    private double ageMin;
+    private double ageMax;
+
+    private int[] resourceIDs;                  // (in ascending order)
+    private long[] numHolders;                  // [resource * types + type]
+    private double[] heldSum;                   // Sum of the times until first held, [resource * types + type]
+    private double[] heldMin;
+    private double[] heldMax;
+
+
+
+
+    /* CONSTRUCTORS */
+
+    /**
+      * Creates an empty summary (of no runs), to which the summaries of runs
+      * can be added.
+      */
+    public MetricsSummary()
+    {
+        this( 0, 0.0, new String[ 0 ], new long[ 0 ], new long[ 0 ],
+              0, 0.0, 0.0, Double.NaN, Double.NaN,
+              new int[ 0 ], new long[ 0 ], new double[ 0 ], new double[ 0 ], new double[ 0 ] );
+    }
+
+
+    /**
+      * Creates a summary from its arrays (used by MetricsMonitor). The arrays
+      * are not copied.
+      */
+    MetricsSummary( int numRuns, double totalDuration, String[] deviceTypes, long[] numDevices, long[] transfers,
+                    long ageCount, double ageSum, double ageSumSquares, double ageMin, double ageMax,
+                    int[] resourceIDs, long[] numHolders, double[] heldSum, double[] heldMin, double[] heldMax )
+    {
+        this.numRuns = numRuns;
+        this.totalDuration = totalDuration;
+        this.deviceTypes = deviceTypes;
+        this.numDevices = numDevices;
+        this.transfers = transfers;
+        this.ageCount = ageCount;
+        this.ageSum = ageSum;
+        this.ageSumSquares = ageSumSquares;
+        this.ageMin = ageMin;
+        this.ageMax = ageMax;
+        this.resourceIDs = resourceIDs;
+        this.numHolders = numHolders;
+        this.heldSum = heldSum;
+        this.heldMin = heldMin;
+        this.heldMax = heldMax;
+    }
+
+
+
+
+    /* ACCESSORS */
+
+    /**
+      * Returns the number of runs summarised.
+      */
+    public int getNumberOfRuns()
+    {
+        return numRuns;
+    }
+
+
+    /**
+      * Returns the total simulation time of the runs summarised.
+      */
+    public double getTotalDuration()
+    {
+        return totalDuration;
+    }
+
+
+    /**
+      * Returns the type identifiers of the types of device in the runs.
+      *
+      * @see uk.ac.cf.cs.scm5mjw.mda.devices.AbstractWirelessDevice#getDeviceTypeIdentifier()
+      */
+    public String[] getDeviceTypes()
+    {
+        return deviceTypes.clone();
+    }
+
+
+    /**
+      * Returns the resource IDs of the resources in the runs (in ascending
+      * order).
+      */
+    public int[] getResourceIDs()
+    {
+        return resourceIDs.clone();
+    }
+
+
+    /**
+      * Returns the number of devices of the given type, over all the runs (0 if
+      * there are none).
+      */
+    public long getNumberOfDevices( String deviceType )
+    {
+        int t = typeIndex( deviceType );
+        return ( t == -1 ) ? 0 : numDevices[t];
+    }
+
+
+    /**
+      * Returns the number of artifacts transferred, over all the runs.
+      */
+    public long getNumberOfTransfers()
+    {
+        return ageCount;
+    }
+
+
+    /**
+      * Returns the number of artifacts transferred from devices of one type to
+      * devices of another, over all the runs.
+      */
+    public long getNumberOfTransfers( String fromType, String toType )
+    {
+        int from = typeIndex( fromType );
+        int to = typeIndex( toType );
+        return ( from == -1 || to == -1 ) ? 0 : transfers[ from*deviceTypes.length + to ];
+    }
+
+
+    /**
+      * Returns the mean age of artifacts when delivered (NaN if none were).
+      */
+    public double getMeanDeliveryAge()
+    {
+        return ( ageCount == 0 ) ? Double.NaN : ageSum / ageCount;
+    }
+
+
+    /**
+      * Returns the (population) standard deviation of the age of artifacts when
+      * delivered (NaN if none were).
+      */
+    public double getDeliveryAgeStandardDeviation()
+    {
+        if( ageCount == 0 )
+            return Double.NaN;
+
+        double mean = ageSum / ageCount;
+        return Math.sqrt( Math.max( 0.0, ageSumSquares / ageCount - mean*mean ) );
+    }
+
+
+    /**
+      * Returns the lowest age of an artifact when delivered (NaN if none were).
+      */
+    public double getMinDeliveryAge()
+    {
+        return ageMin;
+    }
+
+
+    /**
+      * Returns the highest age of an artifact when delivered (NaN if none
+      * were).
+      */
+    public double getMaxDeliveryAge()
+    {
+        return ageMax;
+    }
+
+
+    /**
+      * Returns the number of devices of the given type which came to hold an
+      * artifact of the given resource, over all the runs. (An information
+      * source holds its own resource from the start.)
+      */
+    public long getNumberOfHolders( int resourceID, String deviceType )
+    {
+        int i = index( resourceID, deviceType );
+        return ( i == -1 ) ? 0 : numHolders[i];
+    }
+
+
+    /**
+      * Returns the mean time until a device of the given type first held an
+      * artifact of the given resource, over the devices which did (NaN if none
+      * did).
+      */
+    public double getMeanTimeUntilHeld( int resourceID, String deviceType )
+    {
+        int i = index( resourceID, deviceType );
+        return ( i == -1 || numHolders[i] == 0 ) ? Double.NaN : heldSum[i] / numHolders[i];
+    }
+
+
+    /**
+      * Returns the shortest time until a device of the given type first held
+      * an artifact of the given resource (NaN if none did).
+      */
+    public double getMinTimeUntilHeld( int resourceID, String deviceType )
+    {
+        int i = index( resourceID, deviceType );
+        return ( i == -1 ) ? Double.NaN : heldMin[i];
+    }
+
+
+    /**
+      * Returns the longest time until a device of the given type first held an
+      * artifact of the given resource (NaN if none did).
+      */
+    public double getMaxTimeUntilHeld( int resourceID, String deviceType )
+    {
+        int i = index( resourceID, deviceType );
+        return ( i == -1 ) ? Double.NaN : heldMax[i];
+    }
+
+
+
+
+    /* MERGING */
+
+    /**
+      * Adds the runs of the given summary to this summary, so that this summary
+      * becomes a summary of both sets of runs.
+      */
+    public void add( MetricsSummary other )
+    {
+        /* Work out the combined device types and resources */
+        String[] types = deviceTypes;
+        for( String type : other.deviceTypes )
+        {
+            if( indexOf( types, type ) == -1 )
+            {
+                types = Arrays.copyOf( types, types.length + 1 );
+                types[ types.length - 1 ] = type;
+            }
+        }
+
+        int[] rids = resourceIDs;
+        for( int rid : other.resourceIDs )
+        {
+            if( Arrays.binarySearch( rids, rid ) < 0 )
+            {
+                rids = Arrays.copyOf( rids, rids.length + 1 );
+                rids[ rids.length - 1 ] = rid;
+                Arrays.sort( rids );
+            }
+        }
+
+
+        /* Combine the counts, with both summaries' indices mapped to the new ones */
+        int nt = types.length;
+        long[] newNumDevices = new long[ nt ];
+        long[] newTransfers = new long[ nt*nt ];
+        long[] newNumHolders = new long[ rids.length*nt ];
+        double[] newHeldSum = new double[ rids.length*nt ];
+        double[] newHeldMin = new double[ rids.length*nt ];
+        double[] newHeldMax = new double[ rids.length*nt ];
+        Arrays.fill( newHeldMin, Double.NaN );
+        Arrays.fill( newHeldMax, Double.NaN );
+
+        for( MetricsSummary s : new MetricsSummary[] { this, other } )
+        {
+            int[] typeMap = new int[ s.deviceTypes.length ];
+            for( int t=0; t < typeMap.length; t++ )
+                typeMap[t] = indexOf( types, s.deviceTypes[t] );
+
+            for( int t=0; t < typeMap.length; t++ )
+            {
+                newNumDevices[ typeMap[t] ] += s.numDevices[t];
+                for( int u=0; u < typeMap.length; u++ )
+                    newTransfers[ typeMap[t]*nt + typeMap[u] ] += s.transfers[ t*typeMap.length + u ];
+            }
+
+            for( int r=0; r < s.resourceIDs.length; r++ )
+            {
+                int newR = Arrays.binarySearch( rids, s.resourceIDs[r] );
+                for( int t=0; t < typeMap.length; t++ )
+                {
+                    int from = r*typeMap.length + t;
+                    int to = newR*nt + typeMap[t];
+
+                    newNumHolders[to] += s.numHolders[from];
+                    newHeldSum[to] += s.heldSum[from];
+                    newHeldMin[to] = min( newHeldMin[to], s.heldMin[from] );
+                    newHeldMax[to] = max( newHeldMax[to], s.heldMax[from] );
+                }
+            }
+        }
+
+
+        numRuns += other.numRuns;
+        totalDuration += other.totalDuration;
+        deviceTypes = types;
+        numDevices = newNumDevices;
+        transfers = newTransfers;
+
+        ageCount += other.ageCount;
+        ageSum += other.ageSum;
+        ageSumSquares += other.ageSumSquares;
+        ageMin = min( ageMin, other.ageMin );
+        ageMax = max( ageMax, other.ageMax );
+
+        resourceIDs = rids;
+        numHolders = newNumHolders;
+        heldSum = newHeldSum;
+        heldMin = newHeldMin;
+        heldMax = newHeldMax;
+    }
+
+
+
+
+    /* OUTPUT */
+
+    /**
+      * Returns the summary as (several lines of) text.
+      */
+    public String toString()
+    {
+        StringBuilder buff = new StringBuilder();
+
+        buff.append( "Runs: " ).append( numRuns ).append( " (simulated time: " ).append( totalDuration ).append( ")\n" );
+
+        buff.append( "Devices:" );
+        for( int t=0; t < deviceTypes.length; t++ )
+            buff.append( ' ' ).append( deviceTypes[t] ).append( '=' ).append( numDevices[t] );
+        buff.append( '\n' );
+
+        buff.append( "Transfers: " ).append( ageCount ).append( '\n' );
+        for( int t=0; t < deviceTypes.length; t++ )
+        {
+            for( int u=0; u < deviceTypes.length; u++ )
+            {
+                if( transfers[ t*deviceTypes.length + u ] > 0 )
+                    buff.append( "    " ).append( deviceTypes[t] ).append( " -> " ).append( deviceTypes[u] )
+                        .append( ": " ).append( transfers[ t*deviceTypes.length + u ] ).append( '\n' );
+            }
+        }
+
+        buff.append( "Age when delivered: mean=" ).append( getMeanDeliveryAge() )
+            .append( ", sd=" ).append( getDeliveryAgeStandardDeviation() )
+            .append( ", min=" ).append( ageMin ).append( ", max=" ).append( ageMax ).append( '\n' );
+
+        buff.append( "Time until first held (resource, device type: holders/devices, mean, min, max):\n" );
+        for( int r=0; r < resourceIDs.length; r++ )
+        {
+            for( int t=0; t < deviceTypes.length; t++ )
+            {
+                int i = r*deviceTypes.length + t;
+                buff.append( "    " ).append( resourceIDs[r] ).append( ", " ).append( deviceTypes[t] ).append( ": " )
+                    .append( numHolders[i] ).append( '/' ).append( numDevices[t] )
+                    .append( ", " ).append( ( numHolders[i] == 0 ) ? Double.NaN : heldSum[i] / numHolders[i] )
+                    .append( ", " ).append( heldMin[i] ).append( ", " ).append( heldMax[i] ).append( '\n' );
+            }
+        }
+
+        return buff.toString();
+    }
+
+
+
+
+    /* HELPERS */
+
+    private int typeIndex( String deviceType )
+    {
+        return indexOf( deviceTypes, deviceType );
+    }
+
+
+    /**
+      * Returns the index of the given resource and device type in the
+      * per-resource arrays (or -1 if either is not in the summary).
+      */
+    private int index( int resourceID, String deviceType )
+    {
+        int r = Arrays.binarySearch( resourceIDs, resourceID );
+        int t = typeIndex( deviceType );
+        return ( r < 0 || t == -1 ) ? -1 : r*deviceTypes.length + t;
+    }
+
+
+    private static int indexOf( String[] types, String type )
+    {
+        for( int i=0; i < types.length; i++ )
+        {
+            if( types[i].equals( type ) )
+                return i;
+        }
+        return -1;
+    }
+
+
+    /**
+      * The minimum of two values, either of which may be NaN for 'no value'.
+      */
+    private static double min( double a, double b )
+    {
+        return Double.isNaN( a ) ? b : ( Double.isNaN( b ) ? a : Math.min( a, b ) );
+    }
+
+
+    private static double max( double a, double b )
+    {
+        return Double.isNaN( a ) ? b : ( Double.isNaN( b ) ? a : Math.max( a, b ) );
+    }
+}
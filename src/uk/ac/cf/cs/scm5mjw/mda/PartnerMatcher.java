@@ -0,0 +1,406 @@
+/*   Matthew Williams (0515328)   */
+
+package uk.ac.cf.cs.scm5mjw.mda;
+
+import uk.ac.cf.cs.scm5mjw.mda.devices.*;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+  * Pairs up devices that are not communicating with partners they can
+  * communicate with, working on several threads at once. It is used by the
+  * Simulator when pairing is done in parallel. <br>
+  * <br>
+  * The devices that could be paired form a contact graph: two devices are joined
+  * if neither is communicating, they can (mutually) communicate, and at least one
+  * of them is a mobile object. The matcher chooses a random maximal matching on
+  * this graph, in rounds of proposals: <br>
+  *     1. each edge is given a random priority for the round, by hashing the
+  *        seed, the round number and the devices at its ends <br>
+  *     2. each unpaired device proposes to the unpaired neighbour joined to it
+  *        by its highest priority edge <br>
+  *     3. each pair of devices that proposed to each other is paired <br>
+  * The edge with the highest priority is always accepted, so every round pairs
+  * at least one pair of devices until the matching is maximal. Most pairs are
+  * made in the first few rounds; after <code>MAX_ROUNDS</code> rounds the
+  * devices still left are paired in a single (sequential) pass. <br>
+  * <br>
+  * Each step works on ranges of devices on the common fork/join pool. Because
+  * every choice depends only on the seed and the contact graph (never on which
+  * thread gets there first), the same seed always gives the same pairs, however
+  * many threads are used. <br>
+  * <br>
+  * The contact graph is built from the spatial grids of the Simulator, so the
+  * grids must be up to date and must not change while a matching is found.
+  * Memory is only allocated when the matcher needs to grow (and for the tasks
+  * run on the pool).
+  *
+  * @see Simulator#setParallelPairing(boolean)
+  */
+final class PartnerMatcher
+{
+    /* Constants */
+    public static final int MAX_ROUNDS = 16;               // Rounds of proposals before the final pass
+
+    private static final int CHUNK_SIZE = 256;             // The most devices handled by one task
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    // The steps run by a MatchingTask
+    private static final int COUNT_NEIGHBOURS = 0;
+    private static final int LIST_NEIGHBOURS = 1;
+    private static final int PROPOSE = 2;
+    private static final int ACCEPT = 3;
+
+
+    /* Instance variables */
+    private AbstractWirelessDevice[] devices;   // The static devices, followed by the mobile objects
+    private int numberOfStatics;
+    private int numberOfDevices;
+
+    private int[] neighbourStarts;              // neighbourStarts[d]..neighbourStarts[d+1]-1 index into neighbours
+    private int[] neighbours;                   // The contact graph, as lists of device indexes
+    private int[] proposals;                    // The device each device proposed to (-1 if none)
+    private int[] partners;                     // The device each device is paired with (-1 if none)
+    private int numberOfPairs;
+
+
+
+
+    /* CONSTRUCTORS */
+
+    /**
+      * Creates a matcher with no devices.
+      */
+    public PartnerMatcher()
+    {
+        devices = new AbstractWirelessDevice[ 0 ];
+        neighbourStarts = new int[ 1 ];
+        neighbours = new int[ 0 ];
+        proposals = new int[ 0 ];
+        partners = new int[ 0 ];
+    }
+
+
+
+
+    /* ACCESSORS */
+
+    /**
+      * An accessor for the number of devices the matcher works over.
+      */
+    public int getNumberOfDevices()
+    {
+        return numberOfDevices;
+    }
+
+
+    /**
+      * Returns the device with the given index. The static devices come first (in
+      * the order they were given), followed by the mobile objects.
+      */
+    public AbstractWirelessDevice getDevice( int index )
+    {
+        return devices[ index ];
+    }
+
+
+    /**
+      * Returns the index of the device the given device was paired with by the
+      * last matching, or -1 if it was not paired.
+      */
+    public int getPartner( int index )
+    {
+        return partners[ index ];
+    }
+
+
+    /**
+      * Returns the number of pairs made by the last matching.
+      */
+    public int getNumberOfPairs()
+    {
+        return numberOfPairs;
+    }
+
+
+
+
+    /* MATCHING FUNCTIONALITY */
+
+    /**
+      * Sets the devices to be matched. The lists must be in the same order as the
+      * lists the static and mobile grids are built from.
+      */
+    public void setDevices( List<? extends AbstractWirelessDevice> statics, List<? extends MobileObject> mobiles )
+    {
+        numberOfStatics = statics.size();
+        numberOfDevices = numberOfStatics + mobiles.size();
+
+        if( devices.length != numberOfDevices )
+        {
+            devices = new AbstractWirelessDevice[ numberOfDevices ];
+            neighbourStarts = new int[ numberOfDevices+1 ];
+            proposals = new int[ numberOfDevices ];
+            partners = new int[ numberOfDevices ];
+        }
+
+        for( int i=0; i < numberOfStatics; i++ )
+            devices[i] = statics.get(i);
+        for( int i=0; i < mobiles.size(); i++ )
+            devices[ numberOfStatics+i ] = mobiles.get(i);
+    }
+
+
+    /**
+      * Finds a random maximal matching of the devices that are not
+      * communicating, using the given seed. The pairs found may be read with
+      * <code>getPartner</code>; no communication is initiated. <br>
+      * <br>
+      * The grids must hold the devices given to <code>setDevices</code>, from
+      * the same lists.
+      */
+    public void match( SpatialGrid staticGrid, SpatialGrid mobileGrid, long seed )
+    {
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+
+        // Build the contact graph: count each device's neighbours, then list them
+        pool.invoke( new MatchingTask( this, COUNT_NEIGHBOURS, staticGrid, mobileGrid, 0, 0, numberOfDevices ) );
+
+        for( int d=0; d < numberOfDevices; d++ )
+            neighbourStarts[d+1] += neighbourStarts[d];
+
+        if( neighbours.length < neighbourStarts[ numberOfDevices ] )
+            neighbours = new int[ neighbourStarts[ numberOfDevices ] ];
+
+        pool.invoke( new MatchingTask( this, LIST_NEIGHBOURS, staticGrid, mobileGrid, 0, 0, numberOfDevices ) );
+
+        // Pair devices in rounds of proposals until no more pairs are made
+        numberOfPairs = 0;
+        for( int round=0; round < MAX_ROUNDS; round++ )
+        {
+            pool.invoke( new MatchingTask( this, PROPOSE, null, null, mix( seed, round ), 0, numberOfDevices ) );
+
+            MatchingTask accept = new MatchingTask( this, ACCEPT, null, null, 0, 0, numberOfDevices );
+            pool.invoke( accept );
+
+            if( accept.pairsMade == 0 )
+                return;                                 // (the matching is maximal)
+
+            numberOfPairs += accept.pairsMade;
+        }
+
+        // Pair any devices still left, in order
+        long roundSeed = mix( seed, MAX_ROUNDS );
+        for( int d=0; d < numberOfDevices; d++ )
+        {
+            if( partners[d] < 0 )
+            {
+                int best = findBestNeighbour( d, roundSeed );
+
+                if( best >= 0 )
+                {
+                    partners[d] = best;
+                    partners[best] = d;
+                    numberOfPairs++;
+                }
+            }
+        }
+    }
+
+
+    /**
+      * Counts (or, if <code>list</code> is set, lists) the neighbours of the given
+      * device in the contact graph. The device's partner is also cleared. Only
+      * the given device's entries are written.
+      */
+    private void findNeighbours( int d, SpatialGrid staticGrid, SpatialGrid mobileGrid, int[] buckets, boolean list )
+    {
+        AbstractWirelessDevice dev = devices[d];
+        int count = 0;
+
+        partners[d] = -1;
+
+        if( !dev.isCommunicating() )
+        {
+            // (static devices can only be paired with mobile objects)
+            if( d >= numberOfStatics )
+                count = scanGrid( d, staticGrid, 0, buckets, list, count );
+
+            count = scanGrid( d, mobileGrid, numberOfStatics, buckets, list, count );
+        }
+
+        if( !list )
+            neighbourStarts[d+1] = count;
+    }
+
+
+    /**
+      * Scans the cells of the given grid around the given device for devices it
+      * could be paired with. <code>offset</code> is added to the grid's list
+      * indexes to give device indexes. Returns the number of devices found so
+      * far for the given device (<code>count</code> being the number found
+      * before).
+      */
+    private int scanGrid( int d, SpatialGrid grid, int offset, int[] buckets, boolean list, int count )
+    {
+        AbstractWirelessDevice dev1 = devices[d];
+        int numBuckets = grid.findNeighbourBuckets( dev1.getLocation(), buckets );
+        int start = neighbourStarts[d];
+
+        for( int b=0; b < numBuckets; b++ )
+        {
+            int end = grid.getBucketEnd( buckets[b] );
+
+            for( int i=grid.getBucketStart( buckets[b] ); i < end; i++ )
+            {
+                AbstractWirelessDevice dev2 = grid.getDevice( i );
+
+                if( dev1 != dev2 && !dev2.isCommunicating() && dev1.canCommunicateWith( dev2 ) )
+                {
+                    if( list )
+                        neighbours[ start+count ] = offset + grid.getListIndex( i );
+                    count++;
+                }
+            }
+        }
+
+        return count;
+    }
+
+
+    /**
+      * Returns the unpaired neighbour of the given device that is joined to it by
+      * the edge with the highest priority for the given round, or -1 if all of
+      * its neighbours are paired.
+      */
+    private int findBestNeighbour( int d, long roundSeed )
+    {
+        int best = -1;
+        long bestPriority = 0;
+
+        for( int k=neighbourStarts[d]; k < neighbourStarts[d+1]; k++ )
+        {
+            int e = neighbours[k];
+
+            if( partners[e] < 0 )
+            {
+                long priority = ( d < e ) ? priority( roundSeed, d, e ) : priority( roundSeed, e, d );
+
+                if( best < 0 || priority > bestPriority || (priority == bestPriority && e < best) )
+                {
+                    best = e;
+                    bestPriority = priority;
+                }
+            }
+        }
+
+        return best;
+    }
+
+
+    /**
+      * Returns the priority of the edge between the given devices (the lower
+      * index first) for the round with the given seed.
+      */
+    private static long priority( long roundSeed, int lower, int higher )
+    {
+        return mix( roundSeed, ((long)lower << 32) | (higher & 0xFFFFFFFFL) );
+    }
+
+
+    /**
+      * Mixes a value into a seed, giving a well scrambled 64-bit number (this is
+      * the finalizer of the SplitMix64 generator, which SplittableRandom uses).
+      */
+    private static long mix( long seed, long value )
+    {
+        long z = seed + (value + 1) * GOLDEN_GAMMA;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+
+
+
+    /**
+      * Runs one step of the matching over a range of devices (those from first
+      * up to, but not including, last), splitting the range into chunks that
+      * are run in parallel. Each device's entries are only written by the task
+      * handling that device (an accepted pair being written by the task
+      * handling its lower device), so the chunks do not interfere.
+      */
+    private static final class MatchingTask extends RecursiveAction
+    {
+        private final PartnerMatcher matcher;
+        private final int step;
+        private final SpatialGrid staticGrid;     // (only used to find neighbours)
+        private final SpatialGrid mobileGrid;
+        private final long roundSeed;             // (only used to propose)
+        private final int first;
+        private final int last;
+
+        int pairsMade;                            // The number of pairs accepted by this task
+
+
+        MatchingTask( PartnerMatcher matcher, int step, SpatialGrid staticGrid, SpatialGrid mobileGrid, long roundSeed, int first, int last )
+        {
+            this.matcher = matcher;
+            this.step = step;
+            this.staticGrid = staticGrid;
+            this.mobileGrid = mobileGrid;
+            this.roundSeed = roundSeed;
+            this.first = first;
+            this.last = last;
+        }
+
+
+        protected void compute()
+        {
+            if( last - first > CHUNK_SIZE )
+            {
+                int middle = ( first + last ) >>> 1;
+                MatchingTask left = new MatchingTask( matcher, step, staticGrid, mobileGrid, roundSeed, first, middle );
+                MatchingTask right = new MatchingTask( matcher, step, staticGrid, mobileGrid, roundSeed, middle, last );
+
+                invokeAll( left, right );
+                pairsMade = left.pairsMade + right.pairsMade;
+                return;
+            }
+
+            int[] buckets = ( step <= LIST_NEIGHBOURS ) ? new int[9] : null;
+            int[] proposals = matcher.proposals;
+            int[] partners = matcher.partners;
+
+            for( int d=first; d < last; d++ )
+            {
+                switch( step )
+                {
+                    case COUNT_NEIGHBOURS:
+                        matcher.findNeighbours( d, staticGrid, mobileGrid, buckets, false );
+                        break;
+
+                    case LIST_NEIGHBOURS:
+                        matcher.findNeighbours( d, staticGrid, mobileGrid, buckets, true );
+                        break;
+
+                    case PROPOSE:
+                        proposals[d] = ( partners[d] < 0 ) ? matcher.findBestNeighbour( d, roundSeed ) : -1;
+                        break;
+
+                    case ACCEPT:
+                        int e = proposals[d];
+                        if( e > d && proposals[e] == d )
+                        {
+                            partners[d] = e;
+                            partners[e] = d;
+                            pairsMade++;
+                        }
+                        break;
+                }
+            }
+        }
+    }
+}
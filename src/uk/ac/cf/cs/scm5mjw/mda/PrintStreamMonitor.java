@@ -47,6 +47,7 @@ public final class PrintStreamMonitor implements CommunicationListener, Simulati
     
     private boolean doOutputIterations;
     private boolean doOutputCommunications;
+    private boolean doOutputProfile;
     
     private int numArtifactsTransferred;
     
@@ -145,6 +146,29 @@ public final class PrintStreamMonitor implements CommunicationListener, Simulati
     }
     
     
+    /**
+      * A mutator for whether the simulator's profile of the run should be
+      * outputted when the simulation finishes. This is off by default, and
+      * nothing is outputted unless the simulator is profiling the run.
+      * 
+      * @see Simulator#setProfiling(boolean)
+      */
+    public void setOutputProfile( boolean m )
+    {
+        doOutputProfile = m;
+    }
+    
+    
+    /**
+      * An accessor for whether the simulator's profile of the run should be
+      * outputted when the simulation finishes.
+      */
+    public boolean getOutputProfile()
+    {
+        return doOutputProfile;
+    }
+    
+    
     
     
     /* METHODS RELATED TO ACTUAL DATA OUTPUT */
@@ -165,7 +189,7 @@ public final class PrintStreamMonitor implements CommunicationListener, Simulati
             return;
         
         
-        int itNum =  sim.getIteration();
+        int itNum = evt.getIteration();
         out.println( formatIteration(itNum) + "\tSIMULATION ITERATION" );
     }
     
@@ -186,8 +210,8 @@ public final class PrintStreamMonitor implements CommunicationListener, Simulati
             return;
         
         
-        String strIteration = formatIteration( sim.getIteration() );
-        String strDevices = formatDevices( evt.getDevice1(), evt.getDevice2() );
+        String strIteration = formatIteration( iterationOf( evt ) );
+        String strDevices = formatDevices( evt );
         
         out.println( strIteration + "\t" + strDevices + "\tInitiated\t\t\t(session STARTED)" );
     }
@@ -209,8 +233,8 @@ public final class PrintStreamMonitor implements CommunicationListener, Simulati
             return;
         
         
-        String strIteration = formatIteration( sim.getIteration() );
-        String strDevices = formatDevices( evt.getDevice1(), evt.getDevice2() );
+        String strIteration = formatIteration( iterationOf( evt ) );
+        String strDevices = formatDevices( evt );
         
         out.println( strIteration + "\t" + strDevices + "\tDiscovery succeeded" );
     }
@@ -232,8 +256,8 @@ public final class PrintStreamMonitor implements CommunicationListener, Simulati
             return;
         
         
-        String strIteration = formatIteration( sim.getIteration() );
-        String strDevices = formatDevices( evt.getDevice1(), evt.getDevice2() );
+        String strIteration = formatIteration( iterationOf( evt ) );
+        String strDevices = formatDevices( evt );
         
         out.println( strIteration + "\t" + strDevices + "\tDiscovery failed\t\t(session FIN.)" );
     }
@@ -255,8 +279,8 @@ public final class PrintStreamMonitor implements CommunicationListener, Simulati
             return;
         
         
-        String strIteration = formatIteration( sim.getIteration() );
-        String strDevices = formatDevices( evt.getDevice1(), evt.getDevice2() );
+        String strIteration = formatIteration( iterationOf( evt ) );
+        String strDevices = formatDevices( evt );
         
         out.println( strIteration + "\t" + strDevices + "\tAborted\t\t\t\t(session FIN.)" );
     }
@@ -278,8 +302,8 @@ public final class PrintStreamMonitor implements CommunicationListener, Simulati
             return;
         
         
-        String strIteration = formatIteration( sim.getIteration() );
-        String strDevices = formatDevices( evt.getDevice1(), evt.getDevice2() );
+        String strIteration = formatIteration( iterationOf( evt ) );
+        String strDevices = formatDevices( evt );
         
         out.println( strIteration + "\t" + strDevices + "\tTransmission failed\t\t(session FIN.)" );
     }
@@ -302,8 +326,8 @@ public final class PrintStreamMonitor implements CommunicationListener, Simulati
         if( !doOutputCommunications )
             return;
         
-        String strIteration = formatIteration( sim.getIteration() );
-        String strDevices = formatDevices( evt.getDevice1(), evt.getDevice2() );
+        String strIteration = formatIteration( iterationOf( evt ) );
+        String strDevices = formatDevices( evt );
         
         out.println( strIteration + "\t" + strDevices + "\tTransmission succeeded\t\t(session FIN.)" );
     }
@@ -332,7 +356,7 @@ public final class PrintStreamMonitor implements CommunicationListener, Simulati
         numArtifactsTransferred = 0;
         
         // Output text...
-        int itNum = sim.getIteration();
+        int itNum = evt.getIteration();
         out.println( formatIteration(itNum) + "\tSIMULATION STARTED" );
     }
     
@@ -343,7 +367,8 @@ public final class PrintStreamMonitor implements CommunicationListener, Simulati
       * <br>
       * Text outputted about the simulation finishing includes: <br> 
       *  - a value for the total number of artifacts transferred during the simulation <br>
-      *  - a list of each mobile object and beacon along with the artifacts they hold
+      *  - a list of each mobile object and beacon along with the artifacts they hold <br>
+      *  - the simulator's profile of the run (if enabled, and the run was profiled)
       */
     public void simulationFinished( SimulationEvent evt )
     {
@@ -359,7 +384,7 @@ public final class PrintStreamMonitor implements CommunicationListener, Simulati
         
         
         // Output text...
-        int itNum = sim.getIteration();
+        int itNum = evt.getIteration();
         out.println( formatIteration(itNum) + "\tSIMULATION FINISHED" );
         out.println( "Summary:" );
         out.println( "\tTotal number of artifacts transferred:\t" + numArtifactsTransferred ); 
@@ -379,6 +404,9 @@ public final class PrintStreamMonitor implements CommunicationListener, Simulati
                 out.println( "\t\t" + art );
         }
         
+        if( doOutputProfile && sim.getProfile() != null )
+            out.print( sim.getProfile() );
+        
         
         // Handle simulation finished...
         phase = MonitorPhase.FINISHED;
@@ -402,14 +430,25 @@ public final class PrintStreamMonitor implements CommunicationListener, Simulati
     
     
     /**
-      * This helper method will get the device IDs of the two given devices and formats
-      * them into a string. The method will ensure that the lowest device ID of 
-      * the two devices is first.
+      * This helper method returns the iteration the given communication event
+      * happened in. A snapshot records its iteration; any other event is
+      * happening now.
+      */
+    private int iterationOf( CommunicationEvent evt )
+    {
+        return evt.isSnapshot() ? evt.getIteration() : sim.getIteration();
+    }
+    
+    
+    /**
+      * This helper method will get the device IDs of the two devices in the given
+      * event and formats them into a string. The method will ensure that the
+      * lowest device ID of the two devices is first.
       */
-    private static String formatDevices( AbstractWirelessDevice dev1, AbstractWirelessDevice dev2 )
+    private static String formatDevices( CommunicationEvent evt )
     {
-        int deviceID1 = Math.min( dev1.getDeviceID(), dev2.getDeviceID() );
-        int deviceID2 = Math.max( dev1.getDeviceID(), dev2.getDeviceID() );
+        int deviceID1 = Math.min( evt.getDevice1ID(), evt.getDevice2ID() );
+        int deviceID2 = Math.max( evt.getDevice1ID(), evt.getDevice2ID() );
         
         return "<" + deviceID1 + "," + deviceID2 + ">";
     }
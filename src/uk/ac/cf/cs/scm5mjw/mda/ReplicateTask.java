@@ -0,0 +1,21 @@
+/*   Matthew Williams (0515328)   */
+
+package uk.ac.cf.cs.scm5mjw.mda;
+
+/**
+  * A single replicate (repeat) of an experiment, to be run by an ExperimentRunner. <br>
+  * <br>
+  * Replicates may be run at the same time on different threads, so an
+  * implementation should set up its own Simulator, devices and output for each
+  * replicate. Read-only inputs (such as a MobilityMap that has already been
+  * parsed) may be shared between replicates.
+  *
+  * @see ExperimentRunner
+  */
+public interface ReplicateTask
+{
+    /**
+      * Sets up and runs the given replicate. Replicates are numbered from 0.
+      */
+    public void runReplicate( int replicate ) throws Exception;
+}
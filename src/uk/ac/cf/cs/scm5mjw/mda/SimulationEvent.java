@@ -4,27 +4,47 @@ package uk.ac.cf.cs.scm5mjw.mda;
 
 /**
   * This event indicates an event has occurred during a Simulation and encapsulates
-  * information about that event.
+  * information about that event. <br>
+  * <br>
+  * The time and iteration are recorded when the event is created, so they are
+  * still correct if the event is handled later (e.g. by an AsyncEventDispatcher).
+  * The Simulator itself is not a copy, so may have moved on by then.
   */
 public class SimulationEvent
 {
     private Simulator sim;
     private double timeOccurred;
+    private int iteration;
     
     
     
     
     /**
       * Constructs a SimulationEvent object with the various items of data that
-      * describe the event.
+      * describe the event. The iteration is taken from the simulator now.
       * 
       * @param sim the simulator responsible for the event
       * @param timeOccurred the time in the simulation that the event occurred
       */
     public SimulationEvent( Simulator sim, double timeOccurred )
+    {
+        this( sim, timeOccurred, sim.getIteration() );
+    }
+    
+    
+    /**
+      * Constructs a SimulationEvent object with the various items of data that
+      * describe the event.
+      * 
+      * @param sim the simulator responsible for the event
+      * @param timeOccurred the time in the simulation that the event occurred
+      * @param iteration the simulator's iteration number when the event occurred
+      */
+    public SimulationEvent( Simulator sim, double timeOccurred, int iteration )
     {
         this.sim = sim;
         this.timeOccurred = timeOccurred;
+        this.iteration = iteration;
     }
     
     
@@ -47,4 +67,16 @@ public class SimulationEvent
     {
         return timeOccurred;
     }
+    
+    
+    /**
+      * An accessor to return the simulator's iteration number when the event
+      * occurred.
+      * 
+      * @see Simulator#getIteration()
+      */
+    public int getIteration()
+    {
+        return iteration;
+    }
 }
@@ -0,0 +1,40 @@
+/*   Matthew Williams (0515328)   */
+
+package uk.ac.cf.cs.scm5mjw.mda;
+
+/**
+  * This is an enumerated type for the parts of a simulation run that are timed
+  * separately by a SimulationProfile:<br>
+  * 1. SETUP : Preparing for the run (indexing the beacons and information
+  *    sources, and setting up the event-driven engine)<br>
+  * 2. MOBILITY : Moving the mobile objects<br>
+  * 3. INDEXING : Indexing the mobile objects by their new locations<br>
+  * 4. ADVANCE_COMMUNICATION : Advancing the clock and each device's
+  *    communication time<br>
+  * 5. CHECK_COMMUNICATION : Moving communication sessions on (discovery,
+  *    completion or abortion)<br>
+  * 6. PAIRING : Finding partners for devices that are not communicating and
+  *    initiating communication with them<br>
+  * 7. LISTENERS : Notifying the simulation listeners<br>
+  * <br>
+  * Communication listeners are notified by the CommunicationController as
+  * sessions change, so the time they take is part of the phase that changed
+  * the session (mostly CHECK_COMMUNICATION and PAIRING). <br>
+  * An event-driven run times each event as part of the phase it mostly belongs
+  * to (arrivals at map nodes, and bringing every device up to date for the
+  * listeners, are MOBILITY; the ends of session phases are
+  * CHECK_COMMUNICATION; devices moving into or out of range are PAIRING). It
+  * has no separate INDEXING, as contacts are predicted as devices move.
+  *
+  * @see SimulationProfile
+  */
+public enum SimulationPhase
+{
+    SETUP,
+    MOBILITY,
+    INDEXING,
+    ADVANCE_COMMUNICATION,
+    CHECK_COMMUNICATION,
+    PAIRING,
+    LISTENERS
+}
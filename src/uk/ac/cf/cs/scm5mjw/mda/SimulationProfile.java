@@ -0,0 +1,299 @@
+/*   Matthew Williams (0515328)   */
+
+package uk.ac.cf.cs.scm5mjw.mda;
+
+import uk.ac.cf.cs.scm5mjw.mda.devices.*;
+
+/**
+  * This class holds the timings and throughput of one simulation run, as
+  * measured by a Simulator that has profiling turned on: how much (wall-clock)
+  * time was spent in each phase of the run, the number of timesteps, and the
+  * number of communication sessions started and completed. <br>
+  * <br>
+  * A profile is filled in while its run goes on, and is complete by the time
+  * the simulation listeners are notified that the run has finished (so a
+  * listener can get it from the simulator then). The rates are per second of
+  * wall-clock time. <br>
+  * <br>
+  * The phases are timed with System.nanoTime(), a few times per timestep (or
+  * once per event, for an event-driven run). Sessions are counted by listening
+  * to the simulator's CommunicationController, which is only possible for a
+  * StandardCommController; with any other controller the session counts are
+  * -1.
+  *
+  * @see Simulator#setProfiling(boolean)
+  * @see SimulationPhase
+  */
+public final class SimulationProfile
+{
+    /* Instance variables */
+    private final boolean eventDriven;
+    private final long[] phaseTimes;            // (nanoseconds, by phase)
+    private long startTime;                     // (System.nanoTime() when the run started)
+    private long totalTime;                     // (nanoseconds, once the run has finished)
+    private boolean finished;
+
+    private double simulatedTime;
+    private int numSteps;
+    private long numEvents;
+
+    private final SessionCounter sessionCounter;
+
+
+
+
+    /**
+      * Constructs a profile for a run that is about to start.
+      *
+      * @param countSessions whether the sessions will be counted (by listening to a StandardCommController)
+      */
+    SimulationProfile( boolean eventDriven, boolean countSessions )
+    {
+        this.eventDriven = eventDriven;
+        phaseTimes = new long[ SimulationPhase.values().length ];
+        sessionCounter = countSessions ? new SessionCounter() : null;
+        startTime = System.nanoTime();
+    }
+
+
+
+
+    /* ACCESSORS */
+
+    /**
+      * Tests whether the run was event-driven (in which case the number of
+      * steps is the number of times the simulation listeners were notified of
+      * time advancing).
+      */
+    public boolean isEventDriven()
+    {
+        return eventDriven;
+    }
+
+
+    /**
+      * Tests whether the run has finished (so that the profile is complete).
+      */
+    public boolean isFinished()
+    {
+        return finished;
+    }
+
+
+    /**
+      * Returns the time spent in the given phase (in nanoseconds).
+      */
+    public long getPhaseTime( SimulationPhase phase )
+    {
+        return phaseTimes[ phase.ordinal() ];
+    }
+
+
+    /**
+      * Returns the total time of the run (in nanoseconds), or the time so far if
+      * it has not finished. This includes the time between the phases (and
+      * spent paused).
+      */
+    public long getTotalTime()
+    {
+        return finished ? totalTime : System.nanoTime() - startTime;
+    }
+
+
+    /**
+      * Returns the amount of simulation time that was run (once the run has
+      * finished).
+      */
+    public double getSimulatedTime()
+    {
+        return simulatedTime;
+    }
+
+
+    /**
+      * Returns the number of timesteps run.
+      */
+    public int getNumberOfSteps()
+    {
+        return numSteps;
+    }
+
+
+    /**
+      * Returns the number of events handled (0 unless the run was
+      * event-driven).
+      */
+    public long getNumberOfEvents()
+    {
+        return numEvents;
+    }
+
+
+    /**
+      * Returns the number of communication sessions initiated (-1 if they were
+      * not counted).
+      */
+    public long getNumberOfSessionsStarted()
+    {
+        return ( sessionCounter == null ) ? -1 : sessionCounter.started;
+    }
+
+
+    /**
+      * Returns the number of communication sessions completed successfully
+      * (-1 if they were not counted).
+      */
+    public long getNumberOfSessionsCompleted()
+    {
+        return ( sessionCounter == null ) ? -1 : sessionCounter.completed;
+    }
+
+
+    /**
+      * Returns the number of timesteps run per second.
+      */
+    public double getStepsPerSecond()
+    {
+        return perSecond( numSteps );
+    }
+
+
+    /**
+      * Returns the number of communication sessions initiated per second (NaN
+      * if they were not counted).
+      */
+    public double getSessionsStartedPerSecond()
+    {
+        return ( sessionCounter == null ) ? Double.NaN : perSecond( sessionCounter.started );
+    }
+
+
+    /**
+      * Returns the number of communication sessions completed per second (NaN
+      * if they were not counted).
+      */
+    public double getSessionsCompletedPerSecond()
+    {
+        return ( sessionCounter == null ) ? Double.NaN : perSecond( sessionCounter.completed );
+    }
+
+
+    /**
+      * Returns a report of this profile, over several lines: the time spent in
+      * each phase (and its share of the total time), and the throughput.
+      */
+    public String toString()
+    {
+        long total = getTotalTime();
+        StringBuilder sb = new StringBuilder();
+
+        sb.append( "Profile of " ).append( eventDriven ? "event-driven" : "stepped" ).append( " run" );
+        if( finished )
+            sb.append( " (simulated time: " ).append( simulatedTime ).append( ")" );
+        else
+            sb.append( " (not finished)" );
+        sb.append( '\n' );
+
+        sb.append( String.format( "Total time: %.3f ms\n", total / 1e6 ) );
+        for( SimulationPhase phase : SimulationPhase.values() )
+        {
+            long t = phaseTimes[ phase.ordinal() ];
+            sb.append( String.format( "    %-22s %12.3f ms  %5.1f%%\n", phase, t / 1e6, ( total == 0 ) ? 0.0 : 100.0 * t / total ) );
+        }
+
+        sb.append( String.format( "Steps: %d (%.1f per second)\n", numSteps, getStepsPerSecond() ) );
+        if( eventDriven )
+            sb.append( "Events: " ).append( numEvents ).append( '\n' );
+
+        if( sessionCounter == null )
+            sb.append( "Sessions: not counted (the communication controller is not a StandardCommController)\n" );
+        else
+        {
+            sb.append( String.format( "Sessions started: %d (%.1f per second)\n", sessionCounter.started, getSessionsStartedPerSecond() ) );
+            sb.append( String.format( "Sessions completed: %d (%.1f per second)\n", sessionCounter.completed, getSessionsCompletedPerSecond() ) );
+        }
+
+        return sb.toString();
+    }
+
+
+
+
+    /* RECORDING (by the Simulator) */
+
+    /**
+      * Adds the given time (in nanoseconds) to the given phase.
+      */
+    void addPhaseTime( SimulationPhase phase, long time )
+    {
+        phaseTimes[ phase.ordinal() ] += time;
+    }
+
+
+    void stepCompleted()
+    {
+        numSteps++;
+    }
+
+
+    void eventHandled()
+    {
+        numEvents++;
+    }
+
+
+    /**
+      * Returns the listener counting the sessions (null if they are not
+      * counted).
+      */
+    CommunicationListener getSessionCounter()
+    {
+        return sessionCounter;
+    }
+
+
+    void finish( double simulatedTime )
+    {
+        this.simulatedTime = simulatedTime;
+        totalTime = System.nanoTime() - startTime;
+        finished = true;
+    }
+
+
+
+
+    /* HELPER METHODS */
+
+    private double perSecond( long count )
+    {
+        long total = getTotalTime();
+        return ( total == 0 ) ? 0.0 : count * 1e9 / total;
+    }
+
+
+
+
+    /**
+      * Counts the communication sessions started and completed.
+      */
+    private static final class SessionCounter implements CommunicationListener
+    {
+        long started;
+        long completed;
+
+        public void communicationInitiated( CommunicationEvent evt )
+        {
+            started++;
+        }
+
+        public void communicationTransmissionSucceeded( CommunicationEvent evt )
+        {
+            completed++;
+        }
+
+        public void communicationAborted( CommunicationEvent evt ) {}
+        public void communicationTransmissionFailed( CommunicationEvent evt ) {}
+        public void discoverySucceeded( CommunicationEvent evt ) {}
+        public void discoveryFailed( CommunicationEvent evt ) {}
+    }
+}
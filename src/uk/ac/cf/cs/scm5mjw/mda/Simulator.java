@@ -7,6 +7,9 @@ import uk.ac.cf.cs.scm5mjw.mda.devices.*;
 
 import java.awt.geom.Point2D;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import jdk.jfr.FlightRecorder;
      
 /** 
   * This class is responsible for bringing together the various parts of the
@@ -19,13 +22,19 @@ import java.util.*;
   * That said, a generateRandomMobileObjects method (and a few other similar generation
   * methods) has been included to allow the user of this class to easily generate 
   * a number of mobile objects and place them at random locations on the Simulator's 
-  * map. Note that this will REPLACE the existing set of mobile objects.
+  * map. Note that this will REPLACE the existing set of mobile objects. <br>
+  * <br>
+  * Each simulator has its own CommunicationController and gives its own device IDs
+  * to the devices added to it, so separate simulators (with separate devices)
+  * do not share any state and may be run at the same time on different threads.
   */
 public final class Simulator
 {
     /* Constants */
     public static final double DEFAULT_TIMESTEP_LENGTH = 0.1;
     
+    private static final int MOBILITY_CHUNK_SIZE = 512;     // The most mobile objects moved by one parallel task
+    
     
     /* Instance variables */
     // Execution parameters
@@ -33,6 +42,17 @@ public final class Simulator
     private double timeElapsed;
     private int iteration;
     private boolean pauseRequested;
+    private boolean eventDriven;       // Whether run() jumps from event to event
+    private boolean useStateStore;     // Whether a stepped run keeps device state in a DeviceStateStore
+    private boolean parallelMobility;  // Whether a stepped run moves mobile objects in parallel
+    private boolean parallelPairing;   // Whether a stepped run pairs up devices in parallel
+    private boolean profiling;         // Whether runs are profiled
+    private SimulationProfile profile; // The profile of the current (or last) run (null if it is not profiled)
+    
+    // Timing the phases of a timestep (for the profile and the flight recorder)
+    private TimestepCompletedEvent stepEvent;   // The flight recorder event for the current timestep (null if it is not enabled)
+    private boolean timingStep;                 // Whether the phases of the current timestep are being timed
+    private long[] stepPhaseTimes;              // The time spent in each phase of the current timestep (nanoseconds)
     
     // Components that make up a simulation
     private MobilityMap map;
@@ -40,6 +60,22 @@ public final class Simulator
     private Vector<Beacon> beacons;
     private Vector<InformationSource> informationSources;
     private Vector<AbstractWirelessDevice> allDevices;
+    private CommunicationController commController;
+    private int nextDeviceID;              // The ID to be given to the next device added
+    private SimulatorRandom random;
+    private SimulationClock clock;          // The clock that artifacts age by
+    
+    // Spatial indexes used to find communication partners
+    private SpatialGrid staticGrid;         // Beacons and information sources
+    private SpatialGrid mobileGrid;         // Mobile objects
+    private int[] neighbourBuckets;
+    private PartnerMatcher matcher;         // Pairs up devices when pairing is done in parallel
+    
+    // Working state reused by every timestep of a run
+    private AbstractWirelessDevice[] deviceArray;   // Snapshot of allDevices taken at the start of a run
+    private MobileObject[] mobileArray;             // Snapshot of mobileObjs taken at the start of a run
+    private int[] pairingOrder;                     // A permutation of the indexes into deviceArray
+    private int numValidDevicesSeen;                // Used while sampling partners
     
     // Other variables
     private Set<SimulationListener> simListeners;
@@ -75,11 +111,29 @@ public final class Simulator
         timeElapsed = -1;
         iteration = -1;
         pauseRequested = false;
+        eventDriven = false;
+        useStateStore = false;
+        parallelMobility = false;
+        parallelPairing = false;
         
         mobileObjs = new Vector<MobileObject>();
         beacons = new Vector<Beacon>();
         informationSources = new Vector<InformationSource>();
         allDevices = new Vector<AbstractWirelessDevice>();
+        random = new SimulatorRandom( SimulatorRandom.newSeed() );
+        commController = new StandardCommController();
+        commController.setRandom( random.getCommunicationStream() );
+        nextDeviceID = 1;
+        clock = new SimulationClock();
+        
+        staticGrid = new SpatialGrid();
+        mobileGrid = new SpatialGrid();
+        neighbourBuckets = new int[9];
+        matcher = new PartnerMatcher();
+        deviceArray = new AbstractWirelessDevice[0];
+        mobileArray = new MobileObject[0];
+        pairingOrder = new int[0];
+        stepPhaseTimes = new long[ SimulationPhase.values().length ];
         
         simListeners = new HashSet<SimulationListener>();
     }
@@ -174,6 +228,296 @@ public final class Simulator
     }
     
     
+    /**
+      * An accessor for the CommunicationController used by this simulator's
+      * devices.
+      */
+    public CommunicationController getCommunicationController()
+    {
+        return commController;
+    }
+    
+    
+    /**
+      * An accessor for the clock that the artifacts held by this simulator's
+      * devices age by. The clock is advanced by the same amount as the devices'
+      * communication, and (unlike <code>getTimeElapsed</code>) it is not reset
+      * when a new run is started, as artifacts keep their ages between runs.
+      */
+    public SimulationClock getClock()
+    {
+        return clock;
+    }
+    
+    
+    /**
+      * An accessor for the random number generators used by this simulator.
+      * 
+      * @see #setSeed(long)
+      */
+    public SimulatorRandom getRandom()
+    {
+        return random;
+    }
+    
+    
+    /**
+      * An accessor for the seed of this simulator's random number generators.
+      * 
+      * @see #setSeed(long)
+      */
+    public long getSeed()
+    {
+        return random.getSeed();
+    }
+    
+    
+    /**
+      * An accessor for whether this simulator is event-driven.
+      * 
+      * @see #setEventDriven(boolean)
+      */
+    public boolean isEventDriven()
+    {
+        return eventDriven;
+    }
+    
+    
+    /**
+      * A mutator for whether this simulator is event-driven. <br>
+      * <br>
+      * By default, a simulation is run by advancing every device by the timestep
+      * length, over and over. An event-driven simulation instead calculates when
+      * the next thing of interest will happen (a mobile object reaching a map node,
+      * a phase of a communication session ending, or two devices moving into or
+      * out of range of each other) and jumps straight to it. <br>
+      * <br>
+      * Communication listeners are notified exactly as they are in a stepped
+      * simulation, and <code>getTimeElapsed</code> gives the time of the event
+      * being handled. In an event-driven simulation the timestep length is only
+      * used as the interval at which simulation listeners are told that the
+      * simulation has advanced (and at which <code>getIteration</code> increases),
+      * and at which free devices in range of each other start new sessions (as
+      * they do at the end of each timestep of a stepped simulation). A larger
+      * timestep length therefore means fewer notifications, but also that devices
+      * wait longer between sessions. <br>
+      * <br>
+      * The two modes model the same system but are not expected to give
+      * identical results: a stepped simulation only notices devices moving into
+      * or out of range, and communication phases ending, at the end of a timestep,
+      * whereas an event-driven one notices them at the moment they happen.
+      * (EventEngineTest compares the two on the example scenario.)
+      */
+    public void setEventDriven( boolean eventDriven )
+    {
+        this.eventDriven = eventDriven;
+    }
+    
+    
+    /**
+      * Seeds this simulator's random number generators. Every random choice made
+      * by the simulator, its communication controller and its mobile objects comes
+      * from these generators, so two simulators set up in the same way (and
+      * seeded with the same seed before any random devices are generated) will
+      * give exactly the same simulation. <br>
+      * <br>
+      * A simulator that is not given a seed chooses its own, which may be found
+      * with <code>getSeed</code>. Mobile objects parsed from a file choose their
+      * first destination before they are added; to reproduce this, parse them with
+      * <code>getRandom().getPlacementStream()</code>.
+      * 
+      * @see SimulatorRandom
+      */
+    public void setSeed( long seed )
+    {
+        random = new SimulatorRandom( seed );
+        
+        commController.setRandom( random.getCommunicationStream() );
+        
+        for( MobileObject mo : mobileObjs )
+            mo.setRandom( mobilityStreamFor( mo ) );
+    }
+    
+    
+    /**
+      * An accessor for whether this simulator keeps device state in a state store
+      * while running.
+      * 
+      * @see #setUseStateStore(boolean)
+      */
+    public boolean isUsingStateStore()
+    {
+        return useStateStore;
+    }
+    
+    
+    /**
+      * A mutator for whether this simulator keeps device state in a state store
+      * while running. <br>
+      * <br>
+      * When this is set, a stepped run attaches all of its devices to a
+      * DeviceStateStore at the start and detaches them at the end. While the
+      * simulation runs, device locations, ranges and speeds are held in primitive
+      * arrays, which makes moving the mobile objects and checking ranges faster
+      * for large numbers of devices. The results are identical either way. <br>
+      * (An event-driven run does not use a state store.) <br>
+      * <br>
+      * Note that with a state store, mobile objects are moved without
+      * synchronizing on each one.
+      * 
+      * @see uk.ac.cf.cs.scm5mjw.mda.devices.DeviceStateStore
+      */
+    public void setUseStateStore( boolean useStateStore )
+    {
+        this.useStateStore = useStateStore;
+    }
+    
+    
+    /**
+      * An accessor for whether this simulator moves its mobile objects in
+      * parallel.
+      * 
+      * @see #setParallelMobility(boolean)
+      */
+    public boolean isMovingInParallel()
+    {
+        return parallelMobility;
+    }
+    
+    
+    /**
+      * A mutator for whether this simulator moves its mobile objects in
+      * parallel. <br>
+      * <br>
+      * When this is set, each timestep of a stepped run splits the mobile objects
+      * into chunks which are moved on the common fork/join pool, without
+      * synchronizing on each mobile object. So that the results do not depend on
+      * how many threads are used (or on the order the chunks are run in), each
+      * mobile object is given its own random number generator for choosing links,
+      * made from the simulator's seed and its device ID. A simulation therefore
+      * gives different (but equally reproducible) results with and without
+      * parallel mobility. <br>
+      * (An event-driven run moves its mobile objects one at a time, but still
+      * gives each its own generator when this is set.) <br>
+      * <br>
+      * Mobile objects should have different device IDs (as they do if the
+      * simulator gives them their IDs), and should not be changed from elsewhere
+      * while the simulation runs.
+      * 
+      * @see SimulatorRandom#createMobilityStream(int)
+      */
+    public void setParallelMobility( boolean parallelMobility )
+    {
+        this.parallelMobility = parallelMobility;
+        
+        for( MobileObject mo : mobileObjs )
+            mo.setRandom( mobilityStreamFor( mo ) );
+    }
+    
+    
+    /**
+      * An accessor for whether this simulator pairs up communicating devices in
+      * parallel.
+      * 
+      * @see #setParallelPairing(boolean)
+      */
+    public boolean isPairingInParallel()
+    {
+        return parallelPairing;
+    }
+    
+    
+    /**
+      * A mutator for whether this simulator pairs up communicating devices in
+      * parallel. <br>
+      * <br>
+      * Normally, each timestep of a stepped run visits the devices that are not
+      * communicating in a random order, and each chooses a partner at random
+      * from the devices in range that are not yet communicating. When this is
+      * set, the partners are instead chosen by a random maximal matching on the
+      * devices in range of each other, found on the common fork/join pool (see
+      * PartnerMatcher). The pairs found depend only on the seed, not on the
+      * number of threads used, so runs are still reproducible, but give
+      * different results from runs that pair devices one at a time. <br>
+      * <br>
+      * Communication is then initiated between each pair in turn, on the
+      * simulation's thread, so communication listeners are still notified one
+      * at a time. <br>
+      * (Event-driven runs pair devices as contacts happen, so are not affected
+      * by this.)
+      */
+    public void setParallelPairing( boolean parallelPairing )
+    {
+        this.parallelPairing = parallelPairing;
+    }
+    
+    
+    /**
+      * An accessor for whether this simulator profiles its runs.
+      * 
+      * @see #setProfiling(boolean)
+      */
+    public boolean isProfiling()
+    {
+        return profiling;
+    }
+    
+    
+    /**
+      * A mutator for whether this simulator profiles its runs. When it does,
+      * each run is given a SimulationProfile, which records the time spent in
+      * each phase of the run and the rates at which timesteps are run and
+      * sessions are started and completed (see getProfile()). <br>
+      * <br>
+      * Profiling adds a few calls to System.nanoTime() to each timestep (and,
+      * to count the sessions, a communication listener to the controller for
+      * the length of the run). When profiling is off, the phases are not timed
+      * (unless a flight recording has TimestepCompleted events enabled). <br>
+      * This takes effect from the next run.
+      * 
+      * @see SimulationProfile
+      */
+    public void setProfiling( boolean profiling )
+    {
+        this.profiling = profiling;
+    }
+    
+    
+    /**
+      * Returns the profile of the current run, or of the last run if none is
+      * running. This is null if that run was not profiled. <br>
+      * The profile is complete by the time the simulation listeners are
+      * notified that the run has finished.
+      * 
+      * @see #setProfiling(boolean)
+      */
+    public SimulationProfile getProfile()
+    {
+        return profile;
+    }
+    
+    
+    /**
+      * A mutator for the CommunicationController used by this simulator's devices.
+      * All of the simulator's devices (including any added later) will use it. 
+      * The controller is given this simulator's communication random number
+      * generator. <br>
+      * <br>
+      * By default, a simulator uses its own StandardCommController.
+      */
+    public void setCommunicationController( CommunicationController inCommController )
+    {
+        if( inCommController == null )
+            throw new IllegalArgumentException( "A simulator must have a communication controller" );
+        
+        commController = inCommController;
+        commController.setRandom( random.getCommunicationStream() );
+        
+        for( AbstractWirelessDevice dev : allDevices )
+            dev.setCommunicationController( commController );
+    }
+    
+    
     /**
       * A mutator for the MobilityMap being used by this simulator. <br>
       * <br>
@@ -185,23 +529,26 @@ public final class Simulator
         if( map.isEmpty() )
             throw new UnsuitableMapException( "A simulation cannot have a map which does not have any nodes" );
         
-        if( map.hasDeadEnds() )
+        CompiledMap compiled = map.getCompiledMap();
+        
+        if( compiled.hasDeadEnds() )
             throw new UnsuitableMapException( "A simulation cannot have a map which has dead ends" );
         
-        for( int i=0; i < map.getNumberOfNodes(); i++ )
+        for( int i=0; i < compiled.getNumberOfNodes(); i++ )
         {
-            MapNode node = map.getNodeAt( i );
-            
-            double sum = 0;
-            for( int j=0; j < node.getNumberOfLinks(); j++ )
-                sum += node.getLinkAt(j).getWeight();
-            
-            if( sum != 1 )
+            if( compiled.getTotalWeight( i ) != 1 )
                 throw new UnsuitableMapException( "A simulation cannot have a map where the sum of probabilities of links from a node is not 1" );
         }
         
         
         this.map = map;
+        
+        // (mobile objects already added choose links using the new map's sampler)
+        if( mobileObjs != null )
+        {
+            for( MobileObject mo : mobileObjs )
+                mo.setLinkSampler( map.getLinkSampler() );
+        }
     }
     
     
@@ -219,7 +566,10 @@ public final class Simulator
     
     /**
       * A mutator for this simulator's mobile objects (the devices that will
-      * move around in the system).
+      * move around in the system). <br>
+      * <br>
+      * Devices that do not yet have a device ID are given one, in the order
+      * that they appear in the collection.
       */
     public void setMobileObjects( Vector<MobileObject> inMobileObjs )
     {
@@ -231,7 +581,7 @@ public final class Simulator
         mobileObjs = null;
         
         // Add the new devices
-        allDevices.addAll( inMobileObjs );
+        addDevices( inMobileObjs );
         mobileObjs = inMobileObjs;
         
         
@@ -241,7 +591,10 @@ public final class Simulator
     
     
     /**
-      * A mutator for this simulator's beacons.
+      * A mutator for this simulator's beacons. <br>
+      * <br>
+      * Devices that do not yet have a device ID are given one, in the order
+      * that they appear in the collection.
       */
     public void setBeacons( Vector<Beacon> inBeacons )
     {
@@ -250,7 +603,7 @@ public final class Simulator
         beacons = null;
         
         // Add the new devices
-        allDevices.addAll( inBeacons );
+        addDevices( inBeacons );
         beacons = inBeacons;
         
         
@@ -260,7 +613,10 @@ public final class Simulator
     
     
     /**
-      * A mutator for this simulator's information sources.
+      * A mutator for this simulator's information sources. <br>
+      * <br>
+      * Devices that do not yet have a device ID are given one, in the order
+      * that they appear in the collection.
       */
     public void setInformationSources( Vector<InformationSource> inInformationSources )
     {
@@ -269,7 +625,7 @@ public final class Simulator
         informationSources= null;
         
         // Add the new devices
-        allDevices.addAll( inInformationSources );
+        addDevices( inInformationSources );
         informationSources = inInformationSources;
         
         
@@ -278,6 +634,47 @@ public final class Simulator
     }
     
     
+    /**
+      * Adds the given devices to the list of all devices, giving each a device ID
+      * (if it does not have one already), this simulator's CommunicationController
+      * and this simulator's clock. Mobile objects are also given their mobility
+      * random number generator and this simulator's map's LinkSampler.
+      */
+    private void addDevices( Collection<? extends AbstractWirelessDevice> devs )
+    {
+        for( AbstractWirelessDevice dev : devs )
+        {
+            if( dev.getDeviceID() == 0 )
+                dev.setDeviceID( nextDeviceID++ );
+            
+            dev.setCommunicationController( commController );
+            dev.setSimulationClock( clock );
+            
+            if( dev instanceof MobileObject )
+            {
+                ((MobileObject)dev).setRandom( mobilityStreamFor( (MobileObject)dev ) );
+                ((MobileObject)dev).setLinkSampler( map.getLinkSampler() );
+            }
+        }
+        
+        allDevices.addAll( devs );
+    }
+    
+    
+    /**
+      * Returns the random number generator the given mobile object should choose
+      * links with: its own stream if mobile objects are moved in parallel, or
+      * otherwise the simulator's shared mobility stream.
+      */
+    private SplittableRandom mobilityStreamFor( MobileObject mo )
+    {
+        if( parallelMobility )
+            return random.createMobilityStream( mo.getDeviceID() );
+        else
+            return random.getMobilityStream();
+    }
+    
+    
     
     
     /* SIMULATOR FUNCTIONALITY */
@@ -299,11 +696,12 @@ public final class Simulator
         Vector<MobileObject> newMObjs = new Vector<MobileObject>( n );
         
         int totalNumNodes = map.getNumberOfNodes();
+        SplittableRandom placement = random.getPlacementStream();
         
         for( int i=0; i < n; i++ )
         {
-            MapNode startNode = map.getNodeAt( SimulatorTools.randInRange(0, totalNumNodes-1) );
-            newMObjs.add( new MobileObject( startNode ) );
+            MapNode startNode = map.getNodeAt( SimulatorTools.randInRange(placement, 0, totalNumNodes-1) );
+            newMObjs.add( new MobileObject( startNode, placement ) );
         }
         
         setMobileObjects( newMObjs ); // Must use existing mutator because it handles managing the allDevices list
@@ -349,7 +747,7 @@ public final class Simulator
         
         for( int i=1; i <= n; i++ )
         {
-            int listIndex = SimulatorTools.randInRange( 0, nodeList.size()-1 );
+            int listIndex = SimulatorTools.randInRange( random.getPlacementStream(), 0, nodeList.size()-1 );
             
             int mapNodeNum = nodeList.remove( listIndex ).intValue();
             Point2D.Double loc = map.getNodeAt( mapNodeNum ).getLocation();
@@ -364,8 +762,16 @@ public final class Simulator
     
     /**
       * This method executes the simulation for the given duration. (The duration
-      * being the amount of simulation time)
+      * being the amount of simulation time) <br>
+      * <br>
+      * Beacons and information sources are indexed by location once, at the start
+      * of the run, so they should not be moved (or have their communication range
+      * changed) while the simulation is running. <br>
+      * <br>
+      * If this simulator is event-driven, the simulation jumps from event to event
+      * instead of stepping through each timestep.
       * 
+      * @see #setEventDriven(boolean)
       * @see SimulationListener#simulationTimestepAdvanced(SimulationEvent)
       */
     public void run( double timeToRun )
@@ -375,65 +781,270 @@ public final class Simulator
         pauseRequested = false;
         
         
+        // Set up the profile for this run (if profiling)
+        StandardCommController stdCC = null;
+        if( profiling && commController instanceof StandardCommController )
+            stdCC = (StandardCommController)commController;
+        
+        SimulationProfile prof = profiling ? new SimulationProfile( eventDriven, stdCC != null ) : null;
+        profile = prof;
+        
+        if( stdCC != null )
+            stdCC.addCommunicationListener( prof.getSessionCounter() );
+        
+        
+        try
+        {
+            // Send notification to listeners (if any)
+            long t = ( prof != null ) ? System.nanoTime() : 0;
+            if( !simListeners.isEmpty() )
+            {
+                SimulationEvent evt = new SimulationEvent( this, this.getTimeElapsed() );
+                
+                for( SimulationListener sl : simListeners )
+                    sl.simulationStarted( evt );
+            }
+            if( prof != null )
+                prof.addPhaseTime( SimulationPhase.LISTENERS, System.nanoTime() - t );
+            
+            
+            if( eventDriven )
+                new DiscreteEventEngine( this ).run( timeToRun );
+            else
+                runTimesteps( timeToRun );
+        }
+        finally
+        {
+            if( stdCC != null )
+                stdCC.removeCommunicationListener( prof.getSessionCounter() );
+        }
+        
+        if( prof != null )
+            prof.finish( timeElapsed );
+        
+        
         // Send notification to listeners (if any)
         if( !simListeners.isEmpty() )
         {
             SimulationEvent evt = new SimulationEvent( this, this.getTimeElapsed() );
             
             for( SimulationListener sl : simListeners )
-                sl.simulationStarted( evt );
+                sl.simulationFinished( evt );
+        }     
+    }
+    
+    
+    /**
+      * Executes the simulation one timestep at a time until the given amount of
+      * simulation time has elapsed.
+      */
+    private void runTimesteps( double timeToRun )
+    {
+        SimulationProfile prof = profile;
+        long t = ( prof != null ) ? System.nanoTime() : 0;
+        
+        // Index the devices that do not move
+        Vector<AbstractWirelessDevice> staticDevices = new Vector<AbstractWirelessDevice>( beacons );
+        staticDevices.addAll( informationSources );
+        staticGrid.rebuild( staticDevices );
+        
+        if( parallelPairing )
+            matcher.setDevices( staticDevices, mobileObjs );
+        
+        // Take a snapshot of the devices for the timestep loop to work over
+        deviceArray = allDevices.toArray( new AbstractWirelessDevice[ allDevices.size() ] );
+        mobileArray = mobileObjs.toArray( new MobileObject[ mobileObjs.size() ] );
+        
+        if( pairingOrder.length != allDevices.size() )
+        {
+            pairingOrder = new int[ allDevices.size() ];
+            for( int i=0; i < pairingOrder.length; i++ )
+                pairingOrder[i] = i;
         }
         
+        // Move the devices' state into a state store (if requested)
+        DeviceStateStore store = null;
+        if( useStateStore )
+            store = new DeviceStateStore( mobileObjs, staticDevices );
         
-        while( timeElapsed <= timeToRun )
+        
+        if( prof != null )
+            prof.addPhaseTime( SimulationPhase.SETUP, System.nanoTime() - t );
+        
+        
+        try
         {
-            // Advance each mobile object
-            for( MobileObject mo: mobileObjs )
+            while( timeElapsed <= timeToRun )
             {
-                synchronized( mo ) //~ advanceMobility affects only the given device
+                boolean timing = beginStep();
+                if( timing )
+                    t = System.nanoTime();
+                
+                // Advance each mobile object
+                if( parallelMobility )
+                    ForkJoinPool.commonPool().invoke( new MobilityTask( mobileArray, store, 0, mobileArray.length, timestepLength ) );
+                else if( store != null )
+                    store.advanceMobility( timestepLength );
+                else
                 {
-                    mo.advanceMobility( timestepLength );
+                    for( int i=0; i < mobileArray.length; i++ )
+                    {
+                        MobileObject mo = mobileArray[i];
+                        
+                        synchronized( mo ) //~ advanceMobility affects only the given device
+                        {
+                            mo.advanceMobility( timestepLength );
+                        }
+                    }
                 }
-            }
-            
-            // Perform the communication activities
-            performCommunication();
-            
-            // Increment timestep and iteration
-            timeElapsed += timestepLength;
-            iteration++;
-            
-            // Send notification of timestep advancement to listeners (if any)
-            if( !simListeners.isEmpty() )
-            {
-                SimulationEvent evt = new SimulationEvent( this, this.getTimeElapsed() );
                 
-                for( SimulationListener sl : simListeners )
-                    sl.simulationTimestepAdvanced( evt );
-            }
-            
-            // Check if pause is requested
-            while( pauseRequested )
-            {
-                try
+                if( timing )
+                    t = phaseEnded( SimulationPhase.MOBILITY, t );
+                
+                // Re-index the mobile objects at their new locations
+                mobileGrid.rebuild( mobileObjs );
+                
+                if( timing )
+                    phaseEnded( SimulationPhase.INDEXING, t );
+                
+                // Perform the communication activities
+                performCommunication();
+                
+                // Increment timestep and iteration
+                setClock( timeElapsed + timestepLength, iteration + 1 );
+                
+                if( timing )
+                    t = System.nanoTime();
+                
+                timestepAdvanced();
+                
+                if( timing )
                 {
-                    thread = Thread.currentThread();
-                    Thread.sleep( 10000 );
+                    phaseEnded( SimulationPhase.LISTENERS, t );
+                    endStep();
                 }
-                catch( InterruptedException ex )
-                {}
             }
         }
-        
-        
-        // Send notification to listeners (if any)
+        finally
+        {
+            if( store != null )
+                store.detachAll();
+        }
+    }
+    
+    
+    /**
+      * Sets the current simulation time and iteration number. This is used
+      * by the event-driven engine, which moves the clock itself.
+      */
+    void setClock( double time, int iter )
+    {
+        timeElapsed = time;
+        iteration = iter;
+    }
+    
+    
+    /**
+      * Sends notification of timestep advancement to listeners (if any) and
+      * then waits for as long as a pause is requested.
+      */
+    void timestepAdvanced()
+    {
         if( !simListeners.isEmpty() )
         {
             SimulationEvent evt = new SimulationEvent( this, this.getTimeElapsed() );
             
             for( SimulationListener sl : simListeners )
-                sl.simulationFinished( evt );
-        }     
+                sl.simulationTimestepAdvanced( evt );
+        }
+        
+        // Check if pause is requested
+        while( pauseRequested )
+        {
+            try
+            {
+                thread = Thread.currentThread();
+                Thread.sleep( 10000 );
+            }
+            catch( InterruptedException ex )
+            {}
+        }
+    }
+    
+    
+    /**
+      * Starts a new timestep, and returns whether the time spent in each of its
+      * phases is to be measured. It is if the run is being profiled, or a flight
+      * recording has TimestepCompleted events enabled. (This is also used by
+      * the event-driven engine.) <br>
+      * The event classes are not touched until the flight recorder has been
+      * started, as loading the first one starts up much of the recorder.
+      */
+    boolean beginStep()
+    {
+        stepEvent = null;
+        if( FlightRecorder.isInitialized() )
+        {
+            TimestepCompletedEvent evt = new TimestepCompletedEvent();
+            if( evt.isEnabled() )
+                stepEvent = evt;
+        }
+        
+        timingStep = ( profile != null ) || ( stepEvent != null );
+        
+        if( timingStep )
+            Arrays.fill( stepPhaseTimes, 0 );
+        if( stepEvent != null )
+            stepEvent.begin();
+        
+        return timingStep;
+    }
+    
+    
+    /**
+      * Adds the time since the given time (from System.nanoTime()) to the given
+      * phase of the current timestep (and of the profile, if there is one), and
+      * returns the current time (to be passed in for the next phase). This must
+      * only be called while the timestep is being timed.
+      */
+    long phaseEnded( SimulationPhase phase, long since )
+    {
+        long now = System.nanoTime();
+        stepPhaseTimes[ phase.ordinal() ] += now - since;
+        
+        if( profile != null )
+            profile.addPhaseTime( phase, now - since );
+        
+        return now;
+    }
+    
+    
+    /**
+      * Ends the current timestep (which must be being timed): counts it in the
+      * profile (if there is one) and records its flight recorder event (if
+      * enabled).
+      */
+    void endStep()
+    {
+        if( profile != null )
+            profile.stepCompleted();
+        
+        if( stepEvent == null )
+            return;
+        
+        stepEvent.end();
+        if( stepEvent.shouldCommit() )
+        {
+            stepEvent.iteration = iteration;
+            stepEvent.simulatedTime = timeElapsed;
+            stepEvent.mobilityTime = stepPhaseTimes[ SimulationPhase.MOBILITY.ordinal() ];
+            stepEvent.indexingTime = stepPhaseTimes[ SimulationPhase.INDEXING.ordinal() ];
+            stepEvent.advanceCommunicationTime = stepPhaseTimes[ SimulationPhase.ADVANCE_COMMUNICATION.ordinal() ];
+            stepEvent.checkCommunicationTime = stepPhaseTimes[ SimulationPhase.CHECK_COMMUNICATION.ordinal() ];
+            stepEvent.pairingTime = stepPhaseTimes[ SimulationPhase.PAIRING.ordinal() ];
+            stepEvent.listenersTime = stepPhaseTimes[ SimulationPhase.LISTENERS.ordinal() ];
+            stepEvent.commit();
+        }
     }
     
     
@@ -486,33 +1097,55 @@ public final class Simulator
     /* SIMULATION OF COMMUNICATION */
     
     /**
-      * For the given device and collection of devices, this method returns
-      * a collection of devices where each device in the collection: <br>
+      * For the given device and grid of devices, this method samples a device
+      * from the grid that: <br>
       *     1. can (mutually) communicate with the given device <br>
       *     2. is not communicating <br>
       * <br>
-      * If the given device itself also exists in the collection of devices, it 
-      * will be ignored. (existence is determined by checking object identifier 
-      * equivalence)
+      * The sample is taken by reservoir sampling, so no list of the valid devices
+      * is built. The count of valid devices seen so far is kept in
+      * <code>numValidDevicesSeen</code>, and each valid device found replaces
+      * <code>chosen</code> with probability 1/count. This means the method may be
+      * called on several grids in turn (passing on the device chosen so far) and
+      * each valid device in any of the grids will be returned with equal probability.
+      * If no valid device is found, <code>chosen</code> is returned unchanged. <br>
+      * <br>
+      * Only the grid cells around the given device are searched; any device
+      * further away than this cannot be in range. <br>
+      * If the given device itself also exists in the grid, it will be ignored.
+      * (existence is determined by checking object identifier equivalence)
       */
-    private static Vector<AbstractWirelessDevice> getValidDevices( AbstractWirelessDevice dev1, Vector<? extends AbstractWirelessDevice> coll )
+    private AbstractWirelessDevice sampleValidDevice( AbstractWirelessDevice dev1, SpatialGrid grid, AbstractWirelessDevice chosen )
     {
         assert !dev1.isCommunicating() : "This method should not be called on a device that is already communicating";
         
         
-        Vector<AbstractWirelessDevice> collValid = new Vector<AbstractWirelessDevice>();
+        SplittableRandom pairing = random.getPairingStream();
+        int numBuckets = grid.findNeighbourBuckets( dev1.getLocation(), neighbourBuckets );
         
-        for( AbstractWirelessDevice dev2 : coll )
+        for( int b=0; b < numBuckets; b++ )
         {
-            // (ignore the device if it is already in the collection)
-            if( dev1 != dev2 )
+            int end = grid.getBucketEnd( neighbourBuckets[b] );
+            
+            for( int i=grid.getBucketStart( neighbourBuckets[b] ); i < end; i++ )
             {
-                if( !dev2.isCommunicating() && dev1.canCommunicateWith( dev2 ) )
-                    collValid.add( dev2 );
+                AbstractWirelessDevice dev2 = grid.getDevice( i );
+                
+                // (ignore the device if it is already in the collection)
+                if( dev1 != dev2 )
+                {
+                    if( !dev2.isCommunicating() && dev1.canCommunicateWith( dev2 ) )
+                    {
+                        numValidDevicesSeen++;
+                        
+                        if( numValidDevicesSeen == 1 || SimulatorTools.randInRange( pairing, 0, numValidDevicesSeen-1 ) == 0 )
+                            chosen = dev2;
+                    }
+                }
             }
         }
         
-        return collValid;
+        return chosen;
     }
     
     
@@ -534,20 +1167,10 @@ public final class Simulator
         assert !dev.isCommunicating() : "This method should not be called on a device that is already communicating";
         
         
-        // Get a list of all devices in range
-        Vector<AbstractWirelessDevice> coll = getValidDevices( dev, informationSources );
-        coll.addAll( getValidDevices( dev, beacons ) );
-        coll.addAll( getValidDevices( dev, mobileObjs ) );
-        
-        int numDevs = coll.size();
+        numValidDevicesSeen = 0;
         
-        if( numDevs == 0 )
-            return null;
-        else
-        {
-            int index = SimulatorTools.randInRange( 0, numDevs-1 );
-            return coll.get( index );
-        }
+        AbstractWirelessDevice partner = sampleValidDevice( dev, staticGrid, null );
+        return sampleValidDevice( dev, mobileGrid, partner );
     }
     
     
@@ -569,17 +1192,9 @@ public final class Simulator
         assert !dev.isCommunicating() : "This method should not be called on a device that is already communicating";
         
         
-        // Get a list of all mobile objects in range
-        Vector<AbstractWirelessDevice> coll = getValidDevices( dev, mobileObjs );
-        int numDevs = coll.size();
+        numValidDevicesSeen = 0;
         
-        if( numDevs == 0 )
-            return null;
-        else
-        {
-            int index = SimulatorTools.randInRange( 0, numDevs-1 );
-            return coll.get( index );
-        }
+        return sampleValidDevice( dev, mobileGrid, null );
     }
     
     
@@ -590,24 +1205,46 @@ public final class Simulator
       * Part of this includes determining which devices are to communicate.
       * The method is careful to ensure that no preference is given to any
       * device when carrying out this process of determining devices to
-      * communicate.
+      * communicate: the devices are visited in a uniformly random order, which
+      * is drawn by shuffling a permutation array in place as it is walked
+      * (a Fisher-Yates shuffle). If pairing is done in parallel, the devices are
+      * instead paired up by the PartnerMatcher (in one go) before communication
+      * is initiated between each pair. <br>
+      * <br>
+      * No memory is allocated by this method (unless pairing is done in parallel).
+      * 
+      * @see #setParallelPairing(boolean)
       */
     private final void performCommunication()
     {
-        // Advance communication time on all devices
-        for( AbstractWirelessDevice dev : allDevices )
+        int numDevices = deviceArray.length;
+        SplittableRandom pairing = random.getPairingStream();
+        boolean timing = timingStep;
+        long t = timing ? System.nanoTime() : 0;
+        
+        // Advance the ages of all artifacts, then communication time on all devices
+        clock.advance( timestepLength );
+        
+        for( int i=0; i < numDevices; i++ )
         {
+            AbstractWirelessDevice dev = deviceArray[i];
+            
             synchronized( dev ) //~ advanceCommunication only affects the given device
             {
                 dev.advanceCommunication( timestepLength );
             }
         }
         
+        if( timing )
+            t = phaseEnded( SimulationPhase.ADVANCE_COMMUNICATION, t );
+        
         // Complete or abort communication on all devices
         // (at least one of the partners in a communication must be a
         // mobile object, so we only need to check through those)
-        for( AbstractWirelessDevice dev : mobileObjs )
+        for( int i=0; i < mobileArray.length; i++ )
         {
+            AbstractWirelessDevice dev = mobileArray[i];
+            
             synchronized( dev ) //~ checkCommunication will affect BOTH devices (may also want to acheive a lock on partner?)
             {
                 dev.checkCommunication();
@@ -615,14 +1252,38 @@ public final class Simulator
         }
         
         
+        if( timing )
+            t = phaseEnded( SimulationPhase.CHECK_COMMUNICATION, t );
+        
+        
         // Find valid partners for devices and initiate communication on them
-        // 'remDevices' keeps track of the devices that have not yet been checked
-        // for starting communication with their neighbours
-        Vector<AbstractWirelessDevice> remDevices = new Vector<AbstractWirelessDevice>( allDevices );
-        while( !remDevices.isEmpty() )
+        if( parallelPairing )
         {
-            int index = SimulatorTools.randInRange( 0, remDevices.size()-1 );
-            AbstractWirelessDevice dev = remDevices.remove( index );
+            matcher.match( staticGrid, mobileGrid, pairing.nextLong() );
+            
+            for( int i=0; i < matcher.getNumberOfDevices(); i++ )
+            {
+                int partner = matcher.getPartner( i );
+                
+                if( partner > i )
+                    matcher.getDevice( i ).initiateCommunication( matcher.getDevice( partner ) );
+            }
+            
+            if( timing )
+                phaseEnded( SimulationPhase.PAIRING, t );
+            return;
+        }
+        
+        // The entries of 'pairingOrder' from i onwards are the devices that have
+        // not yet been checked for starting communication with their neighbours
+        for( int i=0; i < numDevices; i++ )
+        {
+            int swap = SimulatorTools.randInRange( pairing, i, numDevices-1 );
+            int index = pairingOrder[swap];
+            pairingOrder[swap] = pairingOrder[i];
+            pairingOrder[i] = index;
+            
+            AbstractWirelessDevice dev = deviceArray[index];
             
             if( !dev.isCommunicating() )
             {
@@ -645,5 +1306,55 @@ public final class Simulator
                 }
             }
         }
+        
+        if( timing )
+            phaseEnded( SimulationPhase.PAIRING, t );
+    }
+    
+    
+    
+    
+    /**
+      * Advances the mobility of a range of mobile objects (those from first up to,
+      * but not including, last), splitting the range into chunks that are moved
+      * in parallel. Each mobile object must have its own random number generator.
+      * If the mobile objects are attached to a state store, it is used to move
+      * them.
+      */
+    private static final class MobilityTask extends RecursiveAction
+    {
+        private final MobileObject[] mobileObjects;
+        private final DeviceStateStore store;     // (null if there is no store)
+        private final int first;
+        private final int last;
+        private final double duration;
+        
+        
+        MobilityTask( MobileObject[] mobileObjects, DeviceStateStore store, int first, int last, double duration )
+        {
+            this.mobileObjects = mobileObjects;
+            this.store = store;
+            this.first = first;
+            this.last = last;
+            this.duration = duration;
+        }
+        
+        
+        protected void compute()
+        {
+            if( last - first > MOBILITY_CHUNK_SIZE )
+            {
+                int middle = ( first + last ) >>> 1;
+                invokeAll( new MobilityTask( mobileObjects, store, first, middle, duration ),
+                           new MobilityTask( mobileObjects, store, middle, last, duration ) );
+            }
+            else if( store != null )
+                store.advanceMobility( duration, first, last );
+            else
+            {
+                for( int i=first; i < last; i++ )
+                    mobileObjects[i].advanceMobility( duration );
+            }
+        }
     }
 }
@@ -0,0 +1,161 @@
+/*   Matthew Williams (0515328)   */
+
+package uk.ac.cf.cs.scm5mjw.mda;
+
+import java.util.SplittableRandom;
+
+/**
+  * The random number generators used by a Simulator. <br>
+  * <br>
+  * A single seed is split into an independent stream for each part of the
+  * simulation that makes random choices: <br>
+  *  - placement: where generated devices are placed (and the first destination
+  *    of generated mobile objects) <br>
+  *  - mobility: which link a mobile object takes when it reaches a map node <br>
+  *  - pairing: the order in which devices look for partners, and which partner
+  *    they choose <br>
+  *  - communication: whether discovery and transmission succeed <br>
+  * When mobile objects are moved in parallel, each instead has its own mobility
+  * stream, made from the seed and its device ID (see
+  * <code>createMobilityStream</code>). <br>
+  * Because the streams are independent, a change in how many random numbers
+  * one part uses (e.g. more mobile objects) does not change the numbers seen
+  * by the others. <br>
+  * <br>
+  * Two simulations set up in the same way with the same seed make exactly the
+  * same random choices, so a run can be reproduced from its seed. Each simulator
+  * has its own generators, so simulations running on different threads do not
+  * compete for a shared generator. The generators themselves are not thread-safe.
+  *
+  * @see Simulator#setSeed(long)
+  */
+public final class SimulatorRandom
+{
+    /* Instance variables */
+    private long seed;
+    private SplittableRandom placement;
+    private SplittableRandom mobility;
+    private SplittableRandom pairing;
+    private SplittableRandom communication;
+    private long objectMobilitySeed;        // The base of the mobile objects' own mobility streams
+
+
+    /* CONSTRUCTORS */
+
+    /**
+      * Creates the generators for the given seed.
+      */
+    public SimulatorRandom( long seed )
+    {
+        this.seed = seed;
+
+        // (the order of the splits must not change, or old seeds will give different runs)
+        SplittableRandom root = new SplittableRandom( seed );
+        placement = root.split();
+        mobility = root.split();
+        pairing = root.split();
+        communication = root.split();
+        objectMobilitySeed = root.split().nextLong();
+    }
+
+
+
+
+    /* ACCESSORS */
+
+    /**
+      * An accessor for the seed these generators were created from.
+      */
+    public long getSeed()
+    {
+        return seed;
+    }
+
+
+    /**
+      * An accessor for the generator used to place generated devices.
+      */
+    public SplittableRandom getPlacementStream()
+    {
+        return placement;
+    }
+
+
+    /**
+      * An accessor for the generator used by mobile objects to choose links.
+      */
+    public SplittableRandom getMobilityStream()
+    {
+        return mobility;
+    }
+
+
+    /**
+      * An accessor for the generator used to pair devices for communication.
+      */
+    public SplittableRandom getPairingStream()
+    {
+        return pairing;
+    }
+
+
+    /**
+      * An accessor for the generator used by the communication controller.
+      */
+    public SplittableRandom getCommunicationStream()
+    {
+        return communication;
+    }
+
+
+
+
+    /**
+      * Creates a generator for the mobile object with the given device ID to
+      * choose links with. The stream is independent of every other stream, and
+      * the same seed and device ID always give the same stream, so mobile
+      * objects that each have their own stream can be moved in any order (or
+      * at the same time) with the same results.
+      * 
+      * @see Simulator#setParallelMobility(boolean)
+      */
+    public SplittableRandom createMobilityStream( int deviceID )
+    {
+        return new SplittableRandom( objectMobilitySeed + deviceID ).split();
+    }
+    
+    
+    
+    
+    /* SEED GENERATION */
+
+    /**
+      * Returns a new seed that is different every time this method is called.
+      * This is used by simulators that have not been given a seed.
+      */
+    public static long newSeed()
+    {
+        return new SplittableRandom().nextLong();
+    }
+
+
+    /**
+      * Derives a seed for each of the given number of replicates of an
+      * experiment from a master seed. The same master seed always gives the same
+      * seeds, and the first <i>n</i> seeds do not depend on how many replicates
+      * there are in total.
+      */
+    public static long[] replicateSeeds( long masterSeed, int numberOfReplicates )
+    {
+        if( numberOfReplicates < 0 )
+            throw new IllegalArgumentException( "Number of replicates must be greater or equal to 0" );
+
+        SplittableRandom master = new SplittableRandom( masterSeed );
+
+        long[] seeds = new long[ numberOfReplicates ];
+        for( int i=0; i < numberOfReplicates; i++ )
+            seeds[i] = master.nextLong();
+
+        return seeds;
+    }
+}
@@ -3,6 +3,7 @@
 package uk.ac.cf.cs.scm5mjw.mda;
 
 import java.awt.geom.Point2D;
+import java.util.SplittableRandom;
      
 /** 
   * This is a static class which provides general tools to the Simulator.
@@ -25,13 +26,11 @@ public final class SimulatorTools
     }
     
     
-    /** A method which generates a random integer in the given range,
-      * INCLUSIVE of the values at either end of the range.
+    /** A method which uses the given generator to generate a random integer
+      * in the given range, INCLUSIVE of the values at either end of the range.
       */
-    public static int randInRange( int min, int max )
+    public static int randInRange( SplittableRandom random, int min, int max )
     {
-        int interval = max-min;
-        double rand = Math.random() * (interval + 1);
-        return min + (int)rand;
+        return min + random.nextInt( max-min+1 );
     }
 }
@@ -0,0 +1,257 @@
+/*   Matthew Williams (0515328)   */
+
+package uk.ac.cf.cs.scm5mjw.mda;
+
+import uk.ac.cf.cs.scm5mjw.mda.devices.*;
+
+import java.awt.geom.Point2D;
+import java.util.*;
+
+/**
+  * A uniform spatial hash grid over a set of wireless devices. It is used by
+  * the Simulator to avoid checking every device against every other device
+  * when looking for communication partners. <br>
+  * <br>
+  * The grid's cells are square and are sized to the largest communication range of
+  * the devices it holds. Because two devices may only communicate if each is in
+  * the other's range, any device that can communicate with a device at a given
+  * location will be found in the 3x3 block of cells around that location. <br>
+  * Cells are mapped onto a fixed number of buckets by hashing their coordinates,
+  * so the plane does not need to be bounded. Several cells may share a bucket;
+  * callers must therefore still check the range of each device they are given. <br>
+  * <br>
+  * The grid is a snapshot: it must be rebuilt whenever the devices it holds move
+  * or change their communication range. Rebuilding is a counting sort and takes
+  * time proportional to the number of devices. <br>
+  * <br>
+  * Lookups do not modify the grid, so a built grid may be read by several threads
+  * at once.
+  */
+final class SpatialGrid
+{
+    /* Constants */
+    // Cells are made very slightly larger than the largest range so that rounding
+    // in the cell coordinate calculation can never push a device in range out of
+    // the 3x3 neighbourhood
+    private static final double CELL_SIZE_MARGIN = 1 + 1e-9;
+    private static final int MIN_NUMBER_OF_BUCKETS = 16;
+
+
+    /* Instance variables */
+    private double cellSize;
+    private int bucketMask;
+    private int[] bucketStarts;                  // bucketStarts[b]..bucketStarts[b+1]-1 index into entries
+    private int[] deviceBuckets;                 // Scratch space used while rebuilding
+    private AbstractWirelessDevice[] entries;
+    private int[] listIndexes;                   // The index of each entry in the list the grid was built from
+    private int numberOfDevices;
+
+
+    /* CONSTRUCTORS */
+
+    /**
+      * Creates an empty grid.
+      */
+    public SpatialGrid()
+    {
+        cellSize = 1;
+        bucketMask = MIN_NUMBER_OF_BUCKETS - 1;
+        bucketStarts = new int[ MIN_NUMBER_OF_BUCKETS + 1 ];
+        deviceBuckets = new int[ 0 ];
+        entries = new AbstractWirelessDevice[ 0 ];
+        listIndexes = new int[ 0 ];
+        numberOfDevices = 0;
+    }
+
+
+
+
+    /* ACCESSORS */
+
+    /**
+      * An accessor for the length of the sides of this grid's cells.
+      */
+    public double getCellSize()
+    {
+        return cellSize;
+    }
+
+
+    /**
+      * An accessor for the number of devices held in this grid.
+      */
+    public int getNumberOfDevices()
+    {
+        return numberOfDevices;
+    }
+
+
+    /**
+      * Returns the index of the first device held in the given bucket.
+      */
+    public int getBucketStart( int bucket )
+    {
+        return bucketStarts[ bucket ];
+    }
+
+
+    /**
+      * Returns one more than the index of the last device held in the given bucket.
+      */
+    public int getBucketEnd( int bucket )
+    {
+        return bucketStarts[ bucket+1 ];
+    }
+
+
+    /**
+      * Returns the device at the given index in this grid.
+      *
+      * @see #getBucketStart( int )
+      */
+    public AbstractWirelessDevice getDevice( int index )
+    {
+        return entries[ index ];
+    }
+
+
+    /**
+      * Returns the position, in the list the grid was last rebuilt from, of the
+      * device at the given index in this grid.
+      *
+      * @see #rebuild( List )
+      */
+    public int getListIndex( int index )
+    {
+        return listIndexes[ index ];
+    }
+
+
+
+
+    /* GRID FUNCTIONALITY */
+
+    /**
+      * Replaces the contents of this grid with the given devices, bucketed by
+      * their current locations. The cell size is recalculated from the devices'
+      * current communication ranges. <br>
+      * <br>
+      * Memory is only allocated when the grid needs to grow.
+      */
+    public void rebuild( List<? extends AbstractWirelessDevice> devices )
+    {
+        int n = devices.size();
+
+        // Size the cells to the largest communication range
+        double maxRange = 0;
+        for( int i=0; i < n; i++ )
+            maxRange = Math.max( maxRange, devices.get(i).getCommunicationRange() );
+
+        cellSize = ( maxRange > 0 ) ? maxRange * CELL_SIZE_MARGIN : 1;
+
+        // Size the bucket table to about twice the number of devices
+        int numBuckets = MIN_NUMBER_OF_BUCKETS;
+        while( numBuckets < 2*n )
+            numBuckets <<= 1;
+
+        if( bucketStarts.length < numBuckets+1 )
+            bucketStarts = new int[ numBuckets+1 ];
+        else
+            Arrays.fill( bucketStarts, 0, numBuckets+1, 0 );
+
+        if( entries.length < n )
+        {
+            entries = new AbstractWirelessDevice[ n ];
+            listIndexes = new int[ n ];
+            deviceBuckets = new int[ n ];
+        }
+
+        bucketMask = numBuckets - 1;
+
+        // Counting sort of the devices into buckets
+        for( int i=0; i < n; i++ )
+        {
+            Point2D.Double loc = devices.get(i).getLocation();
+            int bucket = bucketOf( cellCoordinate(loc.x), cellCoordinate(loc.y) );
+
+            deviceBuckets[i] = bucket;
+            bucketStarts[ bucket+1 ]++;
+        }
+
+        for( int b=0; b < numBuckets; b++ )
+            bucketStarts[ b+1 ] += bucketStarts[b];
+
+        for( int i=0; i < n; i++ )
+        {
+            int bucket = deviceBuckets[i];
+            int pos = bucketStarts[ bucket+1 ] - 1;         // Fill each bucket from its end...
+
+            entries[pos] = devices.get(i);
+            listIndexes[pos] = i;
+            bucketStarts[ bucket+1 ] = pos;
+        }
+
+        for( int b=0; b < numBuckets; b++ )                 // ...then shift the starts back into place
+            bucketStarts[b] = bucketStarts[b+1];
+        bucketStarts[ numBuckets ] = n;
+
+        // Release references to devices that are no longer in the grid
+        Arrays.fill( entries, n, numberOfDevices > n ? numberOfDevices : n, null );
+
+        numberOfDevices = n;
+    }
+
+
+    /**
+      * Finds the buckets that hold the 3x3 block of cells around the given location.
+      * The (distinct) bucket numbers are written into <code>buckets</code>, which
+      * must have room for at least 9 values, and the number of buckets found is
+      * returned. <br>
+      * <br>
+      * Each bucket is reported at most once, even if several of the cells share it,
+      * so every device in the grid is visited at most once by a caller that scans
+      * the buckets returned.
+      */
+    public int findNeighbourBuckets( Point2D.Double loc, int[] buckets )
+    {
+        if( numberOfDevices == 0 )
+            return 0;
+
+        int cx = cellCoordinate( loc.x );
+        int cy = cellCoordinate( loc.y );
+        int found = 0;
+
+        for( int dx=-1; dx <= 1; dx++ )
+        {
+            for( int dy=-1; dy <= 1; dy++ )
+            {
+                int bucket = bucketOf( cx+dx, cy+dy );
+
+                if( bucketStarts[bucket] == bucketStarts[bucket+1] )
+                    continue;                                  // (empty)
+
+                boolean seen = false;
+                for( int k=0; k < found && !seen; k++ )
+                    seen = ( buckets[k] == bucket );
+
+                if( !seen )
+                    buckets[found++] = bucket;
+            }
+        }
+
+        return found;
+    }
+
+
+    private int cellCoordinate( double v )
+    {
+        return (int)Math.floor( v / cellSize );
+    }
+
+
+    private int bucketOf( int cx, int cy )
+    {
+        int h = ( cx * 0x8DA6B343 ) ^ ( cy * 0xD8163841 );
+        return ( h ^ (h >>> 16) ) & bucketMask;
+    }
+}
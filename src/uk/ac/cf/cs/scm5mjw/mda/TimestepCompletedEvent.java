@@ -0,0 +1,54 @@
+/*   Matthew Williams (0515328)   */
+
+package uk.ac.cf.cs.scm5mjw.mda;
+
+import jdk.jfr.*;
+
+/**
+  * A Java Flight Recorder event for a timestep of a simulation run, from the
+  * start of the timestep until the simulation listeners have been notified
+  * that time has advanced. The time spent in each phase of the timestep is
+  * recorded with it (see SimulationPhase). <br>
+  * <br>
+  * For an event-driven run, a timestep is the time between the simulation
+  * listeners being notified, and covers every event handled in that time.
+  *
+  * @see Simulator
+  */
+@Name( "uk.ac.cf.cs.scm5mjw.mda.TimestepCompleted" )
+@Label( "Timestep Completed" )
+@Description( "A timestep of a simulation run, with the time spent in each phase" )
+@Category( { "Opportunistic Network Simulator", "Simulation" } )
+@StackTrace( false )
+final class TimestepCompletedEvent extends Event
+{
+    @Label( "Iteration" )
+    int iteration;
+
+    @Label( "Simulated Time (s)" )
+    double simulatedTime;
+
+    @Label( "Mobility" )
+    @Timespan
+    long mobilityTime;
+
+    @Label( "Indexing" )
+    @Timespan
+    long indexingTime;
+
+    @Label( "Advance Communication" )
+    @Timespan
+    long advanceCommunicationTime;
+
+    @Label( "Check Communication" )
+    @Timespan
+    long checkCommunicationTime;
+
+    @Label( "Pairing" )
+    @Timespan
+    long pairingTime;
+
+    @Label( "Listeners" )
+    @Timespan
+    long listenersTime;
+}
@@ -0,0 +1,248 @@
+/*   Matthew Williams (0515328)   */
+
+package uk.ac.cf.cs.scm5mjw.mda;
+
+import uk.ac.cf.cs.scm5mjw.mda.devices.*;
+import uk.ac.cf.cs.scm5mjw.mda.io.*;
+
+import java.io.*;
+import java.util.List;
+
+/**
+  * This class handles obtaining data about the artifact transfers in a
+  * simulation (via events) and writing it to a binary trace file, as an
+  * alternative to the CSV output of XMLMonitor. A trace holds the same data as
+  * the CSV (one row for each artifact transferred), but in fixed-width columns,
+  * so it is much smaller and can be read back without parsing (see
+  * TraceReader, which can also export a trace as XMLMonitor's CSV). <br>
+  * <br>
+  * As with XMLMonitor, a TraceMonitor must be registered on a Simulator (for
+  * the start and finish notifications) and on its CommunicationController (for
+  * the transfers). The trace file is opened when the simulation starts and is
+  * only complete once the finish notification has been received. Only the
+  * first run is monitored -- subsequent notifications will be ignored by this
+  * monitor. <br>
+  * <br>
+  * Like XMLMonitor, this class will not overwrite a file if it exists already.
+  * Instead, a new file with a unique name (based on the specified file) will be
+  * created and written to.
+  *
+  * @see TraceWriter
+  * @see TraceReader
+  */
+public final class TraceMonitor implements CommunicationListener, SimulationListener
+{
+    /* Instance variables */
+    private MonitorPhase phase;
+    private Simulator sim;
+    private File outF;
+    private File writtenF;              // The file actually written to
+
+    private TraceWriter out;
+
+
+
+
+    /**
+      * Construct a trace monitor which will output to the given file.
+      */
+    public TraceMonitor( File outF )
+    {
+        this.outF = outF;
+        phase = MonitorPhase.BEFORE_START;
+    }
+
+
+
+
+    /* ACCESSORS / MUTATORS */
+
+    /**
+      * A mutator for the output file. This is the file where the trace will be
+      * written to. <br>
+      * A file cannot be changed once the simulation has begun.
+      */
+    public void setOutputFile( File outF )
+    {
+        if(  !( phase == MonitorPhase.BEFORE_START )  )
+            throw new DataOutputException( "The output file can only be changed before the simulation has begun" );
+
+
+        this.outF = outF;
+    }
+
+
+    /**
+      * An accessor for the output file. This is the ORIGINAL output file (not
+      * the renamed one, if a file existed already).
+      *
+      * @see #getWrittenFile()
+      */
+    public File getOutputFile()
+    {
+        return outF;
+    }
+
+
+    /**
+      * An accessor for the file the trace is actually written to (null before
+      * the simulation has started).
+      */
+    public File getWrittenFile()
+    {
+        return writtenF;
+    }
+
+
+
+
+    /* METHODS RELATED TO ACTUAL DATA OUTPUT */
+
+    public void simulationTimestepAdvanced( SimulationEvent evt ) {}
+
+    public void communicationInitiated( CommunicationEvent evt ) {}
+    public void communicationAborted( CommunicationEvent evt ) {}
+    public void communicationTransmissionFailed( CommunicationEvent evt ) {}
+    public void discoverySucceeded( CommunicationEvent evt ) {}
+    public void discoveryFailed( CommunicationEvent evt ) {}
+
+
+    /**
+      * This method will handle the notification of beginning simulation, by
+      * opening the trace file. The Simulator in the SimulationEvent is stored
+      * for use in other notification methods.
+      *
+      * @throws DataOutputException if the trace file cannot be opened
+      */
+    public void simulationStarted( SimulationEvent evt )
+    {
+        // Bomb out of method if one run of the simulation has already been run and finished
+        if( phase == MonitorPhase.FINISHED )
+            return;
+
+
+        if( phase == MonitorPhase.RUNNING )
+            throw new DataOutputException( "Received notification that another simulation has started while one is currently running" );
+
+
+        writtenF = uniqueFile( outF );
+        try
+        {
+            out = new TraceWriter( writtenF );
+        }
+        catch( FileNotFoundException ex )
+        {
+            throw new DataOutputException( "Could not open trace file " + writtenF + ": " + ex.getMessage() );
+        }
+
+        sim = evt.getSimulator();
+        phase = MonitorPhase.RUNNING;
+    }
+
+
+    /**
+      * This method will handle the notification that a simulation has finished,
+      * by completing and closing the trace file.
+      */
+    public void simulationFinished( SimulationEvent evt )
+    {
+        // Bomb out of method if one run of the simulation has already been run and finished
+        if( phase == MonitorPhase.FINISHED )
+            return;
+
+
+        if( !( phase == MonitorPhase.RUNNING ) )
+            throw new DataOutputException( "Received notification a simulation has finished but simulation is not running" );
+
+        assert this.sim == evt.getSimulator();
+
+
+        phase = MonitorPhase.FINISHED;
+        sim = null;
+
+        out.close();
+        out = null;
+    }
+
+
+    /**
+      * Handles the notification that a successful communication has occurred,
+      * by adding a row for each artifact transferred (first those to device1,
+      * then those to device2, as in XMLMonitor's CSV).
+      */
+    public void communicationTransmissionSucceeded( CommunicationEvent evt )
+    {
+        // Bomb out of method if one run of the simulation has already been run and finished
+        if( phase == MonitorPhase.FINISHED )
+            return;
+
+
+        if( phase == MonitorPhase.BEFORE_START )
+            throw new DataOutputException( "Received notification about a communication without having received a notification that the simulation had begun beforehand" );
+
+
+        // (a snapshot records when it happened; otherwise it is happening now)
+        double time = evt.isSnapshot() ? evt.getTimeOccurred() : sim.getTimeElapsed();
+        int iteration = evt.isSnapshot() ? evt.getIteration() : sim.getIteration();
+
+        outputTransfers( evt.getArtifactsToDevice1(),
+                         evt.getDevice2ID(), evt.getDevice2TypeIdentifier(), evt.getDevice2Location().x, evt.getDevice2Location().y,
+                         evt.getDevice1ID(), evt.getDevice1TypeIdentifier(), evt.getDevice1Location().x, evt.getDevice1Location().y,
+                         time, iteration );
+
+        outputTransfers( evt.getArtifactsToDevice2(),
+                         evt.getDevice1ID(), evt.getDevice1TypeIdentifier(), evt.getDevice1Location().x, evt.getDevice1Location().y,
+                         evt.getDevice2ID(), evt.getDevice2TypeIdentifier(), evt.getDevice2Location().x, evt.getDevice2Location().y,
+                         time, iteration );
+    }
+
+
+
+
+    /* HELPER METHODS */
+
+    /**
+      * Adds a row to the trace for each artifact in a transaction (in ONE
+      * direction).
+      */
+    private void outputTransfers( List<Artifact> artList, int fromID, String fromType, double fromX, double fromY,
+                                  int toID, String toType, double toX, double toY, double time, int iteration )
+    {
+        assert phase == MonitorPhase.RUNNING;
+
+        for( Artifact art : artList )
+            out.addTransfer( fromID, fromType, fromX, fromY, toID, toType, toX, toY,
+                             art.getResourceID(), art.getAge(), time, iteration );
+    }
+
+
+    /**
+      * Returns the given file if it does not exist, or otherwise a file which
+      * does not exist, named by putting a number before the given file's
+      * extension (in the same way as XMLMonitor).
+      */
+    private static File uniqueFile( File f )
+    {
+        if( !f.exists() )
+            return f;
+
+        if( f.isDirectory() )
+            throw new DataOutputException( "Output file is a directory" );
+
+        String fpath = f.getAbsolutePath();
+        int indexLastDot = fpath.lastIndexOf( '.' );
+        if( indexLastDot < fpath.lastIndexOf( File.separatorChar ) )
+            indexLastDot = -1;                          // (the dot is in a directory name)
+
+        File newFile = f;
+        for( int num=2; newFile.exists(); num++ )
+        {
+            if( indexLastDot == -1 )
+                newFile = new File( fpath + " (" + num + ")" );
+            else
+                newFile = new File( fpath.substring( 0, indexLastDot ) + " (" + num + ")" + fpath.substring( indexLastDot ) );
+        }
+
+        return newFile;
+    }
+}
@@ -148,15 +148,15 @@ public final class Visualiser extends JComponent implements SimulationListener
          *     minX, maxX, minY, maxY,
          *     maxCommRange */
         // Initial minimum and maximums:
-        MapNode n = map.getNodeAt(0);
-        minX = maxX = n.getLocation().getX();
-        minY = maxY = n.getLocation().getY();
+        CompiledMap compiled = map.getCompiledMap();
+        minX = maxX = compiled.getNodeX( 0 );
+        minY = maxY = compiled.getNodeY( 0 );
         
         // Find the most distant: MapNode
-        for( int i=1; i < map.getNumberOfNodes(); i++ )
+        for( int i=1; i < compiled.getNumberOfNodes(); i++ )
         {
-            double x = map.getNodeAt(i).getLocation().getX();
-            double y = map.getNodeAt(i).getLocation().getY();
+            double x = compiled.getNodeX( i );
+            double y = compiled.getNodeY( i );
             
             if( x < minX )
                 minX = x;
@@ -356,25 +356,31 @@ public final class Visualiser extends JComponent implements SimulationListener
       */
     private void drawMap( Graphics2D g2 )
     {
-        MobilityMap map = sim.getMap();
+        CompiledMap map = sim.getMap().getCompiledMap();
+        
+        Point2D.Double nodeLoc = new Point2D.Double();
+        Point2D.Double destNodeLoc = new Point2D.Double();
         
         /* Draw map nodes and their links */
         int numNodes = map.getNumberOfNodes();
         
         for( int i=0; i < numNodes; i++ )
         {
-            MapNode node = map.getNodeAt(i);
-            Point2D.Double nodeLoc = node.getLocation();
+            nodeLoc.setLocation( map.getNodeX(i), map.getNodeY(i) );
             
             // Draw the node
             drawCircle( g2, nodeLoc, MAP_NODE_COLOUR, MAP_NODE_RADIUS, false );
             
             // Draw the node's links
-            int numLinks = node.getNumberOfLinks();
-            for( int j=0; j < numLinks; j++ )
+            for( int l=map.getFirstLink(i); l < map.getFirstLink(i+1); l++ )
             {
-                MapNode destNode = node.getLinkAt(j).getGoesTo();
-                Point2D.Double destNodeLoc = destNode.getLocation();
+                int dest = map.getLinkEnd(l);
+                
+                if( dest >= 0 )
+                    destNodeLoc.setLocation( map.getNodeX(dest), map.getNodeY(dest) );
+                else
+                    destNodeLoc.setLocation( map.getLink(l).getGoesTo().getLocation() );
+                
                 drawLine( g2, nodeLoc, destNodeLoc, MAP_LINK_COLOUR );
             }
         }
@@ -387,21 +387,22 @@ public final class XMLMonitor implements CommunicationListener, SimulationListen
         if( monitorSessionSuccesses )
         {
             // We need to extract the data into individual artifact transfers
-            double time = sim.getTimeElapsed();
-            int iteration = sim.getIteration();
+            // (a snapshot records when it happened; otherwise it is happening now)
+            double time = evt.isSnapshot() ? evt.getTimeOccurred() : sim.getTimeElapsed();
+            int iteration = evt.isSnapshot() ? evt.getIteration() : sim.getIteration();
             
             try
             {
                 if( extendedXML )
                 {
-                    outputTransaction( evt.getArtifactsToDevice1(), evt.getDevice2(), evt.getDevice1(), time );
-                    outputTransaction( evt.getArtifactsToDevice2(), evt.getDevice1(), evt.getDevice2(), time );
+                    outputTransaction( evt, true, time );
+                    outputTransaction( evt, false, time );
                 }
                 
                 if( !extendedXML )
                 {
-                    outputTransactionCSV( evt.getArtifactsToDevice1(), evt.getDevice2(), evt.getDevice1(), time, iteration );
-                    outputTransactionCSV( evt.getArtifactsToDevice2(), evt.getDevice1(), evt.getDevice2(), time, iteration );
+                    outputTransactionCSV( evt, true, time, iteration );
+                    outputTransactionCSV( evt, false, time, iteration );
                 }
                 
             }
@@ -419,86 +420,87 @@ public final class XMLMonitor implements CommunicationListener, SimulationListen
     /* (REUSABLE) HELPER METHODS FOR OUTPUTTING DATA - COMMA-SEPARATED */
     /**
       * A method to handle outputting data about EACH artifact in a transaction
+      * (in ONE direction: to device1 if toDevice1 is set, otherwise to device2)
       * to the document in a comma-separated values format. Data about each 
-      * artifact transfer will have its own line.
+      * artifact transfer will have its own line. <br>
+      * The lines are printed piece by piece, so that no Strings are built.
       * 
       * @see #CSV_HEADER
       */
-    private void outputTransactionCSV( List<Artifact> artList, AbstractWirelessDevice from, AbstractWirelessDevice to, double time, int iteration ) throws SAXException
+    private void outputTransactionCSV( CommunicationEvent evt, boolean toDevice1, double time, int iteration ) throws SAXException
     {
         assert phase == MonitorPhase.RUNNING;
         
-        for( Artifact art : artList )
-            outputArtifactTransferCSV( art, from, to, time, iteration );
-    }
-    
-    
-    /**
-      * This method handles outputting one line of data about an artifact
-      * transfer in a comma-separated values format.
-      */
-    private void outputArtifactTransferCSV( Artifact art, AbstractWirelessDevice from, AbstractWirelessDevice to, double time, int iteration ) throws SAXException
-    {
-        StringBuffer buff = new StringBuffer();
-        
-        // Device 'from':
-        buff.append( formatDeviceCSV(from) );
-        buff.append( ",\t" );
-        
-        // Device 'to':
-        buff.append( formatDeviceCSV(to) );
-        buff.append( ",\t" );
+        Point2D.Double loc1 = evt.getDevice1Location();
+        Point2D.Double loc2 = evt.getDevice2Location();
         
-        // Artifact / transfer info:
-        buff.append( art.getResourceID() );
-        buff.append( ",\t" );
-        buff.append( art.getAge() );
-        buff.append( ",\t" );
-        buff.append( time );
-        buff.append( ",\t" );
-        buff.append( iteration );
-        
-        out.print( buff.toString() + "\n" );
+        if( toDevice1 )
+        {
+            for( Artifact art : evt.getArtifactsToDevice1() )
+            {
+                outputDeviceCSV( evt.getDevice2ID(), evt.getDevice2TypeIdentifier(), loc2 );
+                outputDeviceCSV( evt.getDevice1ID(), evt.getDevice1TypeIdentifier(), loc1 );
+                outputArtifactTransferCSV( art, time, iteration );
+            }
+        }
+        else
+        {
+            for( Artifact art : evt.getArtifactsToDevice2() )
+            {
+                outputDeviceCSV( evt.getDevice1ID(), evt.getDevice1TypeIdentifier(), loc1 );
+                outputDeviceCSV( evt.getDevice2ID(), evt.getDevice2TypeIdentifier(), loc2 );
+                outputArtifactTransferCSV( art, time, iteration );
+            }
+        }
     }
     
     
     /**
-      * This method handles simply formatting a Point (coordinate) to comma
-      * separated values. <br>
-      * The resulting string is returned.
+      * This method handles outputting the end of a line of data about an
+      * artifact transfer (the data following the devices) in a comma-separated
+      * values format.
+      * 
+      * @see #outputDeviceCSV(int, String, Point2D.Double)
       */
-    private static final String formatCoordCSV( Point2D.Double p )
+    private void outputArtifactTransferCSV( Artifact art, double time, int iteration ) throws SAXException
     {
-        return p.x + ",\t" + p.y ;
+        // Artifact / transfer info:
+        out.print( art.getResourceID() );
+        out.print( ",\t" );
+        out.print( art.getAge() );
+        out.print( ",\t" );
+        out.print( time );
+        out.print( ",\t" );
+        out.print( iteration );
+        out.print( "\n" );
     }
     
     
     /**
-      * This method handles simply formatting data about an AbstractWirelessDevice
-      * into comma-separated values. <br>
-      * The resulting string is returned.
+      * This method handles outputting data about an AbstractWirelessDevice
+      * (its ID, type identifier and location) as comma-separated values,
+      * followed by a separator (as a device is never last in a line).
       */
-    private static final String formatDeviceCSV( AbstractWirelessDevice dev )
+    private void outputDeviceCSV( int deviceID, String deviceType, Point2D.Double location ) throws SAXException
     {
-        StringBuffer buff = new StringBuffer();
-        
-        buff.append( dev.getDeviceID() );
-        buff.append( ",\t" );
-        buff.append( dev.getDeviceTypeIdentifier() );
-        buff.append( ",\t" );
-        buff.append( formatCoordCSV( dev.getLocation() ) );
-        
-        return buff.toString();
+        out.print( deviceID );
+        out.print( ",\t" );
+        out.print( deviceType );
+        out.print( ",\t" );
+        out.print( location.x );
+        out.print( ",\t" );
+        out.print( location.y );
+        out.print( ",\t" );
     }
     
     
     /* (REUSABLE) HELPER METHODS FOR OUTPUTTING DATA - XML */
     
     /**
-      * A method to handle outputting data about a transaction (in ONE direction)
-      * to the XML document.
+      * A method to handle outputting data about a transaction (in ONE direction:
+      * to device1 if toDevice1 is set, otherwise to device2) to the XML document.
       */
-    private void outputTransaction( List<Artifact> artList, AbstractWirelessDevice from, AbstractWirelessDevice to, double time ) throws SAXException
+    private void outputTransaction( CommunicationEvent evt, boolean toDevice1, double time ) throws SAXException
     {
         assert phase == MonitorPhase.RUNNING;
         
@@ -507,8 +509,20 @@ public final class XMLMonitor implements CommunicationListener, SimulationListen
         
         
         out.elemDouble( SIM_TIME_ELAPSED_ELEMNAME, time );
-        outputAWD( FROM_DEVICE_ELEMNAME, from );
-        outputAWD( TO_DEVICE_ELEMNAME, to );
+        
+        List<Artifact> artList;
+        if( toDevice1 )
+        {
+            outputAWD( FROM_DEVICE_ELEMNAME, evt.getDevice2ID(), evt.getDevice2TypeIdentifier(), evt.getDevice2Location() );
+            outputAWD( TO_DEVICE_ELEMNAME, evt.getDevice1ID(), evt.getDevice1TypeIdentifier(), evt.getDevice1Location() );
+            artList = evt.getArtifactsToDevice1();
+        }
+        else
+        {
+            outputAWD( FROM_DEVICE_ELEMNAME, evt.getDevice1ID(), evt.getDevice1TypeIdentifier(), evt.getDevice1Location() );
+            outputAWD( TO_DEVICE_ELEMNAME, evt.getDevice2ID(), evt.getDevice2TypeIdentifier(), evt.getDevice2Location() );
+            artList = evt.getArtifactsToDevice2();
+        }
         
         out.startElement( ARTIFACT_LIST_ELEMNAME );
         for( Artifact art : artList )
@@ -617,15 +631,25 @@ public final class XMLMonitor implements CommunicationListener, SimulationListen
       * about an abstract wireless device.
       */
     private void outputAWD( String elemName, AbstractWirelessDevice dev ) throws SAXException
+    {
+        outputAWD( elemName, dev.getDeviceID(), dev.getDeviceTypeIdentifier(), dev.getLocation() );
+    }
+    
+    
+    /**
+      * A helper method which will output an element containing the given
+      * details of an abstract wireless device.
+      */
+    private void outputAWD( String elemName, int deviceID, String deviceType, Point2D.Double location ) throws SAXException
     {
         assert phase == MonitorPhase.RUNNING;
         
         
         out.startElement( elemName );
         
-        out.elemInt( DEVICEID_ELEMNAME, dev.getDeviceID() );
-        out.elem( DEVICE_TYPE_ELEMNAME, dev.getDeviceTypeIdentifier() );
-        outputCoord( dev.getLocation() );
+        out.elemInt( DEVICEID_ELEMNAME, deviceID );
+        out.elem( DEVICE_TYPE_ELEMNAME, deviceType );
+        outputCoord( location );
         
         out.endElement();
     }
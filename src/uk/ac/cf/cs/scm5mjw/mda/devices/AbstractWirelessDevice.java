@@ -12,14 +12,17 @@ import java.util.*;
   * The functionality which these objects have in common has been grouped
   * into this class so as to reduce duplication. <br>
   * <br>
-  * Note that on creation, each device is given an immutable device ID number.
-  * These numbers are automatically assigned by this class and increment
-  * in the order that device are created. (For example, the first
-  * device created has the ID 1). Device IDs are unique across ALL
-  * devices (their subclass type is irrelevant). <br>
-  * Static method <code>resetNextDeviceID</code> will reset the device IDs to 1. Thus, IDs
-  * for devices created after a reset will start at 1. Users of this class should thus
-  * be careful as it means two devices may have the same ID. <br>  
+  * Note that each device is given an immutable device ID number when it is
+  * added to a Simulator. These numbers are assigned by the simulator and
+  * increment in the order that devices are added to it. (For example, the first
+  * device added has the ID 1). Device IDs are unique across ALL of a
+  * simulator's devices (their subclass type is irrelevant), but devices in
+  * different simulators may have the same ID. A device that has not yet been
+  * added to a simulator has the ID 0. <br>
+  * <br>
+  * Each device uses the CommunicationController of the simulator it was added
+  * to. Keeping this (and the device IDs) per simulator, rather than per class,
+  * means that several simulations may be run at the same time. <br>
   * <br>
   * Notes on units: <br>
   * * Communication range is in meters    <br>
@@ -30,15 +33,17 @@ public abstract class AbstractWirelessDevice
     /* Constants / defaults */
     public static final double DEFAULT_COMMUNICATION_RANGE = 20;
     
-    /* Class variables */
-    private static int nextDeviceID = 1;
-    
     /* Instance variables */
     // General device variables
     private Point2D.Double location;
     private double communicationRange;
     private ArtifactContainer artCont;
     private int deviceID;
+    private CommunicationController commController;
+    
+    // The state store this device is a view of (if any), and its slot in the store
+    DeviceStateStore store;
+    int slot;
     
     // Variables relating to this device's current communication session
     protected boolean isCommunicating;
@@ -67,7 +72,10 @@ public abstract class AbstractWirelessDevice
         isCommunicating = false;
         timeLeft = -1;
         artCont = new ArtifactContainer();
-        deviceID = nextDeviceID++;
+        deviceID = 0;
+        commController = null;
+        store = null;
+        slot = -1;
     }
     
     
@@ -89,7 +97,7 @@ public abstract class AbstractWirelessDevice
     public boolean reaches( AbstractWirelessDevice dev )
     {
         double dist = SimulatorTools.distance( this.getLocation(), dev.getLocation() );
-        return dist <= this.communicationRange;
+        return dist <= this.getCommunicationRange();
     }
     
     
@@ -106,15 +114,28 @@ public abstract class AbstractWirelessDevice
       */    
     public boolean canCommunicateWith( AbstractWirelessDevice dev )
     {
+        // (devices held in the same state store can be checked without leaving the store)
+        if( store != null && dev.store == store )
+            return store.canCommunicate( slot, dev.slot );
+        
         return this.reaches( dev ) && dev.reaches( this );
     }
     
     
     /**
-      * Accessor for the location of this device.
+      * Accessor for the location of this device. <br>
+      * If this device is attached to a state store, the returned point is updated
+      * from the store by each call; changes made to the point are only stored
+      * once it is passed to <code>setLocation</code>.
       */
     public Point2D.Double getLocation()
     {
+        if( store != null )
+        {
+            location.x = store.x[slot];
+            location.y = store.y[slot];
+        }
+        
         return location;
     }
     
@@ -124,12 +145,16 @@ public abstract class AbstractWirelessDevice
       */
     public double getCommunicationRange()
     {
+        if( store != null )
+            return store.range[slot];
+        
         return communicationRange;
     }
     
     
     /**
-      * Accessor for this device's device ID.
+      * Accessor for this device's device ID. This is 0 if the device has not
+      * been given an ID.
       */
     public int getDeviceID()
     {
@@ -137,12 +162,69 @@ public abstract class AbstractWirelessDevice
     }
     
     
+    /**
+      * Mutator for this device's device ID. This is called by a Simulator when
+      * the device is added to it. <br>
+      * A device's ID may only be set once, and must be greater than 0.
+      */
+    public void setDeviceID( int deviceID )
+    {
+        if( deviceID <= 0 )
+            throw new IllegalArgumentException( "A device ID must be greater than 0" );
+        
+        if( this.deviceID != 0 )
+            throw new IllegalStateException( "This device has already been given a device ID" );
+        
+        this.deviceID = deviceID;
+    }
+    
+    
+    /**
+      * An accessor for this device's CommunicationController. This is null if the
+      * device has not been added to a Simulator.
+      */
+    public CommunicationController getCommunicationController()
+    {
+        return commController;
+    }
+    
+    
+    /**
+      * A mutator for this device's CommunicationController. This is called by a
+      * Simulator when the device is added to it (and whenever the simulator's
+      * controller is changed). <br>
+      * Both devices in a communication session must use the same controller.
+      */
+    public void setCommunicationController( CommunicationController inCommController )
+    {
+        commController = inCommController;
+    }
+    
+    
+    /**
+      * A mutator for the clock that this device's artifacts age by. This is
+      * called by a Simulator when the device is added to it.
+      * 
+      * @see ArtifactContainer#setClock(SimulationClock)
+      */
+    public void setSimulationClock( SimulationClock clock )
+    {
+        artCont.setClock( clock );
+    }
+    
+    
     /**
       * Mutator for this device's location.
       */
     public void setLocation( Point2D.Double loc )
     {
         location = loc;
+        
+        if( store != null )
+        {
+            store.x[slot] = loc.x;
+            store.y[slot] = loc.y;
+        }
     }
     
     
@@ -155,6 +237,9 @@ public abstract class AbstractWirelessDevice
             throw new IllegalArgumentException( "Communication range cannot be negative" );
         
         communicationRange = commRange;
+        
+        if( store != null )
+            store.range[slot] = commRange;
     }
     
     
@@ -163,8 +248,9 @@ public abstract class AbstractWirelessDevice
       */
     public String toString()
     {
-        String coordStr = "(" + location.getX() + "," + location.getY() + ")";
-        String str = "Device ID: " + deviceID + ", Location: " + coordStr + ", Communication Range: " + communicationRange;
+        Point2D.Double loc = getLocation();
+        String coordStr = "(" + loc.getX() + "," + loc.getY() + ")";
+        String str = "Device ID: " + deviceID + ", Location: " + coordStr + ", Communication Range: " + getCommunicationRange();
         return str;
     }
     
@@ -269,12 +355,10 @@ public abstract class AbstractWirelessDevice
     
     /**
       * Advance this device's communication by the given time.  <br>
-      * This method will increment this device's attributes that vary with time by
-      * timeIncrement. <br>
-      * These attributes are: <br>
-      *  - the age of the device's artifacts <br>
-      *  - the time remaining in this device's communication session (if it is communicating)
-      * <br>
+      * This method will decrease the time remaining in this device's communication
+      * session (if it is communicating) by timeIncrement. <br>
+      * (The ages of the device's artifacts are not advanced here; they are worked
+      * out from the simulation's clock.) <br>
       * Notes on communication time remaining: <br>
       *   - Only THIS device's time left is updated (the time left of the communication
       *     partner is unaffected). <br>
@@ -283,11 +367,6 @@ public abstract class AbstractWirelessDevice
       */
     public void advanceCommunication( double timeIncrement )
     {
-        // Advance artifact age
-        List<Artifact> list = artCont.list();
-        for( Artifact art : list )
-            art.advanceAge( timeIncrement );
-        
         // Advance communication session time remaining
         if( isCommunicating )
         {
@@ -495,13 +574,19 @@ public abstract class AbstractWirelessDevice
       * The communication for BOTH devices (this device and the argument device)
       * will be initiated. This is really an entry method which defers the actual
       * (complicated) work of calculating and performing various operations for
-      * a communication to the Communication Controller for this class.
+      * a communication to the Communication Controller for this device.
       */
     public void initiateCommunication( AbstractWirelessDevice device )
     {
         assert device != null;
         
-        // (error checking is deferred to the Communication Controller class)
+        if( commController == null )
+            throw new CommunicationException( "Cannot initiate communication - this device does not have a communication controller (it has not been added to a simulator)" );
+        
+        if( device.commController != commController )
+            throw new CommunicationException( "Cannot initiate communication - the devices do not share a communication controller (they belong to different simulators)" );
+        
+        // (other error checking is deferred to the Communication Controller class)
         
         commController.initiateCommunication( this, device );
     }
@@ -514,7 +599,7 @@ public abstract class AbstractWirelessDevice
       * The discovery for BOTH devices in this communication will be attempted.
       * This is really an entry method which defers the actual work of calculating 
       * and performing various operations for discovery to the 
-      * Communication Controller for this class.
+      * Communication Controller for this device.
       */
     public void attemptDiscovery()
     {
@@ -536,7 +621,7 @@ public abstract class AbstractWirelessDevice
       * communication. Transmission may still fail since we are modelling a
       * transmission success rate in the communication completion. <br>
       * This is really an entry method which defers the actual work of completing
-      * communication to the Communication Controller for this class.
+      * communication to the Communication Controller for this device.
       */
     public void completeCommunication()
     {
@@ -555,7 +640,7 @@ public abstract class AbstractWirelessDevice
       * prematurely -- it does not manage to send any messages) <br>
       * <br>
       * This is really an entry method which defers the actual work of aborting
-      * communication to the CommunicationController for this class.
+      * communication to the CommunicationController for this device.
       */
     public void abortCommunication()
     {
@@ -568,47 +653,67 @@ public abstract class AbstractWirelessDevice
     
     
     
-    /* ***** CLASS METHODS AND ATTRIBUTES ***** */
+    /* ***** STATE STORE ***** */
+    
     /**
-      * This method should return a textual string which identifies the type
-      * of device that this is. (e.g. a MobileDevice). <br>
-      * Other classes may use this when they want to get a textual name for the
-      * type of device.
+      * Makes this device a view of the given slot of a state store, copying its
+      * current state into the store. Subclasses that keep more state in the store
+      * must override this (and call this method).
+      * 
+      * @see DeviceStateStore
       */
-    public abstract String getDeviceTypeIdentifier();
-    
+    void attachTo( DeviceStateStore inStore, int inSlot )
+    {
+        if( store != null )
+            throw new IllegalStateException( "This device is already attached to a state store" );
+        
+        inStore.x[inSlot] = location.x;
+        inStore.y[inSlot] = location.y;
+        inStore.range[inSlot] = communicationRange;
+        
+        store = inStore;
+        slot = inSlot;
+    }
     
-    private static CommunicationController commController = new StandardCommController();
     
     /**
-      * An accessor for the class's CommunicationController. Note that a communication
-      * controller exists for a class (and hence it is the same for all 
-      * AbstractWirelessDevice objects).
+      * Copies this device's state back out of its state store and stops it
+      * being a view of the store. Subclasses that keep more state in the store
+      * must override this (and call this method).
       */
-    public static CommunicationController getCommunicationController()
+    void detach()
     {
-        return commController;
+        if( store == null )
+            return;
+        
+        location.x = store.x[slot];
+        location.y = store.y[slot];
+        communicationRange = store.range[slot];
+        
+        store = null;
+        slot = -1;
     }
     
     
     /**
-      * A mutator for the class's CommunicationController. Note that a communication
-      * controller exists for a class (and hence it is the same for all 
-      * AbstractWirelessDevice objects).
+      * An accessor for the state store this device is attached to (null if
+      * it is not attached to one).
       */
-    public static void setCommunicationController( CommunicationController inCommController )
+    public DeviceStateStore getStateStore()
     {
-        commController = inCommController;
+        return store;
     }
     
     
+    
+    
+    /* ***** CLASS METHODS AND ATTRIBUTES ***** */
     /**
-      * This method will reset the next ID to 1. <br>
-      * IDs for devices created after a reset will start from 1 again.
+      * This method should return a textual string which identifies the type
+      * of device that this is. (e.g. a MobileDevice). <br>
+      * Other classes may use this when they want to get a textual name for the
+      * type of device.
       */
-    public static void resetNextDeviceID()
-    {
-        nextDeviceID = 1;
-    }
+    public abstract String getDeviceTypeIdentifier();
      
 }
@@ -11,20 +11,30 @@ package uk.ac.cf.cs.scm5mjw.mda.devices;
   * An artifact also has a resource ID which identifies the resource the artifact
   * corresponds to. <br>
   * <br>
-  * An Artifact's resource ID is immutable, but its age is mutable. This means that
-  * great care must be taken when handling these Artifacts. Having multiple references
-  * to the same Artifact object may result in undesirable behaviour..
+  * An artifact is immutable. An artifact that is bound to a SimulationClock
+  * records when (on the clock) it was created, and its age is worked out from
+  * the clock whenever it is asked for, so it grows older as the simulation runs
+  * without anything having to be done to it. An artifact that is not bound to a
+  * clock always has the same age. <br>
+  * Because nothing about an artifact can change, any number of devices may hold
+  * references to the same Artifact object.
+  *
+  * @see SimulationClock
   */
-public final class Artifact implements Comparable<Artifact>, Cloneable
+public final class Artifact implements Comparable<Artifact>
 {
-    private double age;
-    private int resourceID;
+    private final int resourceID;
+    private final double age;              // The age of an artifact that is not bound to a clock
+    private final SimulationClock clock;   // null if not bound to a clock
+    private final int birthTick;           // The tick of the clock this artifact was created at (age 0), or -1
+    private final double birthTime;        // The time of the clock this artifact was created at
     
     
     
     
     /**
-      * This constructor sets up a complete artifact (including the age).
+      * This constructor sets up a complete artifact (including the age). The
+      * artifact is not bound to a clock, so its age does not change.
       */
     public Artifact( int resourceID, double age )
     {
@@ -36,11 +46,17 @@ public final class Artifact implements Comparable<Artifact>, Cloneable
         
         this.resourceID = resourceID;
         this.age = age;
+        this.clock = null;
+        this.birthTick = -1;
+        this.birthTime = 0;
     }
     
     
     /**
-      * This constructor sets up a brand new Artifact (has age 0).
+      * This constructor sets up a brand new Artifact (has age 0). The artifact
+      * is not bound to a clock, so it stays at age 0 until it is bound to one.
+      *
+      * @see #bindTo(SimulationClock)
       */
     public Artifact( int resourceID )
     {
@@ -48,6 +64,32 @@ public final class Artifact implements Comparable<Artifact>, Cloneable
     }
     
     
+    /**
+      * This constructor sets up a brand new Artifact that is created now on the
+      * given clock (has age 0), and grows older as the clock is advanced.
+      */
+    public Artifact( int resourceID, SimulationClock clock )
+    {
+        this( resourceID, clock, clock.getTicks(), clock.getTime() );
+    }
+    
+    
+    /**
+      * This constructor sets up an artifact bound to the given clock.
+      */
+    private Artifact( int resourceID, SimulationClock clock, int birthTick, double birthTime )
+    {
+        if( resourceID < 1 )
+            throw new ArtifactException( "Artifact resource ID must be > 0" );
+        
+        this.resourceID = resourceID;
+        this.age = 0;
+        this.clock = clock;
+        this.birthTick = birthTick;
+        this.birthTime = birthTime;
+    }
+    
+    
     
     
     /* ACCESSORS AND MUTATORS */
@@ -62,35 +104,48 @@ public final class Artifact implements Comparable<Artifact>, Cloneable
     
     
     /**
-      * Accessor for this artifact's age.
+      * Accessor for this artifact's age. For an artifact bound to a clock, this
+      * is the time the clock has advanced by since the artifact was created.
       */
     public double getAge()
     {
-        return age;
+        if( clock == null )
+            return age;
+        
+        return clock.getAge( birthTick, birthTime );
     }
     
     
     /**
-      * A mutator which will advance this Artifact's age by the given increment
+      * Accessor for the clock this artifact is bound to (null if it is not
+      * bound to a clock).
       */
-    public void advanceAge( double inc )
+    public SimulationClock getClock()
     {
-        age = age + inc;
+        return clock;
     }
     
     
-    /* OTHER GENERIC JAVA METHODS */
-    
     /**
-      * Creates a copy of this Artifact. The copied Artifact has the same attributes
-      * (age and resource ID) as this one, but will be a separate object.
+      * Returns an artifact for the same resource, which has the same age as this
+      * one now but which grows older as the given clock is advanced. <br>
+      * This artifact must not already be bound to a clock.
       */
-    public Artifact clone()
+    public Artifact bindTo( SimulationClock clock )
     {
-        return new Artifact( resourceID, age );
+        if( this.clock != null )
+            throw new ArtifactException( "Artifact is already bound to a clock" );
+        
+        // (an artifact of age 0 is created now on the clock; otherwise it was created before the clock's current tick)
+        if( age == 0 )
+            return new Artifact( resourceID, clock );
+        
+        return new Artifact( resourceID, clock, -1, clock.getTime() - age );
     }
     
     
+    /* OTHER GENERIC JAVA METHODS */
+    
     /**
       * Compares the given object with this artifact for equality. <br>
       * This artifact and the object are equal if: <br>
@@ -103,7 +158,7 @@ public final class Artifact implements Comparable<Artifact>, Cloneable
         if( obj instanceof Artifact )
         {
             Artifact art = (Artifact)obj;
-            return (art.age == this.age) && (art.resourceID == this.resourceID);
+            return (art.getAge() == this.getAge()) && (art.resourceID == this.resourceID);
         }
         
         return false;
@@ -147,7 +202,7 @@ public final class Artifact implements Comparable<Artifact>, Cloneable
     public int hashCode()
     {
         // hashAge is the age modified to make it suitable for concatenation
-        double hashAge = (double)Math.round( Math.abs(age) );
+        double hashAge = (double)Math.round( Math.abs( getAge() ) );
         
         // Handle the case that the age is 0
         int shiftNum;
@@ -166,6 +221,6 @@ public final class Artifact implements Comparable<Artifact>, Cloneable
       */
     public String toString()
     {
-        return "<Artifact> Resource ID: " + resourceID + ", Age: " + age;
+        return "<Artifact> Resource ID: " + resourceID + ", Age: " + getAge();
     }
 }
@@ -4,119 +4,315 @@ package uk.ac.cf.cs.scm5mjw.mda.devices;
 
 import java.util.*;
 
-     
-/** 
+
+/**
   * This class handles storing a collection of Artifacts. <br>
-  * Internally, the collection is stored as a list and this class ensures that
-  * the list is sorted by artifact ID, thus allowing binarySearch to be used to
-  * support insertion, removal and searching. <br>
+  * Internally, the collection is stored as an array of Artifacts and an array of
+  * their resource IDs, and this class ensures that both are sorted by resource ID.
+  * A single Artifact is found by a binary search of the resource IDs, and
+  * two containers are compared by walking through both at once (a merge), so
+  * comparing two containers takes time proportional to their sizes. <br>
   * Two Artifacts with the same resource ID are not allowed in the collection
   * (i.e. all Artifacts in the collection have unique resource IDs). <br>
   * <br>
   * An important feature of this class is that it also has a number of methods to
-  * aid in the tasks necessary for handling Artifacts in the mobile communication system.
+  * aid in the tasks necessary for handling Artifacts in the mobile communication system. <br>
+  * <br>
+  * A container may be given a SimulationClock. Any artifact added to it that is
+  * not bound to a clock is then bound to the container's clock, so that it
+  * grows older as the simulation runs. <br>
+  * <br>
+  * A container also keeps a summary of what it holds, so that two containers
+  * that have nothing to exchange can usually be recognised without comparing
+  * their artifacts: <br>
+  *  - a bitset of the resource IDs it holds <br>
+  *  - a sync stamp. Containers that are known to hold equivalent artifacts (the
+  *    same resource IDs, with the same ages) share the same stamp, and a
+  *    container is given a new stamp whenever its artifacts change.
+  *
+  * @see #isSynchronisedWith(ArtifactContainer)
   */
 public final class ArtifactContainer implements Iterable<Artifact>
 {
-    private List<Artifact> list;
-    
-    
-    
-    
+    /* Constants */
+    private static final int INITIAL_CAPACITY = 4;
+
+
+    /* Instance variables */
+    private int[] rids;                 // The resource ID of each artifact, in ascending order
+    private Artifact[] arts;            // The artifacts (arts[i] has resource ID rids[i])
+    private int size;
+    private SimulationClock clock;
+
+    // Summary of the artifacts held
+    private long[] heldBits;            // Bit r is set if an artifact with resource ID r is held
+    private SyncStamp syncStamp;        // Shared with containers known to hold equivalent artifacts
+
+    // Reused by copyAll as the arrays to merge into (swapped with rids and arts)
+    private int[] spareRids;
+    private Artifact[] spareArts;
+
+    // Reused by transferFrom to hold its result
+    private Artifact[] transferBuffer;
+    private int transferSize;
+
+    // Read-only views of the artifacts and of the result of transferFrom
+    private ArtifactView contentsView;
+    private ArtifactView transferView;
+
+
+
+
     /**
       * Constructor for an ArtifactContainer (initially empty).
       */
     public ArtifactContainer()
     {
-        list = new LinkedList<Artifact>();
+        rids = new int[ INITIAL_CAPACITY ];
+        arts = new Artifact[ INITIAL_CAPACITY ];
+        size = 0;
+        clock = null;
+
+        heldBits = new long[1];
+        syncStamp = new SyncStamp();
+
+        spareRids = null;
+        spareArts = null;
+        transferBuffer = null;
+        transferSize = 0;
+
+        contentsView = new ArtifactView( false );
+        transferView = new ArtifactView( true );
     }
-    
-    
-    
-    
+
+
+
+
     /* ACCESSORS, MUTATORS, GENERIC JAVA METHODS */
-    
+
     /**
-      * This method returns an iterator over this ArtifactContainer's Artifacts. <br>
+      * This method returns an iterator over this ArtifactContainer's Artifacts
+      * (in order of resource ID). <br>
       * This allows the use of the Java foreach loop with ArtifactContainers.
+      * The iterator does not support removal.
       */
     public Iterator<Artifact> iterator()
     {
-        return list.iterator();
+        return contentsView.iterator();
+    }
+
+
+    /**
+      * An accessor for the number of Artifacts in this container.
+      */
+    public int size()
+    {
+        return size;
+    }
+
+
+    /**
+      * An accessor for the clock that artifacts added to this container are
+      * bound to (null if there is none).
+      */
+    public SimulationClock getClock()
+    {
+        return clock;
+    }
+
+
+    /**
+      * A mutator for the clock that artifacts added to this container are bound
+      * to. Any artifacts already in the container that are not bound to a clock
+      * are bound to the given one.
+      */
+    public void setClock( SimulationClock clock )
+    {
+        this.clock = clock;
+
+        if( clock != null )
+        {
+            for( int i=0; i < size; i++ )
+            {
+                if( arts[i].getClock() == null )
+                {
+                    arts[i] = arts[i].bindTo( clock );
+                    syncStamp = new SyncStamp();
+                }
+            }
+        }
     }
-    
-    
+
+
     /**
       * Returns a string representation of this ArtifactContainer.
       */
     public String toString()
     {
-        return list.toString();
+        return contentsView.toString();
     }
-    
-    
-    
-    
+
+
+
+
     /* CONTAINER FUNCTIONALITY METHODS */
-    
+
     /**
-      * This method handles adding the Artifact newArt to the container. 
+      * This method handles adding the Artifact newArt to the container.
       * Note that it is illegal to add an Artifact which is older or the same age
       * as an existing Artifact (given that both have the same resource ID). <br>
       * If the Artifact being added is newer than an Artifact already in the
       * container (given that both have the same resource ID), then older Artifact
       * is replaced with the new one. <br>
       * <br>
-      * Note that the Artifact object is NOT copied.
+      * Note that the Artifact object is NOT copied (artifacts are immutable, so
+      * they may be shared). However, if this container has a clock and the
+      * Artifact is not bound to one, the Artifact bound to this container's clock
+      * is added instead.
       */
     public void add( Artifact newArt )
     {
-        int index = Collections.binarySearch( list, newArt );
-        
+        if( clock != null && newArt.getClock() == null )
+            newArt = newArt.bindTo( clock );
+
+        int index = Arrays.binarySearch( rids, 0, size, newArt.getResourceID() );
+
         /* Artifact with same resource ID did not exist in the container... */
         if( index < 0 )
-            list.add( -(index)-1, newArt );
+        {
+            index = -(index)-1;
+
+            if( size == rids.length )
+            {
+                rids = Arrays.copyOf( rids, size*2 );
+                arts = Arrays.copyOf( arts, size*2 );
+            }
+
+            System.arraycopy( rids, index, rids, index+1, size-index );
+            System.arraycopy( arts, index, arts, index+1, size-index );
+            rids[index] = newArt.getResourceID();
+            arts[index] = newArt;
+            size++;
+
+            setHeld( newArt.getResourceID() );
+        }
         else
         {
             /* Otherwise, an Artifact with same resource ID was found in the container... */
-            Artifact oldArt = list.get( index );
-            
-            if( newArt.getAge() >= oldArt.getAge() )
-                throw new ArtifactException( "Artifact being added is older or same age as the one it's replacing (Existing Artifact: " + oldArt + ") (Artifact to be added: " + newArt + ")" );
-            
-            list.set( index, newArt );
+            checkNewer( newArt, arts[index] );
+
+            arts[index] = newArt;
         }
+
+        syncStamp = new SyncStamp();
     }
-    
-    
+
+
     /**
-      * This method is the same as add( Artifact newArt ), except that the Artifact
-      * is copied and added (thus this will NOT result in another reference to the
-      * same Artifact object).
+      * This method is the same as add( Artifact newArt ). Artifacts used to be
+      * copied before being added, but as they are now immutable this is no
+      * longer necessary.
       *
       * @see #add
       */
     public void addCopy( Artifact newArt )
     {
-        add( newArt.clone() );
+        add( newArt );
     }
-    
-    
+
+
     /**
-      * This method will add a COPY of each Artifact in the given List to this ArtifactContainer.
-      * The addCopy method is used to handle adding each individual Artifact.
-      * There is not prerequisite ordering required of the input list. The addCopy
-      * method will handles placing the Artifact at the right location in the container.
+      * This method will add each Artifact in the given List to this ArtifactContainer.
+      * There is not prerequisite ordering required of the input list. <br>
+      * <br>
+      * If the list is in order of resource ID with no resource ID repeated (as
+      * the list returned by transferFrom is), it is merged with this container
+      * in a single pass. In this case, if any of the Artifacts may not be added
+      * (see add) then none of them are. Otherwise, the addCopy method is used to
+      * handle adding each individual Artifact.
       *
       *@see #addCopy
+      *@see #transferFrom(ArtifactContainer)
       */
     public void copyAll( List<Artifact> l )
     {
-        for( Artifact a : l )
-            addCopy( a );
+        if( l.isEmpty() )
+            return;
+
+        if( !isStrictlyOrdered( l ) )
+        {
+            for( Artifact a : l )
+                addCopy( a );
+
+            return;
+        }
+
+        int n = size + l.size();
+        if( spareRids == null || spareRids.length < n )
+        {
+            int capacity = Math.max( n, rids.length );
+            spareRids = new int[ capacity ];
+            spareArts = new Artifact[ capacity ];
+        }
+
+
+        // Merge this container's artifacts with the list into the spare arrays
+        int i = 0;
+        int merged = 0;
+
+        for( Artifact newArt : l )
+        {
+            int newRID = newArt.getResourceID();
+
+            while( i < size && rids[i] < newRID )
+            {
+                spareRids[ merged ] = rids[i];
+                spareArts[ merged ] = arts[i];
+                merged++;
+                i++;
+            }
+
+            if( clock != null && newArt.getClock() == null )
+                newArt = newArt.bindTo( clock );
+
+            if( i < size && rids[i] == newRID )
+            {
+                checkNewer( newArt, arts[i] );
+                i++;
+            }
+
+            spareRids[ merged ] = newRID;
+            spareArts[ merged ] = newArt;
+            merged++;
+        }
+
+        for( Artifact newArt : l )
+            setHeld( newArt.getResourceID() );
+
+        while( i < size )
+        {
+            spareRids[ merged ] = rids[i];
+            spareArts[ merged ] = arts[i];
+            merged++;
+            i++;
+        }
+
+
+        // Swap the merged arrays in (the old arrays become the spare ones)
+        int[] oldRids = rids;
+        Artifact[] oldArts = arts;
+
+        rids = spareRids;
+        arts = spareArts;
+        spareRids = oldRids;
+        spareArts = oldArts;
+
+        Arrays.fill( spareArts, 0, size, null );
+        size = merged;
+        syncStamp = new SyncStamp();
     }
-    
-    
+
+
     /**
       * For the given ArtifactContainer cont, this method will return a list of all
       * the Artifacts in b that are: <br>
@@ -124,71 +320,210 @@ public final class ArtifactContainer implements Iterable<Artifact>
       *  -  are newer (more recent) than the corresponding Artifact in this ArtifactContainer <br>
       * <br>
       * Basically, this will give a list of all of the Artifacts that should be transferred
-      * from cont to this. <br>
+      * from cont to this. The list is in order of resource ID. <br>
       * <br>
       * Also, the following code: <br>
       * <code>cont1.copyAll( cont1.transferFrom( cont2 ) )</code> <br>
       * will result in cont1 being updated to contain all of the Artifacts that need
-      * to be transferred from cont2.
-      * 
+      * to be transferred from cont2. <br>
+      * <br>
+      * The returned list is read-only, and it is reused: it is only valid until
+      * the next call to transferFrom on this container.
+      *
       * @param cont a container whose artifacts may be transferred to this artifact container
       * @see #copyAll(List)
       */
     public List<Artifact> transferFrom( ArtifactContainer cont )
     {
-        List<Artifact> l = new LinkedList<Artifact>();
-        
-        for( Artifact art : cont )
+        if( transferBuffer == null || transferBuffer.length < cont.size )
+            transferBuffer = new Artifact[ Math.max( cont.size, INITIAL_CAPACITY ) ];
+        else
+            Arrays.fill( transferBuffer, 0, transferSize, null );
+
+        transferSize = 0;
+
+        int i = 0;
+        for( int j=0; j < cont.size; j++ )
         {
-            // Get the Artifact with the same resource ID in this ArtifactContainer
-            Artifact thisArt = this.findByRID( art );
-            
-            // This ArtifactContainer does not have an Artifact of the same resource ID...
-            if( thisArt == null )
-                l.add( art );
-            else
-            {
-                // This ArtifactContainer has an Artifact (of same RID) that is out of date...
-                if( thisArt.getAge() > art.getAge() ) 
-                    l.add( art );
-            }
+            int rid = cont.rids[j];
+            Artifact art = cont.arts[j];
+
+            // Find the Artifact with the same resource ID in this ArtifactContainer (if any)
+            while( i < size && rids[i] < rid )
+                i++;
+
+            // This ArtifactContainer does not have an Artifact of the same resource ID,
+            // or it has one (a different Artifact) that is out of date...
+            if( i == size || rids[i] != rid )
+                transferBuffer[ transferSize++ ] = art;
+            else if( arts[i] != art && arts[i].getAge() > art.getAge() )
+                transferBuffer[ transferSize++ ] = art;
+        }
+
+        return transferView;
+    }
+
+
+    /**
+      * Checks whether this container holds an artifact for every resource that
+      * the given container holds an artifact for. This compares the resource ID
+      * bitsets, so it does not look at any artifacts.
+      */
+    public boolean holdsAllResourcesOf( ArtifactContainer cont )
+    {
+        long[] other = cont.heldBits;
+
+        for( int w=0; w < other.length; w++ )
+        {
+            long mine = ( w < heldBits.length ) ? heldBits[w] : 0;
+
+            if( (other[w] & ~mine) != 0 )
+                return false;
+        }
+
+        return true;
+    }
+
+
+    /**
+      * Checks whether this container and the given container hold equivalent
+      * artifacts (the same resource IDs, with the same ages). If they do, neither
+      * has anything to transfer to the other. <br>
+      * <br>
+      * If the containers are already known to be equivalent (they have the same
+      * sync stamp), or they do not hold the same resource IDs, this is found
+      * without looking at any artifacts. Otherwise, the artifacts are compared
+      * and, if they are equivalent, the containers are given the same stamp so
+      * that the next check is immediate.
+      *
+      * @see #markSynchronisedWith(ArtifactContainer)
+      */
+    public boolean isSynchronisedWith( ArtifactContainer cont )
+    {
+        if( syncStamp == cont.syncStamp )
+            return true;
+
+        if( size != cont.size || !holdsAllResourcesOf( cont ) )
+            return false;
+
+        // (same resource IDs, so compare the artifacts of each resource in turn)
+        for( int i=0; i < size; i++ )
+        {
+            if( arts[i] != cont.arts[i] && arts[i].getAge() != cont.arts[i].getAge() )
+                return false;
         }
-        
-        return l;
+
+        markSynchronisedWith( cont );
+        return true;
+    }
+
+
+    /**
+      * Records that this container and the given container now hold equivalent
+      * artifacts (the same resource IDs, with the same ages), e.g. because each
+      * has just committed everything that <code>transferFrom</code> found should
+      * be transferred to it from the other. The given container is given this
+      * container's sync stamp, which is kept until either of them changes. <br>
+      * <br>
+      * This must only be called when the containers really are equivalent, as
+      * containers with the same stamp are not compared again.
+      */
+    public void markSynchronisedWith( ArtifactContainer cont )
+    {
+        cont.syncStamp = syncStamp;
     }
-    
-    
+
+
     /**
-      * This method is an accessor to get the list of all the Artifacts stored in
-      * this ArtifactContainer.
+      * This method is an accessor to get a read-only list of all the Artifacts stored in
+      * this ArtifactContainer (in order of resource ID). The list reflects any
+      * later changes to the container.
       */
     public List<Artifact> list()
     {
-        return list;
+        return contentsView;
     }
-    
-    
+
+
     /**
-      * This will find the Artifact in this ArtifactContainer which has the
-      * same resource ID as Artifact art. <br>
-      * If there is no Artifact with the same resource ID, this will return null.
+      * Throws an ArtifactException if newArt may not replace oldArt (i.e. it is
+      * older or the same age).
       */
-    private Artifact findByRID( Artifact art )
+    private static void checkNewer( Artifact newArt, Artifact oldArt )
     {
-        int index = Collections.binarySearch( list, art );
-        
-        if( index < 0 )
-            return null;
-        else
-            return list.get( index );
-    }
-    
-    
-    
-    
-    
-    
-    
-    //
-    
+        if( newArt.getAge() >= oldArt.getAge() )
+            throw new ArtifactException( "Artifact being added is older or same age as the one it's replacing (Existing Artifact: " + oldArt + ") (Artifact to be added: " + newArt + ")" );
+    }
+
+
+    /**
+      * Sets the bit for the given resource ID in the bitset of held resources.
+      */
+    private void setHeld( int rid )
+    {
+        int word = rid >>> 6;
+
+        if( word >= heldBits.length )
+            heldBits = Arrays.copyOf( heldBits, Math.max( word+1, heldBits.length*2 ) );
+
+        heldBits[ word ] |= 1L << rid;
+    }
+
+
+    /**
+      * Checks whether the given list is in order of resource ID, with no
+      * resource ID repeated.
+      */
+    private static boolean isStrictlyOrdered( List<Artifact> l )
+    {
+        int lastRID = 0;     // (resource IDs are all greater than 0)
+
+        for( Artifact a : l )
+        {
+            if( a.getResourceID() <= lastRID )
+                return false;
+
+            lastRID = a.getResourceID();
+        }
+
+        return true;
+    }
+
+
+
+
+    /**
+      * A sync stamp. Only the identity of a stamp matters.
+      */
+    private static final class SyncStamp
+    {
+    }
+
+
+    /**
+      * A read-only list view of either the artifacts in this container or the
+      * result of the last transferFrom.
+      */
+    private final class ArtifactView extends AbstractList<Artifact> implements RandomAccess
+    {
+        private boolean transfer;       // Whether this is a view of the transferFrom result
+
+        ArtifactView( boolean transfer )
+        {
+            this.transfer = transfer;
+        }
+
+        public Artifact get( int index )
+        {
+            if( index < 0 || index >= size() )
+                throw new IndexOutOfBoundsException( "Index: " + index + ", Size: " + size() );
+
+            return transfer ? transferBuffer[ index ] : arts[ index ];
+        }
+
+        public int size()
+        {
+            return transfer ? transferSize : size;
+        }
+    }
 }
@@ -2,6 +2,8 @@
 
 package uk.ac.cf.cs.scm5mjw.mda.devices;
 
+import java.util.SplittableRandom;
+
 /** 
   * A class implementing this interface is one that can be used to handle carrying
   * out tasks relating to communication sessions, specifically: <br>
@@ -44,4 +46,18 @@ public interface CommunicationController
       * This method is called to abort a communication session between two devices.
       */
     public void abortCommunication( AbstractWirelessDevice dev1, AbstractWirelessDevice dev2 );
+    
+    
+    /**
+      * This method sets the random number generator that the controller should
+      * use for any random decisions (such as whether a discovery attempt
+      * succeeds). <br>
+      * A Simulator calls this with its communication stream, so that runs with
+      * the same seed make the same decisions. By default this does nothing, so
+      * a controller that does not support seeding keeps making its decisions as
+      * it did before (and its runs are not repeatable).
+      */
+    public default void setRandom( SplittableRandom random )
+    {
+    }
 }
@@ -2,6 +2,8 @@
 
 package uk.ac.cf.cs.scm5mjw.mda.devices;
 
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
 import java.util.List;
 
 import uk.ac.cf.cs.scm5mjw.mda.devices.AbstractWirelessDevice;
@@ -9,7 +11,15 @@ import uk.ac.cf.cs.scm5mjw.mda.devices.Artifact;
 
 /**
   * This event indicates a communication event (e.g. transfer of an artifact)
-  * has occurred in the Simulation.
+  * has occurred in the Simulation. <br>
+  * <br>
+  * An event refers to the devices and lists of artifacts involved, which keep
+  * changing as the simulation runs. An event that is to be handled later (e.g.
+  * by an AsyncEventDispatcher) should be replaced by a snapshot, which records
+  * the devices' IDs, types and locations, the artifacts (with their ages) and the
+  * simulation time as they were when the snapshot was taken.
+  *
+  * @see #snapshot(double, int)
   */
 public class CommunicationEvent
 {
@@ -18,6 +28,16 @@ public class CommunicationEvent
     private List<Artifact> toDevice1;
     private List<Artifact> toDevice2;
     
+    private boolean isSnapshot;
+    private int device1ID;              // (the remaining fields are only set in a snapshot)
+    private int device2ID;
+    private String device1Type;
+    private String device2Type;
+    private Point2D.Double device1Location;
+    private Point2D.Double device2Location;
+    private double timeOccurred;
+    private int iteration;
+    
     
     
     
@@ -36,6 +56,53 @@ public class CommunicationEvent
         this.device2 = device2;
         this.toDevice1 = toDevice1;
         this.toDevice2 = toDevice2;
+        
+        isSnapshot = false;
+        timeOccurred = Double.NaN;
+        iteration = -1;
+    }
+    
+    
+    /**
+      * Returns a snapshot of this event, as the devices and artifacts are now,
+      * at the given simulation time and iteration. The lists of artifacts are
+      * copied, and each artifact is replaced by one with a fixed age (its age
+      * now). <br>
+      * The snapshot still refers to the devices themselves (e.g. for comparing
+      * them), but their state should be read from the snapshot.
+      */
+    public CommunicationEvent snapshot( double timeOccurred, int iteration )
+    {
+        CommunicationEvent snap = new CommunicationEvent( device1, copyArtifacts( toDevice1 ), device2, copyArtifacts( toDevice2 ) );
+        
+        snap.isSnapshot = true;
+        snap.device1ID = device1.getDeviceID();
+        snap.device2ID = device2.getDeviceID();
+        snap.device1Type = device1.getDeviceTypeIdentifier();
+        snap.device2Type = device2.getDeviceTypeIdentifier();
+        snap.device1Location = (Point2D.Double)device1.getLocation().clone();
+        snap.device2Location = (Point2D.Double)device2.getLocation().clone();
+        snap.timeOccurred = timeOccurred;
+        snap.iteration = iteration;
+        
+        return snap;
+    }
+    
+    
+    /**
+      * Copies a list of artifacts, fixing the age of each (a null list stays
+      * null).
+      */
+    private static List<Artifact> copyArtifacts( List<Artifact> arts )
+    {
+        if( arts == null )
+            return null;
+        
+        List<Artifact> copy = new ArrayList<Artifact>( arts.size() );
+        for( Artifact art : arts )
+            copy.add( new Artifact( art.getResourceID(), art.getAge() ) );
+        
+        return copy;
     }
     
     
@@ -81,4 +148,97 @@ public class CommunicationEvent
     {
         return toDevice2;
     }
+    
+    
+    /**
+      * Tests whether this event is a snapshot.
+      * 
+      * @see #snapshot(double, int)
+      */
+    public boolean isSnapshot()
+    {
+        return isSnapshot;
+    }
+    
+    
+    /**
+      * An accessor to return the device ID of device1 (when the snapshot was
+      * taken, if this is a snapshot).
+      */
+    public int getDevice1ID()
+    {
+        return isSnapshot ? device1ID : device1.getDeviceID();
+    }
+    
+    
+    /**
+      * An accessor to return the device ID of device2 (when the snapshot was
+      * taken, if this is a snapshot).
+      */
+    public int getDevice2ID()
+    {
+        return isSnapshot ? device2ID : device2.getDeviceID();
+    }
+    
+    
+    /**
+      * An accessor to return the type identifier of device1.
+      * 
+      * @see AbstractWirelessDevice#getDeviceTypeIdentifier()
+      */
+    public String getDevice1TypeIdentifier()
+    {
+        return isSnapshot ? device1Type : device1.getDeviceTypeIdentifier();
+    }
+    
+    
+    /**
+      * An accessor to return the type identifier of device2.
+      * 
+      * @see AbstractWirelessDevice#getDeviceTypeIdentifier()
+      */
+    public String getDevice2TypeIdentifier()
+    {
+        return isSnapshot ? device2Type : device2.getDeviceTypeIdentifier();
+    }
+    
+    
+    /**
+      * An accessor to return the location of device1 (when the snapshot was
+      * taken, if this is a snapshot).
+      */
+    public Point2D.Double getDevice1Location()
+    {
+        return isSnapshot ? device1Location : device1.getLocation();
+    }
+    
+    
+    /**
+      * An accessor to return the location of device2 (when the snapshot was
+      * taken, if this is a snapshot).
+      */
+    public Point2D.Double getDevice2Location()
+    {
+        return isSnapshot ? device2Location : device2.getLocation();
+    }
+    
+    
+    /**
+      * An accessor to return the simulation time the snapshot was taken at
+      * (NaN if this is not a snapshot).
+      */
+    public double getTimeOccurred()
+    {
+        return timeOccurred;
+    }
+    
+    
+    /**
+      * An accessor to return the simulation iteration the snapshot was taken at
+      * (-1 if this is not a snapshot).
+      */
+    public int getIteration()
+    {
+        return iteration;
+    }
 }
@@ -0,0 +1,199 @@
+/*   Matthew Williams (0515328)   */
+
+package uk.ac.cf.cs.scm5mjw.mda.devices;
+
+import java.util.*;
+
+/**
+  * A compact store for the state of a set of wireless devices that is read and
+  * written every timestep. <br>
+  * <br>
+  * Each device is given a slot, and its location and communication range (plus,
+  * for a mobile object, its movement speed and the location of its destination
+  * node) are kept in primitive arrays indexed by slot. While a device is attached
+  * to a store, the store holds its true state and the device acts as a view of
+  * it: its accessors and mutators read and write the arrays. This means code that
+  * works with devices (e.g. as a <code>Vector&lt;MobileObject&gt;</code>) does not
+  * need to know about the store. <br>
+  * <br>
+  * The advantage is for loops over every device, such as moving all of the
+  * mobile objects or checking whether two devices are in range. These run over
+  * contiguous arrays rather than following references to objects scattered
+  * across the heap. Mobile objects occupy the first slots so that the mobility
+  * loop is a single sweep. <br>
+  * <br>
+  * The calculations done here are exactly those done by the devices themselves,
+  * so a simulation gives identical results with or without a store.
+  *
+  * @see #advanceMobility(double)
+  */
+public final class DeviceStateStore
+{
+    /* Instance variables */
+    // Indexed by slot (mobile objects first)
+    double[] x;
+    double[] y;
+    double[] range;
+
+    // Indexed by slot, for mobile objects only
+    double[] speed;
+    double[] destX;             // The location of the mobile object's destination node
+    double[] destY;
+
+    private AbstractWirelessDevice[] devices;
+    private int numberOfMobileObjects;
+
+
+
+
+    /* CONSTRUCTORS */
+
+    /**
+      * Creates a store holding the given devices and attaches each of them to it.
+      * A device may only be attached to one store at a time.
+      */
+    public DeviceStateStore( List<MobileObject> mobileObjects, List<? extends AbstractWirelessDevice> otherDevices )
+    {
+        numberOfMobileObjects = mobileObjects.size();
+        int n = numberOfMobileObjects + otherDevices.size();
+
+        x = new double[n];
+        y = new double[n];
+        range = new double[n];
+        speed = new double[ numberOfMobileObjects ];
+        destX = new double[ numberOfMobileObjects ];
+        destY = new double[ numberOfMobileObjects ];
+        devices = new AbstractWirelessDevice[n];
+
+        int slot = 0;
+        for( MobileObject mo : mobileObjects )
+            devices[ slot++ ] = mo;
+
+        for( AbstractWirelessDevice dev : otherDevices )
+        {
+            if( dev instanceof MobileObject )
+                throw new IllegalArgumentException( "Mobile objects must be given in the list of mobile objects" );
+
+            devices[ slot++ ] = dev;
+        }
+
+        for( int i=0; i < n; i++ )
+            devices[i].attachTo( this, i );
+    }
+
+
+
+
+    /* ACCESSORS */
+
+    /**
+      * An accessor for the number of devices held in this store.
+      */
+    public int getNumberOfDevices()
+    {
+        return devices.length;
+    }
+
+
+    /**
+      * An accessor for the number of mobile objects held in this store
+      * (these occupy the first slots).
+      */
+    public int getNumberOfMobileObjects()
+    {
+        return numberOfMobileObjects;
+    }
+
+
+    /**
+      * Returns the device in the given slot.
+      */
+    public AbstractWirelessDevice getDevice( int slot )
+    {
+        return devices[ slot ];
+    }
+
+
+
+
+    /* STORE FUNCTIONALITY */
+
+    /**
+      * Moves every mobile object in this store forward by the given time. <br>
+      * <br>
+      * A mobile object that stays on its current link is moved here, using only
+      * the arrays. One that reaches its destination node (and so must choose a new
+      * link) is moved by its own <code>advanceMobility</code> method instead.
+      *
+      * @see MobileObject#advanceMobility(double)
+      */
+    public void advanceMobility( double duration )
+    {
+        advanceMobility( duration, 0, numberOfMobileObjects );
+    }
+
+
+    /**
+      * Advances the mobility of the mobile objects in the given range of slots
+      * (from <code>first</code> up to, but not including, <code>last</code>) by
+      * the given time. Each slot is only read and written by its own mobile
+      * object, so separate ranges may be advanced at the same time as long as
+      * the mobile objects do not share a random number generator.
+      *
+      * @see #advanceMobility(double)
+      */
+    public void advanceMobility( double duration, int first, int last )
+    {
+        if( first < 0 || last > numberOfMobileObjects || first > last )
+            throw new IndexOutOfBoundsException( "Slots " + first + " to " + last + " are not a range of mobile objects" );
+
+        for( int i=first; i < last; i++ )
+        {
+            double distToTravel = duration * speed[i];
+
+            double dx = destX[i] - x[i];
+            double dy = destY[i] - y[i];
+            double distToNode = Math.sqrt( dx*dx + dy*dy );
+
+            if( distToTravel > distToNode )
+            {
+                // (the mobile object will reach a map node during this time)
+                ((MobileObject)devices[i]).advanceMobility( duration );
+            }
+            else
+            {
+                double ratio = distToTravel / distToNode;
+                x[i] = x[i] + (dx*ratio);
+                y[i] = y[i] + (dy*ratio);
+            }
+        }
+    }
+
+
+    /**
+      * Checks whether the devices in the two slots are within each other's
+      * communication range.
+      *
+      * @see AbstractWirelessDevice#canCommunicateWith(AbstractWirelessDevice)
+      */
+    boolean canCommunicate( int slot1, int slot2 )
+    {
+        double dx = x[slot1] - x[slot2];
+        double dy = y[slot1] - y[slot2];
+        double dist = Math.sqrt( dx*dx + dy*dy );
+
+        return dist <= range[slot1] && dist <= range[slot2];
+    }
+
+
+    /**
+      * Detaches every device from this store. Each device's own fields are updated
+      * with its state from the store, so the devices can be used as normal
+      * afterwards. The store should not be used after this.
+      */
+    public void detachAll()
+    {
+        for( int i=0; i < devices.length; i++ )
+            devices[i].detach();
+    }
+}
@@ -6,6 +6,7 @@ import uk.ac.cf.cs.scm5mjw.mda.SimulatorTools;
 import uk.ac.cf.cs.scm5mjw.mda.mobility.*;
 
 import java.awt.geom.Point2D;
+import java.util.SplittableRandom;
      
 /** 
   * This is a class which represents a mobile object in the mobile communications
@@ -26,6 +27,12 @@ public final class MobileObject extends AbstractWirelessDevice
     private MapNode destNode;
     private double movementSpeed;
     private double returnBias;
+    private SplittableRandom random;   // Used to choose links at map nodes
+    
+    // Used to choose links at map nodes without searching through them (if set)
+    private LinkSampler linkSampler;
+    private LinkSampler.SamplingTable returnBiasTable;   // For this object's return bias (found when needed)
+    private int currentLink;                             // The sampler's number for the link being travelled (-1 if not known)
     
     
     
@@ -38,21 +45,43 @@ public final class MobileObject extends AbstractWirelessDevice
       * the destination is where it is heading. <br>
       *  <br>
       * The initial location for the node is the location of the source node. <br>
-      * The default speed for mobile objects will be used.
+      * The default speed for mobile objects will be used. <br>
+      *  <br>
+      * The mobile object uses its own (unseeded) random number generator until
+      * it is given another.
       * 
       * @see #DEFAULT_MOVEMENT_SPEED
       * @see #DEFAULT_RETURN_BIAS
-      * @see #getLinkAtWeightedRandom(MapNode)
+      * @see #getLinkAtWeightedRandom(MapNode, SplittableRandom)
       */
     public MobileObject( MapNode source )
+    {
+        this( source, new SplittableRandom() );
+    }
+    
+    
+    /**
+      * Construct a mobile object with a source MapNode, using the given random
+      * number generator to choose its destination node (and, until it is given
+      * another, the links it takes at each map node). <br>
+      *  <br>
+      * Otherwise, this is the same as the constructor that only takes a source node.
+      * 
+      * @see #MobileObject(MapNode)
+      */
+    public MobileObject( MapNode source, SplittableRandom random )
     {
         super();  // Use default initial values for a wireless device
         
         if( source.getNumberOfLinks() == 0 )
             throw new InvalidMobileObjectException( "Cannot find a destination node for the mobile object when a source node has no links" );
         
+        this.random = random;
+        linkSampler = null;
+        returnBiasTable = null;
+        currentLink = -1;
         sourceNode = source;
-        destNode = getLinkAtWeightedRandom( source ).getGoesTo();
+        destNode = getLinkAtWeightedRandom( source, random ).getGoesTo();
         this.setMovementSpeed( DEFAULT_MOVEMENT_SPEED );
         this.setReturnBias( DEFAULT_RETURN_BIAS );
         
@@ -124,6 +153,9 @@ public final class MobileObject extends AbstractWirelessDevice
       */
     public double getMovementSpeed()
     {
+        if( store != null )
+            return store.speed[slot];
+        
         return movementSpeed;
     }
     
@@ -152,12 +184,78 @@ public final class MobileObject extends AbstractWirelessDevice
     }
     
     
+    /**
+      * Accessor for the random number generator this MobileObject uses to
+      * choose which link to take at each map node.
+      */
+    public SplittableRandom getRandom()
+    {
+        return random;
+    }
+    
+    
+    /**
+      * Mutator for the random number generator this MobileObject uses to choose
+      * which link to take at each map node. A Simulator sets this to its mobility
+      * stream when the mobile object is added to it.
+      */
+    public void setRandom( SplittableRandom random )
+    {
+        this.random = random;
+    }
+    
+    
+    /**
+      * Accessor for the LinkSampler this MobileObject uses to choose which link
+      * to take at each map node (null if it searches through the links itself).
+      */
+    public LinkSampler getLinkSampler()
+    {
+        return linkSampler;
+    }
+    
+    
+    /**
+      * Returns the number, in the CompiledMap of this MobileObject's LinkSampler,
+      * of the link it is travelling along (from its source node to its
+      * destination node). If this is not known (for example, if it has no
+      * sampler or the sampler is out of date), -1 is returned.
+      * 
+      * @see LinkSampler#getCompiledMap()
+      */
+    public int getCurrentLink()
+    {
+        if( linkSampler == null || !linkSampler.isCurrent() )
+            return -1;
+        
+        return currentLink;
+    }
+    
+    
+    /**
+      * Mutator for the LinkSampler this MobileObject uses to choose which link to
+      * take at each map node. A Simulator sets this to its map's sampler when the
+      * mobile object is added to it. <br>
+      * The same links are chosen with or without a sampler; the sampler just
+      * makes each choice quicker. If the sampler is null, out of date, or
+      * was compiled from a map that does not contain this object's route, the
+      * links are searched through instead.
+      */
+    public void setLinkSampler( LinkSampler sampler )
+    {
+        linkSampler = sampler;
+        returnBiasTable = null;
+        currentLink = -1;
+    }
+    
+    
     /**
       * Mutator for this MobileObject's source node.
       */
     public void setSourceNode( MapNode source )
     {
         sourceNode = source;
+        currentLink = -1;
     }
     
     
@@ -167,6 +265,13 @@ public final class MobileObject extends AbstractWirelessDevice
     public void setDestinationNode( MapNode destination )
     {
         destNode = destination;
+        currentLink = -1;
+        
+        if( store != null )
+        {
+            store.destX[slot] = destNode.getLocation().x;
+            store.destY[slot] = destNode.getLocation().y;
+        }
     }
     
     
@@ -179,6 +284,9 @@ public final class MobileObject extends AbstractWirelessDevice
             throw new IllegalArgumentException( "Movement speed " + inMovementSpeed + " is less than or equal to 0" );
         
         movementSpeed = inMovementSpeed;
+        
+        if( store != null )
+            store.speed[slot] = inMovementSpeed;
     }
     
     
@@ -194,6 +302,7 @@ public final class MobileObject extends AbstractWirelessDevice
             throw new IllegalArgumentException( "Return bias should be in the range [0,1]" );
         
         returnBias = retBias;
+        returnBiasTable = null;
     }
     
     
@@ -206,7 +315,7 @@ public final class MobileObject extends AbstractWirelessDevice
         
         buff.append( "[\n" );
         buff.append( "\t<Mobile Object>\n" );
-        buff.append( "\t" + super.toString() + ", Speed: " + movementSpeed + "\n" );
+        buff.append( "\t" + super.toString() + ", Speed: " + getMovementSpeed() + "\n" );
         buff.append( "\tSource: \t" + sourceNode + "\n" );
         buff.append( "\tDestination: \t" + destNode + "\n" );
         buff.append( "]" );
@@ -224,6 +333,33 @@ public final class MobileObject extends AbstractWirelessDevice
     }
     
     
+    /**
+      * Overrides the AbstractWirelessDevice method to also copy this mobile
+      * object's speed and destination into the state store.
+      */
+    void attachTo( DeviceStateStore inStore, int inSlot )
+    {
+        super.attachTo( inStore, inSlot );
+        
+        inStore.speed[inSlot] = movementSpeed;
+        inStore.destX[inSlot] = destNode.getLocation().x;
+        inStore.destY[inSlot] = destNode.getLocation().y;
+    }
+    
+    
+    /**
+      * Overrides the AbstractWirelessDevice method to also copy this mobile
+      * object's speed back out of the state store.
+      */
+    void detach()
+    {
+        if( store != null )
+            movementSpeed = store.speed[slot];
+        
+        super.detach();
+    }
+    
+    
     
     
     /**
@@ -236,7 +372,7 @@ public final class MobileObject extends AbstractWirelessDevice
       *   travelled will cover a number of links)
       * * using backtrack biasing when deciding which link/node to choose next
       * 
-      * @see #getLinkAtWeightedRandom(MapNode, MapNode, double)
+      * @see #getLinkAtWeightedRandom(MapNode, MapNode, double, SplittableRandom)
       */
     public void advanceMobility( double duration )
     {
@@ -257,17 +393,21 @@ public final class MobileObject extends AbstractWirelessDevice
         {
             // Choose the new destination based on the current destination and 
             // its previous node (i.e. the source node).
-            NodeLink newDestLink = getLinkAtWeightedRandom( destNode, sourceNode, returnBias );
+            MapNode newDestNode = chooseNextNode( destNode, sourceNode );
             
             // Jump to the destination node and 'use up' the distance needed to reach there
             distToTravel -= distToNode;
             sourceNode = destNode;
             currLoc = destNode.getLocation();
             
-            destNode = newDestLink.getGoesTo();
+            destNode = newDestNode;
             
             // Update the distance to the dest node (because destination has changed );
-            distToNode = SimulatorTools.distance( currLoc, destNode.getLocation() );
+            // the sampler's compiled map already holds the length of its links
+            if( currentLink >= 0 )
+                distToNode = linkSampler.getCompiledMap().getLinkLength( currentLink );
+            else
+                distToNode = SimulatorTools.distance( currLoc, destNode.getLocation() );
         }
         
         
@@ -276,8 +416,10 @@ public final class MobileObject extends AbstractWirelessDevice
            sure that the distance remaining is LESS THAN OR EQUAL to the
            distance to the next node. We are also sure that the distance remaining
            to the next node is greater than 0. */
+        int link = currentLink;     // (still the link from sourceNode to destNode)
         this.setSourceNode( sourceNode );
         this.setDestinationNode( destNode );
+        currentLink = link;
         
         
         /* Move the mobile object along its final route */
@@ -298,6 +440,76 @@ public final class MobileObject extends AbstractWirelessDevice
     
         
     
+    /**
+      * Moves this mobile object directly onto its destination node and chooses the
+      * next destination, exactly as <code>advanceMobility</code> does each time the
+      * device reaches a map node (using backtrack biasing). <br>
+      * <br>
+      * This is used by simulations that calculate when mobile objects reach map nodes
+      * rather than stepping them forward by a fixed time.
+      * 
+      * @see #advanceMobility(double)
+      */
+    public void advanceToDestination()
+    {
+        MapNode newDestNode = chooseNextNode( destNode, sourceNode );
+        
+        int link = currentLink;
+        sourceNode = destNode;
+        setDestinationNode( newDestNode );
+        currentLink = link;
+        
+        Point2D.Double mObjLoc = this.getLocation();
+        mObjLoc.x = sourceNode.getLocation().x;
+        mObjLoc.y = sourceNode.getLocation().y;
+        this.setLocation( mObjLoc );
+    }
+    
+    
+        
+    
+    /**
+      * Chooses the next map node to head for on reaching the given node, having
+      * come from the given previous node (using backtrack biasing). <br>
+      * The choice is made by this object's LinkSampler if it can be; otherwise
+      * the node's links are searched through. Either way, the same node is chosen.
+      * On return, <code>currentLink</code> is the sampler's number for the
+      * link to the chosen node (or -1 if the sampler was not used).
+      * 
+      * @see #getLinkAtWeightedRandom(MapNode, MapNode, double, SplittableRandom)
+      */
+    private MapNode chooseNextNode( MapNode node, MapNode prev )
+    {
+        if( linkSampler != null && linkSampler.isCurrent() )
+        {
+            if( currentLink < 0 )
+                currentLink = linkSampler.findLink( prev, node );
+            
+            if( currentLink >= 0 )
+            {
+                if( returnBiasTable == null )
+                    returnBiasTable = linkSampler.getReturnBiasTable( returnBias );
+                
+                int next = linkSampler.chooseNextLink( currentLink, returnBiasTable, random );
+                
+                if( next >= 0 )
+                {
+                    currentLink = next;
+                    return linkSampler.getLink( next ).getGoesTo();
+                }
+            }
+        }
+        
+        currentLink = -1;
+        
+        NodeLink link = getLinkAtWeightedRandom( node, prev, returnBias, random );
+        if( link == null )
+            throw new InvalidMobileObjectException( "Cannot find a destination node for the mobile object when a node has no links" );
+        
+        return link.getGoesTo();
+    }
+    
+    
     /**
       * This method will get one of the MapNode's links at random, taking into
       * account the weight of each link. (For example, if a link has a weight 0.3,
@@ -310,10 +522,10 @@ public final class MobileObject extends AbstractWirelessDevice
       * Note that this method does not take into account return bias (i.e. it
       * does not reduce the likelihood of returning to previous node).
       */
-    private static NodeLink getLinkAtWeightedRandom( MapNode node )
+    private static NodeLink getLinkAtWeightedRandom( MapNode node, SplittableRandom random )
     {
         int numLinks = node.getNumberOfLinks();
-        double x = Math.random();
+        double x = random.nextDouble();
         
         double sum = 0;
         for( int i=0; i < numLinks; i++ )
@@ -340,8 +552,9 @@ public final class MobileObject extends AbstractWirelessDevice
       * @param node the node from which a link should be chosen
       * @param prev the node that <i>node</i> just came from
       * @param k the return bias (a fraction)
+      * @param random the generator used to make the choice
       */
-    private static NodeLink getLinkAtWeightedRandom( MapNode node, MapNode prev, double k )
+    private static NodeLink getLinkAtWeightedRandom( MapNode node, MapNode prev, double k, SplittableRandom random )
     {
         assert 0 <= k;
         assert k <= 1;
@@ -353,7 +566,7 @@ public final class MobileObject extends AbstractWirelessDevice
             // If the node does not actually have any link back to the previous
             // node, then we do not need to adjust the probabilities
             
-            return getLinkAtWeightedRandom( node );
+            return getLinkAtWeightedRandom( node, random );
         }
         else
         {
@@ -374,7 +587,7 @@ public final class MobileObject extends AbstractWirelessDevice
                 // them leads is back to our previous node) we must apply the
                 // adjustment of probabilities with the given fraction
                 
-                double x = Math.random();
+                double x = random.nextDouble();
                 
                 double a = returnLink.getWeight();     // the return weight (AKA the return probability) (this is the original probability for the return link)
                 double c = ( 1 - k*a ) / ( 1 - a );
@@ -0,0 +1,35 @@
+/*   Matthew Williams (0515328)   */
+
+package uk.ac.cf.cs.scm5mjw.mda.devices;
+
+import jdk.jfr.*;
+
+/**
+  * A Java Flight Recorder event for a communication session ending early:
+  * either discovery failed at the end of the initiation phase, or the devices
+  * moved out of range during the transmission phase. No artifacts are
+  * transferred.
+  *
+  * @see StandardCommController#attemptDiscovery(AbstractWirelessDevice, AbstractWirelessDevice)
+  * @see StandardCommController#abortCommunication(AbstractWirelessDevice, AbstractWirelessDevice)
+  */
+@Name( "uk.ac.cf.cs.scm5mjw.mda.SessionAborted" )
+@Label( "Session Aborted" )
+@Description( "A communication session between two devices ended before its transmission phase completed" )
+final class SessionAbortedEvent extends SessionEvent
+{
+    @Label( "Phase" )
+    @Description( "The phase the session ended in (INITIATION if discovery failed)" )
+    String phase;
+
+    @Label( "Artifacts to Device 1" )
+    @Description( "The number of artifacts that were being transmitted to device 1" )
+    int artifactsToDevice1;
+
+    @Label( "Artifacts to Device 2" )
+    @Description( "The number of artifacts that were being transmitted to device 2" )
+    int artifactsToDevice2;
+
+    @Label( "Session Duration (simulated s)" )
+    double sessionDuration;
+}
@@ -0,0 +1,30 @@
+/*   Matthew Williams (0515328)   */
+
+package uk.ac.cf.cs.scm5mjw.mda.devices;
+
+import jdk.jfr.*;
+
+/**
+  * A Java Flight Recorder event for a communication session reaching the end
+  * of its transmission phase. The artifacts are only transferred if the
+  * transmission succeeded.
+  *
+  * @see StandardCommController#completeCommunication(AbstractWirelessDevice, AbstractWirelessDevice)
+  */
+@Name( "uk.ac.cf.cs.scm5mjw.mda.SessionCompleted" )
+@Label( "Session Completed" )
+@Description( "A communication session between two devices completed its transmission phase" )
+final class SessionCompletedEvent extends SessionEvent
+{
+    @Label( "Transmission Succeeded" )
+    boolean transmissionSucceeded;
+
+    @Label( "Artifacts to Device 1" )
+    int artifactsToDevice1;
+
+    @Label( "Artifacts to Device 2" )
+    int artifactsToDevice2;
+
+    @Label( "Session Duration (simulated s)" )
+    double sessionDuration;
+}
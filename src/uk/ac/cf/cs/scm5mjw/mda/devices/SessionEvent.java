@@ -0,0 +1,43 @@
+/*   Matthew Williams (0515328)   */
+
+package uk.ac.cf.cs.scm5mjw.mda.devices;
+
+import jdk.jfr.*;
+
+/**
+  * The Java Flight Recorder events for communication sessions, recorded by a
+  * StandardCommController. Each identifies the two devices in the session, in
+  * the order they were passed to the controller. <br>
+  * <br>
+  * These are instant events (the wall-clock time of a session means nothing);
+  * durations are in simulated seconds. No stack traces are recorded.
+  *
+  * @see StandardCommController
+  */
+@Category( { "Opportunistic Network Simulator", "Communication" } )
+@StackTrace( false )
+abstract class SessionEvent extends Event
+{
+    @Label( "Device 1" )
+    int device1;
+
+    @Label( "Device 1 Type" )
+    String device1Type;
+
+    @Label( "Device 2" )
+    int device2;
+
+    @Label( "Device 2 Type" )
+    String device2Type;
+
+
+
+
+    void setDevices( AbstractWirelessDevice dev1, AbstractWirelessDevice dev2 )
+    {
+        device1 = dev1.getDeviceID();
+        device1Type = dev1.getDeviceTypeIdentifier();
+        device2 = dev2.getDeviceID();
+        device2Type = dev2.getDeviceTypeIdentifier();
+    }
+}
@@ -0,0 +1,19 @@
+/*   Matthew Williams (0515328)   */
+
+package uk.ac.cf.cs.scm5mjw.mda.devices;
+
+import jdk.jfr.*;
+
+/**
+  * A Java Flight Recorder event for a communication session being initiated.
+  *
+  * @see StandardCommController#initiateCommunication(AbstractWirelessDevice, AbstractWirelessDevice)
+  */
+@Name( "uk.ac.cf.cs.scm5mjw.mda.SessionInitiated" )
+@Label( "Session Initiated" )
+@Description( "A communication session was initiated between two devices" )
+final class SessionInitiatedEvent extends SessionEvent
+{
+    @Label( "Setup Time (simulated s)" )
+    double setupTime;
+}
@@ -0,0 +1,138 @@
+/*   Matthew Williams (0515328)   */
+
+package uk.ac.cf.cs.scm5mjw.mda.devices;
+
+import java.util.*;
+
+/**
+  * The clock that the artifacts of a simulation age by. <br>
+  * <br>
+  * Rather than every artifact having its age advanced every timestep, an
+  * artifact records the point on the clock at which it was created, and its
+  * age is worked out from the clock when it is asked for. Advancing the clock
+  * therefore takes the same time however many artifacts there are. <br>
+  * <br>
+  * An age worked out from the clock is exactly the number that would have been
+  * reached by adding each advance of the clock to an age starting at 0. While
+  * the clock is advanced by the same length each time, this sum depends only
+  * on the number of advances, so it is looked up in a table (built as it is
+  * needed). Otherwise (or for ages of a very large number of advances) the age is
+  * the difference between the clock's time now and when the artifact was
+  * created, which may differ from the sum in the last few bits. <br>
+  * <br>
+  * Each Simulator has its own clock. A clock is not thread-safe.
+  *
+  * @see Artifact
+  */
+public final class SimulationClock
+{
+    /* Constants */
+    private static final int MAX_TABLE_SIZE = 1 << 21;     // The most ages held in the table
+
+
+    /* Instance variables */
+    private double time;                // The total time the clock has been advanced by
+    private int ticks;                  // The number of times the clock has been advanced
+
+    private double tickLength;          // The length of each advance since uniformSince
+    private int uniformSince;           // Every advance from this tick onwards has been tickLength long
+    private double[] ages;              // ages[m] is tickLength added to 0 m times
+    private int numAges;                // The number of entries of ages that have been calculated
+
+
+
+
+    /* CONSTRUCTORS */
+
+    /**
+      * Creates a clock at time 0.
+      */
+    public SimulationClock()
+    {
+        time = 0;
+        ticks = 0;
+        tickLength = 0;
+        uniformSince = 0;
+        ages = new double[16];
+        ages[0] = 0;
+        numAges = 1;
+    }
+
+
+
+
+    /* ACCESSORS */
+
+    /**
+      * An accessor for the total time this clock has been advanced by.
+      */
+    public double getTime()
+    {
+        return time;
+    }
+
+
+    /**
+      * An accessor for the number of times this clock has been advanced.
+      */
+    public int getTicks()
+    {
+        return ticks;
+    }
+
+
+
+
+    /* CLOCK FUNCTIONALITY */
+
+    /**
+      * Advances this clock by the given time (which must not be negative). Advancing
+      * a clock by 0 has no effect.
+      */
+    public void advance( double increment )
+    {
+        if( increment < 0 )
+            throw new IllegalArgumentException( "A clock cannot be advanced by a negative time" );
+
+        if( increment == 0 )
+            return;
+
+        if( increment != tickLength )
+        {
+            // (ages of artifacts created before this tick can no longer use the table)
+            tickLength = increment;
+            uniformSince = ticks;
+            numAges = 1;
+        }
+
+        time = time + increment;
+        ticks++;
+    }
+
+
+    /**
+      * Works out the age of an artifact that was created at the given tick and
+      * time of this clock. A tick of -1 means that the artifact did not start
+      * at age 0 at that tick (so only its time is used).
+      */
+    double getAge( int birthTick, double birthTime )
+    {
+        int m = ticks - birthTick;
+
+        if( birthTick >= uniformSince && m < MAX_TABLE_SIZE )
+        {
+            while( numAges <= m )
+            {
+                if( numAges == ages.length )
+                    ages = Arrays.copyOf( ages, Math.min( ages.length * 2, MAX_TABLE_SIZE ) );
+
+                ages[ numAges ] = ages[ numAges-1 ] + tickLength;
+                numAges++;
+            }
+
+            return ages[m];
+        }
+
+        return time - birthTime;
+    }
+}
@@ -3,6 +3,7 @@
 package uk.ac.cf.cs.scm5mjw.mda.devices;
 
 import java.util.*;
+import jdk.jfr.FlightRecorder;
 
 /** 
   * This class facilitates performing a communication between two devices. This
@@ -13,7 +14,13 @@ import java.util.*;
   *  * Channel setup time  (seconds) <br>
   *  * Metadata size       (kB) (kiloBytes) <br>
   *  * Artifact size       (kB) (kiloBytes) <br>
-  *  * Data rate           (kb/s) (kbps) (kilobits per second)
+  *  * Data rate           (kb/s) (kbps) (kilobits per second) <br>
+  * <br>
+  * As well as notifying its communication listeners, the controller records
+  * Java Flight Recorder events for sessions being initiated, completed and
+  * aborted (see SessionEvent) whenever a recording has them enabled. The event
+  * classes are not touched until the flight recorder has been started, as
+  * loading the first one starts up much of the recorder.
   */
 public final class StandardCommController implements CommunicationController
 {
@@ -37,6 +44,7 @@ public final class StandardCommController implements CommunicationController
     private double dataRate;
     private double transmissionSuccessRate;
     private double hardwareDiscoverySuccessRate;
+    private SplittableRandom random;
     
     // Non-communication
     Set<CommunicationListener> commListeners;
@@ -54,6 +62,7 @@ public final class StandardCommController implements CommunicationController
         dataRate = DEFAULT_DATA_RATE;
         transmissionSuccessRate = DEFAULT_TRANSMISSION_SUCCESS_RATE;
         hardwareDiscoverySuccessRate = DEFAULT_HARDWARE_DISCOVERY_SUCCESS_RATE;
+        random = new SplittableRandom();
         
         commListeners = new HashSet<CommunicationListener>();
     }
@@ -91,6 +100,19 @@ public final class StandardCommController implements CommunicationController
                 for( CommunicationListener cl : commListeners )
                     cl.communicationInitiated( evt );
             }
+        
+        
+        /* Record a flight recorder event (if enabled) */
+        if( FlightRecorder.isInitialized() )
+        {
+            SessionInitiatedEvent jfrEvt = new SessionInitiatedEvent();
+            if( jfrEvt.isEnabled() )
+            {
+                jfrEvt.setDevices( dev1, dev2 );
+                jfrEvt.setupTime = setupTime;
+                jfrEvt.commit();
+            }
+        }
     }
         
         
@@ -142,7 +164,7 @@ public final class StandardCommController implements CommunicationController
         else
         {
             // Check hardware discovery...
-            double rand = Math.random();
+            double rand = random.nextDouble();
             discoveryIsSuccess = rand < hardwareDiscoverySuccessRate;
         }
         
@@ -162,6 +184,20 @@ public final class StandardCommController implements CommunicationController
                 for( CommunicationListener cl : commListeners )
                     cl.discoveryFailed( evt );
             }
+            
+            
+            /* Record a flight recorder event (if enabled) */
+            if( FlightRecorder.isInitialized() )
+            {
+                SessionAbortedEvent jfrEvt = new SessionAbortedEvent();
+                if( jfrEvt.isEnabled() )
+                {
+                    jfrEvt.setDevices( dev1, dev2 );
+                    jfrEvt.phase = CommunicationPhase.INITIATION.toString();
+                    jfrEvt.sessionDuration = channelSetupTime;
+                    jfrEvt.commit();
+                }
+            }
         }
         else
         {
@@ -254,6 +290,25 @@ public final class StandardCommController implements CommunicationController
         }
         
         
+        /* Record a flight recorder event (if enabled) */
+        if( FlightRecorder.isInitialized() )
+        {
+            SessionAbortedEvent jfrEvt = new SessionAbortedEvent();
+            if( jfrEvt.isEnabled() )
+            {
+                int toDev1 = dev1.getArtifactsToCommit().size();
+                int toDev2 = dev2.getArtifactsToCommit().size();
+                
+                jfrEvt.setDevices( dev1, dev2 );
+                jfrEvt.phase = dev1.getCommunicationPhase().toString();
+                jfrEvt.artifactsToDevice1 = toDev1;
+                jfrEvt.artifactsToDevice2 = toDev2;
+                jfrEvt.sessionDuration = channelSetupTime + calcTransmissionTime( toDev1 + toDev2 ) - dev1.getCommunicationTimeRemaining();
+                jfrEvt.commit();
+            }
+        }
+        
+        
         /* Abort the communication */
         dev1.unsetCommunicationAttributes();
         dev2.unsetCommunicationAttributes();
@@ -298,13 +353,18 @@ public final class StandardCommController implements CommunicationController
         
         
         // Simulate a transmission success rate
-        double rand = Math.random();
+        double rand = random.nextDouble();
         if( rand < transmissionSuccessRate )
         {
             /* Transmission successful -- commit the artifacts */
             List<Artifact> toDev1 = dev1.commitArtifacts();
             List<Artifact> toDev2 = dev2.commitArtifacts();
             
+            // Each device now has everything the other had to give it, so the two
+            // hold equivalent artifacts (until either of them changes)
+            if( !(dev1 instanceof InformationSource) && !(dev2 instanceof InformationSource) )
+                dev1.getArtifactContainer().markSynchronisedWith( dev2.getArtifactContainer() );
+            
             
             /* Send notification to listeners (if any)*/
             if( !commListeners.isEmpty() )
@@ -332,6 +392,25 @@ public final class StandardCommController implements CommunicationController
         }
         
         
+        /* Record a flight recorder event (if enabled) */
+        if( FlightRecorder.isInitialized() )
+        {
+            SessionCompletedEvent jfrEvt = new SessionCompletedEvent();
+            if( jfrEvt.isEnabled() )
+            {
+                int toDev1 = dev1.getArtifactsToCommit().size();
+                int toDev2 = dev2.getArtifactsToCommit().size();
+                
+                jfrEvt.setDevices( dev1, dev2 );
+                jfrEvt.transmissionSucceeded = rand < transmissionSuccessRate;
+                jfrEvt.artifactsToDevice1 = toDev1;
+                jfrEvt.artifactsToDevice2 = toDev2;
+                jfrEvt.sessionDuration = channelSetupTime + calcTransmissionTime( toDev1 + toDev2 );
+                jfrEvt.commit();
+            }
+        }
+        
+        
         dev1.unsetCommunicationAttributes();
         dev2.unsetCommunicationAttributes();
     }
@@ -349,8 +428,15 @@ public final class StandardCommController implements CommunicationController
         ArtifactContainer dev2Cont = dev2.getArtifactContainer();
         
         /* Get/calculate attributes for communication */
-        List<Artifact> toDev1 = dev1Cont.transferFrom( dev2Cont );
-        List<Artifact> toDev2 = dev2Cont.transferFrom( dev1Cont );
+        List<Artifact> toDev1 = EMPTY_ARTIFACT_LIST;
+        List<Artifact> toDev2 = EMPTY_ARTIFACT_LIST;
+        
+        // (devices that hold equivalent artifacts have nothing to exchange)
+        if( !dev1Cont.isSynchronisedWith( dev2Cont ) )
+        {
+            toDev1 = dev1Cont.transferFrom( dev2Cont );
+            toDev2 = dev2Cont.transferFrom( dev1Cont );
+        }
         
         double commTime = calcTransmissionTime( toDev1.size() + toDev2.size() );
         
@@ -370,8 +456,15 @@ public final class StandardCommController implements CommunicationController
         ArtifactContainer dev2Cont = dev2.getArtifactContainer();
         
         /* Get/calculate attributes for communication */
-        List<Artifact> toDev1 = dev1Cont.transferFrom( dev2Cont );
-        List<Artifact> toDev2 = dev2Cont.transferFrom( dev1Cont );
+        List<Artifact> toDev1 = EMPTY_ARTIFACT_LIST;
+        List<Artifact> toDev2 = EMPTY_ARTIFACT_LIST;
+        
+        // (devices that hold equivalent artifacts have nothing to exchange)
+        if( !dev1Cont.isSynchronisedWith( dev2Cont ) )
+        {
+            toDev1 = dev1Cont.transferFrom( dev2Cont );
+            toDev2 = dev2Cont.transferFrom( dev1Cont );
+        }
         
         double commTime = calcTransmissionTime( toDev1.size() + toDev2.size() );
         
@@ -421,6 +514,17 @@ public final class StandardCommController implements CommunicationController
     
     /* OTHER METHODS (NON-COMMUNICATION) */
     
+    /**
+      * Sets the random number generator used to decide whether discovery and
+      * transmission succeed. <br>
+      * Until this is called, the controller uses its own (unseeded) generator.
+      */
+    public void setRandom( SplittableRandom random )
+    {
+        this.random = random;
+    }
+    
+    
     /**
       * Registers a CommunicationListener to receive events when a communication
       * event occurs.
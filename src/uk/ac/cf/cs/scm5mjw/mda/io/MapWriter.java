@@ -0,0 +1,154 @@
+/*   Matthew Williams (0515328)   */
+
+package uk.ac.cf.cs.scm5mjw.mda.io;
+
+import uk.ac.cf.cs.scm5mjw.mda.mobility.*;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.util.IdentityHashMap;
+
+/**
+  * This class handles writing a MobilityMap to a text file in the sparse map
+  * format read by <code>Parser.parseSparseMap</code>. It can also be used to
+  * convert a map file in the adjacency matrix format read by
+  * <code>Parser.parseMap</code> to the sparse format. <br>
+  * <br>
+  * Numbers are written in full (without exponents), with enough digits that
+  * they are read back as exactly the same doubles, so a map read back from a
+  * sparse file has the same coordinates, links and weights (in the same order)
+  * as the map that was written.
+  *
+  * @see Parser#parseSparseMap(File)
+  */
+public final class MapWriter
+{
+    /**
+      * This class only has static methods, so should not be instantiated.
+      */
+    private MapWriter()
+    {
+    }
+
+
+
+
+    /**
+      * Writes the given map to the given file in the sparse map format.
+      *
+      * @throws FileNotFoundException if the file cannot be created or opened for writing
+      * @throws DataOutputException if the map cannot be written in the format (e.g. a node links to a node that is not in the map), or writing fails
+      */
+    public static void writeSparseMap( MobilityMap map, File outFile ) throws FileNotFoundException
+    {
+        int numNodes = map.getNumberOfNodes();
+
+        // Number the nodes (from 1, as seen by the user)
+        IdentityHashMap<MapNode,Integer> indexes = new IdentityHashMap<MapNode,Integer>( numNodes );
+        int numLinks = 0;
+
+        for( int i=0; i < numNodes; i++ )
+        {
+            indexes.put( map.getNodeAt(i), i+1 );
+            numLinks += map.getNodeAt(i).getNumberOfLinks();
+        }
+
+
+        PrintWriter out = new PrintWriter( new BufferedWriter( new OutputStreamWriter( new FileOutputStream( outFile ) ) ) );
+
+        try
+        {
+            /* PREAMBLE */
+            out.print( numNodes + " " + numLinks + Parser.NEWLINE_SYMBOL );
+            out.print( Parser.NEWLINE_SYMBOL );
+
+
+            /* COORDINATES LIST */
+            for( int i=0; i < numNodes; i++ )
+            {
+                MapNode node = map.getNodeAt(i);
+                out.print( "(" + format( node.getLocation().x ) + ", " + format( node.getLocation().y ) + ")" + Parser.NEWLINE_SYMBOL );
+            }
+
+
+            /* LINKS LIST */
+            if( numLinks > 0 )
+                out.print( Parser.NEWLINE_SYMBOL );
+
+            for( int i=0; i < numNodes; i++ )
+            {
+                MapNode node = map.getNodeAt(i);
+
+                for( int j=0; j < node.getNumberOfLinks(); j++ )
+                {
+                    NodeLink link = node.getLinkAt(j);
+                    Integer to = indexes.get( link.getGoesTo() );
+
+                    if( to == null )
+                        throw new DataOutputException( "Node " + (i+1) + " links to a node which is not in the map" );
+
+                    out.print( (i+1) + " " + to + " " + format( link.getWeight() ) + Parser.NEWLINE_SYMBOL );
+                }
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+
+        if( out.checkError() )
+            throw new DataOutputException( "Could not write map to " + outFile );
+    }
+
+
+    /**
+      * This method overloads writeSparseMap to allow specifying the file to be
+      * written as a filename and/or path.
+      */
+    public static void writeSparseMap( MobilityMap map, String filename ) throws FileNotFoundException
+    {
+        writeSparseMap( map, new File( filename ) );
+    }
+
+
+    /**
+      * Converts a map file in the adjacency matrix format to the sparse map
+      * format. The map is read (and checked) by <code>Parser.parseMap</code>.
+      *
+      * @see Parser#parseMap(File)
+      */
+    public static void convertToSparseMap( File denseFile, File sparseFile ) throws FileNotFoundException
+    {
+        writeSparseMap( Parser.parseMap( denseFile ), sparseFile );
+    }
+
+
+    /**
+      * This method overloads convertToSparseMap to allow specifying the files
+      * as filenames and/or paths.
+      */
+    public static void convertToSparseMap( String denseFilename, String sparseFilename ) throws FileNotFoundException
+    {
+        convertToSparseMap( new File( denseFilename ), new File( sparseFilename ) );
+    }
+
+
+
+
+    /**
+      * Formats a number so that Parser reads it back as the same double: in
+      * full, without an exponent.
+      *
+      * @throws DataOutputException if the number is infinite or NaN
+      */
+    static String format( double d )
+    {
+        if( Double.isNaN( d ) || Double.isInfinite( d ) )
+            throw new DataOutputException( "Cannot write the number " + d + " to a map file" );
+
+        // (the shortest decimal that is read back as d, written out in full)
+        String str = new BigDecimal( Double.toString( d ) ).toPlainString();
+
+        return ( d == 0 && 1/d < 0 ) ? "-" + str : str;
+    }
+}
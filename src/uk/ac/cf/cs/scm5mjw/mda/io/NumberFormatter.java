@@ -0,0 +1,206 @@
+/*   Matthew Williams (0515328)   */
+
+package uk.ac.cf.cs.scm5mjw.mda.io;
+
+/**
+  * This class formats numbers as text straight into a byte array (as ASCII),
+  * without creating any Strings. The text is the same as that of
+  * Integer.toString() and Double.toString(). <br>
+  * <br>
+  * A double is formatted as the shortest decimal that reads back as the same
+  * double (and, if there is more than one of those, the one nearest to it),
+  * which is what Double.toString() gives. The digits are found exactly, with
+  * 128-bit integer arithmetic. Only doubles between 2<sup>-9</sup> and
+  * 10<sup>7</sup> (which Double.toString() writes without an exponent) needing
+  * at most 18 digits after the decimal point are formatted this way; others
+  * are rare in simulation output, and are simply formatted with
+  * Double.toString().
+  */
+final class NumberFormatter
+{
+    /* Constants */
+    static final int MAX_LENGTH = 24;           // The most bytes a number can be formatted to
+
+    private static final double MIN_FAST = 0x1p-9;
+    private static final double MAX_FAST = 1e7;
+    private static final int MAX_FRACTION_DIGITS = 18;
+    private static final long[] POWERS_OF_TEN = new long[ MAX_FRACTION_DIGITS + 1 ];
+
+
+
+
+    /* CONSTRUCTORS */
+
+    private NumberFormatter() {}
+
+
+
+
+    /* FORMATTING */
+
+    /**
+      * Formats the given int into the given array, starting at the given
+      * position (which must leave room for MAX_LENGTH bytes). <br>
+      * Returns the position after the last byte written.
+      */
+    static int formatInt( int value, byte[] buff, int pos )
+    {
+        long v = value;
+        if( v < 0 )
+        {
+            buff[pos++] = '-';
+            v = -v;
+        }
+
+        return formatDigits( v, digitCount( v ), buff, pos );
+    }
+
+
+    /**
+      * Formats the given double into the given array, starting at the given
+      * position (which must leave room for MAX_LENGTH bytes). <br>
+      * Returns the position after the last byte written.
+      */
+    static int formatDouble( double value, byte[] buff, int pos )
+    {
+        double abs = Math.abs( value );
+
+        // (this also catches zero, NaN and the infinities)
+        if( !( abs >= MIN_FAST && abs < MAX_FAST ) )
+            return formatString( Double.toString( value ), buff, pos );
+
+        int start = pos;
+        if( value < 0 )
+            buff[pos++] = '-';
+
+
+        // abs = m * 2^-q exactly (abs is a normal double less than 2^53, so q > 0)
+        long bits = Double.doubleToRawLongBits( abs );
+        int biasedExp = (int)( bits >>> 52 );
+        long m = ( bits & 0xFFFFFFFFFFFFFL ) | 0x10000000000000L;
+        int shift = 1075 - biasedExp + 2;                   // (everything is scaled by 4 so the bounds are whole)
+
+        // The decimals which read back as abs are those between lower and upper
+        // (including the bounds themselves only if m is even). The gap below a
+        // power of two is half the size of the gap above it.
+        long mid = 4*m;
+        long upper = mid + 2;
+        long lower = ( m == 0x10000000000000L ) ? mid - 1 : mid - 2;
+        boolean inclusive = ( m & 1 ) == 0;
+
+
+        // Find the fewest digits after the decimal point that allow a decimal
+        // to read back as abs (the shortest decimal), as s * 10^-k
+        for( int k=1; k <= MAX_FRACTION_DIGITS; k++ )
+        {
+            long pow = POWERS_OF_TEN[k];
+
+            // (the smallest and largest s with s * 2^shift within [lower*pow, upper*pow])
+            long loHigh = Math.multiplyHigh( lower, pow );
+            long loLow = lower * pow;
+            long sMin = shiftRight( loHigh, loLow, shift );
+            long loRem = loLow & ( ( 1L << shift ) - 1 );
+            if( loRem != 0 || !inclusive )
+                sMin++;
+
+            long upHigh = Math.multiplyHigh( upper, pow );
+            long upLow = upper * pow;
+            long sMax = shiftRight( upHigh, upLow, shift );
+            long upRem = upLow & ( ( 1L << shift ) - 1 );
+            if( upRem == 0 && !inclusive )
+                sMax--;
+
+            if( sMin > sMax )
+                continue;
+
+
+            // Of the decimals with this many digits, use the nearest to abs
+            // (the even one, if two are equally near)
+            long midHigh = Math.multiplyHigh( mid, pow );
+            long midLow = mid * pow;
+            long s = shiftRight( midHigh, midLow, shift );
+            long midRem = midLow & ( ( 1L << shift ) - 1 );
+            long half = 1L << ( shift - 1 );
+            if( midRem > half || ( midRem == half && ( s & 1 ) != 0 ) )
+                s++;
+
+            if( s < sMin )
+                s = sMin;
+            else if( s > sMax )
+                s = sMax;
+
+
+            long integerPart = s / pow;
+            pos = formatDigits( integerPart, digitCount( integerPart ), buff, pos );
+            buff[pos++] = '.';
+            return formatDigits( s - integerPart*pow, k, buff, pos );
+        }
+
+
+        // (the decimal needs more digits than a long can hold)
+        return formatString( Double.toString( value ), buff, start );
+    }
+
+
+
+
+    /* HELPERS */
+
+    private static int formatString( String str, byte[] buff, int pos )
+    {
+        for( int i=0; i < str.length(); i++ )
+            buff[pos++] = (byte)str.charAt( i );
+        return pos;
+    }
+
+
+    /**
+      * Returns the 128-bit number (high, low) shifted right by the given number
+      * of bits (between 1 and 63), assuming the result fits in a long.
+      */
+    private static long shiftRight( long high, long low, int shift )
+    {
+        return ( high << ( 64 - shift ) ) | ( low >>> shift );
+    }
+
+
+    /**
+      * Returns the number of decimal digits in the given non-negative number
+      * (1 for zero).
+      */
+    private static int digitCount( long v )
+    {
+        int count = 1;
+        while( count < POWERS_OF_TEN.length && v >= POWERS_OF_TEN[count] )
+            count++;
+        return count;
+    }
+
+
+    /**
+      * Writes the given non-negative number as exactly the given number of
+      * digits (with leading zeros if needed). <br>
+      * Returns the position after the last digit.
+      */
+    private static int formatDigits( long v, int numDigits, byte[] buff, int pos )
+    {
+        int end = pos + numDigits;
+        for( int i = end - 1; i >= pos; i-- )
+        {
+            buff[i] = (byte)( '0' + v % 10 );
+            v /= 10;
+        }
+        return end;
+    }
+
+
+    static
+    {
+        long pow = 1;
+        for( int i=0; i < POWERS_OF_TEN.length; i++ )
+        {
+            POWERS_OF_TEN[i] = pow;
+            pow *= 10;
+        }
+    }
+}
@@ -6,8 +6,10 @@ import uk.ac.cf.cs.scm5mjw.mda.mobility.*;
 import uk.ac.cf.cs.scm5mjw.mda.devices.*;
 
 import java.util.Vector;
-import java.util.Scanner;
+import java.util.SplittableRandom;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.regex.Pattern;
 import java.awt.geom.Point2D;
 
@@ -15,24 +17,41 @@ import java.awt.geom.Point2D;
   * This is a class which handles reading input from a file and converting it
   * into data usable by the simulator. It handles the lexical analysis aspects (converting
   * the input stream to tokens/symbols) and the parsing (using the tokens to
-  * generate useful constructs) aspects.
+  * generate useful constructs) aspects. <br>
+  * <br>
+  * The lexical analysis works directly on the bytes of the file (which is
+  * memory-mapped), so numbers are read without creating Strings or matching
+  * regular expressions. The input is expected to be ASCII text. A line may end
+  * with either "\n" or "\r\n", whatever the platform.
   */
 public final class Parser
 {
     /* Constants */
     public static final String NEWLINE_SYMBOL = System.getProperty("line.separator");
     
+    // The tokens recognised by the lexical methods, as regular expressions
+    // (these are not used by the methods themselves)
     public static final Pattern WHITESPACE_PATTERN = Pattern.compile( "\\G[ \t]+" );
-    public static final Pattern WHITELINE_PATTERN = Pattern.compile( "\\G[ \t]*" + NEWLINE_SYMBOL );
+    public static final Pattern WHITELINE_PATTERN = Pattern.compile( "\\G[ \t]*\r?\n" );
     public static final Pattern INTEGER_PATTERN = Pattern.compile( "\\G[+-]?\\d+" );
     public static final Pattern REAL_PATTERN = Pattern.compile( "\\G[+-]?\\d+(\\.\\d+)?" );
         // \G will force matching to begin AFTER the last match
     
     public static final Pattern MATCH_ALL_DELIMITER = Pattern.compile( "\\z" );
     
+    // Powers of ten that are exactly representable as doubles
+    private static final double[] EXACT_POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+    
+    // The largest integer below which every integer is exactly representable as a double
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    
     
     /* Instance variables */
-    private Scanner feed;
+    private ByteBuffer input;
+    private int pos;           // The position of the next byte of input
+    private int limit;         // The number of bytes of input
     private int lineNum;
     
     
@@ -43,13 +62,53 @@ public final class Parser
       * input which will be processed into tokens.
       *
       * @throws FileNotFoundException if the file does not exist or does exist, but is not a file
+      * @throws ParseException if the file could not be read
       */
     public Parser( File inFile ) throws FileNotFoundException
     {
         if( inFile.isDirectory() )
             throw new FileNotFoundException( "Excepted a file but found a directory" );
         
-        feed = new Scanner( inFile );
+        FileInputStream in = new FileInputStream( inFile );
+        
+        try
+        {
+            FileChannel channel = in.getChannel();
+            
+            if( channel.size() > Integer.MAX_VALUE )
+                throw new ParseException( "File " + inFile + " is too large to be parsed" );
+            
+            // The whole file is read into memory (rather than mapped, which
+            // would keep the file locked on some platforms until the buffer
+            // is garbage collected)
+            input = ByteBuffer.allocate( (int)channel.size() );
+            
+            while( input.hasRemaining() )
+            {
+                if( channel.read( input ) < 0 )
+                    throw new EOFException( "File " + inFile + " ended before it was fully read" );
+            }
+            
+            input.flip();
+        }
+        catch( IOException e )
+        {
+            throw new ParseException( "Could not read file " + inFile + ": " + e.getMessage() );
+        }
+        finally
+        {
+            try
+            {
+                in.close();
+            }
+            catch( IOException e )
+            {
+                // (nothing more can be done; the input has already been read)
+            }
+        }
+        
+        pos = 0;
+        limit = input.limit();
         lineNum = 1;
     }
     
@@ -81,21 +140,25 @@ public final class Parser
     {
         int i = 0;
         
-        boolean success;
-        do
+        while( true )
         {
-            String str = feed.findWithinHorizon( WHITELINE_PATTERN, 0 );
+            int p = pos;
+            
+            while( p < limit && isWhitespace( input.get(p) ) )
+                p++;
+            
+            if( p < limit && input.get(p) == '\r' )
+                p++;
             
-            if( (str != null) && (str.length() > 0) )
+            if( p < limit && input.get(p) == '\n' )
             {
-                success = true;
+                pos = p+1;
                 ++i;
                 ++lineNum;
             }
             else
-                success = false;
+                break;
         }
-        while( success );
         
         return i;
     }
@@ -108,34 +171,31 @@ public final class Parser
       */
     public boolean skipWhitespace()
     {
-        String str = feed.findWithinHorizon( WHITESPACE_PATTERN, 0 );
+        int start = pos;
         
-        if( str == null )
-            return false;
-        else
-            return true;
+        while( pos < limit && isWhitespace( input.get(pos) ) )
+            pos++;
+        
+        return pos > start;
     }
     
     
     /**
       * This method will skip a single specified character. This will return true
       * if a character was successfully skipped and false otherwise. <br>
-      * The method is written to handle the case that the char has some special
-      * meaning in regular expressions. For example, ( has special meaning in 
-      * a regular expression. If the character is a (, the method will handle this
-      * and correctly attempt to skip a literal (.
+      * Any character may be given (including those with special meaning in
+      * regular expressions, such as '('), but since the input is read as ASCII,
+      * a non-ASCII character will never be found.
       */
     public boolean skipCharacter( char c )
     {
-        String literal = Pattern.quote( new Character(c).toString() );
-        
-        Pattern charOnce = Pattern.compile( "\\G" + literal + "{1}" );
-        String str = feed.findWithinHorizon( charOnce, 0 );
-        
-        if( str == null )
-            return false;
-        else
+        if( pos < limit && c < 128 && input.get(pos) == c )
+        {
+            pos++;
             return true;
+        }
+        
+        return false;
     }
     
     
@@ -150,14 +210,36 @@ public final class Parser
       */
     public int parseInt()
     {
-        String str = feed.findWithinHorizon( INTEGER_PATTERN, 0 );
+        int p = pos;
+        boolean negative = false;
         
-        if( str == null )
+        if( p < limit && (input.get(p) == '+' || input.get(p) == '-') )
+        {
+            negative = ( input.get(p) == '-' );
+            p++;
+        }
+        
+        if( !(p < limit && isDigit( input.get(p) )) )
             throw new NumberFormatException( "[Line " + lineNum + "] Input did not match an integer" );
-        else if( str.length() == 0 )
-            throw new NumberFormatException( "Input did not match an integer" );
         
-        return Integer.parseInt( str );
+        // (accumulated as a negative number, which has the larger range)
+        long value = 0;
+        boolean overflow = false;
+        
+        while( p < limit && isDigit( input.get(p) ) )
+        {
+            value = value*10 - ( input.get(p) - '0' );
+            overflow |= ( value < Integer.MIN_VALUE );
+            if( overflow )
+                value = Integer.MIN_VALUE;
+            p++;
+        }
+        
+        if( overflow || (!negative && value == Integer.MIN_VALUE) )
+            throw new NumberFormatException( "[Line " + lineNum + "] Integer " + substring( pos, p ) + " is out of range" );
+        
+        pos = p;
+        return negative ? (int)value : (int)-value;
     }
     
     
@@ -166,20 +248,72 @@ public final class Parser
       * forthcoming input. Only the number itself will be consumed. It will NOT 
       * ignore whitespace or any other characters -- the number MUST start in the
       * input immediately. It will not consume any characters that are not
-      * part of the number itself.
+      * part of the number itself. <br>
+      * The number is the nearest double to the number written (as given by
+      * <code>Double.parseDouble</code>).
       *
       * @throws NumberFormatException if no real number can be found immediately in the input or the number was not in the expected format of a real number
       */
     public double parseDouble()
     {
-        String str = feed.findWithinHorizon( REAL_PATTERN, 0 );
+        int p = pos;
+        boolean negative = false;
         
-        if( str == null )
-            throw new NumberFormatException( "[Line " + lineNum + "] Input did not match a real number" );
-        else if( str.length() == 0 )
+        if( p < limit && (input.get(p) == '+' || input.get(p) == '-') )
+        {
+            negative = ( input.get(p) == '-' );
+            p++;
+        }
+        
+        if( !(p < limit && isDigit( input.get(p) )) )
             throw new NumberFormatException( "[Line " + lineNum + "] Input did not match a real number" );
         
-        return Double.parseDouble( str );
+        // Read the digits as an integer mantissa, and count the digits after the point
+        long mantissa = 0;
+        boolean exact = true;      // (false once the mantissa is too large to be exact)
+        int fractionDigits = 0;
+        
+        while( p < limit && isDigit( input.get(p) ) )
+        {
+            if( exact )
+            {
+                mantissa = mantissa*10 + ( input.get(p) - '0' );
+                exact = ( mantissa <= MAX_EXACT_MANTISSA );
+            }
+            p++;
+        }
+        
+        // (a point is only part of the number if digits follow it)
+        if( p+1 < limit && input.get(p) == '.' && isDigit( input.get(p+1) ) )
+        {
+            p++;
+            
+            while( p < limit && isDigit( input.get(p) ) )
+            {
+                if( exact )
+                {
+                    mantissa = mantissa*10 + ( input.get(p) - '0' );
+                    exact = ( mantissa <= MAX_EXACT_MANTISSA );
+                }
+                fractionDigits++;
+                p++;
+            }
+        }
+        
+        double value;
+        
+        if( exact && fractionDigits < EXACT_POWERS_OF_TEN.length )
+        {
+            // Both are exact, so the division gives the nearest double to the number
+            value = mantissa / EXACT_POWERS_OF_TEN[ fractionDigits ];
+            if( negative )
+                value = -value;
+        }
+        else
+            value = Double.parseDouble( substring( pos, p ) );
+        
+        pos = p;
+        return value;
     }
     
     
@@ -249,14 +383,43 @@ public final class Parser
       */
     public boolean isEOF()
     {
-        Pattern oldDelim = feed.delimiter();
-        
-        feed.useDelimiter( MATCH_ALL_DELIMITER );
-        boolean moreInput = feed.hasNext();
-        
-        feed.useDelimiter( oldDelim );
+        return pos >= limit;
+    }
+    
+    
+    
+    
+    /* LEXICAL HELPERS */
+    
+    /**
+      * Tests whether the given byte is whitespace (a space or tab) within a line.
+      */
+    private static boolean isWhitespace( byte b )
+    {
+        return b == ' ' || b == '\t';
+    }
+    
+    
+    /**
+      * Tests whether the given byte is a decimal digit.
+      */
+    private static boolean isDigit( byte b )
+    {
+        return b >= '0' && b <= '9';
+    }
+    
+    
+    /**
+      * Returns the input from position start up to (not including) position end
+      * as a String. This is only used for error messages and unusual numbers.
+      */
+    private String substring( int start, int end )
+    {
+        char[] chars = new char[ end-start ];
+        for( int i=start; i < end; i++ )
+            chars[ i-start ] = (char)input.get(i);
         
-        return !moreInput;
+        return new String( chars );
     }
     
     
@@ -470,6 +633,190 @@ public final class Parser
     }
     
     
+    /**
+      * This method will interpret a sparse representation of a MobilityMap from
+      * a text file, building and returning a MobilityMap object from this
+      * representation. Unlike the adjacency matrix read by parseMap, a sparse map
+      * only lists the links that exist, so the memory and time taken grow with
+      * the number of links rather than the square of the number of nodes. <br>
+      * <br>
+      * The file starts with the number of nodes and the number of links. After
+      * a blank line comes the list of node coordinates (one per line, as for
+      * parseMap), then after another blank line the list of links, one per
+      * line: <br>
+      *   <code> from to weight </code> <br>
+      * where <code>from</code> and <code>to</code> are node indexes (from 1, in
+      * the order of the coordinates list). For example: <br>
+      * <code>
+      * 3 2              <br>
+      *                  <br>
+      * (0, 0)           <br>
+      * (10, 0)          <br>
+      * (20, 0)          <br>
+      *                  <br>
+      * 2 1 0.5          <br>
+      * 2 3 0.5          <br>
+      * </code>
+      * This makes the same graph as the example matrix given for parseMap. <br>
+      * <br>
+      * Nodes and links are added to the map as they are read, so links are
+      * held by each node in the order they are listed. The same requirements
+      * are enforced as by parseMap: every link weight must be between 0 and 1
+      * (and, since only links are listed, not 0), a node may not link to itself
+      * (or link to the same node twice), and the sum of the weights of the
+      * links from each node must be 1 (added up in the order they are
+      * listed). Errors found in a line are reported with its line number.
+      * 
+      * @see MapWriter#writeSparseMap(MobilityMap, File)
+      */
+    public static MobilityMap parseSparseMap( File inFile ) throws FileNotFoundException
+    {
+        /* SET UP INPUT AND PARSING STUFF */
+        Parser parser = new Parser( inFile );
+        int linesSkipped;
+        
+        
+        /* PREAMBLE */
+        parser.skipWhitespace();
+        int numNodes = parser.parseInt();
+        
+        if( !parser.skipWhitespace() )
+            throw new MapParseException( "[Line " + parser.getLineNumber() + "] Did not find whitespace between the number of nodes and the number of links" );
+        
+        int numLinks = parser.parseInt();
+        parser.skipWhitespace();
+        
+        if( (numNodes < 0) || (numLinks < 0) )
+            throw new MapParseException( "[Line " + parser.getLineNumber() + "] The numbers of nodes and links cannot be negative" );
+        
+        // Set up storage (the weights from each node are added up as the links are read)
+        MobilityMap m = new MobilityMap();
+        MapNode[] nodes = new MapNode[numNodes];
+        double[] rowSums = new double[numNodes];
+        
+        // Skip between preamble and coords list
+        linesSkipped = parser.skipWhitelines();
+        if( (numNodes > 0) && (linesSkipped < 2) )
+            throw new MapParseException( "[Line " + parser.getLineNumber() + "] Did not find a blank line between preamble and coordinates list" );
+        
+        
+        /* COORDINATES LIST */
+        for( int i=0; i < nodes.length; i++ )
+        {
+            parser.skipWhitespace();
+            nodes[i] = new MapNode( parser.parseDoublePoint() );
+            parser.skipWhitespace();
+            
+            try
+            {
+                m.addNode( nodes[i] );
+            }
+            catch( InvalidNodeException e )
+            {
+                throw new MapParseException( "[Line " + parser.getLineNumber() + "] " + e.getMessage() );
+            }
+            
+            // Skip whitelines BETWEEN coord entries (not after)
+            if( i < (nodes.length-1) )
+            {
+                linesSkipped = parser.skipWhitelines();
+                
+                if( linesSkipped < 1 )
+                    throw new MapParseException( "[Line " + parser.getLineNumber() + "] Line did not end after a coordinates entry" );
+                else if( linesSkipped > 1 )
+                    throw new MapParseException( "[Line " + parser.getLineNumber() + "] Coordinates list ended unexpectedly" );
+            }
+        }
+        
+        if( numLinks > 0 )
+        {
+            linesSkipped = parser.skipWhitelines();
+            if( linesSkipped < 2 )
+                throw new MapParseException( "[Line " + parser.getLineNumber() + "] Did not find a blank line between coordinates list and links list" );
+        }
+        
+        
+        /* LINKS LIST */
+        for( int i=0; i < numLinks; i++ )
+        {
+            parser.skipWhitespace();
+            int from = parser.parseInt();
+            
+            if( !parser.skipWhitespace() )
+                throw new MapParseException( "[Line " + parser.getLineNumber() + "] Did not find whitespace between entries in a link" );
+            
+            int to = parser.parseInt();
+            
+            if( !parser.skipWhitespace() )
+                throw new MapParseException( "[Line " + parser.getLineNumber() + "] Did not find whitespace between entries in a link" );
+            
+            double weight = parser.parseDouble();
+            parser.skipWhitespace();
+            
+            // Check the entries (recall that to the user, nodes index from 1)
+            if( (from < 1) || (from > numNodes) )
+                throw new MapParseException( "[Line " + parser.getLineNumber() + "] Node index " + from + " is out of range (expected range is 1 <= index <= " + numNodes + ")" );
+            
+            if( (to < 1) || (to > numNodes) )
+                throw new MapParseException( "[Line " + parser.getLineNumber() + "] Node index " + to + " is out of range (expected range is 1 <= index <= " + numNodes + ")" );
+            
+            if( (weight <= 0) || (weight > 1) )
+                throw new MapParseException( "[Line " + parser.getLineNumber() + "] Link weights must be greater than 0 and no greater than 1" );
+            
+            if( from == to )
+                throw new MapParseException( "[Line " + parser.getLineNumber() + "] Node " + from + " cannot link to itself" );
+            
+            try
+            {
+                nodes[from-1].addLinkOneway( nodes[to-1], weight );
+            }
+            catch( InvalidLinkException e )
+            {
+                throw new MapParseException( "[Line " + parser.getLineNumber() + "] " + e.getMessage() );
+            }
+            
+            rowSums[from-1] = rowSums[from-1] + weight;
+            
+            // Skip whitelines BETWEEN link entries (not after)
+            if( i < (numLinks-1) )
+            {
+                linesSkipped = parser.skipWhitelines();
+                
+                if( linesSkipped < 1 )
+                    throw new MapParseException( "[Line " + parser.getLineNumber() + "] Line did not end after a link entry" );
+                else if( linesSkipped > 1 )
+                    throw new MapParseException( "[Line " + parser.getLineNumber() + "] Links list ended unexpectedly" );
+            }
+        }
+        
+        /* CHECK END OF FILE */
+        parser.skipWhitelines(); // Allow blank lines at end of file
+        parser.skipWhitespace(); // Allow whitespace on the last line
+        if( !parser.isEOF() )
+            throw new MapParseException( "Input did not end after map processing complete" );
+        
+        /* CHECK THE SUM OF PROBABILITIES/WEIGHTS FOR EACH NODE EQUALS 1 */
+        for( int i=0; i < rowSums.length; i++ )
+        {
+            if( rowSums[i] != 1 )
+                throw new MapParseException( "The sum of the probabilities that node " + (i+1) + " links to does not equal 1 (actual sum was " + rowSums[i] + ")" );
+        }
+        
+        // Finally, return the map
+        return m;
+    }
+    
+    /**
+      * This method overloads parseSparseMap to allow specifying the file to be
+      * parsed as a filename and/or path.
+      */
+    public static MobilityMap parseSparseMap( String filename ) throws FileNotFoundException
+    {
+        File f = new File( filename );
+        return parseSparseMap( f );
+    }
+    
+    
     /**
       * This method will interpret a representation of a list of MobileObjects from
       * a text file based on the given map. <br>
@@ -494,6 +841,17 @@ public final class Parser
       * method.
       */
     public static Vector<MobileObject> parseMobileObjectList( File inFile, MobilityMap map ) throws FileNotFoundException
+    {
+        return parseMobileObjectList( inFile, map, new SplittableRandom() );
+    }
+    
+    
+    /**
+      * This method overloads parseMobileObjectList to allow the random number
+      * generator used to choose each mobile object's destination to be given
+      * (e.g. a Simulator's placement stream, so that the choice is reproducible). 
+      */
+    public static Vector<MobileObject> parseMobileObjectList( File inFile, MobilityMap map, SplittableRandom random ) throws FileNotFoundException
     {
         /* SET UP INPUT AND PARSING STUFF */
         Parser parser = new Parser( inFile );
@@ -576,12 +934,12 @@ public final class Parser
             {
                 if( useDefaultSpeed )
                 {
-                    MobileObject mo = new MobileObject( startNode );
+                    MobileObject mo = new MobileObject( startNode, random );
                     mObjects.add( mo );
                 }
                 else
                 {
-                    MobileObject mo = new MobileObject( startNode );
+                    MobileObject mo = new MobileObject( startNode, random );
                     mo.setMovementSpeed( speed );
                     mObjects.add( mo );
                 }
@@ -623,6 +981,18 @@ public final class Parser
     }
     
     
+    /**
+      * This method overloads parseMobileObjectList to allow specifying the file
+      * to be parsed as a filename and/or path, and the random number generator
+      * to be used.
+      */
+    public static Vector<MobileObject> parseMobileObjectList( String filename, MobilityMap map, SplittableRandom random ) throws FileNotFoundException
+    {
+        File f = new File( filename );
+        return parseMobileObjectList( f, map, random );
+    }
+    
+    
     /**
       * This method will interpret a representation of a list of Beacons from
       * a text file. <br>
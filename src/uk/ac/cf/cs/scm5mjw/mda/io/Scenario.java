@@ -0,0 +1,309 @@
+/*   Matthew Williams (0515328)   */
+
+package uk.ac.cf.cs.scm5mjw.mda.io;
+
+import uk.ac.cf.cs.scm5mjw.mda.mobility.*;
+import uk.ac.cf.cs.scm5mjw.mda.devices.*;
+
+import java.io.*;
+import java.awt.geom.Point2D;
+import java.util.SplittableRandom;
+import java.util.Vector;
+
+/**
+  * The inputs of a simulation scenario: a map, the locations of the beacons,
+  * the locations and resources of the information sources and (optionally)
+  * where mobile objects start and how fast they move. <br>
+  * <br>
+  * A Scenario holds the inputs as plain data, and creates new devices from them
+  * each time they are asked for. So one Scenario can be shared by every
+  * replicate of an experiment (including replicates running at the same
+  * time), each replicate creating its own devices. The map itself is shared,
+  * and should not be changed. <br>
+  * <br>
+  * A Scenario can be saved to and loaded from a compiled binary file (see
+  * ScenarioFile), which is much quicker to load than the text files.
+  *
+  * @see ScenarioFile
+  * @see ScenarioCache
+  */
+public final class Scenario
+{
+    /* Instance variables */
+    private final MobilityMap map;
+
+    private final double[] beaconXs;
+    private final double[] beaconYs;
+
+    private final double[] infoSourceXs;
+    private final double[] infoSourceYs;
+    private final int[] infoSourceResourceIDs;
+
+    private final int[] mobileObjectNodes;          // The index of each mobile object's start node (null if there are no placements)
+    private final double[] mobileObjectSpeeds;
+
+
+
+
+    /* CONSTRUCTORS */
+
+    /**
+      * Creates a scenario from the given map and devices. The devices' locations
+      * (and, for information sources, resource IDs) are copied; the mobile objects'
+      * start nodes and speeds are copied. Mobile objects may be null if the
+      * scenario does not place any.
+      *
+      * @throws IllegalArgumentException if a mobile object does not start at a node of the map
+      */
+    public Scenario( MobilityMap map, Vector<Beacon> beacons, Vector<InformationSource> infoSources, Vector<MobileObject> mobileObjects )
+    {
+        this.map = map;
+
+        beaconXs = new double[ beacons.size() ];
+        beaconYs = new double[ beacons.size() ];
+        for( int i=0; i < beacons.size(); i++ )
+        {
+            beaconXs[i] = beacons.get(i).getLocation().x;
+            beaconYs[i] = beacons.get(i).getLocation().y;
+        }
+
+        infoSourceXs = new double[ infoSources.size() ];
+        infoSourceYs = new double[ infoSources.size() ];
+        infoSourceResourceIDs = new int[ infoSources.size() ];
+        for( int i=0; i < infoSources.size(); i++ )
+        {
+            infoSourceXs[i] = infoSources.get(i).getLocation().x;
+            infoSourceYs[i] = infoSources.get(i).getLocation().y;
+            infoSourceResourceIDs[i] = infoSources.get(i).getResourceID();
+        }
+
+        if( mobileObjects == null )
+        {
+            mobileObjectNodes = null;
+            mobileObjectSpeeds = null;
+        }
+        else
+        {
+            CompiledMap compiled = map.getCompiledMap();
+
+            mobileObjectNodes = new int[ mobileObjects.size() ];
+            mobileObjectSpeeds = new double[ mobileObjects.size() ];
+            for( int i=0; i < mobileObjects.size(); i++ )
+            {
+                mobileObjectNodes[i] = compiled.indexOf( mobileObjects.get(i).getSourceNode() );
+                mobileObjectSpeeds[i] = mobileObjects.get(i).getMovementSpeed();
+
+                if( mobileObjectNodes[i] < 0 )
+                    throw new IllegalArgumentException( "Mobile object " + i + " does not start at a node of the scenario's map" );
+            }
+        }
+    }
+
+
+    /**
+      * Creates a scenario directly from its data (used when loading a compiled
+      * scenario). The arrays are not copied.
+      */
+    Scenario( MobilityMap map, double[] beaconXs, double[] beaconYs,
+              double[] infoSourceXs, double[] infoSourceYs, int[] infoSourceResourceIDs,
+              int[] mobileObjectNodes, double[] mobileObjectSpeeds )
+    {
+        this.map = map;
+        this.beaconXs = beaconXs;
+        this.beaconYs = beaconYs;
+        this.infoSourceXs = infoSourceXs;
+        this.infoSourceYs = infoSourceYs;
+        this.infoSourceResourceIDs = infoSourceResourceIDs;
+        this.mobileObjectNodes = mobileObjectNodes;
+        this.mobileObjectSpeeds = mobileObjectSpeeds;
+    }
+
+
+    /**
+      * Parses a scenario from the given text files, using Parser. The map is in
+      * the adjacency matrix format. The mobile objects file may be null if the
+      * scenario does not place any. (The destinations chosen for the parsed
+      * mobile objects are not kept; they are chosen again whenever mobile
+      * objects are created.)
+      *
+      * @see Parser#parseMap(File)
+      */
+    public static Scenario parse( File mapFile, File infoSourcesFile, File beaconsFile, File mobileObjectsFile ) throws FileNotFoundException
+    {
+        MobilityMap map = Parser.parseMap( mapFile );
+        Vector<InformationSource> infoSources = Parser.parseInformationSourceList( infoSourcesFile );
+        Vector<Beacon> beacons = Parser.parseBeaconList( beaconsFile );
+
+        Vector<MobileObject> mobileObjects = null;
+        if( mobileObjectsFile != null )
+            mobileObjects = Parser.parseMobileObjectList( mobileObjectsFile, map, new SplittableRandom( 0 ) );
+
+        return new Scenario( map, beacons, infoSources, mobileObjects );
+    }
+
+
+    /**
+      * Parses a scenario from the given text files in the same way as parse(),
+      * except that the map is in the sparse map format (as written by
+      * ScenarioWriter).
+      *
+      * @see Parser#parseSparseMap(File)
+      * @see ScenarioWriter
+      */
+    public static Scenario parseSparse( File mapFile, File infoSourcesFile, File beaconsFile, File mobileObjectsFile ) throws FileNotFoundException
+    {
+        MobilityMap map = Parser.parseSparseMap( mapFile );
+        Vector<InformationSource> infoSources = Parser.parseInformationSourceList( infoSourcesFile );
+        Vector<Beacon> beacons = Parser.parseBeaconList( beaconsFile );
+
+        Vector<MobileObject> mobileObjects = null;
+        if( mobileObjectsFile != null )
+            mobileObjects = Parser.parseMobileObjectList( mobileObjectsFile, map, new SplittableRandom( 0 ) );
+
+        return new Scenario( map, beacons, infoSources, mobileObjects );
+    }
+
+
+
+
+    /* ACCESSORS */
+
+    /**
+      * An accessor for the scenario's map. This is shared by everything using the
+      * scenario, so should not be changed.
+      */
+    public MobilityMap getMap()
+    {
+        return map;
+    }
+
+
+    /**
+      * Returns the number of beacons in this scenario.
+      */
+    public int getNumberOfBeacons()
+    {
+        return beaconXs.length;
+    }
+
+
+    /**
+      * Returns the number of information sources in this scenario.
+      */
+    public int getNumberOfInformationSources()
+    {
+        return infoSourceXs.length;
+    }
+
+
+    /**
+      * Tests whether this scenario places mobile objects.
+      */
+    public boolean hasMobileObjects()
+    {
+        return mobileObjectNodes != null;
+    }
+
+
+    /**
+      * Returns the number of mobile objects this scenario places (0 if it does
+      * not place any).
+      */
+    public int getNumberOfMobileObjects()
+    {
+        return ( mobileObjectNodes == null ) ? 0 : mobileObjectNodes.length;
+    }
+
+
+
+
+    /* DEVICE CREATION */
+
+    /**
+      * Creates a new set of this scenario's beacons.
+      */
+    public Vector<Beacon> createBeacons()
+    {
+        Vector<Beacon> beacons = new Vector<Beacon>( beaconXs.length );
+        for( int i=0; i < beaconXs.length; i++ )
+            beacons.add( new Beacon( new Point2D.Double( beaconXs[i], beaconYs[i] ) ) );
+
+        return beacons;
+    }
+
+
+    /**
+      * Creates a new set of this scenario's information sources.
+      */
+    public Vector<InformationSource> createInformationSources()
+    {
+        Vector<InformationSource> infoSources = new Vector<InformationSource>( infoSourceXs.length );
+        for( int i=0; i < infoSourceXs.length; i++ )
+            infoSources.add( new InformationSource( new Point2D.Double( infoSourceXs[i], infoSourceYs[i] ), infoSourceResourceIDs[i] ) );
+
+        return infoSources;
+    }
+
+
+    /**
+      * Creates a new set of this scenario's mobile objects, using the given
+      * random number generator to choose their destinations (in the same way as
+      * Parser.parseMobileObjectList). If the scenario does not place mobile
+      * objects, the set is empty.
+      *
+      * @see Parser#parseMobileObjectList(File, MobilityMap, SplittableRandom)
+      */
+    public Vector<MobileObject> createMobileObjects( SplittableRandom random )
+    {
+        Vector<MobileObject> mObjects = new Vector<MobileObject>( getNumberOfMobileObjects() );
+
+        for( int i=0; i < getNumberOfMobileObjects(); i++ )
+        {
+            MobileObject mo = new MobileObject( map.getNodeAt( mobileObjectNodes[i] ), random );
+            mo.setMovementSpeed( mobileObjectSpeeds[i] );
+            mObjects.add( mo );
+        }
+
+        return mObjects;
+    }
+
+
+
+
+    /* DATA (for ScenarioFile) */
+
+    double[] getBeaconXs()
+    {
+        return beaconXs;
+    }
+
+    double[] getBeaconYs()
+    {
+        return beaconYs;
+    }
+
+    double[] getInformationSourceXs()
+    {
+        return infoSourceXs;
+    }
+
+    double[] getInformationSourceYs()
+    {
+        return infoSourceYs;
+    }
+
+    int[] getInformationSourceResourceIDs()
+    {
+        return infoSourceResourceIDs;
+    }
+
+    int[] getMobileObjectNodes()
+    {
+        return mobileObjectNodes;
+    }
+
+    double[] getMobileObjectSpeeds()
+    {
+        return mobileObjectSpeeds;
+    }
+}
@@ -0,0 +1,173 @@
+/*   Matthew Williams (0515328)   */
+
+package uk.ac.cf.cs.scm5mjw.mda.io;
+
+import java.io.*;
+
+/**
+  * Loads scenarios from their text files, keeping a compiled copy of each
+  * (see ScenarioFile) in a cache directory. The next time the same scenario is
+  * loaded, the compiled copy is used instead, as long as none of the text files
+  * has changed since it was compiled (i.e. each has the same length and
+  * last-modified time). Otherwise the text files are parsed again and a new
+  * compiled copy replaces the old one. <br>
+  * <br>
+  * The compiled copy of a scenario is named after its text files, so
+  * scenarios with the same file names in different directories should use
+  * different caches.
+  *
+  * @see ScenarioFile
+  */
+public final class ScenarioCache
+{
+    /* Constants */
+    public static final String COMPILED_EXTENSION = ".scn";
+
+
+    /* Instance variables */
+    private File directory;
+
+
+
+
+    /* CONSTRUCTORS */
+
+    /**
+      * Creates a cache which keeps compiled scenarios in the given directory
+      * (which is created if it does not exist).
+      */
+    public ScenarioCache( File directory )
+    {
+        this.directory = directory;
+    }
+
+
+    /**
+      * This constructor overloads the directory constructor to allow
+      * specifying the directory as a path.
+      */
+    public ScenarioCache( String directory )
+    {
+        this( new File( directory ) );
+    }
+
+
+
+
+    /* ACCESSORS */
+
+    /**
+      * An accessor for the directory compiled scenarios are kept in.
+      */
+    public File getDirectory()
+    {
+        return directory;
+    }
+
+
+    /**
+      * Returns the file the compiled copy of the scenario with the given text
+      * files is kept in. The mobile objects file may be null.
+      */
+    public File getCompiledFile( File mapFile, File infoSourcesFile, File beaconsFile, File mobileObjectsFile )
+    {
+        String name = stem( mapFile ) + "_" + stem( infoSourcesFile ) + "_" + stem( beaconsFile );
+        if( mobileObjectsFile != null )
+            name = name + "_" + stem( mobileObjectsFile );
+
+        return new File( directory, name + COMPILED_EXTENSION );
+    }
+
+
+
+
+    /* CACHE FUNCTIONALITY */
+
+    /**
+      * Loads the scenario with the given text files (the map being in the
+      * adjacency matrix format), from its compiled copy if that is up to date.
+      * The mobile objects file may be null if the scenario does not place any.
+      *
+      * @see Scenario#parse(File, File, File, File)
+      */
+    public synchronized Scenario load( File mapFile, File infoSourcesFile, File beaconsFile, File mobileObjectsFile ) throws FileNotFoundException
+    {
+        File[] sources = ( mobileObjectsFile == null )
+                       ? new File[] { mapFile, infoSourcesFile, beaconsFile }
+                       : new File[] { mapFile, infoSourcesFile, beaconsFile, mobileObjectsFile };
+
+        File compiled = getCompiledFile( mapFile, infoSourcesFile, beaconsFile, mobileObjectsFile );
+
+        if( isUpToDate( compiled, sources ) )
+        {
+            try
+            {
+                return ScenarioFile.read( compiled );
+            }
+            catch( ScenarioParseException e )
+            {
+                // (the compiled copy is damaged, so it is replaced below)
+            }
+        }
+
+        Scenario scenario = Scenario.parse( mapFile, infoSourcesFile, beaconsFile, mobileObjectsFile );
+
+        // Write to a temporary file first, so a compiled copy is never seen half-written
+        if( !directory.isDirectory() && !directory.mkdirs() )
+            throw new DataOutputException( "Could not create scenario cache directory " + directory );
+
+        File temp = new File( directory, compiled.getName() + ".tmp" );
+        ScenarioFile.write( scenario, temp, sources );
+
+        if( !(temp.renameTo( compiled ) || (compiled.delete() && temp.renameTo( compiled ))) )
+            throw new DataOutputException( "Could not replace compiled scenario " + compiled );
+
+        return scenario;
+    }
+
+
+    /**
+      * This method overloads load to allow specifying the files as filenames
+      * and/or paths.
+      */
+    public Scenario load( String mapFilename, String infoSourcesFilename, String beaconsFilename, String mobileObjectsFilename ) throws FileNotFoundException
+    {
+        return load( new File( mapFilename ), new File( infoSourcesFilename ), new File( beaconsFilename ),
+                     ( mobileObjectsFilename == null ) ? null : new File( mobileObjectsFilename ) );
+    }
+
+
+    /**
+      * Checks whether the given compiled file exists and records the given
+      * source files as they are now.
+      */
+    private static boolean isUpToDate( File compiled, File[] sources )
+    {
+        if( !compiled.isFile() )
+            return false;
+
+        long[] stamps = ScenarioFile.readSourceStamps( compiled );
+        if( stamps == null || stamps.length != 2*sources.length )
+            return false;
+
+        for( int i=0; i < sources.length; i++ )
+        {
+            if( stamps[2*i] != sources[i].length() || stamps[2*i+1] != sources[i].lastModified() )
+                return false;
+        }
+
+        return true;
+    }
+
+
+    /**
+      * Returns the name of the given file without its extension.
+      */
+    private static String stem( File f )
+    {
+        String name = f.getName();
+        int dot = name.lastIndexOf( '.' );
+
+        return ( dot > 0 ) ? name.substring( 0, dot ) : name;
+    }
+}
@@ -0,0 +1,438 @@
+/*   Matthew Williams (0515328)   */
+
+package uk.ac.cf.cs.scm5mjw.mda.io;
+
+import uk.ac.cf.cs.scm5mjw.mda.mobility.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.awt.geom.Point2D;
+
+/**
+  * This class handles saving a Scenario to a compiled binary file, and loading
+  * it again. A compiled scenario is loaded by memory-mapping the file and
+  * copying its arrays of numbers out in bulk, so there is almost no parsing
+  * (the map's nodes and links are still added one by one). <br>
+  * <br>
+  * The file (whose numbers are all big-endian) is laid out as follows: <br>
+  * <code>
+  * header:  int magic number, int format version, int flags, int number of sources,
+  *          then for each source: long length, long last-modified time  <br>
+  * counts:  int nodes, links, beacons, information sources, mobile objects, then an int of padding <br>
+  * doubles: node x, node y, link weights, beacon x, beacon y,
+  *          information source x, information source y, mobile object speeds <br>
+  * ints:    the number of links of each node, the node each link goes to (in node order),
+  *          information source resource IDs, mobile object start nodes <br>
+  * </code>
+  * Nodes are numbered from 0. Flag bit 0 is set if the scenario places mobile
+  * objects. The sources (which may be none) record the text files the scenario
+  * was compiled from, so that a ScenarioCache can tell when they have changed. <br>
+  * <br>
+  * A file written by a different version of the format will not be loaded.
+  *
+  * @see Scenario
+  * @see ScenarioCache
+  */
+public final class ScenarioFile
+{
+    /* Constants */
+    public static final int MAGIC_NUMBER = 0x4F505343;     // "OPSC"
+    public static final int FORMAT_VERSION = 1;
+
+    private static final int FLAG_MOBILE_OBJECTS = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int COUNTS_SIZE = 24;
+
+
+
+
+    /**
+      * This class only has static methods, so should not be instantiated.
+      */
+    private ScenarioFile()
+    {
+    }
+
+
+
+
+    /* SAVING */
+
+    /**
+      * Saves the given scenario to the given file (recording no source files).
+      *
+      * @throws DataOutputException if the scenario cannot be saved (e.g. a node of its map links to a node that is not in the map), or writing fails
+      */
+    public static void write( Scenario scenario, File outFile ) throws FileNotFoundException
+    {
+        write( scenario, outFile, new File[0] );
+    }
+
+
+    /**
+      * Saves the given scenario to the given file, recording the length and
+      * last-modified time of each of the given source files.
+      *
+      * @throws DataOutputException if the scenario cannot be saved (e.g. a node of its map links to a node that is not in the map), or writing fails
+      */
+    static void write( Scenario scenario, File outFile, File[] sources ) throws FileNotFoundException
+    {
+        CompiledMap map = scenario.getMap().getCompiledMap();
+        int numNodes = map.getNumberOfNodes();
+        int numLinks = map.getNumberOfLinks();
+
+        DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( outFile ), 1 << 16 ) );
+
+        try
+        {
+            /* HEADER */
+            out.writeInt( MAGIC_NUMBER );
+            out.writeInt( FORMAT_VERSION );
+            out.writeInt( scenario.hasMobileObjects() ? FLAG_MOBILE_OBJECTS : 0 );
+            out.writeInt( sources.length );
+
+            for( File source : sources )
+            {
+                out.writeLong( source.length() );
+                out.writeLong( source.lastModified() );
+            }
+
+
+            /* COUNTS */
+            out.writeInt( numNodes );
+            out.writeInt( numLinks );
+            out.writeInt( scenario.getNumberOfBeacons() );
+            out.writeInt( scenario.getNumberOfInformationSources() );
+            out.writeInt( scenario.getNumberOfMobileObjects() );
+            out.writeInt( 0 );
+
+
+            /* DOUBLES */
+            for( int i=0; i < numNodes; i++ )
+                out.writeDouble( map.getNodeX(i) );
+            for( int i=0; i < numNodes; i++ )
+                out.writeDouble( map.getNodeY(i) );
+            for( int l=0; l < numLinks; l++ )
+                out.writeDouble( map.getLinkWeight(l) );
+
+            writeDoubles( out, scenario.getBeaconXs() );
+            writeDoubles( out, scenario.getBeaconYs() );
+            writeDoubles( out, scenario.getInformationSourceXs() );
+            writeDoubles( out, scenario.getInformationSourceYs() );
+            if( scenario.hasMobileObjects() )
+                writeDoubles( out, scenario.getMobileObjectSpeeds() );
+
+
+            /* INTS */
+            for( int i=0; i < numNodes; i++ )
+                out.writeInt( map.getNumberOfLinks(i) );
+
+            for( int l=0; l < numLinks; l++ )
+            {
+                if( map.getLinkEnd(l) < 0 )
+                    throw new DataOutputException( "Node " + (map.getLinkStart(l)+1) + " links to a node which is not in the map" );
+
+                out.writeInt( map.getLinkEnd(l) );
+            }
+
+            writeInts( out, scenario.getInformationSourceResourceIDs() );
+            if( scenario.hasMobileObjects() )
+                writeInts( out, scenario.getMobileObjectNodes() );
+
+            out.close();
+        }
+        catch( IOException e )
+        {
+            throw new DataOutputException( "Could not write scenario to " + outFile + ": " + e.getMessage() );
+        }
+        finally
+        {
+            try
+            {
+                out.close();
+            }
+            catch( IOException e )
+            {
+                // (already reported, if it matters)
+            }
+        }
+    }
+
+
+    private static void writeDoubles( DataOutputStream out, double[] values ) throws IOException
+    {
+        for( double d : values )
+            out.writeDouble( d );
+    }
+
+
+    private static void writeInts( DataOutputStream out, int[] values ) throws IOException
+    {
+        for( int i : values )
+            out.writeInt( i );
+    }
+
+
+
+
+    /* LOADING */
+
+    /**
+      * Loads a scenario from the given compiled file.
+      *
+      * @throws FileNotFoundException if the file does not exist or does exist, but is not a file
+      * @throws ScenarioParseException if the file is not a compiled scenario of this version, or is damaged
+      */
+    public static Scenario read( File inFile ) throws FileNotFoundException
+    {
+        ByteBuffer in = map( inFile );
+
+        try
+        {
+            int numSources = readHeader( in, in.limit(), inFile );
+            in.position( HEADER_SIZE + 16*numSources );
+
+            int flags = in.getInt( 8 );
+
+
+            /* COUNTS */
+            int numNodes = in.getInt();
+            int numLinks = in.getInt();
+            int numBeacons = in.getInt();
+            int numInfoSources = in.getInt();
+            int numMobileObjects = in.getInt();
+            in.getInt();
+
+            // (check the counts against the file's size before anything is allocated)
+            long expected = (long)in.position()
+                          + 8L*( 2L*numNodes + numLinks + 2L*numBeacons + 2L*numInfoSources + numMobileObjects )
+                          + 4L*( (long)numNodes + numLinks + numInfoSources + numMobileObjects );
+
+            if( numNodes < 0 || numLinks < 0 || numBeacons < 0 || numInfoSources < 0 || numMobileObjects < 0 || expected != in.limit() )
+                throw new ScenarioParseException( "Compiled scenario " + inFile + " is damaged (its size does not match its contents)" );
+
+            if( (flags & FLAG_MOBILE_OBJECTS) == 0 && numMobileObjects != 0 )
+                throw new ScenarioParseException( "Compiled scenario " + inFile + " is damaged (it has mobile objects but is marked as having none)" );
+
+
+            /* DOUBLES */
+            double[] nodeXs = readDoubles( in, numNodes );
+            double[] nodeYs = readDoubles( in, numNodes );
+            double[] weights = readDoubles( in, numLinks );
+            double[] beaconXs = readDoubles( in, numBeacons );
+            double[] beaconYs = readDoubles( in, numBeacons );
+            double[] infoSourceXs = readDoubles( in, numInfoSources );
+            double[] infoSourceYs = readDoubles( in, numInfoSources );
+            double[] speeds = readDoubles( in, numMobileObjects );
+
+
+            /* INTS */
+            int[] linkCounts = readInts( in, numNodes );
+            int[] linkEnds = readInts( in, numLinks );
+            int[] resourceIDs = readInts( in, numInfoSources );
+            int[] startNodes = readInts( in, numMobileObjects );
+
+
+            /* CONSTRUCT THE MAP */
+            MobilityMap m = new MobilityMap();
+            MapNode[] nodes = new MapNode[ numNodes ];
+
+            for( int i=0; i < numNodes; i++ )
+            {
+                nodes[i] = new MapNode( new Point2D.Double( nodeXs[i], nodeYs[i] ) );
+                m.addNode( nodes[i] );
+            }
+
+            int l = 0;
+            for( int i=0; i < numNodes; i++ )
+            {
+                for( int j=0; j < linkCounts[i]; j++ )
+                {
+                    nodes[i].addLinkOneway( nodes[ linkEnds[l] ], weights[l] );
+                    l++;
+                }
+            }
+
+            if( l != numLinks )
+                throw new ScenarioParseException( "Compiled scenario " + inFile + " is damaged (its numbers of links do not match)" );
+
+            for( int i=0; i < numMobileObjects; i++ )
+            {
+                if( startNodes[i] < 0 || startNodes[i] >= numNodes )
+                    throw new ScenarioParseException( "Compiled scenario " + inFile + " is damaged (a mobile object starts at a node which is not in the map)" );
+            }
+
+            boolean hasMobileObjects = ( flags & FLAG_MOBILE_OBJECTS ) != 0;
+
+            return new Scenario( m, beaconXs, beaconYs, infoSourceXs, infoSourceYs, resourceIDs,
+                                 hasMobileObjects ? startNodes : null, hasMobileObjects ? speeds : null );
+        }
+        catch( ScenarioParseException e )
+        {
+            throw e;
+        }
+        catch( RuntimeException e )
+        {
+            // (e.g. a link to a node that does not exist, or two nodes at the same location)
+            throw new ScenarioParseException( "Compiled scenario " + inFile + " is damaged (" + e + ")" );
+        }
+    }
+
+
+    /**
+      * This method overloads read to allow specifying the file to be loaded as
+      * a filename and/or path.
+      */
+    public static Scenario read( String filename ) throws FileNotFoundException
+    {
+        return read( new File( filename ) );
+    }
+
+
+    /**
+      * Reads the lengths and last-modified times of the source files recorded in
+      * the given compiled file (alternately, starting with the first source's
+      * length). If the file is not a compiled scenario of this version, null is
+      * returned. <br>
+      * The header is read into a small buffer rather than mapping the file: a
+      * mapped file stays mapped until the buffer is garbage-collected, and on
+      * some platforms (e.g. Windows) it cannot be replaced or deleted until then,
+      * which would stop a stale copy from being rebuilt.
+      */
+    static long[] readSourceStamps( File inFile )
+    {
+        try
+        {
+            FileInputStream in = new FileInputStream( inFile );
+
+            try
+            {
+                FileChannel channel = in.getChannel();
+                int numSources = readHeader( readFully( channel, 0, HEADER_SIZE ), channel.size(), inFile );
+
+                long[] stamps = new long[ 2*numSources ];
+                readFully( channel, HEADER_SIZE, 16*numSources ).asLongBuffer().get( stamps );
+
+                return stamps;
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch( IOException e )
+        {
+            // (including the file not existing)
+            return null;
+        }
+        catch( RuntimeException e )
+        {
+            return null;
+        }
+    }
+
+
+
+
+    /* HELPERS */
+
+    /**
+      * Memory-maps the given file.
+      */
+    private static ByteBuffer map( File inFile ) throws FileNotFoundException
+    {
+        if( inFile.isDirectory() )
+            throw new FileNotFoundException( "Excepted a file but found a directory" );
+
+        FileInputStream in = new FileInputStream( inFile );
+
+        try
+        {
+            FileChannel channel = in.getChannel();
+
+            if( channel.size() > Integer.MAX_VALUE )
+                throw new ScenarioParseException( "Compiled scenario " + inFile + " is too large to be loaded" );
+
+            return channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+        }
+        catch( IOException e )
+        {
+            throw new ScenarioParseException( "Could not read compiled scenario " + inFile + ": " + e.getMessage() );
+        }
+        finally
+        {
+            try
+            {
+                in.close();
+            }
+            catch( IOException e )
+            {
+                // (nothing more can be done; the file has already been mapped)
+            }
+        }
+    }
+
+
+    /**
+      * Reads the given number of bytes from the given position of a file into a
+      * new (heap) buffer.
+      *
+      * @throws EOFException if the file ends first
+      */
+    private static ByteBuffer readFully( FileChannel channel, long position, int length ) throws IOException
+    {
+        ByteBuffer buf = ByteBuffer.allocate( length );
+
+        while( buf.hasRemaining() )
+        {
+            if( channel.read( buf, position + buf.position() ) < 0 )
+                throw new EOFException();
+        }
+
+        buf.flip();
+        return buf;
+    }
+
+
+    /**
+      * Checks the header of a compiled scenario (at the start of the given
+      * buffer) against the size of the file, returning its number of sources.
+      *
+      * @throws ScenarioParseException if the file is not a compiled scenario of this version
+      */
+    private static int readHeader( ByteBuffer in, long fileSize, File inFile )
+    {
+        if( fileSize < HEADER_SIZE + COUNTS_SIZE || in.getInt( 0 ) != MAGIC_NUMBER )
+            throw new ScenarioParseException( inFile + " is not a compiled scenario" );
+
+        if( in.getInt( 4 ) != FORMAT_VERSION )
+            throw new ScenarioParseException( "Compiled scenario " + inFile + " has format version " + in.getInt( 4 ) + " (expected " + FORMAT_VERSION + ")" );
+
+        int numSources = in.getInt( 12 );
+        if( numSources < 0 || HEADER_SIZE + 16L*numSources + COUNTS_SIZE > fileSize )
+            throw new ScenarioParseException( "Compiled scenario " + inFile + " is damaged (its header is too short)" );
+
+        return numSources;
+    }
+
+
+    private static double[] readDoubles( ByteBuffer in, int n )
+    {
+        double[] values = new double[n];
+        in.asDoubleBuffer().get( values );
+        in.position( in.position() + 8*n );
+
+        return values;
+    }
+
+
+    private static int[] readInts( ByteBuffer in, int n )
+    {
+        int[] values = new int[n];
+        in.asIntBuffer().get( values );
+        in.position( in.position() + 4*n );
+
+        return values;
+    }
+}
@@ -0,0 +1,121 @@
+/*   Matthew Williams (0515328)   */
+
+package uk.ac.cf.cs.scm5mjw.mda.io;
+
+import uk.ac.cf.cs.scm5mjw.mda.mobility.*;
+import uk.ac.cf.cs.scm5mjw.mda.devices.*;
+
+import java.awt.geom.Point2D;
+import java.util.SplittableRandom;
+
+/**
+  * This class generates synthetic scenarios of any size (for stress and
+  * scaling tests), by placing devices at random on a map -- typically one made
+  * by MapGenerator. <br>
+  * <br>
+  * The devices are placed as follows: <br>
+  *  -  information sources at different map nodes, with resource IDs 1, 2,
+  *     3, ... (as Simulator.generateRandomInformationSources does) <br>
+  *  -  beacons at random points along the map's links (so, like the beacons
+  *     of a real building, they are in the corridors), rounded to two decimal
+  *     places <br>
+  *  -  mobile objects at random map nodes, moving at the default speed <br>
+  * <br>
+  * The scenario holds the placements as plain data (see Scenario), so
+  * scenarios of millions of devices can be generated without creating any
+  * devices. The devices are created when the scenario is asked for them, and
+  * the scenario can be written to the text file formats read by Parser with
+  * ScenarioWriter (or to a compiled scenario file with ScenarioFile).
+  *
+  * @see MapGenerator
+  * @see ScenarioWriter
+  */
+public final class ScenarioGenerator
+{
+    /**
+      * This class only has static methods, so should not be instantiated.
+      */
+    private ScenarioGenerator()
+    {
+    }
+
+
+
+
+    /**
+      * Generates a scenario on the given map with the given numbers of
+      * devices, using the given random number generator to place them.
+      *
+      * @throws IllegalArgumentException if a number of devices is negative, or there are more information sources than map nodes
+      */
+    public static Scenario createScenario( MobilityMap map, int numInformationSources, int numBeacons, int numMobileObjects, SplittableRandom random )
+    {
+        int numNodes = map.getNumberOfNodes();
+
+        if( (numInformationSources < 0) || (numBeacons < 0) || (numMobileObjects < 0) )
+            throw new IllegalArgumentException( "Number of devices to generate must be greater or equal to 0" );
+        if( numInformationSources > numNodes )
+            throw new IllegalArgumentException( "Number of information sources to generate must be less or equal to the number of nodes on the map" );
+        if( (numNodes == 0) && (numBeacons + numMobileObjects > 0) )
+            throw new IllegalArgumentException( "Cannot place devices on a map with no nodes" );
+
+
+        /* INFORMATION SOURCES */
+        // (the first nodes of a partial shuffle of the node indexes)
+        int[] nodeIndexes = new int[ numNodes ];
+        for( int i=0; i < numNodes; i++ )
+            nodeIndexes[i] = i;
+
+        double[] infoSourceXs = new double[ numInformationSources ];
+        double[] infoSourceYs = new double[ numInformationSources ];
+        int[] infoSourceResourceIDs = new int[ numInformationSources ];
+
+        for( int i=0; i < numInformationSources; i++ )
+        {
+            int j = i + random.nextInt( numNodes - i );
+            int node = nodeIndexes[j];
+            nodeIndexes[j] = nodeIndexes[i];
+            nodeIndexes[i] = node;
+
+            Point2D.Double loc = map.getNodeAt( node ).getLocation();
+            infoSourceXs[i] = loc.x;
+            infoSourceYs[i] = loc.y;
+            infoSourceResourceIDs[i] = i+1;
+        }
+        nodeIndexes = null;
+
+
+        /* BEACONS */
+        double[] beaconXs = new double[ numBeacons ];
+        double[] beaconYs = new double[ numBeacons ];
+
+        for( int i=0; i < numBeacons; i++ )
+        {
+            MapNode from = map.getNodeAt( random.nextInt( numNodes ) );
+            Point2D.Double a = from.getLocation();
+            Point2D.Double b = a;
+            if( from.getNumberOfLinks() > 0 )
+                b = from.getLinkAt( random.nextInt( from.getNumberOfLinks() ) ).getGoesTo().getLocation();
+
+            double t = random.nextDouble();
+            beaconXs[i] = Math.round( ( a.x + t*(b.x - a.x) ) * 100 ) / 100.0;
+            beaconYs[i] = Math.round( ( a.y + t*(b.y - a.y) ) * 100 ) / 100.0;
+        }
+
+
+        /* MOBILE OBJECTS */
+        int[] mobileObjectNodes = new int[ numMobileObjects ];
+        double[] mobileObjectSpeeds = new double[ numMobileObjects ];
+
+        for( int i=0; i < numMobileObjects; i++ )
+        {
+            mobileObjectNodes[i] = random.nextInt( numNodes );
+            mobileObjectSpeeds[i] = MobileObject.DEFAULT_MOVEMENT_SPEED;
+        }
+
+
+        return new Scenario( map, beaconXs, beaconYs,
+                             infoSourceXs, infoSourceYs, infoSourceResourceIDs,
+                             mobileObjectNodes, mobileObjectSpeeds );
+    }
+}
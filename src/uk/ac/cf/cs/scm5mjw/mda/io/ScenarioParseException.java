@@ -0,0 +1,21 @@
+/*   Matthew Williams (0515328)   */
+
+package uk.ac.cf.cs.scm5mjw.mda.io;
+
+/**
+  * The exception defined by this class is for errors encountered when loading
+  * a compiled scenario file (for example, if it is not a scenario file, was
+  * written by a different version, or is damaged).
+  */
+public class ScenarioParseException extends ParseException
+{
+    public ScenarioParseException()
+    {
+        super();
+    }
+
+    public ScenarioParseException( String msg )
+    {
+        super( msg );
+    }
+}
@@ -0,0 +1,186 @@
+/*   Matthew Williams (0515328)   */
+
+package uk.ac.cf.cs.scm5mjw.mda.io;
+
+import java.io.*;
+
+/**
+  * This class handles writing a Scenario to the text file formats read by
+  * Parser: the map in the sparse map format (see MapWriter), and the lists of
+  * information sources, beacons and mobile objects. <br>
+  * <br>
+  * Numbers are written so that they are read back as exactly the same
+  * doubles, so the files can be read back (with Scenario.parseSparse) as the
+  * same scenario. Mobile objects at the same node with the same speed, one
+  * after another, are written as a single entry.
+  *
+  * @see Scenario#parseSparse(File, File, File, File)
+  * @see MapWriter
+  */
+public final class ScenarioWriter
+{
+    /**
+      * This class only has static methods, so should not be instantiated.
+      */
+    private ScenarioWriter()
+    {
+    }
+
+
+
+
+    /**
+      * Writes the given scenario to the given files. If the scenario does not
+      * place mobile objects, the mobile objects file may be null (and is
+      * otherwise written with no entries).
+      *
+      * @throws FileNotFoundException if a file cannot be created or opened for writing
+      * @throws DataOutputException if writing fails
+      */
+    public static void write( Scenario scenario, File mapFile, File infoSourcesFile, File beaconsFile, File mobileObjectsFile ) throws FileNotFoundException
+    {
+        MapWriter.writeSparseMap( scenario.getMap(), mapFile );
+        writeInformationSourceList( scenario, infoSourcesFile );
+        writeBeaconList( scenario, beaconsFile );
+
+        if( mobileObjectsFile != null )
+            writeMobileObjectList( scenario, mobileObjectsFile );
+    }
+
+
+    /**
+      * Writes the scenario's information sources to the given file, in the
+      * format read by Parser.parseInformationSourceList.
+      *
+      * @throws FileNotFoundException if the file cannot be created or opened for writing
+      * @throws DataOutputException if writing fails
+      * @see Parser#parseInformationSourceList(File)
+      */
+    public static void writeInformationSourceList( Scenario scenario, File outFile ) throws FileNotFoundException
+    {
+        double[] xs = scenario.getInformationSourceXs();
+        double[] ys = scenario.getInformationSourceYs();
+        int[] resourceIDs = scenario.getInformationSourceResourceIDs();
+
+        PrintWriter out = open( outFile, xs.length );
+        try
+        {
+            for( int i=0; i < xs.length; i++ )
+                out.print( "(" + MapWriter.format( xs[i] ) + ", " + MapWriter.format( ys[i] ) + "): " + resourceIDs[i] + Parser.NEWLINE_SYMBOL );
+        }
+        finally
+        {
+            out.close();
+        }
+
+        checkWritten( out, outFile );
+    }
+
+
+    /**
+      * Writes the scenario's beacons to the given file, in the format read by
+      * Parser.parseBeaconList.
+      *
+      * @throws FileNotFoundException if the file cannot be created or opened for writing
+      * @throws DataOutputException if writing fails
+      * @see Parser#parseBeaconList(File)
+      */
+    public static void writeBeaconList( Scenario scenario, File outFile ) throws FileNotFoundException
+    {
+        double[] xs = scenario.getBeaconXs();
+        double[] ys = scenario.getBeaconYs();
+
+        PrintWriter out = open( outFile, xs.length );
+        try
+        {
+            for( int i=0; i < xs.length; i++ )
+                out.print( "(" + MapWriter.format( xs[i] ) + ", " + MapWriter.format( ys[i] ) + ")" + Parser.NEWLINE_SYMBOL );
+        }
+        finally
+        {
+            out.close();
+        }
+
+        checkWritten( out, outFile );
+    }
+
+
+    /**
+      * Writes the scenario's mobile objects to the given file, in the format
+      * read by Parser.parseMobileObjectList (with node indexes from 1).
+      *
+      * @throws FileNotFoundException if the file cannot be created or opened for writing
+      * @throws DataOutputException if the scenario does not place mobile objects, or writing fails
+      * @see Parser#parseMobileObjectList(File, uk.ac.cf.cs.scm5mjw.mda.mobility.MobilityMap, java.util.SplittableRandom)
+      */
+    public static void writeMobileObjectList( Scenario scenario, File outFile ) throws FileNotFoundException
+    {
+        if( !scenario.hasMobileObjects() )
+            throw new DataOutputException( "The scenario does not place mobile objects" );
+
+        int[] nodes = scenario.getMobileObjectNodes();
+        double[] speeds = scenario.getMobileObjectSpeeds();
+
+        // Count the entries (runs of mobile objects at the same node with the same speed)
+        int numEntries = 0;
+        for( int i=0; i < nodes.length; i++ )
+        {
+            if( i == 0 || !sameEntry( nodes, speeds, i-1, i ) )
+                numEntries++;
+        }
+
+
+        PrintWriter out = open( outFile, numEntries );
+        try
+        {
+            int i = 0;
+            while( i < nodes.length )
+            {
+                int count = 1;
+                while( i+count < nodes.length && sameEntry( nodes, speeds, i, i+count ) )
+                    count++;
+
+                out.print( (nodes[i]+1) + ": " + count + "; " + MapWriter.format( speeds[i] ) + Parser.NEWLINE_SYMBOL );
+                i += count;
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+
+        checkWritten( out, outFile );
+    }
+
+
+
+
+    /* HELPER METHODS */
+
+    /**
+      * Opens the given file and writes the preamble of a list (the number of
+      * entries and a blank line).
+      */
+    private static PrintWriter open( File outFile, int numEntries ) throws FileNotFoundException
+    {
+        PrintWriter out = new PrintWriter( new BufferedWriter( new OutputStreamWriter( new FileOutputStream( outFile ) ) ) );
+
+        out.print( numEntries + Parser.NEWLINE_SYMBOL );
+        out.print( Parser.NEWLINE_SYMBOL );
+
+        return out;
+    }
+
+
+    private static void checkWritten( PrintWriter out, File outFile )
+    {
+        if( out.checkError() )
+            throw new DataOutputException( "Could not write to " + outFile );
+    }
+
+
+    private static boolean sameEntry( int[] nodes, double[] speeds, int i, int j )
+    {
+        return nodes[i] == nodes[j] && Double.doubleToLongBits( speeds[i] ) == Double.doubleToLongBits( speeds[j] );
+    }
+}
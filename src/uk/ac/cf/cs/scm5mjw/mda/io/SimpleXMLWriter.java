@@ -1,85 +1,135 @@
 /*   Matthew Williams (0515328)   */
 
 package uk.ac.cf.cs.scm5mjw.mda.io;
-     
+
 import java.io.*;
-import java.util.*;
-import org.apache.xml.serialize.*;
+import java.util.Arrays;
 import org.xml.sax.*;
 import org.xml.sax.helpers.*;
 
 /**
-  * This class handles outputting XML to a file an a easy to use manner.
-  * It essentially uses the Xerces package (http://xerces.apache.org/xerces-j/)
-  * behind the scenes. The aim of this class is to allow the use of Xerces in an
-  * easy and quick to use fashion. <br>
+  * This class handles outputting XML to a file an a easy to use manner. <br>
   * This class is designed SPECIFICALLY with output for the mobile communication
-  * simulator in mind.
+  * simulator in mind. <br>
+  * <br>
+  * The XML is written straight into reusable buffers (and numbers are formatted
+  * without creating Strings), so little is allocated however much is written.
+  * The document is laid out exactly as it was by the Xerces serializer
+  * (http://xerces.apache.org/xerces-j/) this class used to use, so the file
+  * written is the same, byte for byte. That is: <br>
+  * - the document is encoded as ISO-8859-1, and begins with an XML
+  *   declaration <br>
+  * - each element begins on a new line (unless it follows text), indented by
+  *   four spaces for each element it is in (but never more than 36) <br>
+  * - in text, '&lt;', '&amp;', '&gt;', carriage returns and characters which
+  *   cannot be encoded are written as references; other characters (including
+  *   spaces, tabs and newlines) are written as they are <br>
+  * - a line is only ever broken before an attribute, if the line (so far)
+  *   would be wider than 72 characters <br>
+  * Xerces is therefore no longer needed to write XML. <br>
+  * <br>
+  * The one difference from Xerces: text is held back (in case the line needs
+  * breaking before it) only until TEXT_BUFFER_SIZE characters have built up.
+  * So if more text than that is followed straight away, in the same element,
+  * by an element with an attribute (e.g. from elemDouble()), the line break
+  * which Xerces would put before the text comes after it instead. (XMLMonitor
+  * never mixes text and elements like this.)
   */
 public class SimpleXMLWriter
 {
     public static final AttributesImpl ATT_TYPEDOUBLE = new AttributesImpl();
     public static final AttributesImpl ATT_TYPEINTEGER = new AttributesImpl();
     public static final AttributesImpl ATT_EMPTY = new AttributesImpl();
-    
+
     public static final String DOUBLETYPE_STRING = "double";
     public static final String INTEGERTYPE_STRING = "integer";
     public static final String TYPE_STRING = "type";
-    
-    private Stack<String> tagStack;
+
+    public static final int TEXT_BUFFER_SIZE = 8192;
+
+    private static final String XML_DECLARATION = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>";
+    private static final int INDENT = 4;                // Spaces for each level of nesting
+    private static final int LINE_WIDTH = 72;           // Width after which a line may be broken
+    private static final int OUTPUT_BUFFER_SIZE = 8192;
+    private static final int MAX_ESCAPED_LENGTH = 10;   // The most bytes one character can be written as
+
     private File f;
-    private ContentHandler hd;
     private FileOutputStream fos;
-    
-    
-    
-    
+    private byte[] outBuff;                 // Bytes waiting to be written to the file
+    private int outLength;
+
+    /* The elements currently started (the innermost last) */
+    private String[] tags;
+    private boolean[] tagEmpty;             // The element's start tag has not been closed ('>') yet
+    private boolean[] tagAfterElement;      // The last thing in the element was an element
+    private int depth;
+    private boolean started;                // The XML declaration has been written
+
+    /* The current line. The line itself is written to outBuff as it grows,
+       but the text since the last point where the line may be broken (the
+       'word') is held back in case the line is broken before it. */
+    private int thisIndent;                 // The indentation of the current line
+    private int nextIndent;                 // The indentation of the following line
+    private int lineLength;                 // The characters written of the current line (not counting indentation)
+    private int spaces;                     // The spaces due before the word
+    private byte[] word;
+    private int wordLength;
+
+
+
+
     /**
       * This constructor will set up an output to the given file and prepare
       * for XML to be written. <br>
       * As soon as this constructor is finished, XML is ready to be outputted.
-      * (Note that this does NOT, however, write any tags to the document. 
+      * (Note that this does NOT, however, write any tags to the document.
       * startDocument() is NOT yet called.)
       */
     public SimpleXMLWriter( File inFile ) throws FileNotFoundException, IOException
     {
         /* Record variables and initialise stuff */
         f = inFile;
-        tagStack = new Stack<String>();
-        
-        
+        tags = new String[ 16 ];
+        tagEmpty = new boolean[ 16 ];
+        tagAfterElement = new boolean[ 16 ];
+        depth = 0;
+        started = false;
+
+
         /* Set up for output */
         fos = new FileOutputStream( f );
-        
-        OutputFormat of = new OutputFormat("XML","ISO-8859-1",true);
-        of.setIndent(1);
-        of.setIndenting(true);
-        
-        XMLSerializer serializer = new XMLSerializer(fos,of);
-        hd = serializer.asContentHandler();
+        outBuff = new byte[ OUTPUT_BUFFER_SIZE ];
+        word = new byte[ TEXT_BUFFER_SIZE ];
     }
-    
-    
-    
-    
+
+
+
+
     /**
-      * Indicates the beginning of the document.
+      * Indicates the beginning of the document. <br>
+      * (The XML declaration is written along with the first element.)
       */
     public void startDocument() throws SAXException
     {
-        hd.startDocument();
     }
-    
-    
+
+
     /**
       * Indicates the end of the document.
       */
     public void endDocument() throws SAXException
     {
-        hd.endDocument();
+        try
+        {
+            flush();
+        }
+        catch( IOException e )
+        {
+            throw new SAXException( e );
+        }
     }
-    
-    
+
+
     /**
       * This method will add an element containing a value to the document. <br>
       * The element will also be given an attribute to indicate the data (value)
@@ -89,14 +139,21 @@ public class SimpleXMLWriter
       */
     public void elemDouble( String elemName, double value ) throws SAXException
     {
-        String strValue = Double.toString( value );
-        
-        hd.startElement( "", "", elemName, ATT_TYPEDOUBLE );
-        hd.characters( strValue.toCharArray(), 0, strValue.length() );
-        hd.endElement( "", "", elemName );
+        try
+        {
+            openElement( elemName, DOUBLETYPE_STRING );
+            startContent();
+            reserve( NumberFormatter.MAX_LENGTH );
+            wordLength = NumberFormatter.formatDouble( value, word, wordLength );
+            closeElement();
+        }
+        catch( IOException e )
+        {
+            throw new SAXException( e );
+        }
     }
-    
-    
+
+
     /**
       * This method will add an element containing a value to the document. <br>
       * The element will also be given an attribute to indicate the data (value)
@@ -106,14 +163,21 @@ public class SimpleXMLWriter
       */
     public void elemInt( String elemName, int value ) throws SAXException
     {
-        String strValue = Integer.toString( value );
-        
-        hd.startElement( "", "", elemName, ATT_TYPEINTEGER );
-        hd.characters( strValue.toCharArray(), 0, strValue.length() );
-        hd.endElement( "", "", elemName );
+        try
+        {
+            openElement( elemName, INTEGERTYPE_STRING );
+            startContent();
+            reserve( NumberFormatter.MAX_LENGTH );
+            wordLength = NumberFormatter.formatInt( value, word, wordLength );
+            closeElement();
+        }
+        catch( IOException e )
+        {
+            throw new SAXException( e );
+        }
     }
-    
-    
+
+
     /**
       * This method will add an element containing a value/string to the document.
       * The element will have no attributes. <br>
@@ -122,12 +186,19 @@ public class SimpleXMLWriter
       */
     public void elem( String elemName, String value ) throws SAXException
     {
-        hd.startElement( "", "", elemName, ATT_EMPTY );
-        hd.characters( value.toCharArray(), 0, value.length() );
-        hd.endElement( "", "", elemName );
+        try
+        {
+            openElement( elemName, null );
+            printCharacters( value );
+            closeElement();
+        }
+        catch( IOException e )
+        {
+            throw new SAXException( e );
+        }
     }
-    
-    
+
+
     /**
       * This method will print the string to the current XML element in
       * the XML document. <br>
@@ -138,9 +209,61 @@ public class SimpleXMLWriter
       */
     public void print( String str ) throws SAXException
     {
-        hd.characters( str.toCharArray(), 0, str.length() );
+        try
+        {
+            printCharacters( str );
+        }
+        catch( IOException e )
+        {
+            throw new SAXException( e );
+        }
+    }
+
+
+    /**
+      * This method will print the int to the current XML element in the XML
+      * document, as print( Integer.toString( value ) ) would (but without
+      * creating a String).
+      *
+      * @see #print(String)
+      */
+    public void print( int value ) throws SAXException
+    {
+        try
+        {
+            startContent();
+            reserve( NumberFormatter.MAX_LENGTH );
+            wordLength = NumberFormatter.formatInt( value, word, wordLength );
+        }
+        catch( IOException e )
+        {
+            throw new SAXException( e );
+        }
     }
-    
+
+
+    /**
+      * This method will print the double to the current XML element in the XML
+      * document, as print( Double.toString( value ) ) would (but without
+      * creating a String).
+      *
+      * @see #print(String)
+      */
+    public void print( double value ) throws SAXException
+    {
+        try
+        {
+            startContent();
+            reserve( NumberFormatter.MAX_LENGTH );
+            wordLength = NumberFormatter.formatDouble( value, word, wordLength );
+        }
+        catch( IOException e )
+        {
+            throw new SAXException( e );
+        }
+    }
+
+
     /**
       * This method will begin an element in the document (thus allowing nesting
       * of elements).
@@ -148,36 +271,436 @@ public class SimpleXMLWriter
       */
     public void startElement( String elemName ) throws SAXException
     {
-        hd.startElement( "", "", elemName, ATT_EMPTY );
-        tagStack.push( elemName );
+        try
+        {
+            openElement( elemName, null );
+        }
+        catch( IOException e )
+        {
+            throw new SAXException( e );
+        }
     }
-    
-    
+
+
     /**
       * This method will end the most recent element to be started in the document.
       * The element will have no attributes.
       */
     public void endElement() throws SAXException
     {
-        if( tagStack.empty() )
+        if( depth == 0 )
             throw new NoUnclosedElementException( "Cannot end an element if there are no remaining unended elements" );
-        
-        String tag = tagStack.pop();
-        hd.endElement( "", "", tag );
+
+        try
+        {
+            closeElement();
+        }
+        catch( IOException e )
+        {
+            throw new SAXException( e );
+        }
     }
-    
-    
+
+
     /**
       * This method will close the output stream and release and resources that
       * were associated with it.
       */
     public void close() throws IOException
     {
-        fos.close();
+        try
+        {
+            writeOut();
+        }
+        finally
+        {
+            fos.close();
+        }
     }
-    
-    
-    
+
+
+
+
+    /* HELPER METHODS - ELEMENTS AND TEXT */
+
+    /**
+      * Writes the start of an element's start tag (with a type attribute, if
+      * type is given). The tag is closed by whatever comes next.
+      */
+    private void openElement( String elemName, String type ) throws IOException
+    {
+        if( depth == 0 )
+        {
+            if( !started )
+            {
+                printText( XML_DECLARATION );
+                breakLine();
+                started = true;
+            }
+        }
+        else
+        {
+            // (the first thing in an element, or anything following an element, starts a new line)
+            boolean newLine = tagEmpty[ depth-1 ] || tagAfterElement[ depth-1 ];
+
+            if( tagEmpty[ depth-1 ] )
+                printText( '>' );
+            if( newLine )
+                breakLine();
+        }
+
+        printText( '<' );
+        printName( elemName );
+        nextIndent += INDENT;
+
+        if( type != null )
+        {
+            printSpace();
+            printText( TYPE_STRING );
+            printText( "=\"" );
+            printText( type );
+            printText( '"' );
+        }
+
+
+        if( depth == tags.length )
+        {
+            tags = Arrays.copyOf( tags, 2*depth );
+            tagEmpty = Arrays.copyOf( tagEmpty, 2*depth );
+            tagAfterElement = Arrays.copyOf( tagAfterElement, 2*depth );
+        }
+
+        tags[ depth ] = elemName;
+        tagEmpty[ depth ] = true;
+        tagAfterElement[ depth ] = false;
+        depth++;
+    }
+
+
+    /**
+      * Writes the end of the innermost element (an end tag, or the end of its
+      * start tag if it is empty). The file is brought up to date when the
+      * outermost element ends.
+      */
+    private void closeElement() throws IOException
+    {
+        unindent();
+        depth--;
+
+        if( tagEmpty[ depth ] )
+        {
+            printText( "/>" );
+        }
+        else
+        {
+            if( tagAfterElement[ depth ] )
+                breakLine();
+            printText( "</" );
+            printName( tags[ depth ] );
+            printText( '>' );
+        }
+
+        tags[ depth ] = null;
+
+        if( depth > 0 )
+        {
+            tagEmpty[ depth-1 ] = false;
+            tagAfterElement[ depth-1 ] = true;
+        }
+        else
+        {
+            flush();
+        }
+    }
+
+
+    /**
+      * Prepares for content in the innermost element, closing its start tag if
+      * this is its first content.
+      */
+    private void startContent() throws IOException
+    {
+        if( depth == 0 )
+            return;
+
+        if( tagEmpty[ depth-1 ] )
+        {
+            printText( '>' );
+            tagEmpty[ depth-1 ] = false;
+        }
+        tagAfterElement[ depth-1 ] = false;
+    }
+
+
+    /**
+      * Writes text to the innermost element, escaping it as necessary.
+      *
+      * @throws IOException if the text contains a character which is not allowed in XML
+      */
+    private void printCharacters( String str ) throws IOException
+    {
+        startContent();
+
+        int length = str.length();
+        for( int i=0; i < length; i++ )
+        {
+            char c = str.charAt( i );
+
+            reserve( MAX_ESCAPED_LENGTH );
+            if( c >= ' ' && c <= '~' && c != '<' && c != '&' && c != '>' )
+            {
+                word[ wordLength++ ] = (byte)c;
+            }
+            else if( c == '\n' || c == '\t' || ( c > '~' && c <= 0xFF ) )
+            {
+                word[ wordLength++ ] = (byte)c;
+            }
+            else if( c == '<' )
+            {
+                printText( "&lt;" );
+            }
+            else if( c == '&' )
+            {
+                printText( "&amp;" );
+            }
+            else if( c == '>' )
+            {
+                printText( "&gt;" );
+            }
+            else if( c == '\r' || ( c > 0xFF && c < 0xD800 ) || ( c >= 0xE000 && c <= 0xFFFD ) )
+            {
+                printReference( c );
+            }
+            else
+            {
+                // (a character not allowed in XML, unless it starts a surrogate pair)
+                if( i+1 == length )
+                    throw invalidCharacter( c );
+
+                char low = str.charAt( ++i );
+                if( !Character.isHighSurrogate( c ) )
+                    throw invalidCharacter( c );
+                if( !Character.isLowSurrogate( low ) )
+                    throw invalidCharacter( low );
+
+                printReference( Character.toCodePoint( c, low ) );
+            }
+        }
+    }
+
+
+    private void printReference( int codePoint ) throws IOException
+    {
+        printText( "&#x" );
+        printText( Integer.toHexString( codePoint ) );
+        printText( ';' );
+    }
+
+
+    private static IOException invalidCharacter( char c )
+    {
+        return new IOException( "The character '" + c + "' is an invalid XML character" );
+    }
+
+
+    /**
+      * Writes an element name (as is, except that characters which cannot be
+      * encoded are written as '?').
+      */
+    private void printName( String name ) throws IOException
+    {
+        reserve( name.length() );
+        for( int i=0; i < name.length(); i++ )
+        {
+            char c = name.charAt( i );
+
+            if( c <= 0xFF )
+            {
+                word[ wordLength++ ] = (byte)c;
+            }
+            else
+            {
+                word[ wordLength++ ] = '?';
+                if( Character.isHighSurrogate( c ) && i+1 < name.length() && Character.isLowSurrogate( name.charAt( i+1 ) ) )
+                    i++;
+            }
+        }
+    }
+
+
+
+
+    /* HELPER METHODS - LAYOUT */
+
+    /**
+      * Adds the given character to the word (it must be one which can be
+      * encoded).
+      */
+    private void printText( char c ) throws IOException
+    {
+        reserve( 1 );
+        word[ wordLength++ ] = (byte)c;
+    }
+
+
+    /**
+      * Adds the given string to the word (its characters must be ones which
+      * can be encoded).
+      */
+    private void printText( String str ) throws IOException
+    {
+        reserve( str.length() );
+        for( int i=0; i < str.length(); i++ )
+            word[ wordLength++ ] = (byte)str.charAt( i );
+    }
+
+
+    /**
+      * Ensures there is room for the given number of bytes in the word. If
+      * there is not, the word is put on the line as it is.
+      */
+    private void reserve( int length ) throws IOException
+    {
+        if( wordLength + length <= word.length )
+            return;
+
+        if( wordLength > 0 )
+            moveWordToLine();
+        if( length > word.length )
+            word = new byte[ length ];
+    }
+
+
+    /**
+      * Ends the word, marking a point where the line may be broken. If the line
+      * would be too wide, the word is moved onto the next line.
+      */
+    private void printSpace() throws IOException
+    {
+        if( wordLength > 0 )
+        {
+            if( thisIndent + lineLength + spaces + wordLength > LINE_WIDTH )
+            {
+                endLine();
+                write( '\n' );
+            }
+            moveWordToLine();
+        }
+        spaces++;
+    }
+
+
+    /**
+      * Ends the word and the line, then begins a new line.
+      */
+    private void breakLine() throws IOException
+    {
+        if( wordLength > 0 )
+            moveWordToLine();
+        endLine();
+        write( '\n' );
+    }
+
+
+    /**
+      * Writes the spaces due and the word onto the line (beginning the line
+      * with its indentation, if it is the first thing on it).
+      */
+    private void moveWordToLine() throws IOException
+    {
+        if( lineLength == 0 )
+        {
+            int indent = thisIndent;
+            if( 2*indent > LINE_WIDTH )
+                indent = LINE_WIDTH / 2;
+            for( int i=0; i < indent; i++ )
+                write( ' ' );
+        }
+
+        lineLength += spaces + wordLength;
+        for( ; spaces > 0; spaces-- )
+            write( ' ' );
+        write( word, wordLength );
+        wordLength = 0;
+    }
+
+
+    /**
+      * Ends the current line (if anything is on it), dropping any spaces due.
+      */
+    private void endLine()
+    {
+        if( lineLength > 0 )
+        {
+            thisIndent = nextIndent;
+            spaces = 0;
+            lineLength = 0;
+        }
+    }
+
+
+    private void unindent()
+    {
+        nextIndent -= INDENT;
+        if( nextIndent < 0 )
+            nextIndent = 0;
+
+        // (if the line is still blank, the change applies to it)
+        if( lineLength + spaces + wordLength == 0 )
+            thisIndent = nextIndent;
+    }
+
+
+    /**
+      * Ends any unfinished line, then writes everything to the file.
+      */
+    private void flush() throws IOException
+    {
+        if( lineLength > 0 || wordLength > 0 )
+            breakLine();
+        writeOut();
+    }
+
+
+
+
+    /* HELPER METHODS - OUTPUT */
+
+    private void write( char c ) throws IOException
+    {
+        if( outLength == outBuff.length )
+            writeOut();
+        outBuff[ outLength++ ] = (byte)c;
+    }
+
+
+    private void write( byte[] bytes, int length ) throws IOException
+    {
+        int done = 0;
+        while( done < length )
+        {
+            if( outLength == outBuff.length )
+                writeOut();
+
+            int n = Math.min( length - done, outBuff.length - outLength );
+            System.arraycopy( bytes, done, outBuff, outLength, n );
+            outLength += n;
+            done += n;
+        }
+    }
+
+
+    /**
+      * Writes the bytes in outBuff to the file.
+      */
+    private void writeOut() throws IOException
+    {
+        fos.write( outBuff, 0, outLength );
+        outLength = 0;
+    }
+
+
+
     /**
       * The static initialiser.
       * This simply sets up some of the public constants.
@@ -191,7 +714,7 @@ public class SimpleXMLWriter
 }
 
 
-/** 
+/**
   * The exception defined by this class is for an error where a request is made
   * to end an element when there are no un-ended elements.
   */
@@ -201,11 +724,11 @@ class NoUnclosedElementException extends RuntimeException
     {
         super();
     }
-    
+
     public NoUnclosedElementException( String msg )
     {
         super( msg );
     }
-    
-    
+
+
 }
@@ -0,0 +1,167 @@
+/*   Matthew Williams (0515328)   */
+
+package uk.ac.cf.cs.scm5mjw.mda.io;
+
+/**
+  * One block of rows read from a trace file, each row being the transfer of
+  * an artifact from one device to another. Rows are numbered from 0 within the
+  * block. A block is read-only.
+  *
+  * @see TraceReader#readBlock(int)
+  */
+public final class TraceBlock
+{
+    /* Instance variables */
+    private final int numRows;
+    private final double[] fromXs;
+    private final double[] fromYs;
+    private final double[] toXs;
+    private final double[] toYs;
+    private final double[] ages;
+    private final double[] times;
+    private final int[] fromIDs;
+    private final int[] toIDs;
+    private final int[] resourceIDs;
+    private final int[] iterations;
+    private final byte[] fromTypes;
+    private final byte[] toTypes;
+    private final String[] deviceTypes;         // The trace's table of device type identifiers
+
+
+
+
+    /* CONSTRUCTORS */
+
+    /**
+      * Creates a block from its columns (used by TraceReader). The arrays are
+      * not copied.
+      */
+    TraceBlock( int numRows, double[] fromXs, double[] fromYs, double[] toXs, double[] toYs,
+                double[] ages, double[] times, int[] fromIDs, int[] toIDs, int[] resourceIDs,
+                int[] iterations, byte[] fromTypes, byte[] toTypes, String[] deviceTypes )
+    {
+        this.numRows = numRows;
+        this.fromXs = fromXs;
+        this.fromYs = fromYs;
+        this.toXs = toXs;
+        this.toYs = toYs;
+        this.ages = ages;
+        this.times = times;
+        this.fromIDs = fromIDs;
+        this.toIDs = toIDs;
+        this.resourceIDs = resourceIDs;
+        this.iterations = iterations;
+        this.fromTypes = fromTypes;
+        this.toTypes = toTypes;
+        this.deviceTypes = deviceTypes;
+    }
+
+
+
+
+    /* ACCESSORS */
+
+    /**
+      * Returns the number of rows in this block.
+      */
+    public int getNumberOfRows()
+    {
+        return numRows;
+    }
+
+
+    public int getFromDeviceID( int row )
+    {
+        return fromIDs[ row ];
+    }
+
+
+    /**
+      * Returns the type identifier of the device the artifact in the given row
+      * was transferred from.
+      *
+      * @see uk.ac.cf.cs.scm5mjw.mda.devices.AbstractWirelessDevice#getDeviceTypeIdentifier()
+      */
+    public String getFromDeviceType( int row )
+    {
+        return deviceTypes[ fromTypes[ row ] ];
+    }
+
+
+    public double getFromX( int row )
+    {
+        return fromXs[ row ];
+    }
+
+
+    public double getFromY( int row )
+    {
+        return fromYs[ row ];
+    }
+
+
+    public int getToDeviceID( int row )
+    {
+        return toIDs[ row ];
+    }
+
+
+    /**
+      * Returns the type identifier of the device the artifact in the given row
+      * was transferred to.
+      *
+      * @see uk.ac.cf.cs.scm5mjw.mda.devices.AbstractWirelessDevice#getDeviceTypeIdentifier()
+      */
+    public String getToDeviceType( int row )
+    {
+        return deviceTypes[ toTypes[ row ] ];
+    }
+
+
+    public double getToX( int row )
+    {
+        return toXs[ row ];
+    }
+
+
+    public double getToY( int row )
+    {
+        return toYs[ row ];
+    }
+
+
+    public int getResourceID( int row )
+    {
+        return resourceIDs[ row ];
+    }
+
+
+    /**
+      * Returns the age of the artifact in the given row when it was
+      * transferred.
+      */
+    public double getAge( int row )
+    {
+        return ages[ row ];
+    }
+
+
+    /**
+      * Returns the simulation time at which the artifact in the given row was
+      * transferred.
+      */
+    public double getTime( int row )
+    {
+        return times[ row ];
+    }
+
+
+    /**
+      * Returns the simulation iteration in which the artifact in the given row
+      * was transferred.
+      */
+    public int getIteration( int row )
+    {
+        return iterations[ row ];
+    }
+}
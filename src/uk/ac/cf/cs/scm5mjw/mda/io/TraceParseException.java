@@ -0,0 +1,21 @@
+/*   Matthew Williams (0515328)   */
+
+package uk.ac.cf.cs.scm5mjw.mda.io;
+
+/**
+  * The exception defined by this class is for errors encountered when reading
+  * a trace file (for example, if it is not a trace file, was written by a
+  * different version, was not closed, or is damaged).
+  */
+public class TraceParseException extends ParseException
+{
+    public TraceParseException()
+    {
+        super();
+    }
+
+    public TraceParseException( String msg )
+    {
+        super( msg );
+    }
+}
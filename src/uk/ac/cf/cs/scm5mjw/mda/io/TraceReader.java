@@ -0,0 +1,440 @@
+/*   Matthew Williams (0515328)   */
+
+package uk.ac.cf.cs.scm5mjw.mda.io;
+
+import uk.ac.cf.cs.scm5mjw.mda.XMLMonitor;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+  * This class handles reading a trace of artifact transfers written by
+  * TraceWriter (e.g. through a TraceMonitor). The footer of the trace is read
+  * when the reader is created; blocks of rows are then read as they are asked
+  * for, so a trace does not need to fit in memory. <br>
+  * <br>
+  * A trace can also be exported in the comma-separated values format written
+  * by XMLMonitor, for scripts that read that format.
+  *
+  * @see TraceWriter
+  * @see XMLMonitor#CSV_HEADER
+  */
+public final class TraceReader
+{
+    /* Instance variables */
+    private File inFile;
+    private FileInputStream stream;
+    private FileChannel channel;
+
+    private int blockRows;                      // The rows in a full block
+    private long numRows;
+    private long[] blockOffsets;
+    private int[] blockSizes;                   // The number of rows in each block
+    private int[] blockFirstIterations;
+    private int[] blockLastIterations;
+    private String[] deviceTypes;
+
+
+
+
+    /* CONSTRUCTORS */
+
+    /**
+      * Opens the given trace file and reads its footer.
+      *
+      * @throws FileNotFoundException if the file does not exist or does exist, but is not a file
+      * @throws TraceParseException if the file is not a trace of this version, was not closed, or is damaged
+      */
+    public TraceReader( File inFile ) throws FileNotFoundException
+    {
+        if( inFile.isDirectory() )
+            throw new FileNotFoundException( "Excepted a file but found a directory" );
+
+        this.inFile = inFile;
+        stream = new FileInputStream( inFile );
+        channel = stream.getChannel();
+
+        try
+        {
+            readFooter();
+        }
+        catch( RuntimeException e )
+        {
+            close();
+            throw e;
+        }
+    }
+
+
+    /**
+      * This constructor overloads the file constructor to allow specifying the
+      * file as a filename and/or path.
+      */
+    public TraceReader( String filename ) throws FileNotFoundException
+    {
+        this( new File( filename ) );
+    }
+
+
+
+
+    /* ACCESSORS */
+
+    /**
+      * Returns the number of rows in the trace.
+      */
+    public long getNumberOfRows()
+    {
+        return numRows;
+    }
+
+
+    /**
+      * Returns the number of blocks the trace's rows are stored in.
+      */
+    public int getNumberOfBlocks()
+    {
+        return blockSizes.length;
+    }
+
+
+    /**
+      * Returns the number of rows in the given block.
+      */
+    public int getNumberOfRows( int block )
+    {
+        return blockSizes[ block ];
+    }
+
+
+    /**
+      * Returns the iteration of the first row of the given block. (The rows of
+      * a trace are in the order they happened, so this and
+      * <code>getLastIteration</code> can be used to find the blocks covering a
+      * part of the simulation without reading them.)
+      */
+    public int getFirstIteration( int block )
+    {
+        return blockFirstIterations[ block ];
+    }
+
+
+    /**
+      * Returns the iteration of the last row of the given block.
+      */
+    public int getLastIteration( int block )
+    {
+        return blockLastIterations[ block ];
+    }
+
+
+    /**
+      * Returns the device type identifiers used in the trace.
+      */
+    public String[] getDeviceTypes()
+    {
+        return deviceTypes.clone();
+    }
+
+
+
+
+    /* READING */
+
+    /**
+      * Reads the given block of rows.
+      *
+      * @throws TraceParseException if the block is damaged, or cannot be read
+      */
+    public TraceBlock readBlock( int block )
+    {
+        int n = blockSizes[ block ];
+        ByteBuffer in = read( blockOffsets[ block ], TraceWriter.BLOCK_HEADER_SIZE + TraceWriter.ROW_SIZE*n );
+
+        if( in.getInt() != n )
+            throw new TraceParseException( "Trace " + inFile + " is damaged (block " + block + " does not match the index)" );
+        in.getInt();
+
+        double[] fromXs = readDoubles( in, n );
+        double[] fromYs = readDoubles( in, n );
+        double[] toXs = readDoubles( in, n );
+        double[] toYs = readDoubles( in, n );
+        double[] ages = readDoubles( in, n );
+        double[] times = readDoubles( in, n );
+
+        int[] fromIDs = readInts( in, n );
+        int[] toIDs = readInts( in, n );
+        int[] resourceIDs = readInts( in, n );
+        int[] iterations = readInts( in, n );
+
+        byte[] fromTypes = new byte[n];
+        byte[] toTypes = new byte[n];
+        in.get( fromTypes );
+        in.get( toTypes );
+
+        for( int r=0; r < n; r++ )
+        {
+            if( fromTypes[r] < 0 || fromTypes[r] >= deviceTypes.length || toTypes[r] < 0 || toTypes[r] >= deviceTypes.length )
+                throw new TraceParseException( "Trace " + inFile + " is damaged (block " + block + " has an unknown device type)" );
+        }
+
+        return new TraceBlock( n, fromXs, fromYs, toXs, toYs, ages, times, fromIDs, toIDs, resourceIDs,
+                               iterations, fromTypes, toTypes, deviceTypes );
+    }
+
+
+    /**
+      * Closes the trace file.
+      */
+    public void close()
+    {
+        try
+        {
+            stream.close();
+        }
+        catch( IOException e )
+        {
+            // (nothing more can be done; nothing was being written)
+        }
+    }
+
+
+
+
+    /* EXPORTING */
+
+    /**
+      * Writes the whole trace to the given writer in the comma-separated values
+      * format of XMLMonitor: the header line, then a line for each row. The
+      * lines are the same as those XMLMonitor writes for the same transfers.
+      *
+      * @throws TraceParseException if a block is damaged, or cannot be read
+      * @throws DataOutputException if writing fails
+      * @see XMLMonitor#CSV_HEADER
+      */
+    public void exportCSV( Writer out )
+    {
+        StringBuilder line = new StringBuilder();
+
+        try
+        {
+            out.write( XMLMonitor.CSV_HEADER );
+            out.write( "\n" );
+
+            for( int b=0; b < getNumberOfBlocks(); b++ )
+            {
+                TraceBlock block = readBlock( b );
+
+                for( int r=0; r < block.getNumberOfRows(); r++ )
+                {
+                    line.setLength( 0 );
+
+                    line.append( block.getFromDeviceID(r) ).append( ",\t" );
+                    line.append( block.getFromDeviceType(r) ).append( ",\t" );
+                    line.append( block.getFromX(r) ).append( ",\t" );
+                    line.append( block.getFromY(r) ).append( ",\t" );
+                    line.append( block.getToDeviceID(r) ).append( ",\t" );
+                    line.append( block.getToDeviceType(r) ).append( ",\t" );
+                    line.append( block.getToX(r) ).append( ",\t" );
+                    line.append( block.getToY(r) ).append( ",\t" );
+                    line.append( block.getResourceID(r) ).append( ",\t" );
+                    line.append( block.getAge(r) ).append( ",\t" );
+                    line.append( block.getTime(r) ).append( ",\t" );
+                    line.append( block.getIteration(r) ).append( "\n" );
+
+                    out.write( line.toString() );
+                }
+            }
+
+            out.flush();
+        }
+        catch( IOException e )
+        {
+            throw new DataOutputException( "Could not export trace " + inFile + ": " + e.getMessage() );
+        }
+    }
+
+
+    /**
+      * Writes the whole trace to the given file in the comma-separated values
+      * format of XMLMonitor (replacing any file already there).
+      *
+      * @throws FileNotFoundException if the file cannot be created or opened for writing
+      * @see #exportCSV(Writer)
+      */
+    public void exportCSV( File outFile ) throws FileNotFoundException
+    {
+        Writer out = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( outFile ) ), 1 << 16 );
+
+        try
+        {
+            exportCSV( out );
+        }
+        finally
+        {
+            try
+            {
+                out.close();
+            }
+            catch( IOException e )
+            {
+                throw new DataOutputException( "Could not export trace to " + outFile + ": " + e.getMessage() );
+            }
+        }
+    }
+
+
+
+
+    /* HELPERS */
+
+    /**
+      * Reads and checks the header, trailer and footer of the trace.
+      */
+    private void readFooter()
+    {
+        long size = size();
+
+        if( size < TraceWriter.HEADER_SIZE + TraceWriter.TRAILER_SIZE )
+            throw new TraceParseException( inFile + " is not a trace (or was not closed)" );
+
+        ByteBuffer header = read( 0, TraceWriter.HEADER_SIZE );
+        ByteBuffer trailer = read( size - TraceWriter.TRAILER_SIZE, TraceWriter.TRAILER_SIZE );
+
+        if( header.getInt( 0 ) != TraceWriter.MAGIC_NUMBER )
+            throw new TraceParseException( inFile + " is not a trace" );
+
+        if( header.getInt( 4 ) != TraceWriter.FORMAT_VERSION )
+            throw new TraceParseException( "Trace " + inFile + " has format version " + header.getInt( 4 ) + " (expected " + TraceWriter.FORMAT_VERSION + ")" );
+
+        if( trailer.getInt( 8 ) != TraceWriter.MAGIC_NUMBER || trailer.getInt( 12 ) != TraceWriter.FORMAT_VERSION )
+            throw new TraceParseException( "Trace " + inFile + " was not closed, or is damaged" );
+
+        blockRows = header.getInt( 8 );
+        long footerOffset = trailer.getLong( 0 );
+        long footerSize = size - TraceWriter.TRAILER_SIZE - footerOffset;
+
+        if( blockRows < 1 || footerOffset < TraceWriter.HEADER_SIZE || footerSize < TraceWriter.FOOTER_HEADER_SIZE || footerSize > Integer.MAX_VALUE )
+            throw new TraceParseException( "Trace " + inFile + " is damaged (its footer is out of place)" );
+
+        ByteBuffer footer = read( footerOffset, (int)footerSize );
+        int numBlocks = footer.getInt();
+        int numTypes = footer.getInt();
+        numRows = footer.getLong();
+
+        if( numBlocks < 0 || numTypes < 0 || numTypes > TraceWriter.MAX_DEVICE_TYPES
+            || TraceWriter.FOOTER_HEADER_SIZE + (long)TraceWriter.FOOTER_ENTRY_SIZE*numBlocks > footerSize )
+            throw new TraceParseException( "Trace " + inFile + " is damaged (its footer is too short)" );
+
+
+        /* BLOCK INDEX */
+        blockOffsets = new long[ numBlocks ];
+        blockSizes = new int[ numBlocks ];
+        blockFirstIterations = new int[ numBlocks ];
+        blockLastIterations = new int[ numBlocks ];
+
+        long expectedOffset = TraceWriter.HEADER_SIZE;
+        long rows = 0;
+
+        for( int b=0; b < numBlocks; b++ )
+        {
+            blockOffsets[b] = footer.getLong();
+            blockSizes[b] = footer.getInt();
+            blockFirstIterations[b] = footer.getInt();
+            blockLastIterations[b] = footer.getInt();
+            footer.getInt();
+
+            // (the blocks fill the file from the header to the footer, in order)
+            if( blockOffsets[b] != expectedOffset || blockSizes[b] < 1 || blockSizes[b] > blockRows )
+                throw new TraceParseException( "Trace " + inFile + " is damaged (block " + b + " is out of place)" );
+
+            expectedOffset += TraceWriter.BLOCK_HEADER_SIZE + (long)TraceWriter.ROW_SIZE*blockSizes[b];
+            rows += blockSizes[b];
+        }
+
+        if( expectedOffset != footerOffset || rows != numRows )
+            throw new TraceParseException( "Trace " + inFile + " is damaged (its blocks do not match its index)" );
+
+
+        /* DEVICE TYPES */
+        byte[] rest = new byte[ footer.remaining() ];
+        footer.get( rest );
+        DataInputStream in = new DataInputStream( new ByteArrayInputStream( rest ) );
+
+        deviceTypes = new String[ numTypes ];
+        try
+        {
+            for( int i=0; i < numTypes; i++ )
+                deviceTypes[i] = in.readUTF();
+
+            if( in.available() != 0 )
+                throw new TraceParseException( "Trace " + inFile + " is damaged (its footer is too long)" );
+        }
+        catch( IOException e )
+        {
+            throw new TraceParseException( "Trace " + inFile + " is damaged (its device types cannot be read)" );
+        }
+    }
+
+
+    /**
+      * Returns the size of the trace file.
+      */
+    private long size()
+    {
+        try
+        {
+            return channel.size();
+        }
+        catch( IOException e )
+        {
+            throw new TraceParseException( "Could not read trace " + inFile + ": " + e.getMessage() );
+        }
+    }
+
+
+    /**
+      * Reads the given number of bytes from the given position in the file.
+      */
+    private ByteBuffer read( long position, int length )
+    {
+        ByteBuffer buffer = ByteBuffer.allocate( length );
+
+        try
+        {
+            while( buffer.hasRemaining() )
+            {
+                if( channel.read( buffer, position + buffer.position() ) < 0 )
+                    throw new TraceParseException( "Trace " + inFile + " is damaged (it ends too soon)" );
+            }
+        }
+        catch( IOException e )
+        {
+            throw new TraceParseException( "Could not read trace " + inFile + ": " + e.getMessage() );
+        }
+
+        buffer.flip();
+        return buffer;
+    }
+
+
+    private static double[] readDoubles( ByteBuffer in, int n )
+    {
+        double[] values = new double[n];
+        in.asDoubleBuffer().get( values );
+        in.position( in.position() + 8*n );
+
+        return values;
+    }
+
+
+    private static int[] readInts( ByteBuffer in, int n )
+    {
+        int[] values = new int[n];
+        in.asIntBuffer().get( values );
+        in.position( in.position() + 4*n );
+
+        return values;
+    }
+}
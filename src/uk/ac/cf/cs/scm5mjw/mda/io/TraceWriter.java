@@ -0,0 +1,392 @@
+/*   Matthew Williams (0515328)   */
+
+package uk.ac.cf.cs.scm5mjw.mda.io;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Vector;
+
+/**
+  * This class handles writing a trace of artifact transfers to a binary file,
+  * in a columnar format that is much smaller and quicker to read back than
+  * text. The trace is read with TraceReader. <br>
+  * <br>
+  * Each row of a trace is one artifact transferred from one device to another,
+  * and has the columns: <br>
+  *     from device ID, type, x and y; to device ID, type, x and y; the
+  *     artifact's resource ID and age; the simulation time and iteration <br>
+  * (the same columns as the CSV output of XMLMonitor). Device types are stored
+  * as numbers, which index a table of type identifiers kept in the file. <br>
+  * <br>
+  * Rows are collected into blocks, and each block is written with its columns
+  * one after another. The file (whose numbers are all big-endian) is laid out
+  * as follows: <br>
+  * <code>
+  * header:  int magic number, int format version, int rows per full block, int of padding <br>
+  * blocks:  int number of rows (n), int of padding, <br>
+  * &nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;then n doubles each of: from x, from y, to x, to y, age, time, <br>
+  * &nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;then n ints each of: from ID, to ID, resource ID, iteration, <br>
+  * &nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;then n bytes each of: from type, to type <br>
+  * footer:  int number of blocks, int number of device types, long number of rows, <br>
+  * &nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;then for each block: long offset, int rows, int first iteration, int last iteration, int of padding, <br>
+  * &nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;then each device type identifier (in the format of DataOutput.writeUTF) <br>
+  * trailer: long offset of the footer, int magic number, int format version
+  * </code><br>
+  * <br>
+  * The footer is only written when the writer is closed, so a trace that was
+  * not closed cannot be read.
+  *
+  * @see TraceReader
+  */
+public final class TraceWriter
+{
+    /* Constants */
+    public static final int MAGIC_NUMBER = 0x4F505452;     // "OPTR"
+    public static final int FORMAT_VERSION = 1;
+    public static final int DEFAULT_BLOCK_ROWS = 8192;
+
+    static final int HEADER_SIZE = 16;
+    static final int BLOCK_HEADER_SIZE = 8;
+    static final int ROW_SIZE = 6*8 + 4*4 + 2;           // The bytes taken by each row of a block
+    static final int FOOTER_HEADER_SIZE = 16;
+    static final int FOOTER_ENTRY_SIZE = 24;
+    static final int TRAILER_SIZE = 16;
+    static final int MAX_DEVICE_TYPES = 127;
+
+
+    /* Instance variables */
+    private File outFile;
+    private FileOutputStream stream;
+    private FileChannel channel;
+    private ByteBuffer buffer;                  // Holds a block while it is written
+
+    private int blockRows;                      // The rows in a full block
+    private int numRows;                        // The rows in the current block
+    private double[] fromXs;
+    private double[] fromYs;
+    private double[] toXs;
+    private double[] toYs;
+    private double[] ages;
+    private double[] times;
+    private int[] fromIDs;
+    private int[] toIDs;
+    private int[] resourceIDs;
+    private int[] iterations;
+    private byte[] fromTypes;
+    private byte[] toTypes;
+
+    private Vector<String> deviceTypes;
+    private Vector<long[]> blockEntries;        // Offset, rows, first and last iteration of each block written
+    private long totalRows;
+    private long position;                      // Where the next block will be written
+    private boolean closed;
+
+
+
+
+    /* CONSTRUCTORS */
+
+    /**
+      * Creates a writer which writes a trace to the given file (replacing any
+      * file already there), with the default number of rows in each block.
+      *
+      * @throws FileNotFoundException if the file cannot be created or opened for writing
+      */
+    public TraceWriter( File outFile ) throws FileNotFoundException
+    {
+        this( outFile, DEFAULT_BLOCK_ROWS );
+    }
+
+
+    /**
+      * Creates a writer which writes a trace to the given file (replacing any
+      * file already there), with the given number of rows in each block.
+      *
+      * @throws FileNotFoundException if the file cannot be created or opened for writing
+      * @throws DataOutputException if the header cannot be written
+      */
+    public TraceWriter( File outFile, int blockRows ) throws FileNotFoundException
+    {
+        if( blockRows < 1 || blockRows > (Integer.MAX_VALUE - BLOCK_HEADER_SIZE) / ROW_SIZE )
+            throw new IllegalArgumentException( "Invalid number of rows in a trace block: " + blockRows );
+
+        this.outFile = outFile;
+        this.blockRows = blockRows;
+
+        fromXs = new double[ blockRows ];
+        fromYs = new double[ blockRows ];
+        toXs = new double[ blockRows ];
+        toYs = new double[ blockRows ];
+        ages = new double[ blockRows ];
+        times = new double[ blockRows ];
+        fromIDs = new int[ blockRows ];
+        toIDs = new int[ blockRows ];
+        resourceIDs = new int[ blockRows ];
+        iterations = new int[ blockRows ];
+        fromTypes = new byte[ blockRows ];
+        toTypes = new byte[ blockRows ];
+
+        deviceTypes = new Vector<String>();
+        blockEntries = new Vector<long[]>();
+        numRows = 0;
+        totalRows = 0;
+        closed = false;
+
+        stream = new FileOutputStream( outFile );
+        channel = stream.getChannel();
+        buffer = ByteBuffer.allocateDirect( BLOCK_HEADER_SIZE + ROW_SIZE*blockRows );
+
+        buffer.putInt( MAGIC_NUMBER );
+        buffer.putInt( FORMAT_VERSION );
+        buffer.putInt( blockRows );
+        buffer.putInt( 0 );
+        write();
+
+        position = HEADER_SIZE;
+    }
+
+
+    /**
+      * This constructor overloads the file constructor to allow specifying the
+      * file as a filename and/or path.
+      */
+    public TraceWriter( String filename ) throws FileNotFoundException
+    {
+        this( new File( filename ) );
+    }
+
+
+
+
+    /* ACCESSORS */
+
+    /**
+      * An accessor for the file the trace is written to.
+      */
+    public File getOutputFile()
+    {
+        return outFile;
+    }
+
+
+    /**
+      * Returns the number of rows added to the trace so far.
+      */
+    public long getNumberOfRows()
+    {
+        return totalRows + numRows;
+    }
+
+
+
+
+    /* WRITING */
+
+    /**
+      * Adds a row to the trace: the transfer of an artifact from one device to
+      * another.
+      *
+      * @throws DataOutputException if the writer has been closed, there are too many device types, or writing fails
+      */
+    public void addTransfer( int fromID, String fromType, double fromX, double fromY,
+                             int toID, String toType, double toX, double toY,
+                             int resourceID, double age, double time, int iteration )
+    {
+        if( closed )
+            throw new DataOutputException( "Cannot add to a trace that has been closed" );
+
+        int r = numRows;
+
+        fromIDs[r] = fromID;
+        fromTypes[r] = typeCode( fromType );
+        fromXs[r] = fromX;
+        fromYs[r] = fromY;
+        toIDs[r] = toID;
+        toTypes[r] = typeCode( toType );
+        toXs[r] = toX;
+        toYs[r] = toY;
+        resourceIDs[r] = resourceID;
+        ages[r] = age;
+        times[r] = time;
+        iterations[r] = iteration;
+
+        numRows++;
+        if( numRows == blockRows )
+            writeBlock();
+    }
+
+
+    /**
+      * Writes any rows not yet written and the footer, then closes the file.
+      * Closing a writer again has no effect.
+      *
+      * @throws DataOutputException if writing fails
+      */
+    public void close()
+    {
+        if( closed )
+            return;
+
+        closed = true;
+
+        try
+        {
+            if( numRows > 0 )
+                writeBlock();
+
+            writeFooter();
+        }
+        finally
+        {
+            try
+            {
+                stream.close();
+            }
+            catch( IOException e )
+            {
+                throw new DataOutputException( "Could not close trace " + outFile + ": " + e.getMessage() );
+            }
+        }
+    }
+
+
+    /**
+      * Returns the number used for the given device type identifier, adding it
+      * to the table of types if it is new.
+      */
+    private byte typeCode( String type )
+    {
+        // (there are only a few types, so the table is searched from the start)
+        for( int i=0; i < deviceTypes.size(); i++ )
+        {
+            if( deviceTypes.get(i).equals( type ) )
+                return (byte)i;
+        }
+
+        if( deviceTypes.size() == MAX_DEVICE_TYPES )
+            throw new DataOutputException( "A trace cannot hold more than " + MAX_DEVICE_TYPES + " device types" );
+
+        deviceTypes.add( type );
+        return (byte)( deviceTypes.size() - 1 );
+    }
+
+
+    /**
+      * Writes the rows collected so far as a block.
+      */
+    private void writeBlock()
+    {
+        int n = numRows;
+
+        buffer.putInt( n );
+        buffer.putInt( 0 );
+
+        putDoubles( fromXs, n );
+        putDoubles( fromYs, n );
+        putDoubles( toXs, n );
+        putDoubles( toYs, n );
+        putDoubles( ages, n );
+        putDoubles( times, n );
+
+        putInts( fromIDs, n );
+        putInts( toIDs, n );
+        putInts( resourceIDs, n );
+        putInts( iterations, n );
+
+        buffer.put( fromTypes, 0, n );
+        buffer.put( toTypes, 0, n );
+
+        blockEntries.add( new long[] { position, n, iterations[0], iterations[n-1] } );
+        position += BLOCK_HEADER_SIZE + (long)ROW_SIZE*n;
+        totalRows += n;
+        numRows = 0;
+
+        write();
+    }
+
+
+    /**
+      * Writes the footer (the index of the blocks and the table of device types)
+      * and the trailer.
+      */
+    private void writeFooter()
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream( bytes );
+
+        try
+        {
+            out.writeInt( blockEntries.size() );
+            out.writeInt( deviceTypes.size() );
+            out.writeLong( totalRows );
+
+            for( long[] entry : blockEntries )
+            {
+                out.writeLong( entry[0] );
+                out.writeInt( (int)entry[1] );
+                out.writeInt( (int)entry[2] );
+                out.writeInt( (int)entry[3] );
+                out.writeInt( 0 );
+            }
+
+            for( String type : deviceTypes )
+                out.writeUTF( type );
+
+            out.writeLong( position );
+            out.writeInt( MAGIC_NUMBER );
+            out.writeInt( FORMAT_VERSION );
+        }
+        catch( IOException e )
+        {
+            // (cannot happen when writing to memory)
+            throw new DataOutputException( "Could not write trace footer: " + e.getMessage() );
+        }
+
+        ByteBuffer footer = ByteBuffer.wrap( bytes.toByteArray() );
+        try
+        {
+            while( footer.hasRemaining() )
+                channel.write( footer );
+        }
+        catch( IOException e )
+        {
+            throw new DataOutputException( "Could not write trace to " + outFile + ": " + e.getMessage() );
+        }
+    }
+
+
+    private void putDoubles( double[] values, int n )
+    {
+        buffer.asDoubleBuffer().put( values, 0, n );
+        buffer.position( buffer.position() + 8*n );
+    }
+
+
+    private void putInts( int[] values, int n )
+    {
+        buffer.asIntBuffer().put( values, 0, n );
+        buffer.position( buffer.position() + 4*n );
+    }
+
+
+    /**
+      * Writes the contents of the buffer to the file, then empties the buffer.
+      */
+    private void write()
+    {
+        buffer.flip();
+
+        try
+        {
+            while( buffer.hasRemaining() )
+                channel.write( buffer );
+        }
+        catch( IOException e )
+        {
+            throw new DataOutputException( "Could not write trace to " + outFile + ": " + e.getMessage() );
+        }
+
+        buffer.clear();
+    }
+}
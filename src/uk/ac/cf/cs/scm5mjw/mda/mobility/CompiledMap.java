@@ -0,0 +1,385 @@
+/*   Matthew Williams (0515328)   */
+
+package uk.ac.cf.cs.scm5mjw.mda.mobility;
+
+import uk.ac.cf.cs.scm5mjw.mda.SimulatorTools;
+
+import java.awt.geom.Point2D;
+import java.util.*;
+
+/**
+  * A compiled, read-only form of a MobilityMap, held in primitive arrays. A
+  * CompiledMap is obtained with <code>MobilityMap.getCompiledMap()</code>. <br>
+  * <br>
+  * The map's nodes are numbered in the order they are held by the map, and
+  * the links are numbered so that the links of each node are consecutive
+  * (compressed sparse row form): the links of node i are numbered
+  * <code>getFirstLink(i)</code> to <code>getFirstLink(i+1)-1</code>. For each
+  * link, its start and end nodes, weight, length and direction (as a unit
+  * vector) are worked out once, along with the link that leads back from its end
+  * to its start (if there is one). <br>
+  * <br>
+  * A CompiledMap never changes once it has been created, so it may be shared by
+  * simulations running on different threads. If nodes or links are added to the
+  * map afterwards, the compiled map is out of date (see <code>isCurrent</code>) and
+  * the map will compile a new one when next asked.
+  *
+  * @see MobilityMap#getCompiledMap()
+  */
+public final class CompiledMap
+{
+    /* Instance variables */
+    private final MobilityMap map;
+    private final int mapVersion;       // The version of the map this was compiled from
+
+    // Nodes
+    private final MapNode[] nodes;
+    private final IdentityHashMap<MapNode,Integer> nodeIndexes;
+    private final double[] nodeXs;
+    private final double[] nodeYs;
+    private final int[] firstLinks;     // The links of node i are numbered firstLinks[i] to firstLinks[i+1]-1
+
+    // Links
+    private final NodeLink[] links;
+    private final int[] linkStarts;     // The node each link starts from
+    private final int[] linkEnds;       // The node each link goes to (-1 if it is not in the map)
+    private final double[] weights;
+    private final double[] lengths;
+    private final double[] unitXs;      // The direction of each link (0 for a link of length 0)
+    private final double[] unitYs;
+    private final int[] returnLinks;    // The link from the end of each link back to its start (-1 if there is none)
+
+
+
+
+    /* CONSTRUCTORS */
+
+    /**
+      * Compiles the given map as it is now.
+      */
+    CompiledMap( MobilityMap map, int mapVersion )
+    {
+        this.map = map;
+        this.mapVersion = mapVersion;
+
+        int numNodes = map.getNumberOfNodes();
+
+        nodes = new MapNode[ numNodes ];
+        nodeIndexes = new IdentityHashMap<MapNode,Integer>( numNodes );
+        nodeXs = new double[ numNodes ];
+        nodeYs = new double[ numNodes ];
+        firstLinks = new int[ numNodes + 1 ];
+
+        for( int i=0; i < numNodes; i++ )
+        {
+            nodes[i] = map.getNodeAt( i );
+            nodeIndexes.put( nodes[i], i );
+            nodeXs[i] = nodes[i].getLocation().x;
+            nodeYs[i] = nodes[i].getLocation().y;
+            firstLinks[ i+1 ] = firstLinks[i] + nodes[i].getNumberOfLinks();
+        }
+
+
+        int numLinks = firstLinks[ numNodes ];
+
+        links = new NodeLink[ numLinks ];
+        linkStarts = new int[ numLinks ];
+        linkEnds = new int[ numLinks ];
+        weights = new double[ numLinks ];
+        lengths = new double[ numLinks ];
+        unitXs = new double[ numLinks ];
+        unitYs = new double[ numLinks ];
+        returnLinks = new int[ numLinks ];
+
+        for( int i=0; i < numNodes; i++ )
+        {
+            for( int j=0; j < nodes[i].getNumberOfLinks(); j++ )
+            {
+                int l = firstLinks[i] + j;
+                NodeLink link = nodes[i].getLinkAt( j );
+                Integer end = nodeIndexes.get( link.getGoesTo() );
+
+                links[l] = link;
+                linkStarts[l] = i;
+                linkEnds[l] = ( end == null ) ? -1 : end;
+                weights[l] = link.getWeight();
+
+                // (calculated as a mobile object moving along the link calculates it)
+                Point2D.Double from = nodes[i].getLocation();
+                Point2D.Double to = link.getGoesTo().getLocation();
+                lengths[l] = SimulatorTools.distance( from, to );
+
+                if( lengths[l] > 0 )
+                {
+                    unitXs[l] = ( to.x - from.x ) / lengths[l];
+                    unitYs[l] = ( to.y - from.y ) / lengths[l];
+                }
+            }
+        }
+
+        // Find the return link of each link (the node at the end of a link may
+        // link back to any node at the same location as the link's start)
+        for( int l=0; l < numLinks; l++ )
+        {
+            returnLinks[l] = -1;
+
+            int end = linkEnds[l];
+            if( end < 0 )
+                continue;
+
+            for( int r=firstLinks[ end ]; r < firstLinks[ end+1 ]; r++ )
+            {
+                if( links[r].getGoesTo().locationEquals( nodes[ linkStarts[l] ] ) )
+                {
+                    returnLinks[l] = r;
+                    break;
+                }
+            }
+        }
+    }
+
+
+
+
+    /* ACCESSORS - GENERAL */
+
+    /**
+      * An accessor for the map this was compiled from.
+      */
+    public MobilityMap getMap()
+    {
+        return map;
+    }
+
+
+    /**
+      * Checks whether this was compiled from its map as it is now (i.e. the map
+      * has not had nodes or links added since).
+      */
+    public boolean isCurrent()
+    {
+        return map.getVersion() == mapVersion;
+    }
+
+
+
+
+    /* ACCESSORS - NODES */
+
+    /**
+      * Returns the number of nodes in the map.
+      */
+    public int getNumberOfNodes()
+    {
+        return nodes.length;
+    }
+
+
+    /**
+      * Returns the node with the given number.
+      */
+    public MapNode getNode( int node )
+    {
+        return nodes[ node ];
+    }
+
+
+    /**
+      * Returns the number of the given node (-1 if it is not in the map).
+      */
+    public int indexOf( MapNode node )
+    {
+        Integer i = nodeIndexes.get( node );
+        return ( i == null ) ? -1 : i;
+    }
+
+
+    /**
+      * Returns the x coordinate of the given node.
+      */
+    public double getNodeX( int node )
+    {
+        return nodeXs[ node ];
+    }
+
+
+    /**
+      * Returns the y coordinate of the given node.
+      */
+    public double getNodeY( int node )
+    {
+        return nodeYs[ node ];
+    }
+
+
+    /**
+      * Returns the number of the first link from the given node. The links from
+      * node i are numbered <code>getFirstLink(i)</code> to
+      * <code>getFirstLink(i+1)-1</code> (this may also be called with the
+      * number of nodes, giving the total number of links).
+      */
+    public int getFirstLink( int node )
+    {
+        return firstLinks[ node ];
+    }
+
+
+    /**
+      * Returns the number of links from the given node.
+      */
+    public int getNumberOfLinks( int node )
+    {
+        return firstLinks[ node+1 ] - firstLinks[ node ];
+    }
+
+
+
+
+    /* ACCESSORS - LINKS */
+
+    /**
+      * Returns the number of links in the map.
+      */
+    public int getNumberOfLinks()
+    {
+        return links.length;
+    }
+
+
+    /**
+      * Returns the link with the given number.
+      */
+    public NodeLink getLink( int link )
+    {
+        return links[ link ];
+    }
+
+
+    /**
+      * Returns the number of the node the given link starts from.
+      */
+    public int getLinkStart( int link )
+    {
+        return linkStarts[ link ];
+    }
+
+
+    /**
+      * Returns the number of the node the given link goes to (-1 if that node
+      * is not in the map).
+      */
+    public int getLinkEnd( int link )
+    {
+        return linkEnds[ link ];
+    }
+
+
+    /**
+      * Returns the weight of the given link.
+      */
+    public double getLinkWeight( int link )
+    {
+        return weights[ link ];
+    }
+
+
+    /**
+      * Returns the length of the given link.
+      */
+    public double getLinkLength( int link )
+    {
+        return lengths[ link ];
+    }
+
+
+    /**
+      * Returns the x component of the direction (as a unit vector) of the given
+      * link. This is 0 for a link of length 0.
+      */
+    public double getLinkUnitX( int link )
+    {
+        return unitXs[ link ];
+    }
+
+
+    /**
+      * Returns the y component of the direction (as a unit vector) of the given
+      * link. This is 0 for a link of length 0.
+      */
+    public double getLinkUnitY( int link )
+    {
+        return unitYs[ link ];
+    }
+
+
+    /**
+      * Returns the number of the link from the end of the given link back to (a
+      * node at the same location as) its start. If there is no such link, -1 is
+      * returned.
+      */
+    public int getReturnLink( int link )
+    {
+        return returnLinks[ link ];
+    }
+
+
+    /**
+      * Finds the number of the link from one node to another. If the first node
+      * is not in the map, or it has no link to the second node (or to a node at
+      * the same location), -1 is returned.
+      */
+    public int findLink( MapNode from, MapNode to )
+    {
+        int i = indexOf( from );
+        if( i < 0 )
+            return -1;
+
+        for( int l=firstLinks[i]; l < firstLinks[ i+1 ]; l++ )
+        {
+            if( links[l].getGoesTo() == to )
+                return l;
+        }
+
+        for( int l=firstLinks[i]; l < firstLinks[ i+1 ]; l++ )
+        {
+            if( links[l].getGoesTo().locationEquals( to ) )
+                return l;
+        }
+
+        return -1;
+    }
+
+
+
+
+    /* VALIDATION */
+
+    /**
+      * Checks whether the map has dead ends. A dead end is a node which does not
+      * have any links going away from it.
+      */
+    public boolean hasDeadEnds()
+    {
+        for( int i=0; i < nodes.length; i++ )
+        {
+            if( firstLinks[ i+1 ] == firstLinks[i] )
+                return true;
+        }
+
+        return false;
+    }
+
+
+    /**
+      * Returns the sum of the weights of the links from the given node (added
+      * up in order).
+      */
+    public double getTotalWeight( int node )
+    {
+        double sum = 0;
+        for( int l=firstLinks[ node ]; l < firstLinks[ node+1 ]; l++ )
+            sum += weights[l];
+
+        return sum;
+    }
+}
@@ -0,0 +1,330 @@
+/*   Matthew Williams (0515328)   */
+
+package uk.ac.cf.cs.scm5mjw.mda.mobility;
+
+import java.util.*;
+
+/**
+  * Chooses the link a mobile object takes when it reaches a map node, in
+  * (expected) constant time. A LinkSampler is built from a map's CompiledMap,
+  * and is obtained with <code>MobilityMap.getLinkSampler()</code>. <br>
+  * <br>
+  * Links are referred to by their numbers in the CompiledMap, whose return
+  * links (the link from the end of each link back to its start) are found when
+  * the map is compiled, so no coordinates are compared while a simulation
+  * runs. <br>
+  * <br>
+  * The choices are made from tables of the running totals of the links'
+  * probabilities: one table for each node, plus (for each return bias) one for
+  * each link, holding the probabilities of the links from its end node after
+  * they have been adjusted by the return bias. Each table has a guide which
+  * gives, for a random number, the first link worth checking, so only about one
+  * comparison is needed whatever the number of links. The running totals are
+  * calculated exactly as a linear search through the links would calculate
+  * them, so for the same random number the same link is chosen. <br>
+  * <br>
+  * A sampler is read-only once built (apart from tables for new return
+  * biases, which are created as they are asked for), so it may be shared by
+  * simulations running on different threads.
+  *
+  * @see MobilityMap#getLinkSampler()
+  */
+public final class LinkSampler
+{
+    /* Instance variables */
+    private CompiledMap graph;
+
+    // Tables of running totals of probabilities
+    private SamplingTable weights;                       // Row i: the links of node i, by weight
+    private Map<Double,SamplingTable> returnBiasTables;  // Row l: the links of the end of link l, adjusted by return bias
+
+
+
+
+    /* CONSTRUCTORS */
+
+    /**
+      * Builds a sampler for the given compiled map.
+      */
+    LinkSampler( CompiledMap graph )
+    {
+        this.graph = graph;
+
+        int numNodes = graph.getNumberOfNodes();
+
+        // Tabulate the weights of each node's links
+        weights = new SamplingTable( numNodes, graph.getNumberOfLinks() );
+
+        for( int i=0; i < numNodes; i++ )
+        {
+            int first = graph.getFirstLink( i );
+            double[] probs = new double[ graph.getNumberOfLinks( i ) ];
+            for( int j=0; j < probs.length; j++ )
+                probs[j] = graph.getLinkWeight( first+j );
+
+            weights.addRow( probs );
+        }
+
+        returnBiasTables = new HashMap<Double,SamplingTable>();
+    }
+
+
+
+
+    /* ACCESSORS */
+
+    /**
+      * An accessor for the compiled map this sampler was built from. Link
+      * numbers used by the sampler are those of this compiled map.
+      */
+    public CompiledMap getCompiledMap()
+    {
+        return graph;
+    }
+
+
+    /**
+      * Checks whether this sampler was built from its map as it is now (i.e.
+      * the map has not had nodes or links added since).
+      */
+    public boolean isCurrent()
+    {
+        return graph.isCurrent();
+    }
+
+
+    /**
+      * Returns the link with the given number.
+      */
+    public NodeLink getLink( int link )
+    {
+        return graph.getLink( link );
+    }
+
+
+    /**
+      * Finds the number of the link from one node to another. If the first node
+      * is not in this sampler's map, or it has no link to the second node (or
+      * to a node at the same location), -1 is returned.
+      */
+    public int findLink( MapNode from, MapNode to )
+    {
+        return graph.findLink( from, to );
+    }
+
+
+    /**
+      * Returns the tables used to choose links with the given return bias.
+      * These are created the first time they are asked for.
+      *
+      * @see #chooseNextLink(int, SamplingTable, SplittableRandom)
+      */
+    public synchronized SamplingTable getReturnBiasTable( double k )
+    {
+        SamplingTable table = returnBiasTables.get( k );
+
+        if( table == null )
+        {
+            table = createReturnBiasTable( k );
+            returnBiasTables.put( k, table );
+        }
+
+        return table;
+    }
+
+
+
+
+    /* SAMPLER FUNCTIONALITY */
+
+    /**
+      * Chooses the link a mobile object takes when it reaches the end of the
+      * given link, taking into account the weight of each link and applying the
+      * return bias to the link back to where it came from (if there is one). <br>
+      * <br>
+      * The choice is the same as MobileObject would make by searching through
+      * the links with the same random number generator (including that no
+      * random number is used if there is only one link, and that one goes back).
+      * If the link's end node is not in this sampler's map, or has no links, -1
+      * is returned.
+      *
+      * @param link the link the mobile object has just travelled along
+      * @param returnBiasTable the tables for the mobile object's return bias
+      * @param random the generator used to make the choice
+      * @see #getReturnBiasTable(double)
+      */
+    public int chooseNextLink( int link, SamplingTable returnBiasTable, SplittableRandom random )
+    {
+        int node = graph.getLinkEnd( link );
+        if( node < 0 )
+            return -1;
+
+        int first = graph.getFirstLink( node );
+
+        if( graph.getReturnLink( link ) < 0 )
+        {
+            // No link back to the previous node, so no biasing is needed
+            // (and the node may be a dead end)
+            int p = weights.sample( node, random.nextDouble() );
+            return ( p < 0 ) ? -1 : first + p;
+        }
+
+        if( graph.getNumberOfLinks( node ) == 1 )
+        {
+            // The only link goes back, so it must be taken
+            return first;
+        }
+
+        return first + returnBiasTable.sample( link, random.nextDouble() );
+    }
+
+
+    /**
+      * Creates the tables for the given return bias: row l holds the links from
+      * the end of link l, with the probability of the link back to the start of
+      * link l multiplied by the return bias and the others scaled up to
+      * compensate. Rows for links that do not need biasing are left empty.
+      */
+    private SamplingTable createReturnBiasTable( double k )
+    {
+        int numLinks = graph.getNumberOfLinks();
+
+        int total = 0;
+        for( int l=0; l < numLinks; l++ )
+        {
+            if( graph.getReturnLink( l ) >= 0 )
+                total += graph.getNumberOfLinks( graph.getLinkEnd( l ) );
+        }
+
+        SamplingTable table = new SamplingTable( numLinks, total );
+
+        for( int l=0; l < numLinks; l++ )
+        {
+            int back = graph.getReturnLink( l );
+            if( back < 0 )
+            {
+                table.addRow( new double[0] );
+                continue;
+            }
+
+            int first = graph.getFirstLink( graph.getLinkEnd( l ) );
+            double[] probs = new double[ graph.getNumberOfLinks( graph.getLinkEnd( l ) ) ];
+
+            double a = graph.getLinkWeight( back );     // the return weight
+            double c = ( 1 - k*a ) / ( 1 - a );        // (as calculated by MobileObject)
+
+            for( int j=0; j < probs.length; j++ )
+            {
+                if( first + j == back )
+                    probs[j] = graph.getLinkWeight( first+j )*k;
+                else
+                    probs[j] = graph.getLinkWeight( first+j )*c;
+            }
+
+            table.addRow( probs );
+        }
+
+        return table;
+    }
+
+
+
+
+    /**
+      * Rows of running totals of probabilities, each with a guide for finding
+      * where a random number falls. <br>
+      * A choice from a row is the first entry whose running total is greater
+      * than the random number. A row's guide has a power of two number of
+      * entries, G, and entry j is the first choice whose running total is
+      * greater than j/G (so no choice before it can be chosen by a random
+      * number of at least j/G).
+      */
+    public static final class SamplingTable
+    {
+        private double[] totals;        // The running totals of each row
+        private int[] rowStarts;        // Row r is totals[ rowStarts[r] ] to totals[ rowStarts[r+1]-1 ]
+        private int[] guides;
+        private int[] guideStarts;      // The guide of row r is guides[ guideStarts[r] ] to guides[ guideStarts[r+1]-1 ]
+        private int numRows;
+
+
+        /**
+          * Creates an empty table with space for the given number of rows and
+          * total number of choices.
+          */
+        private SamplingTable( int maxRows, int maxChoices )
+        {
+            totals = new double[ maxChoices ];
+            rowStarts = new int[ maxRows+1 ];
+            guides = new int[ 2*maxChoices + maxRows ];     // (each guide is less than twice its row's size, and at least 1)
+            guideStarts = new int[ maxRows+1 ];
+            numRows = 0;
+        }
+
+
+        /**
+          * Adds a row with the given probabilities, adding them up in order.
+          */
+        private void addRow( double[] probs )
+        {
+            int start = rowStarts[ numRows ];
+            int n = probs.length;
+
+            double sum = 0;
+            for( int j=0; j < n; j++ )
+            {
+                sum = sum + probs[j];
+                totals[ start+j ] = sum;
+            }
+
+            int guideStart = guideStarts[ numRows ];
+            int size = 0;
+
+            if( n > 0 )
+            {
+                size = Integer.highestOneBit( n );
+                if( size < n )
+                    size *= 2;
+
+                int p = 0;
+                for( int j=0; j < size; j++ )
+                {
+                    double threshold = (double)j / size;
+
+                    while( p < n && !(totals[ start+p ] > threshold) )
+                        p++;
+
+                    guides[ guideStart+j ] = p;
+                }
+            }
+
+            numRows++;
+            rowStarts[ numRows ] = start + n;
+            guideStarts[ numRows ] = guideStart + size;
+        }
+
+
+        /**
+          * Returns the position in the given row that the random number x (in
+          * the range [0,1)) falls in. If the row's probabilities add up to less
+          * than x (which rounding may cause), the last position is returned. If
+          * the row is empty, -1 is returned.
+          */
+        private int sample( int row, double x )
+        {
+            int start = rowStarts[ row ];
+            int n = rowStarts[ row+1 ] - start;
+            if( n == 0 )
+                return -1;
+            int guideStart = guideStarts[ row ];
+            int size = guideStarts[ row+1 ] - guideStart;
+
+            int p = guides[ guideStart + (int)( x*size ) ];
+
+            while( p < n && !(x < totals[ start+p ]) )
+                p++;
+
+            return ( p < n ) ? p : n-1;
+        }
+    }
+}
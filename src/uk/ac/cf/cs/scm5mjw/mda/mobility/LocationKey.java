@@ -0,0 +1,61 @@
+/*   Matthew Williams (0515328)   */
+
+package uk.ac.cf.cs.scm5mjw.mda.mobility;
+
+import java.awt.geom.Point2D;
+
+/**
+  * A location used as a key in hash tables of map nodes. Two keys are equal
+  * exactly when <code>Point2D.equals</code> would find their locations equal
+  * (so 0.0 and -0.0 are the same coordinate, and a location with a NaN
+  * coordinate is equal to no location). <br>
+  * The coordinates are copied when the key is created, so the node a key was
+  * made from should not be moved afterwards.
+  */
+final class LocationKey
+{
+    /* Instance variables */
+    private final double x;
+    private final double y;
+
+
+
+
+    /**
+      * Creates a key for the given location.
+      */
+    LocationKey( Point2D.Double loc )
+    {
+        // (adding 0.0 turns -0.0 into 0.0, so equal coordinates hash the same)
+        x = loc.x + 0.0;
+        y = loc.y + 0.0;
+    }
+
+
+    /**
+      * Creates a key for the location of the given node.
+      */
+    LocationKey( MapNode node )
+    {
+        this( node.getLocation() );
+    }
+
+
+
+
+    public boolean equals( Object o )
+    {
+        if( !(o instanceof LocationKey) )
+            return false;
+
+        LocationKey k = (LocationKey)o;
+        return x == k.x && y == k.y;
+    }
+
+
+    public int hashCode()
+    {
+        long bits = Double.doubleToLongBits( x ) * 31 + Double.doubleToLongBits( y );
+        return (int)( bits ^ (bits >>> 32) );
+    }
+}
@@ -0,0 +1,458 @@
+/*   Matthew Williams (0515328)   */
+
+package uk.ac.cf.cs.scm5mjw.mda.mobility;
+
+import java.awt.geom.Point2D;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.SplittableRandom;
+
+/**
+  * This class generates synthetic maps of any size, for stress and scaling
+  * tests. Three kinds of map can be generated: <br>
+  *  -  corridor grids (the nodes of a grid, each linked to its neighbours) <br>
+  *  -  campuses (a grid of buildings, each a corridor grid, joined by paths
+  *     between their doors) <br>
+  *  -  random geometric graphs (nodes scattered at random, each linked to the
+  *     nodes within a given distance of it) <br>
+  * <br>
+  * Every link is two-way (a link from one node to another, and one back), so
+  * a generated map has no dead ends. In grids and campuses the links from each
+  * node have equal weights; in random geometric graphs a link's weight is
+  * inversely proportional to its length, so nearer nodes are more likely to
+  * be chosen. <br>
+  * <br>
+  * The weights of the links from each node sum to exactly 1 when added up in
+  * the order the links are held (the last link taking up any rounding error),
+  * so a generated map written out with MapWriter passes the checks made by
+  * Parser. <br>
+  * <br>
+  * The maps are built in time proportional to the number of nodes and links,
+  * so maps of hundreds of thousands of nodes can be generated.
+  *
+  * @see uk.ac.cf.cs.scm5mjw.mda.io.MapWriter
+  */
+public final class MapGenerator
+{
+    /**
+      * This class only has static methods, so should not be instantiated.
+      */
+    private MapGenerator()
+    {
+    }
+
+
+
+
+    /* MAP GENERATION */
+
+    /**
+      * Generates a corridor grid: columns x rows nodes, spaced the given
+      * distance apart (with the first node at (0, 0)), each linked to the nodes
+      * next to it horizontally and vertically. <br>
+      * The nodes are added to the map row by row.
+      *
+      * @throws IllegalArgumentException if the grid has fewer than 2 nodes, or the spacing is not positive
+      */
+    public static MobilityMap createCorridorGrid( int columns, int rows, double spacing )
+    {
+        checkGrid( columns, rows, spacing );
+
+        GraphBuilder g = new GraphBuilder( columns * rows );
+        addGrid( g, columns, rows, spacing, 0, 0 );
+
+        return g.toMap( false );
+    }
+
+
+    /**
+      * Generates a campus: buildingColumns x buildingRows buildings, each a
+      * corridor grid of columns x rows nodes (spaced the given distance apart),
+      * with the given gap between neighbouring buildings. <br>
+      * Each building has a door in the middle of each side. A building is
+      * joined to the building to its right by a path between their facing
+      * doors, and likewise to the building below it. <br>
+      * The nodes of each building are added to the map together (row by row),
+      * building by building (row by row).
+      *
+      * @throws IllegalArgumentException if there are no buildings, a building has fewer than 2 nodes, or the spacing or gap is not positive
+      */
+    public static MobilityMap createCampus( int buildingColumns, int buildingRows, int columns, int rows, double spacing, double gap )
+    {
+        checkGrid( columns, rows, spacing );
+
+        if( (buildingColumns < 1) || (buildingRows < 1) )
+            throw new IllegalArgumentException( "A campus must have at least one building" );
+        if( !( gap > 0 ) )
+            throw new IllegalArgumentException( "The gap between buildings must be greater than 0" );
+
+        long numNodes = (long)buildingColumns * buildingRows * columns * rows;
+        if( numNodes > Integer.MAX_VALUE )
+            throw new IllegalArgumentException( "A campus cannot have more than " + Integer.MAX_VALUE + " nodes" );
+
+
+        GraphBuilder g = new GraphBuilder( (int)numNodes );
+        int buildingSize = columns * rows;
+        double buildingWidth = (columns-1) * spacing;
+        double buildingHeight = (rows-1) * spacing;
+
+        for( int by=0; by < buildingRows; by++ )
+        {
+            for( int bx=0; bx < buildingColumns; bx++ )
+                addGrid( g, columns, rows, spacing, bx * (buildingWidth + gap), by * (buildingHeight + gap) );
+        }
+
+
+        // Join each building to the buildings to its right and below it (door to door)
+        for( int by=0; by < buildingRows; by++ )
+        {
+            for( int bx=0; bx < buildingColumns; bx++ )
+            {
+                int first = ( by*buildingColumns + bx ) * buildingSize;
+
+                if( bx < buildingColumns-1 )
+                {
+                    int rightDoor = first + (rows/2)*columns + (columns-1);
+                    int leftDoorOfNext = first + buildingSize + (rows/2)*columns;
+                    g.addEdge( rightDoor, leftDoorOfNext );
+                }
+
+                if( by < buildingRows-1 )
+                {
+                    int bottomDoor = first + (rows-1)*columns + columns/2;
+                    int topDoorOfNext = first + buildingColumns*buildingSize + columns/2;
+                    g.addEdge( bottomDoor, topDoorOfNext );
+                }
+            }
+        }
+
+        return g.toMap( false );
+    }
+
+
+    /**
+      * Generates a random geometric graph: the given number of nodes placed at
+      * random in the rectangle from (0, 0) to (width, height), each linked to
+      * every node within the given radius of it. A node with no nodes within
+      * the radius is linked to its nearest node instead (so there are no dead
+      * ends, though the map may be in several separate pieces if the radius is
+      * small). <br>
+      * Coordinates are rounded to two decimal places (no two nodes are placed
+      * at the same location), and the links from each node are held in the
+      * order the nodes were added. A link's weight is inversely proportional
+      * to its length. <br>
+      * <br>
+      * Each node has on average about numNodes * PI * radius^2 / (width *
+      * height) links, so the radius should be chosen with the number of nodes
+      * in mind.
+      *
+      * @throws IllegalArgumentException if there are fewer than 2 nodes, the width, height or radius is not positive, or the rectangle is too small to hold the nodes
+      */
+    public static MobilityMap createRandomGeometricGraph( int numNodes, double width, double height, double radius, SplittableRandom random )
+    {
+        if( numNodes < 2 )
+            throw new IllegalArgumentException( "A map must have at least 2 nodes" );
+        if( !( width > 0 ) || !( height > 0 ) || !( radius > 0 ) )
+            throw new IllegalArgumentException( "The width, height and radius must be greater than 0" );
+        if( (width * 100) * (height * 100) < 2.0 * numNodes )
+            throw new IllegalArgumentException( "The rectangle is too small to hold " + numNodes + " nodes at different locations" );
+
+
+        GraphBuilder g = new GraphBuilder( numNodes );
+        HashSet<Point2D.Double> locations = new HashSet<Point2D.Double>( numNodes * 2 );
+
+        for( int i=0; i < numNodes; i++ )
+        {
+            Point2D.Double loc;
+            do
+            {
+                loc = new Point2D.Double( Math.round( random.nextDouble() * width * 100 ) / 100.0,
+                                          Math.round( random.nextDouble() * height * 100 ) / 100.0 );
+            }
+            while( !locations.add( loc ) );
+
+            g.addNode( loc.x, loc.y );
+        }
+        locations = null;
+
+
+        // Index the nodes by cells (at least the radius across), so that only
+        // the neighbouring cells need to be searched for nodes within the radius
+        // (there are no more cells across than about twice the square root of
+        // the number of nodes, so there are never many more cells than nodes)
+        int maxCellsAcross = 2 * (int)Math.sqrt( numNodes ) + 2;
+        int cellColumns = (int)Math.min( Math.ceil( width / radius ) + 1, maxCellsAcross );
+        int cellRows = (int)Math.min( Math.ceil( height / radius ) + 1, maxCellsAcross );
+        double cellWidth = Math.max( radius, width / (cellColumns-1) );
+        double cellHeight = Math.max( radius, height / (cellRows-1) );
+
+        int[] cellStart = new int[ cellColumns*cellRows + 1 ];
+        int[] cellOf = new int[ numNodes ];
+        for( int i=0; i < numNodes; i++ )
+        {
+            cellOf[i] = (int)( g.ys[i] / cellHeight ) * cellColumns + (int)( g.xs[i] / cellWidth );
+            cellStart[ cellOf[i] + 1 ]++;
+        }
+        for( int c=0; c < cellColumns*cellRows; c++ )
+            cellStart[c+1] += cellStart[c];
+
+        int[] cellNodes = new int[ numNodes ];
+        int[] filled = Arrays.copyOf( cellStart, cellStart.length - 1 );
+        for( int i=0; i < numNodes; i++ )
+            cellNodes[ filled[ cellOf[i] ]++ ] = i;         // (in order of node, within each cell)
+
+
+        // Link each pair of nodes within the radius (both ways, from the lower
+        // numbered node, so that each node's links are in order of node)
+        double radiusSq = radius * radius;
+        int[] neighbours = new int[ 16 ];
+        for( int i=0; i < numNodes; i++ )
+        {
+            int cx = cellOf[i] % cellColumns;
+            int cy = cellOf[i] / cellColumns;
+            int count = 0;
+
+            for( int ny = Math.max( cy-1, 0 ); ny <= Math.min( cy+1, cellRows-1 ); ny++ )
+            {
+                for( int nx = Math.max( cx-1, 0 ); nx <= Math.min( cx+1, cellColumns-1 ); nx++ )
+                {
+                    int c = ny*cellColumns + nx;
+                    for( int k = cellStart[c]; k < cellStart[c+1]; k++ )
+                    {
+                        int j = cellNodes[k];
+                        if( j > i && g.distanceSq( i, j ) <= radiusSq )
+                        {
+                            if( count == neighbours.length )
+                                neighbours = Arrays.copyOf( neighbours, count*2 );
+                            neighbours[ count++ ] = j;
+                        }
+                    }
+                }
+            }
+
+            Arrays.sort( neighbours, 0, count );
+            for( int k=0; k < count; k++ )
+                g.addEdge( i, neighbours[k] );
+        }
+
+
+        // Link any node without links to its nearest node
+        for( int i=0; i < numNodes; i++ )
+        {
+            if( g.numLinks[i] == 0 )
+                g.addEdge( i, nearestNode( g, i, cellOf[i], cellColumns, cellRows, Math.min( cellWidth, cellHeight ), cellStart, cellNodes ) );
+        }
+
+        return g.toMap( true );
+    }
+
+
+
+
+    /* HELPER METHODS */
+
+    private static void checkGrid( int columns, int rows, double spacing )
+    {
+        if( (columns < 1) || (rows < 1) || ((long)columns * rows < 2) )
+            throw new IllegalArgumentException( "A grid must have at least 2 nodes" );
+        if( (long)columns * rows > Integer.MAX_VALUE )
+            throw new IllegalArgumentException( "A grid cannot have more than " + Integer.MAX_VALUE + " nodes" );
+        if( !( spacing > 0 ) )
+            throw new IllegalArgumentException( "The spacing of a grid must be greater than 0" );
+    }
+
+
+    /**
+      * Adds the nodes and links of a corridor grid (row by row) with its first
+      * node at the given location.
+      */
+    private static void addGrid( GraphBuilder g, int columns, int rows, double spacing, double originX, double originY )
+    {
+        int first = g.numNodes;
+
+        for( int r=0; r < rows; r++ )
+        {
+            for( int c=0; c < columns; c++ )
+                g.addNode( originX + c*spacing, originY + r*spacing );
+        }
+
+        for( int r=0; r < rows; r++ )
+        {
+            for( int c=0; c < columns; c++ )
+            {
+                int node = first + r*columns + c;
+
+                if( c < columns-1 )
+                    g.addEdge( node, node+1 );
+                if( r < rows-1 )
+                    g.addEdge( node, node+columns );
+            }
+        }
+    }
+
+
+    /**
+      * Returns the nearest node to the given node, searching outwards from its
+      * cell one ring of cells at a time.
+      */
+    private static int nearestNode( GraphBuilder g, int node, int cell, int cellColumns, int cellRows, double cellSize, int[] cellStart, int[] cellNodes )
+    {
+        int cx = cell % cellColumns;
+        int cy = cell / cellColumns;
+        int nearest = -1;
+        double nearestSq = Double.POSITIVE_INFINITY;
+
+        for( int ring=0; ring <= Math.max( cellColumns, cellRows ); ring++ )
+        {
+            for( int ny = cy-ring; ny <= cy+ring; ny++ )
+            {
+                for( int nx = cx-ring; nx <= cx+ring; nx++ )
+                {
+                    boolean onRing = ( Math.abs( nx-cx ) == ring ) || ( Math.abs( ny-cy ) == ring );
+                    if( !onRing || nx < 0 || ny < 0 || nx >= cellColumns || ny >= cellRows )
+                        continue;
+
+                    int c = ny*cellColumns + nx;
+                    for( int k = cellStart[c]; k < cellStart[c+1]; k++ )
+                    {
+                        int j = cellNodes[k];
+                        double dSq = g.distanceSq( node, j );
+                        if( j != node && dSq < nearestSq )
+                        {
+                            nearest = j;
+                            nearestSq = dSq;
+                        }
+                    }
+                }
+            }
+
+            // (every node in the next ring is at least ring * cellSize away)
+            if( nearest != -1 && ring * cellSize >= Math.sqrt( nearestSq ) )
+                break;
+        }
+
+        return nearest;
+    }
+
+
+    /**
+      * Sets the given (positive) weights so that they are in the same proportions
+      * but sum to exactly 1 when added up in order. The last weight takes up
+      * the rounding error.
+      */
+    private static void normaliseWeights( double[] weights, int count )
+    {
+        double total = 0;
+        for( int i=0; i < count; i++ )
+            total += weights[i];
+
+        double sum = 0;
+        for( int i=0; i < count-1; i++ )
+        {
+            weights[i] = weights[i] / total;
+            sum += weights[i];
+        }
+
+        double last = 1 - sum;
+        while( sum + last < 1 )
+            last = Math.nextUp( last );
+        while( sum + last > 1 )
+            last = Math.nextDown( last );
+
+        weights[count-1] = last;
+    }
+
+
+
+
+    /**
+      * The nodes (as coordinates) and two-way links of a map being generated,
+      * held in arrays until the map is made.
+      */
+    private static final class GraphBuilder
+    {
+        double[] xs;
+        double[] ys;
+        int[][] links;              // The nodes each node links to (in the order the links were added)
+        int[] numLinks;
+        int numNodes;
+
+
+        GraphBuilder( int capacity )
+        {
+            xs = new double[ capacity ];
+            ys = new double[ capacity ];
+            links = new int[ capacity ][];
+            numLinks = new int[ capacity ];
+        }
+
+
+        void addNode( double x, double y )
+        {
+            xs[ numNodes ] = x;
+            ys[ numNodes ] = y;
+            links[ numNodes ] = new int[ 4 ];
+            numNodes++;
+        }
+
+
+        void addEdge( int a, int b )
+        {
+            addLink( a, b );
+            addLink( b, a );
+        }
+
+
+        private void addLink( int from, int to )
+        {
+            if( numLinks[from] == links[from].length )
+                links[from] = Arrays.copyOf( links[from], numLinks[from] * 2 );
+
+            links[from][ numLinks[from]++ ] = to;
+        }
+
+
+        double distanceSq( int a, int b )
+        {
+            double dx = xs[a] - xs[b];
+            double dy = ys[a] - ys[b];
+            return dx*dx + dy*dy;
+        }
+
+
+        /**
+          * Makes the map, with link weights either equal or inversely
+          * proportional to the links' lengths.
+          */
+        MobilityMap toMap( boolean weightByDistance )
+        {
+            MobilityMap map = new MobilityMap();
+            MapNode[] nodes = new MapNode[ numNodes ];
+
+            for( int i=0; i < numNodes; i++ )
+            {
+                nodes[i] = new MapNode( new Point2D.Double( xs[i], ys[i] ) );
+                map.addNode( nodes[i] );
+            }
+
+            double[] weights = new double[ 4 ];
+            for( int i=0; i < numNodes; i++ )
+            {
+                int count = numLinks[i];
+                if( weights.length < count )
+                    weights = new double[ count ];
+
+                for( int k=0; k < count; k++ )
+                    weights[k] = weightByDistance ? 1 / Math.sqrt( distanceSq( i, links[i][k] ) ) : 1;
+                normaliseWeights( weights, count );
+
+                for( int k=0; k < count; k++ )
+                    nodes[i].addLinkOneway( nodes[ links[i][k] ], weights[k] );
+
+                links[i] = null;
+            }
+
+            return map;
+        }
+    }
+}
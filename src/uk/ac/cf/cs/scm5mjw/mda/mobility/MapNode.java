@@ -3,6 +3,7 @@
 package uk.ac.cf.cs.scm5mjw.mda.mobility;
      
 import java.awt.geom.Point2D;
+import java.util.HashMap;
 import java.util.Vector;
      
 /** 
@@ -12,13 +13,23 @@ import java.util.Vector;
   *     - Change direction <br>
   * (Decision points may even be used as points at which a pause may occur) <br>
   * The possible directions a mobile object may move in, at a given node, is
-  * determined by the other nodes it is linked to.
+  * determined by the other nodes it is linked to. <br>
+  * <br>
+  * Once a node has more than a few links, they are also indexed by the location
+  * they go to, so checking for a link to a location does not search through
+  * every link.
   */
 public final class MapNode
 {
+    /* Constants */
+    private static final int MIN_INDEXED_LINKS = 8;     // The number of links at which they are indexed by location
+    
+    
     /* Instance variables */
     private Vector<NodeLink> links;   // Links to other nodes
     private Point2D.Double coord;
+    private MobilityMap map;          // The map this node was last added to (if any)
+    private HashMap<LocationKey,NodeLink> linksByLocation;   // (null until there are MIN_INDEXED_LINKS links)
     
     
     
@@ -30,6 +41,8 @@ public final class MapNode
     {
         links = new Vector<NodeLink>();
         coord = inCoord;
+        map = null;
+        linksByLocation = null;
     }
     
     
@@ -56,6 +69,18 @@ public final class MapNode
             throw new InvalidLinkException( "A node cannot have two links to the same location" );
         
         links.add( inLink );
+        
+        if( linksByLocation != null )
+            linksByLocation.put( new LocationKey( inLink.getGoesTo() ), inLink );
+        else if( links.size() >= MIN_INDEXED_LINKS )
+        {
+            linksByLocation = new HashMap<LocationKey,NodeLink>();
+            for( NodeLink link : links )
+                linksByLocation.put( new LocationKey( link.getGoesTo() ), link );
+        }
+        
+        if( map != null )
+            map.changed();
     }
     
     
@@ -75,15 +100,16 @@ public final class MapNode
       * This method checks whether this node has a link to a map node with the
       * same location as the given MapNode. <br>
       * <br>
-      * The algorithm simply runs through each link currently in the collection
-      * and determines if its is equal to the given node (two nodes are equal if 
-      * they are at the same coordinates). This will have poor efficiency for nodes
-      * with a large number of links. <br>
-      * Since this method is not used during the simulation, poor performance
-      * here will not affect the performance of the simulation.
+      * For a node with a few links, this simply runs through each link and
+      * determines if it goes to a node equal to the given node (two nodes are
+      * equal if they are at the same coordinates). Otherwise the links are
+      * looked up by location.
       */
     public boolean isLinkedToLocation( MapNode inLink )
     {
+        if( linksByLocation != null )
+            return linksByLocation.containsKey( new LocationKey( inLink ) );
+        
         for( int i=0; i < links.size(); i++ )
         {
             if( links.get(i).getGoesTo().locationEquals( inLink ) )
@@ -100,6 +126,9 @@ public final class MapNode
       */
     public NodeLink getLinkToLocation( MapNode inNode )
     {
+        if( linksByLocation != null )
+            return linksByLocation.get( new LocationKey( inNode ) );
+        
         for( NodeLink link : links )
         {
             if( link.getGoesTo().locationEquals( inNode ) )
@@ -110,6 +139,16 @@ public final class MapNode
     }
     
     
+    /**
+      * Records that this node has been added to the given map, so that the map
+      * can be told when a link is added to this node.
+      */
+    void addedTo( MobilityMap inMap )
+    {
+        map = inMap;
+    }
+    
+    
     /**
       * Accessor for the location of this node.
       */
@@ -4,16 +4,34 @@ package uk.ac.cf.cs.scm5mjw.mda.mobility;
 
 import uk.ac.cf.cs.scm5mjw.mda.devices.*;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Set;
 import java.util.Vector;
     
 /** 
   * This is a class which represents a map. A map is the layout of a particular
-  * scenario.
+  * scenario. <br>
+  * <br>
+  * A map keeps a version number which changes whenever a node or link is added,
+  * so that anything compiled from the map (such as its CompiledMap or
+  * LinkSampler) can tell whether it is out of date. <br>
+  * <br>
+  * The nodes are indexed by location and by reference, so adding a node and
+  * checking whether the map contains a node take constant time, and a map of
+  * N nodes is built in time proportional to N. (A node's location should not
+  * be changed once it has been added to a map.)
   */
 public final class MobilityMap
 {
     /* Instance variables */
     private Vector<MapNode> nodes;
+    private HashMap<LocationKey,MapNode> nodesByLocation;
+    private Set<MapNode> nodeSet;         // The nodes, compared by reference
+    private int version;
+    private CompiledMap compiledMap;      // Compiled when first asked for
+    private LinkSampler linkSampler;      // Compiled when first asked for
     
     
     
@@ -24,6 +42,11 @@ public final class MobilityMap
     public MobilityMap()
     {
         nodes = new Vector<MapNode>();
+        nodesByLocation = new HashMap<LocationKey,MapNode>();
+        nodeSet = Collections.newSetFromMap( new IdentityHashMap<MapNode,Boolean>() );
+        version = 0;
+        compiledMap = null;
+        linkSampler = null;
     }
     
     
@@ -54,6 +77,57 @@ public final class MobilityMap
     }
     
     
+    /**
+      * An accessor for this map's version number. This changes whenever a node is
+      * added to the map or a link is added to one of its nodes.
+      */
+    public int getVersion()
+    {
+        return version;
+    }
+    
+    
+    /**
+      * Returns the compiled (read-only, primitive array) form of this map. It is
+      * compiled the first time it is asked for, and again if the map has
+      * changed since.
+      * 
+      * @see CompiledMap
+      */
+    public synchronized CompiledMap getCompiledMap()
+    {
+        if( compiledMap == null || !compiledMap.isCurrent() )
+            compiledMap = new CompiledMap( this, version );
+        
+        return compiledMap;
+    }
+    
+    
+    /**
+      * Returns the LinkSampler for this map (used by mobile objects to choose
+      * which link to take at each node). The sampler is compiled the first time
+      * it is asked for, and again if the map has changed since.
+      * 
+      * @see LinkSampler
+      */
+    public synchronized LinkSampler getLinkSampler()
+    {
+        if( linkSampler == null || !linkSampler.isCurrent() )
+            linkSampler = new LinkSampler( getCompiledMap() );
+        
+        return linkSampler;
+    }
+    
+    
+    /**
+      * Records that a node or link has been added to this map.
+      */
+    void changed()
+    {
+        version++;
+    }
+    
+    
     /**
       * Tests if this map has no nodes.
       */
@@ -74,27 +148,20 @@ public final class MobilityMap
             throw new InvalidNodeException( "A map cannot contain two nodes at the same location" );
         
         nodes.add( n );
+        nodesByLocation.put( new LocationKey( n ), n );
+        nodeSet.add( n );
+        n.addedTo( this );
+        changed();
     }
     
     
     /**
       * This method checks whether a node at the same location as the given node
       * already exists in this map.
-      *
-      * Note that this checks EVERY node in the map sequentially, which can have
-      * poor performance for maps with many nodes. However, since this method should
-      * only be used while constructing a map, not during a simulation, the simulation's
-      * performance should not be affected.
       */
     public boolean containsByLocation( MapNode node )
     {
-        for( int i=0; i < nodes.size(); i++ )
-        {
-            if( nodes.get(i).locationEquals( node ) )
-                return true;
-        }
-        
-        return false;
+        return nodesByLocation.containsKey( new LocationKey( node ) );
     }
     
     
@@ -104,7 +171,7 @@ public final class MobilityMap
       */
     public boolean contains( MapNode node )
     {
-        return nodes.contains( node );
+        return nodeSet.contains( node );
     }
     
     
@@ -118,18 +185,18 @@ public final class MobilityMap
       */
     public boolean isValidFor( Vector<MobileObject> coll )
     {
+        CompiledMap compiled = getCompiledMap();
+        
         for( MobileObject mo: coll )
         {
             MapNode source = mo.getSourceNode();
             MapNode dest = mo.getDestinationNode();
             
-            if( !source.isLinkedToLocation( dest ) )
+            // (a link is only found if the source node belongs to the map)
+            if( compiled.findLink( source, dest ) < 0 )
                 return false;
             
-            if( !contains( source ) )
-                return false;
-            
-            if( !contains( dest ) )
+            if( compiled.indexOf( dest ) < 0 )
                 return false;
         }
         
@@ -143,14 +210,7 @@ public final class MobilityMap
       */
     public boolean hasDeadEnds()
     {
-        // Check for dead ends
-        for( MapNode n: nodes )
-        {
-            if( n.getNumberOfLinks() < 1 )
-                return true;
-        }
-        
-        return false;
+        return getCompiledMap().hasDeadEnds();
     }
     
     